@@ -5,15 +5,23 @@ module se233.audioconverter {
     requires com.google.gson;
     requires org.apache.commons.lang3;
     requires org.slf4j;
+    requires jdk.httpserver;
+    requires java.desktop; // javax.sound.sampled for previews
 
     // เพิ่ม requires สำหรับ ffmpeg
     requires ffmpeg;
+    // libav in-process (natives are optional, see LibavTranscoder)
+    requires org.bytedeco.ffmpeg;
 
     opens se233.audioconverter to javafx.fxml;
     opens se233.audioconverter.controller to javafx.fxml;
-    opens se233.audioconverter.model to javafx.fxml;
+    opens se233.audioconverter.model to javafx.fxml, com.google.gson;
+    opens se233.audioconverter.service to com.google.gson;
+    opens se233.audioconverter.service.http to com.google.gson;
 
     exports se233.audioconverter;
     exports se233.audioconverter.controller;
     exports se233.audioconverter.model;
+    exports se233.audioconverter.service;
+    exports se233.audioconverter.exception;
 }
\ No newline at end of file
@@ -0,0 +1,141 @@
+package se233.audioconverter.controller;
+
+import se233.audioconverter.exception.AudioConversionException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.service.BatchProgress;
+import se233.audioconverter.service.BatchResults;
+import se233.audioconverter.service.Directories;
+import se233.audioconverter.service.FFmpegService;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+public class AudioBatchConversionTask implements ConversionJob {
+    private final List<AudioFile> audioFiles;
+    private final ConversionSettings settings;
+    private final String outputPath;
+    private final FFmpegService ffmpegService;
+
+    private AudioConversionTask.ProgressCallback progressCallback;
+    private int threadCount;
+    private double predictedSeconds;
+    private BatchProgress batchProgress;
+    private int[] progressSlots;
+    private BatchResults results;
+    private volatile long bytesWritten;
+
+    public AudioBatchConversionTask(List<AudioFile> audioFiles, ConversionSettings settings,
+                                    String outputPath, FFmpegService ffmpegService) {
+        this.audioFiles = new ArrayList<>(audioFiles);
+        this.settings = settings;
+        this.outputPath = outputPath;
+        this.ffmpegService = ffmpegService;
+    }
+
+    public void setProgressCallback(AudioConversionTask.ProgressCallback callback) {
+        this.progressCallback = callback;
+    }
+
+    public void setResults(BatchResults results) {
+        this.results = results;
+    }
+
+    @Override
+    public void setThreadCount(int threads) {
+        this.threadCount = threads;
+    }
+
+    @Override
+    public void setPredictedSeconds(double seconds) {
+        this.predictedSeconds = seconds;
+    }
+
+    @Override
+    public void setBatchProgress(BatchProgress batchProgress, int[] slots) {
+        this.batchProgress = batchProgress;
+        this.progressSlots = slots;
+    }
+
+    @Override
+    public void cancelPending() {
+        for (int i = 0; i < audioFiles.size(); i++) {
+            updateStatus(audioFiles.get(i), AudioFile.ConversionStatus.CANCELLED);
+            if (batchProgress != null) {
+                batchProgress.complete(progressSlots[i]);
+            }
+        }
+    }
+
+    /**
+     * Converts the whole group and marks each file individually. If any file
+     * failed, the first failure is thrown with the others attached as
+     * suppressed exceptions.
+     */
+    @Override
+    public Void call() throws Exception {
+        for (AudioFile audioFile : audioFiles) {
+            updateStatus(audioFile, AudioFile.ConversionStatus.PROCESSING);
+        }
+        long startedMillis = System.currentTimeMillis();
+
+        Map<AudioFile, AudioConversionException> failures =
+                ffmpegService.convertBatch(audioFiles, settings, outputPath, threadCount, predictedSeconds);
+
+        long written = 0;
+        for (AudioFile audioFile : audioFiles) {
+            if (!failures.containsKey(audioFile)) {
+                written += Directories.totalSize(ffmpegService.outputFilenames(audioFile, settings, outputPath));
+            }
+        }
+        bytesWritten = written;
+
+        for (int i = 0; i < audioFiles.size(); i++) {
+            AudioFile audioFile = audioFiles.get(i);
+            if (results != null && !failures.containsKey(audioFile)) {
+                results.recordWritten(audioFile, ffmpegService.buildOutputFilename(audioFile, settings, outputPath), null);
+            }
+            AudioConversionException failure = failures.get(audioFile);
+            if (failure == null) {
+                updateStatus(audioFile, AudioFile.ConversionStatus.COMPLETED);
+            } else {
+                ffmpegService.deletePartialOutputs(audioFile, settings, outputPath, startedMillis);
+                updateStatus(audioFile, failure.getErrorType() == AudioConversionException.ErrorType.CANCELLED
+                        ? AudioFile.ConversionStatus.CANCELLED
+                        : AudioFile.ConversionStatus.FAILED);
+            }
+            if (batchProgress != null) {
+                batchProgress.complete(progressSlots[i]);
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            Iterator<AudioConversionException> it = failures.values().iterator();
+            AudioConversionException first = it.next();
+            while (it.hasNext()) {
+                first.addSuppressed(it.next());
+            }
+            throw first;
+        }
+        return null;
+    }
+
+    private void updateStatus(AudioFile audioFile, AudioFile.ConversionStatus status) {
+        audioFile.setStatus(status);
+        if (progressCallback != null) {
+            progressCallback.onStatusChange(status);
+        }
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public List<AudioFile> getAudioFiles() {
+        return audioFiles;
+    }
+}
@@ -2,75 +2,222 @@ package se233.audioconverter.controller;
 
 import se233.audioconverter.exception.AudioConversionException;
 import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.AudioStats;
 import se233.audioconverter.model.ConversionSettings;
-import se233.audioconverter.service.FFmpegService;
+import se233.audioconverter.model.EncodeOptions;
+import se233.audioconverter.model.LoudnessMeasurement;
+import se233.audioconverter.service.BatchProgress;
+import se233.audioconverter.service.BatchResults;
+import se233.audioconverter.service.Directories;
+import se233.audioconverter.service.OutputStaging;
+import se233.audioconverter.service.SourceAwareSettings;
+import se233.audioconverter.service.Transcoder;
+import se233.audioconverter.service.distributed.ConversionCoordinator;
 import net.bramp.ffmpeg.progress.Progress;
 import net.bramp.ffmpeg.progress.ProgressListener;
-import net.bramp.ffmpeg.probe.FFmpegProbeResult;
-import net.bramp.ffmpeg.probe.FFmpegFormat;
 
-import java.util.concurrent.Callable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
-public class AudioConversionTask implements Callable<Void> {
+public class AudioConversionTask implements ConversionJob {
     private final AudioFile audioFile;
     private final ConversionSettings settings;
     private final String outputPath;
-    private final FFmpegService ffmpegService;
+    private final Transcoder transcoder;
 
     private ProgressCallback progressCallback;
+    private CompletableFuture<LoudnessMeasurement> loudnessMeasurement;
+    private int threadCount;
+    private double predictedSeconds;
+    private BatchProgress batchProgress;
+    private int progressSlot;
+    private ConversionCoordinator coordinator;
+    private OutputStaging outputStaging;
+    private BatchResults results;
+    private volatile AudioStats stats;
+    private volatile long bytesWritten;
 
     public interface ProgressCallback {
-        void onProgress(double percentage, String message);
         void onStatusChange(AudioFile.ConversionStatus status);
     }
 
     public AudioConversionTask(AudioFile audioFile, ConversionSettings settings,
-                               String outputPath, FFmpegService ffmpegService) {
+                               String outputPath, Transcoder transcoder) {
         this.audioFile = audioFile;
         this.settings = settings;
         this.outputPath = outputPath;
-        this.ffmpegService = ffmpegService;
+        this.transcoder = transcoder;
     }
 
     public void setProgressCallback(ProgressCallback callback) {
         this.progressCallback = callback;
     }
 
+    // First-pass loudness analysis running ahead of this encode
+    public void setLoudnessMeasurement(CompletableFuture<LoudnessMeasurement> loudnessMeasurement) {
+        this.loudnessMeasurement = loudnessMeasurement;
+    }
+
     @Override
-    public Void call() throws Exception {
-        updateStatus(AudioFile.ConversionStatus.PROCESSING);
+    public boolean isReady() {
+        return loudnessMeasurement == null || loudnessMeasurement.isDone();
+    }
 
-        try {
-            FFmpegProbeResult probeResult = ffmpegService.probeFile(audioFile.getFilePath());
-            FFmpegFormat format = probeResult.getFormat();
+    // Runs the encode on a remote worker instead of the local FFmpeg
+    public void setCoordinator(ConversionCoordinator coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    // Writes to local scratch and moves the output into place afterwards
+    public void setOutputStaging(OutputStaging outputStaging) {
+        this.outputStaging = outputStaging;
+    }
+
+    // Receives each output with its checksum
+    public void setResults(BatchResults results) {
+        this.results = results;
+    }
+
+    public boolean isRemote() {
+        return coordinator != null;
+    }
 
+    @Override
+    public void setThreadCount(int threads) {
+        this.threadCount = threads;
+    }
+
+    @Override
+    public void setPredictedSeconds(double seconds) {
+        this.predictedSeconds = seconds;
+    }
+
+    @Override
+    public void setBatchProgress(BatchProgress batchProgress, int[] slots) {
+        this.batchProgress = batchProgress;
+        this.progressSlot = slots[0];
+    }
+
+    @Override
+    public void cancelPending() {
+        updateStatus(AudioFile.ConversionStatus.CANCELLED);
+        if (batchProgress != null) {
+            batchProgress.complete(progressSlot);
+        }
+    }
 
-            final double duration = format.duration;
+    @Override
+    public Void call() throws Exception {
+        updateStatus(AudioFile.ConversionStatus.PROCESSING);
 
-            ffmpegService.convertAudio(audioFile, settings, outputPath, new ProgressListener() {
+        long startedMillis = System.currentTimeMillis();
+        OutputStaging.Stage stage = null;
+        boolean committed = false;
+        try {
+            transcoder.probeSourceInfo(audioFile);
+            if (outputStaging != null && coordinator == null) {
+                stage = outputStaging.begin(outputPath, estimateOutputBytes());
+            }
+            EncodeOptions options = new EncodeOptions();
+            options.setLoudness(awaitLoudnessMeasurement());
+            options.setThreads(threadCount);
+            options.setExpectedSeconds(predictedSeconds);
+
+            ProgressListener listener = new ProgressListener() {
                 @Override
                 public void progress(Progress progress) {
-                    if (duration > 0 && progressCallback != null) {
+                    if (batchProgress != null) {
                         // ใช้ field โดยตรง
-                        double currentTime = progress.out_time_ns / 1_000_000_000.0;
-                        double percentage = (currentTime / duration) * 100.0;
-                        String message = String.format("Converting %s: %.1f%%",
-                                audioFile.getName(), percentage);
-                        progressCallback.onProgress(percentage, message);
+                        batchProgress.setProcessed(progressSlot, progress.out_time_ns / 1000);
                     }
                 }
-            });
-
-            updateStatus(AudioFile.ConversionStatus.COMPLETED);
+            };
+            if (coordinator != null) {
+                coordinator.convert(audioFile, settings, outputPath, options, listener);
+            } else {
+                String writtenTo = stage != null ? stage.getDirectory() : outputPath;
+                stats = transcoder.convertAudio(audioFile, settings, writtenTo, options, listener);
+                // Measured before a staged output moves away
+                bytesWritten = Directories.totalSize(transcoder.outputFilenames(audioFile, settings, writtenTo));
+            }
+
+            if (stage != null) {
+                committed = true;
+                // The file only counts as converted once it is in the output folder
+                stage.commit((checksums, error) -> {
+                    if (error != null) {
+                        System.err.println("Moving " + audioFile.getName() + " to the output folder failed: " + error);
+                        updateStatus(AudioFile.ConversionStatus.FAILED);
+                        return;
+                    }
+                    if (results != null) {
+                        checksums.forEach((output, checksum) -> results.record(audioFile, output, checksum, stats));
+                    }
+                    updateStatus(AudioFile.ConversionStatus.COMPLETED);
+                });
+            } else {
+                if (results != null) {
+                    for (String output : transcoder.outputFilenames(audioFile, settings, outputPath)) {
+                        results.recordWritten(audioFile, output, stats);
+                    }
+                }
+                updateStatus(AudioFile.ConversionStatus.COMPLETED);
+            }
 
         } catch (AudioConversionException e) {
-            updateStatus(AudioFile.ConversionStatus.FAILED);
+            if (stage == null && coordinator == null) {
+                // Written straight into the output folder, so remove what is there
+                transcoder.deletePartialOutputs(audioFile, settings, outputPath, startedMillis);
+            }
+            updateStatus(e.getErrorType() == AudioConversionException.ErrorType.CANCELLED
+                    ? AudioFile.ConversionStatus.CANCELLED
+                    : AudioFile.ConversionStatus.FAILED);
             throw e;
+        } finally {
+            if (stage != null && !committed) {
+                stage.discard();
+            }
+            // A failed file no longer has work left, so it counts as done
+            if (batchProgress != null) {
+                batchProgress.complete(progressSlot);
+            }
         }
 
         return null;
     }
 
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private long estimateOutputBytes() {
+        double duration = audioFile.getProcessedDuration();
+        if (duration <= 0) {
+            return audioFile.getFileSize();
+        }
+        return SourceAwareSettings.estimateOutputBytes(duration, SourceAwareSettings.resolve(audioFile, settings));
+    }
+
+    private LoudnessMeasurement awaitLoudnessMeasurement() throws AudioConversionException {
+        if (loudnessMeasurement == null) {
+            return null;
+        }
+        try {
+            return loudnessMeasurement.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof AudioConversionException) {
+                throw (AudioConversionException) e.getCause();
+            }
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.FFMPEG_ERROR,
+                    e.getCause() != null ? e.getCause() : e
+            );
+        }
+    }
+
     private void updateStatus(AudioFile.ConversionStatus status) {
         audioFile.setStatus(status);
         if (progressCallback != null) {
@@ -78,7 +225,17 @@ public class AudioConversionTask implements Callable<Void> {
         }
     }
 
+    // Statistics from the encode's analysis branch; null if none were collected
+    public AudioStats getStats() {
+        return stats;
+    }
+
     public AudioFile getAudioFile() {
         return audioFile;
     }
+
+    @Override
+    public List<AudioFile> getAudioFiles() {
+        return List.of(audioFile);
+    }
 }
\ No newline at end of file
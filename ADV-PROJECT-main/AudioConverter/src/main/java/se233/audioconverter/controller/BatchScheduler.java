@@ -0,0 +1,454 @@
+package se233.audioconverter.controller;
+
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.BatchPriority;
+import se233.audioconverter.service.CpuBudget;
+import se233.audioconverter.service.DeviceConcurrencyLimiter;
+import se233.audioconverter.service.InputPrefetcher;
+import se233.audioconverter.service.OutputStaging;
+import se233.audioconverter.service.ProcessRegistry;
+import se233.audioconverter.service.ThroughputModel;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Shared job queue for every active batch.
+ *
+ * Whenever the CPU budget has room, the next job comes from the highest
+ * priority class that has a dispatchable job. Within a class, batches take
+ * turns by weighted fair share: each batch advances a virtual clock by the
+ * predicted seconds of every job it dispatches divided by its weight, and
+ * the batch with the smallest clock goes next. A new urgent batch therefore
+ * gets the next free slots without cancelling anything already running,
+ * and two normal batches split the machine instead of running one after
+ * the other.
+ *
+ * Each dispatched job runs as its own {@link ProcessRegistry.Owner}, so a
+ * file or a whole batch can be cancelled: queued jobs are dropped and
+ * running ones have their FFmpeg processes killed.
+ */
+public class BatchScheduler {
+    // A batch's jobs mostly share a few devices, so once this many were refused
+    // the rest would be too; bounds each dispatch on batches of many thousand jobs
+    private static final int MAX_DEVICE_PROBES = 64;
+
+    private final ExecutorService remoteExecutor;
+    private final CpuBudget cpuBudget;
+    private final DeviceConcurrencyLimiter deviceLimiter;
+    private final ThroughputModel throughputModel;
+    private final ProcessRegistry processRegistry;
+
+    // Local and remote jobs complete into the same queue
+    private final BlockingQueue<Future<Void>> completed = new LinkedBlockingQueue<>();
+    private final CompletionService<Void> completionService;
+    private final CompletionService<Void> remoteCompletionService;
+
+    // Guarded by this
+    private final List<ConversionBatch> active = new ArrayList<>();
+    private final Map<Future<Void>, RunningJob> running = new HashMap<>();
+    private final Thread dispatcher;
+    private volatile boolean stopped;
+    private InputPrefetcher prefetcher;
+    private OutputStaging outputStaging;
+
+    public BatchScheduler(ExecutorService executor, ExecutorService remoteExecutor, CpuBudget cpuBudget,
+                          DeviceConcurrencyLimiter deviceLimiter, ThroughputModel throughputModel,
+                          ProcessRegistry processRegistry) {
+        this.remoteExecutor = remoteExecutor;
+        this.cpuBudget = cpuBudget;
+        this.deviceLimiter = deviceLimiter;
+        this.throughputModel = throughputModel;
+        this.processRegistry = processRegistry;
+        this.completionService = new ExecutorCompletionService<>(executor, completed);
+        this.remoteCompletionService = remoteExecutor != null
+                ? new ExecutorCompletionService<>(remoteExecutor, completed)
+                : null;
+
+        this.dispatcher = new Thread(this::dispatchLoop, "batch-scheduler");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+        // Cores returned by analysis processes can go to queued jobs straight away
+        cpuBudget.setReleaseListener(this::wake);
+    }
+
+    /**
+     * Queues a batch whose jobs already have predictions. Jobs inside the
+     * batch are dispatched longest-predicted first.
+     */
+    public void submit(ConversionBatch batch) {
+        synchronized (this) {
+            batch.pending.sort(Comparator.comparingDouble(
+                    (ConversionJob job) -> batch.predicted.getOrDefault(job, 0.0)).reversed());
+            batch.submittedNanos = System.nanoTime();
+            // Start level with the other batches of the class instead of at zero,
+            // so a newcomer shares slots rather than taking all of them
+            double clock = Double.MAX_VALUE;
+            for (ConversionBatch other : active) {
+                if (other.getPriority() == batch.getPriority() && !other.pending.isEmpty()) {
+                    clock = Math.min(clock, other.virtualTime);
+                }
+            }
+            batch.virtualTime = clock == Double.MAX_VALUE ? 0 : clock;
+            active.add(batch);
+        }
+        dispatcher.interrupt();
+    }
+
+    // Warms the inputs of the next jobs while the current ones encode
+    public synchronized void setPrefetcher(InputPrefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+
+    // Staged jobs write to the scratch volume, so they take its device slot
+    public synchronized void setOutputStaging(OutputStaging outputStaging) {
+        this.outputStaging = outputStaging;
+    }
+
+    public synchronized List<ConversionBatch> getActiveBatches() {
+        return new ArrayList<>(active);
+    }
+
+    public synchronized boolean isIdle() {
+        return active.isEmpty();
+    }
+
+    /**
+     * Cancels every job of a batch that has not finished yet.
+     */
+    public void cancelBatch(ConversionBatch batch) {
+        cancel(batch, job -> true);
+    }
+
+    /**
+     * Cancels the jobs converting {@code audioFile}. A group of small files
+     * shares one FFmpeg process, so cancelling one of them cancels the group.
+     */
+    public void cancelFile(AudioFile audioFile) {
+        List<ConversionBatch> batches;
+        synchronized (this) {
+            batches = new ArrayList<>(active);
+        }
+        for (ConversionBatch batch : batches) {
+            cancel(batch, job -> job.getAudioFiles().stream()
+                    .anyMatch(file -> file.getFilePath().equals(audioFile.getFilePath())));
+        }
+    }
+
+    private void cancel(ConversionBatch batch, Predicate<ConversionJob> matches) {
+        List<ConversionJob> dropped = new ArrayList<>();
+        boolean batchDone;
+        synchronized (this) {
+            if (!active.contains(batch)) {
+                return;
+            }
+            for (ConversionJob task : new ArrayList<>(batch.pending)) {
+                if (matches.test(task)) {
+                    batch.cancelled(task);
+                    dropped.add(task);
+                    // Its read-ahead would otherwise count against the budget for good
+                    if (prefetcher != null) {
+                        for (AudioFile audioFile : task.getAudioFiles()) {
+                            prefetcher.consumed(audioFile.getFilePath());
+                        }
+                    }
+                }
+            }
+            // Remote encodes run in the worker's process and finish on their own
+            for (RunningJob job : batch.running) {
+                if (matches.test(job.task)) {
+                    job.owner.cancel();
+                }
+            }
+            batchDone = batch.isFinished();
+            if (batchDone) {
+                active.remove(batch);
+            }
+        }
+
+        for (ConversionJob task : dropped) {
+            task.cancelPending();
+        }
+        if (batchDone) {
+            batch.getListener().onBatchFinished(batch);
+        }
+    }
+
+    /**
+     * Progress of everything still active, weighted by audio duration.
+     */
+    public synchronized double getOverallFraction() {
+        double processed = 0;
+        double total = 0;
+        for (ConversionBatch batch : active) {
+            processed += batch.getProgress().getProcessedSeconds();
+            total += batch.getProgress().getTotalSeconds();
+        }
+        return total == 0 ? 0 : processed / total;
+    }
+
+    /**
+     * One line per active batch: files done, queue wait and ETA, then the
+     * process count.
+     */
+    public synchronized String describe() {
+        if (active.isEmpty()) {
+            return "Ready";
+        }
+        StringBuilder text = new StringBuilder();
+        for (ConversionBatch batch : active) {
+            if (text.length() > 0) {
+                text.append("\n");
+            }
+            text.append(String.format("%s: %d of %d files, wait %.1fs avg",
+                    batch, batch.getFinishedFiles(), batch.getAudioFiles().size(),
+                    batch.getMeanQueueWaitSeconds()));
+            text.append(formatEta(batch.estimateRemainingSeconds(cpuBudget.getCores())));
+        }
+        text.append("\n").append(processRegistry.describe());
+        return text.toString();
+    }
+
+    // Dispatches again now, e.g. because a queued job became ready
+    public void wake() {
+        dispatcher.interrupt();
+    }
+
+    public void stop() {
+        stopped = true;
+        dispatcher.interrupt();
+    }
+
+    private void dispatchLoop() {
+        while (!stopped) {
+            try {
+                dispatch();
+                Future<Void> future = completed.poll(1, TimeUnit.SECONDS);
+                if (future != null) {
+                    finish(future);
+                }
+            } catch (InterruptedException e) {
+                // A new batch arrived; dispatch again
+            } catch (RuntimeException e) {
+                System.err.println("Batch scheduler error: " + e);
+            }
+        }
+    }
+
+    private synchronized void dispatch() {
+        // Remote jobs are scheduled by the coordinator across the workers' slots
+        if (remoteCompletionService != null) {
+            for (ConversionBatch batch : active) {
+                Iterator<ConversionJob> it = batch.pending.iterator();
+                while (it.hasNext()) {
+                    ConversionJob task = it.next();
+                    if (task instanceof AudioConversionTask && ((AudioConversionTask) task).isRemote()) {
+                        it.remove();
+                        start(batch, remoteCompletionService, new RunningJob(task, batch, null, 0));
+                    }
+                }
+            }
+        }
+
+        while (cpuBudget.available() > 0 && dispatchNext()) {
+            // keep filling free slots
+        }
+
+        if (prefetcher != null) {
+            prefetcher.prefetch(upcomingInputs());
+        }
+    }
+
+    // Local inputs in roughly the order dispatchNext will take them
+    private List<String> upcomingInputs() {
+        List<ConversionBatch> order = new ArrayList<>(active);
+        order.sort(Comparator.comparing(ConversionBatch::getPriority)
+                .thenComparingDouble(batch -> batch.virtualTime));
+        List<String> inputs = new ArrayList<>();
+        for (ConversionBatch batch : order) {
+            for (ConversionJob task : batch.pending) {
+                for (AudioFile audioFile : task.getAudioFiles()) {
+                    inputs.add(audioFile.getFilePath());
+                }
+            }
+        }
+        return inputs;
+    }
+
+    // Dispatches one job from the most deserving batch; false if nothing can start
+    private boolean dispatchNext() {
+        int totalPending = 0;
+        for (ConversionBatch batch : active) {
+            totalPending += batch.pending.size();
+        }
+
+        for (BatchPriority priority : BatchPriority.values()) {
+            List<ConversionBatch> candidates = new ArrayList<>();
+            for (ConversionBatch batch : active) {
+                if (batch.getPriority() == priority && !batch.pending.isEmpty()) {
+                    candidates.add(batch);
+                }
+            }
+            candidates.sort(Comparator.comparingDouble(batch -> batch.virtualTime));
+
+            for (ConversionBatch batch : candidates) {
+                // Only jobs whose input and output devices have a free slot, so slow
+                // disks do not hold pool threads that SSD jobs could use
+                String writeTarget = outputStaging != null && outputStaging.appliesTo(batch.getOutputPath())
+                        ? outputStaging.getRoot().toString()
+                        : batch.getOutputPath();
+                // Only device refusals count: jobs still waiting for their loudness
+                // pass say nothing about the devices the jobs behind them need
+                int refusals = 0;
+                Iterator<ConversionJob> it = batch.pending.iterator();
+                while (it.hasNext() && refusals < MAX_DEVICE_PROBES) {
+                    ConversionJob task = it.next();
+                    if (!task.isReady()) {
+                        continue;
+                    }
+                    DeviceConcurrencyLimiter.DevicePermit permit = deviceLimiter.tryAcquire(
+                            task.getAudioFiles().get(0).getFilePath(), writeTarget);
+                    if (permit == null) {
+                        refusals++;
+                    } else {
+                        int threads = cpuBudget.tryAcquire(totalPending);
+                        if (threads == 0) {
+                            // An analysis process took the last cores since dispatch() checked;
+                            // the job stays queued until cores are released (no I/O to record)
+                            permit.release(0);
+                            return false;
+                        }
+                        task.setThreadCount(threads);
+                        task.setPredictedSeconds(batch.predicted.getOrDefault(task, 0.0));
+                        it.remove();
+                        if (prefetcher != null) {
+                            for (AudioFile audioFile : task.getAudioFiles()) {
+                                prefetcher.consumed(audioFile.getFilePath());
+                            }
+                        }
+                        start(batch, completionService, new RunningJob(task, batch, permit, threads));
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private void start(ConversionBatch batch, CompletionService<Void> service, RunningJob job) {
+        batch.dispatched(job);
+        running.put(service.submit(() -> {
+            // Processes started by the job belong to it until it returns
+            ProcessRegistry.Scope scope = processRegistry.enter(job.owner);
+            try {
+                return job.task.call();
+            } finally {
+                scope.close();
+            }
+        }), job);
+    }
+
+    private void finish(Future<Void> future) {
+        RunningJob job;
+        ConversionBatch batch;
+        boolean batchDone;
+        synchronized (this) {
+            job = running.remove(future);
+            if (job == null) {
+                return;
+            }
+            batch = job.batch;
+            if (job.permit != null) {
+                job.permit.release(job.bytesTransferred());
+            }
+            cpuBudget.release(job.threads);
+            batch.finished(job);
+            batchDone = batch.isFinished();
+            if (batchDone) {
+                active.remove(batch);
+            }
+        }
+
+        Throwable error = null;
+        try {
+            future.get();
+            // Remote wall time says nothing about this machine's speed. Only the
+            // time FFmpeg actually ran counts, scaled to the one-thread figure
+            // the model predicts, since queueing and analysis waits are not encode speed
+            double processSeconds = job.owner.getProcessSeconds();
+            if (job.permit != null && processSeconds > 0) {
+                throughputModel.record(job.task.getAudioFiles(), batch.getSettings(),
+                        processSeconds * Math.max(1, job.threads));
+            }
+        } catch (ExecutionException e) {
+            error = e.getCause() != null ? e.getCause() : e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = e;
+        }
+
+        batch.getListener().onJobFinished(batch, job.task, error);
+        if (batchDone) {
+            throughputModel.save();
+            batch.getListener().onBatchFinished(batch);
+        }
+    }
+
+    private static String formatEta(double remaining) {
+        if (remaining < 0) {
+            return "";
+        }
+        long seconds = Math.round(remaining);
+        if (seconds >= 3600) {
+            return String.format(" - about %dh %02dm remaining", seconds / 3600, (seconds % 3600) / 60);
+        }
+        if (seconds >= 60) {
+            return String.format(" - about %dm %02ds remaining", seconds / 60, seconds % 60);
+        }
+        return String.format(" - about %ds remaining", seconds);
+    }
+
+    // A dispatched job together with the device slots and threads it holds
+    class RunningJob {
+        final ConversionJob task;
+        final ConversionBatch batch;
+        final DeviceConcurrencyLimiter.DevicePermit permit;
+        final int threads;
+        final ProcessRegistry.Owner owner;
+        private final long startNanos = System.nanoTime();
+
+        RunningJob(ConversionJob task, ConversionBatch batch,
+                   DeviceConcurrencyLimiter.DevicePermit permit, int threads) {
+            this.task = task;
+            this.batch = batch;
+            this.permit = permit;
+            this.threads = threads;
+            this.owner = new ProcessRegistry.Owner(batch.getId(), task.getAudioFiles().get(0).getName());
+        }
+
+        double elapsedSeconds() {
+            return (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        }
+
+        long bytesTransferred() {
+            long bytes = task.getBytesWritten();
+            for (AudioFile audioFile : task.getAudioFiles()) {
+                bytes += audioFile.getFileSize();
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package se233.audioconverter.controller;
+
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.BatchPriority;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.service.BatchProgress;
+import se233.audioconverter.service.BatchResults;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One press of "Start Conversion": the jobs for a set of files with their
+ * own settings, output directory and priority, scheduled alongside any
+ * other active batches by {@link BatchScheduler}.
+ *
+ * All mutable state is guarded by the scheduler's lock.
+ */
+public class ConversionBatch {
+    private final int id;
+    private final BatchPriority priority;
+    private final double weight;
+    private final ConversionSettings settings;
+    private final String outputPath;
+    private final List<AudioFile> audioFiles;
+    private final BatchProgress progress;
+    private final BatchListener listener;
+    private BatchResults results;
+
+    final List<ConversionJob> pending;
+    final Map<ConversionJob, Double> predicted = new HashMap<>();
+    final List<BatchScheduler.RunningJob> running = new ArrayList<>();
+    // Fair-share clock: predicted seconds dispatched divided by weight
+    double virtualTime;
+    long submittedNanos;
+    private int totalJobs;
+    private int finishedJobs;
+
+    // Estimated effect of the "never exceed source" policy
+    private int filesCapped;
+    private long bytesSaved;
+    private double secondsSaved;
+
+    // Queue wait = time from submission until a job is handed to a worker
+    private int dispatchedJobs;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    public interface BatchListener {
+        void onJobFinished(ConversionBatch batch, ConversionJob job, Throwable error);
+
+        void onBatchFinished(ConversionBatch batch);
+    }
+
+    public ConversionBatch(int id, BatchPriority priority, double weight, ConversionSettings settings,
+                           String outputPath, List<AudioFile> audioFiles, List<ConversionJob> jobs,
+                           BatchProgress progress, BatchListener listener) {
+        this.id = id;
+        this.priority = priority;
+        this.weight = weight > 0 ? weight : 1.0;
+        this.settings = settings;
+        this.outputPath = outputPath;
+        this.audioFiles = audioFiles;
+        this.pending = new ArrayList<>(jobs);
+        this.totalJobs = jobs.size();
+        this.progress = progress;
+        this.listener = listener;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public BatchPriority getPriority() {
+        return priority;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
+    public ConversionSettings getSettings() {
+        return settings;
+    }
+
+    public String getOutputPath() {
+        return outputPath;
+    }
+
+    public List<AudioFile> getAudioFiles() {
+        return audioFiles;
+    }
+
+    public BatchProgress getProgress() {
+        return progress;
+    }
+
+    // Output checksums and verification, written out when the batch finishes
+    public BatchResults getResults() {
+        return results;
+    }
+
+    public void setResults(BatchResults results) {
+        this.results = results;
+    }
+
+    BatchListener getListener() {
+        return listener;
+    }
+
+    // Split files finish after their last track, so count by status
+    public int getFinishedFiles() {
+        int finished = 0;
+        for (AudioFile audioFile : audioFiles) {
+            if (audioFile.getStatus() == AudioFile.ConversionStatus.COMPLETED
+                    || audioFile.getStatus() == AudioFile.ConversionStatus.FAILED
+                    || audioFile.getStatus() == AudioFile.ConversionStatus.CANCELLED) {
+                finished++;
+            }
+        }
+        return finished;
+    }
+
+    boolean isFinished() {
+        return finishedJobs == totalJobs;
+    }
+
+    void dispatched(BatchScheduler.RunningJob job) {
+        long wait = System.nanoTime() - submittedNanos;
+        dispatchedJobs++;
+        totalWaitNanos += wait;
+        maxWaitNanos = Math.max(maxWaitNanos, wait);
+        running.add(job);
+        virtualTime += predicted.getOrDefault(job.task, 1.0) / weight;
+    }
+
+    void finished(BatchScheduler.RunningJob job) {
+        running.remove(job);
+        finishedJobs++;
+    }
+
+    // A pending job dropped by a cancel never runs, so it is done as well
+    void cancelled(ConversionJob job) {
+        pending.remove(job);
+        finishedJobs++;
+    }
+
+    public void setSourceSavings(int filesCapped, long bytesSaved, double secondsSaved) {
+        this.filesCapped = filesCapped;
+        this.bytesSaved = bytesSaved;
+        this.secondsSaved = secondsSaved;
+    }
+
+    public int getFilesCapped() {
+        return filesCapped;
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    public double getSecondsSaved() {
+        return secondsSaved;
+    }
+
+    public double getMeanQueueWaitSeconds() {
+        return dispatchedJobs == 0 ? 0 : totalWaitNanos / (double) dispatchedJobs / 1_000_000_000.0;
+    }
+
+    public double getMaxQueueWaitSeconds() {
+        return maxWaitNanos / 1_000_000_000.0;
+    }
+
+    /**
+     * Remaining predicted work spread over the jobs that can run at once.
+     * Returns a negative value when nothing is left.
+     */
+    double estimateRemainingSeconds(int cores) {
+        double remaining = 0;
+        for (ConversionJob task : pending) {
+            remaining += predicted.getOrDefault(task, 0.0);
+        }
+        for (BatchScheduler.RunningJob job : running) {
+            remaining += Math.max(0, predicted.getOrDefault(job.task, 0.0) / Math.max(1, job.threads)
+                    - job.elapsedSeconds());
+        }
+        int jobsLeft = pending.size() + running.size();
+        if (jobsLeft == 0) {
+            return -1;
+        }
+        return remaining / Math.min(jobsLeft, Math.max(1, cores));
+    }
+
+    @Override
+    public String toString() {
+        return "Batch #" + id + " (" + priority.getLabel() + ")";
+    }
+}
@@ -0,0 +1,36 @@
+package se233.audioconverter.controller;
+
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.service.BatchProgress;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * A unit of work submitted to the conversion pool: one file, or a group of
+ * small files converted by a single FFmpeg process.
+ */
+public interface ConversionJob extends Callable<Void> {
+    List<AudioFile> getAudioFiles();
+
+    // FFmpeg thread count granted by the CPU budget at dispatch time
+    void setThreadCount(int threads);
+
+    // Predicted run time, so the stall watchdog can spot a run far past it
+    void setPredictedSeconds(double seconds);
+
+    // Slots in the batch progress accumulator, one per file in getAudioFiles()
+    void setBatchProgress(BatchProgress batchProgress, int[] slots);
+
+    // Called instead of call() when the job is cancelled before it started
+    void cancelPending();
+
+    // Bytes of output the finished job wrote, for the device limiter's throughput
+    long getBytesWritten();
+
+    // False while the job still waits for an analysis result; it then stays
+    // queued instead of holding a slot (and CPU budget) while it waits
+    default boolean isReady() {
+        return true;
+    }
+}
@@ -3,31 +3,78 @@ package se233.audioconverter.controller;
 import se233.audioconverter.Launcher;
 import se233.audioconverter.exception.AudioConversionException;
 import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.BatchPriority;
+import se233.audioconverter.model.BatchShare;
+import se233.audioconverter.model.ClipRange;
 import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.model.EncoderTuning;
+import se233.audioconverter.model.LoudnessMeasurement;
+import se233.audioconverter.model.OutputRecord;
+import se233.audioconverter.model.WaveformPeaks;
+import se233.audioconverter.service.AppDataDirectory;
+import se233.audioconverter.service.BatchProgress;
+import se233.audioconverter.service.BatchResults;
+import se233.audioconverter.service.CpuBudget;
+import se233.audioconverter.service.DeviceConcurrencyLimiter;
+import se233.audioconverter.service.EncoderCalibration;
 import se233.audioconverter.service.FFmpegService;
+import se233.audioconverter.service.InputPrefetcher;
+import se233.audioconverter.service.LoudnessAnalyzer;
+import se233.audioconverter.service.LoudnessCache;
+import se233.audioconverter.service.OutputStaging;
+import se233.audioconverter.service.OutputVerifier;
+import se233.audioconverter.service.PreviewPlayer;
+import se233.audioconverter.service.SimulatedTranscoder;
+import se233.audioconverter.service.SmallFileBatcher;
+import se233.audioconverter.service.SourceAwareSettings;
+import se233.audioconverter.service.SplitAnalyzer;
+import se233.audioconverter.service.SplitPointCache;
+import se233.audioconverter.service.ThroughputModel;
+import se233.audioconverter.service.Transcoder;
+import se233.audioconverter.service.WaveformService;
+import se233.audioconverter.service.distributed.ConversionCoordinator;
+import se233.audioconverter.service.libav.LibavTranscoder;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
-import javafx.concurrent.Task;
 import javafx.fxml.FXML;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.*;
 import javafx.scene.input.Dragboard;
 import javafx.scene.input.TransferMode;
 import javafx.scene.layout.StackPane;
+import javafx.scene.paint.Color;
 import javafx.scene.layout.VBox;
 import javafx.scene.layout.HBox;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
+import javafx.util.Duration;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 
 public class MainViewController {
-    private static final List<String> SUPPORTED_FORMATS = Arrays.asList("mp3", "wav", "m4a", "flac");
+    private static final List<String> SUPPORTED_FORMATS = Arrays.asList(
+            "mp3", "wav", "m4a", "flac", "mp4", "m4v", "mkv", "mov", "webm", "avi");
+    private static final int PROGRESS_FPS = 30;
+    private static final double WAVEFORM_WIDTH = 160;
+    private static final double WAVEFORM_HEIGHT = 24;
+    // Reference clip length and timed runs per encoder option
+    private static final double CALIBRATION_SECONDS = 20;
+    private static final int CALIBRATION_RUNS = 3;
 
     // Stage 1: File Drop
     @FXML private StackPane mainStackPane;
@@ -74,7 +121,18 @@ public class MainViewController {
     @FXML private Slider vbrQualitySlider;
     @FXML private Label vbrQualityLabel;
 
-
+    // Loudness Normalisation (in Advanced Settings)
+    @FXML private CheckBox normalizeLoudnessCheckBox;
+    @FXML private ComboBox<ConversionSettings.LoudnessTarget> loudnessTargetComboBox;
+    @FXML private CheckBox lowPriorityCheckBox;
+    @FXML private CheckBox neverExceedSourceCheckBox;
+    @FXML private CheckBox collectStatsCheckBox;
+    @FXML private ComboBox<ConversionSettings.SplitMode> splitModeComboBox;
+    @FXML private ComboBox<ConversionSettings.EncoderPreset> encoderPresetComboBox;
+    @FXML private Button calibrateButton;
+
+    @FXML private ComboBox<BatchPriority> priorityComboBox;
+    @FXML private ComboBox<BatchShare> shareComboBox;
     @FXML private Button convertButton;
     @FXML private Button clearButton;
     @FXML private ProgressBar progressBar;
@@ -83,7 +141,31 @@ public class MainViewController {
     private ObservableList<AudioFile> audioFiles;
     private ConversionSettings settings;
     private FFmpegService ffmpegService;
+    private Transcoder transcoder; // runs the conversion jobs; ffmpegService unless another backend is selected
     private ExecutorService executorService;
+    private CpuBudget cpuBudget;
+    private ThroughputModel throughputModel;
+    private EncoderCalibration encoderCalibration;
+    private Timeline progressTimeline;
+    private ExecutorService waveformExecutor;
+    private WaveformService waveformService;
+    private DeviceConcurrencyLimiter deviceLimiter;
+    private final SmallFileBatcher smallFileBatcher = new SmallFileBatcher();
+    private ExecutorService analysisExecutor;
+    private ExecutorService probeExecutor;
+    private ExecutorService calibrationExecutor;
+    private LoudnessCache loudnessCache;
+    private LoudnessAnalyzer loudnessAnalyzer;
+    private SplitAnalyzer splitAnalyzer;
+    private ConversionCoordinator coordinator;
+    private ExecutorService remoteExecutor;
+    private BatchScheduler scheduler;
+    private InputPrefetcher prefetcher;
+    private OutputStaging outputStaging;
+    private OutputVerifier outputVerifier;
+    private PreviewPlayer previewPlayer;
+    private int batchCounter;
+    private long lastStatusNanos;
 
     @FXML
     public void initialize() {
@@ -99,7 +181,139 @@ public class MainViewController {
             return;
         }
 
-        executorService = Executors.newFixedThreadPool(4);
+        // audioconverter.transcoder=simulated models encode timing only, to load-test
+        // the scheduler and UI; =libav converts in-process when the native libraries
+        // are present. Analysis, previews and waveforms still use FFmpeg
+        String transcoderName = System.getProperty("audioconverter.transcoder", "ffmpeg").trim();
+        boolean simulated = transcoderName.equalsIgnoreCase("simulated");
+        if (simulated) {
+            transcoder = SimulatedTranscoder.fromSystemProperties(ffmpegService.getProcessRegistry());
+        } else if (transcoderName.equalsIgnoreCase("libav")) {
+            transcoder = LibavTranscoder.createOrFallback(ffmpegService);
+        } else {
+            transcoder = ffmpegService;
+        }
+
+        // Waveform peaks are decoded in parallel across files, off the UI thread
+        waveformExecutor = Executors.newFixedThreadPool(
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        try {
+            waveformService = new WaveformService(ffmpegService, waveformExecutor);
+        } catch (IOException e) {
+            // Waveforms are optional; the file list still works without them
+            waveformService = null;
+        }
+
+        try {
+            // Simulated timings must not train the model of real encodes
+            throughputModel = simulated
+                    ? new ThroughputModel(AppDataDirectory.resolve("throughput-model-simulated.json"))
+                    : new ThroughputModel();
+        } catch (IOException e) {
+            // Estimates then start from defaults and are not persisted
+            throughputModel = new ThroughputModel(
+                    new File(System.getProperty("java.io.tmpdir"), "throughput-model.json").toPath());
+        }
+
+        // At most one job per core; the CPU budget splits cores between jobs
+        // and the device limiter keeps slow disks from thrashing
+        cpuBudget = new CpuBudget();
+        // Analysis, waveform, verification and calibration processes take cores from it too
+        ffmpegService.setCpuBudget(cpuBudget);
+        executorService = Executors.newFixedThreadPool(cpuBudget.getCores());
+        // Simulated jobs read and write nothing, so no disk should throttle them
+        deviceLimiter = new DeviceConcurrencyLimiter(cpuBudget.getCores(), !simulated);
+        // Loudness analysis runs on its own pool so it overlaps the encodes
+        analysisExecutor = Executors.newFixedThreadPool(
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        // Probes gate batch submission, so they never queue behind analysis passes
+        probeExecutor = Executors.newFixedThreadPool(
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        // A calibration runs for minutes, so it must not hold an analysis thread
+        calibrationExecutor = Executors.newSingleThreadExecutor();
+
+        // Sampled decode check of finished outputs, alongside the encodes
+        outputVerifier = new OutputVerifier(ffmpegService, analysisExecutor,
+                parseFraction(System.getProperty("audioconverter.verify.sample")));
+
+        // Distributed mode: worker JVMs connect to this port and take single-file jobs
+        String coordinatorPort = System.getProperty("audioconverter.coordinator.port");
+        if (coordinatorPort != null && !coordinatorPort.isBlank()) {
+            try {
+                // Loopback unless audioconverter.coordinator.bind opens it to other machines
+                String bindAddress = System.getProperty("audioconverter.coordinator.bind");
+                coordinator = new ConversionCoordinator(ffmpegService,
+                        bindAddress != null && !bindAddress.isBlank()
+                                ? InetAddress.getByName(bindAddress.trim())
+                                : InetAddress.getLoopbackAddress(),
+                        Integer.parseInt(coordinatorPort.trim()));
+                coordinator.setEventListener(message -> Platform.runLater(() -> statusLabel.setText(message)));
+                // Remote jobs only wait on the network, so they get their own threads
+                remoteExecutor = Executors.newCachedThreadPool();
+            } catch (IOException | NumberFormatException e) {
+                showError("Coordinator Error",
+                        "Could not start the distributed coordinator. Converting locally.\n\n" +
+                                "Error: " + e.getMessage());
+            }
+        }
+
+        // Every batch shares the pool; urgent batches get the next free slots
+        scheduler = new BatchScheduler(executorService, remoteExecutor, cpuBudget,
+                deviceLimiter, throughputModel, ffmpegService.getProcessRegistry());
+
+        // Read-ahead of upcoming inputs, and write-behind of outputs via local scratch
+        // (neither applies when nothing is read or written)
+        prefetcher = new InputPrefetcher(Long.getLong("audioconverter.prefetch.maxBytes", 256L * 1024 * 1024));
+        if (!simulated) {
+            scheduler.setPrefetcher(prefetcher);
+        }
+        if (transcoder.getCapabilities().isWritesOutputs()) {
+            try {
+                String scratchDir = System.getProperty("audioconverter.scratch.dir");
+                outputStaging = new OutputStaging(
+                        scratchDir != null && !scratchDir.isBlank()
+                                ? Paths.get(scratchDir)
+                                : AppDataDirectory.resolveDirectory("scratch"),
+                        Long.getLong("audioconverter.scratch.maxBytes", 2L * 1024 * 1024 * 1024),
+                        parseFsyncPolicy(System.getProperty("audioconverter.fsync")));
+                scheduler.setOutputStaging(outputStaging);
+            } catch (IOException e) {
+                // Outputs are then written straight to the output folder
+                outputStaging = null;
+            }
+        }
+
+        try {
+            loudnessCache = new LoudnessCache();
+            loudnessAnalyzer = new LoudnessAnalyzer(ffmpegService, loudnessCache);
+        } catch (IOException e) {
+            showError("Loudness Cache Error",
+                    "Could not open the loudness cache. Normalisation is disabled.\n\n" +
+                            "Error: " + e.getMessage());
+        }
+
+        try {
+            splitAnalyzer = new SplitAnalyzer(ffmpegService, new SplitPointCache());
+        } catch (IOException e) {
+            // Splitting then works without a persistent cache
+            splitAnalyzer = new SplitAnalyzer(ffmpegService, new SplitPointCache(
+                    new File(System.getProperty("java.io.tmpdir"), "split-cache.json").toPath()));
+        }
+
+        try {
+            encoderCalibration = new EncoderCalibration(ffmpegService);
+        } catch (IOException e) {
+            // Presets then use the encoder defaults until a calibration is run
+            encoderCalibration = new EncoderCalibration(ffmpegService,
+                    new File(System.getProperty("java.io.tmpdir"), "encoder-calibration.json").toPath());
+        }
+
+        try {
+            previewPlayer = new PreviewPlayer(ffmpegService);
+        } catch (IOException e) {
+            // Conversions work without previews
+            previewPlayer = null;
+        }
 
         setupStage1();
         setupStage2();
@@ -111,13 +325,41 @@ public class MainViewController {
     private void setupStage1() {
         filePreviewList.setItems(audioFiles);
         filePreviewList.setCellFactory(param -> new ListCell<>() {
+            private final Canvas waveform = new Canvas(WAVEFORM_WIDTH, WAVEFORM_HEIGHT);
+            private WaveformPeaks shownPeaks;
+
+            {
+                // Click plays the source from that point; shift-click an encoded excerpt
+                waveform.setOnMouseClicked(e -> {
+                    if (getItem() != null && shownPeaks != null) {
+                        double start = e.getX() / WAVEFORM_WIDTH * shownPeaks.getDuration();
+                        startPreview(getItem(), start, e.isShiftDown());
+                    }
+                });
+            }
+
             @Override
             protected void updateItem(AudioFile item, boolean empty) {
                 super.updateItem(item, empty);
                 if (empty || item == null) {
                     setText(null);
+                    setGraphic(null);
                 } else {
                     setText(item.getName() + " (" + item.getFormat().toUpperCase() + ")");
+                    setGraphic(waveform);
+                    setContentDisplay(ContentDisplay.RIGHT);
+                    waveform.getGraphicsContext2D().clearRect(0, 0, WAVEFORM_WIDTH, WAVEFORM_HEIGHT);
+                    shownPeaks = null;
+
+                    // Peaks come from the cache or a background decode
+                    if (waveformService != null) {
+                        waveformService.getPeaks(item).thenAccept(peaks -> Platform.runLater(() -> {
+                            if (getItem() == item) {
+                                shownPeaks = peaks;
+                                drawWaveform(waveform, peaks);
+                            }
+                        }));
+                    }
                 }
             }
         });
@@ -125,6 +367,34 @@ public class MainViewController {
         setupDragAndDrop(dropZone);
     }
 
+    private void drawWaveform(Canvas canvas, WaveformPeaks peaks) {
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        double width = canvas.getWidth();
+        double height = canvas.getHeight();
+        double mid = height / 2;
+        gc.clearRect(0, 0, width, height);
+        gc.setStroke(Color.web("#4CAF50"));
+
+        int level = peaks.levelForWidth((int) width);
+        short[] mins = peaks.getMins(level);
+        short[] maxs = peaks.getMaxs(level);
+        if (mins.length == 0) {
+            return;
+        }
+        for (int x = 0; x < width; x++) {
+            // Combine every peak that falls into this pixel column
+            int from = (int) ((long) x * mins.length / (long) width);
+            int to = Math.max(from + 1, (int) ((long) (x + 1) * mins.length / (long) width));
+            int min = 0;
+            int max = 0;
+            for (int i = from; i < to && i < mins.length; i++) {
+                min = Math.min(min, mins[i]);
+                max = Math.max(max, maxs[i]);
+            }
+            gc.strokeLine(x + 0.5, mid - max * mid / 32768.0, x + 0.5, mid - min * mid / 32768.0);
+        }
+    }
+
     private void setupStage2() {
         // File list view with status
         fileListView.setItems(audioFiles);
@@ -142,11 +412,55 @@ public class MainViewController {
                         case PROCESSING -> setStyle("-fx-text-fill: blue; -fx-font-weight: bold;");
                         case COMPLETED -> setStyle("-fx-text-fill: green; -fx-font-weight: bold;");
                         case FAILED -> setStyle("-fx-text-fill: red; -fx-font-weight: bold;");
+                        case CANCELLED -> setStyle("-fx-text-fill: darkorange;");
                     }
                 }
             }
         });
 
+        // Clip ranges per file (only these sections are converted)
+        MenuItem setClipsItem = new MenuItem("Set Clip Ranges...");
+        setClipsItem.setOnAction(e -> editClipRanges(fileListView.getSelectionModel().getSelectedItem()));
+        MenuItem clearClipsItem = new MenuItem("Convert Whole File");
+        clearClipsItem.setOnAction(e -> {
+            AudioFile selected = fileListView.getSelectionModel().getSelectedItem();
+            if (selected != null) {
+                selected.setClipRanges(null);
+                fileListView.refresh();
+            }
+        });
+        // Previews start at the first clip range, or the beginning
+        MenuItem previewSourceItem = new MenuItem("Preview Source");
+        previewSourceItem.setOnAction(e -> startPreview(fileListView.getSelectionModel().getSelectedItem(), -1, false));
+        MenuItem previewExcerptItem = new MenuItem("Preview With Current Settings");
+        previewExcerptItem.setOnAction(e -> startPreview(fileListView.getSelectionModel().getSelectedItem(), -1, true));
+        MenuItem stopPreviewItem = new MenuItem("Stop Preview");
+        stopPreviewItem.setOnAction(e -> {
+            if (previewPlayer != null) {
+                previewPlayer.stop();
+            }
+        });
+        // Cancel kills the running FFmpeg and removes its partial output
+        MenuItem cancelFileItem = new MenuItem("Cancel Conversion");
+        cancelFileItem.setOnAction(e -> {
+            AudioFile selected = fileListView.getSelectionModel().getSelectedItem();
+            if (selected != null) {
+                scheduler.cancelFile(selected);
+            }
+        });
+        MenuItem cancelBatchItem = new MenuItem("Cancel Batch");
+        cancelBatchItem.setOnAction(e -> {
+            AudioFile selected = fileListView.getSelectionModel().getSelectedItem();
+            for (ConversionBatch batch : scheduler.getActiveBatches()) {
+                if (batch.getAudioFiles().contains(selected)) {
+                    scheduler.cancelBatch(batch);
+                }
+            }
+        });
+        fileListView.setContextMenu(new ContextMenu(setClipsItem, clearClipsItem, new SeparatorMenuItem(),
+                previewSourceItem, previewExcerptItem, stopPreviewItem, new SeparatorMenuItem(),
+                cancelFileItem, cancelBatchItem));
+
         // Format ComboBox
         formatComboBox.setItems(FXCollections.observableArrayList(
                 ConversionSettings.OutputFormat.values()));
@@ -154,6 +468,7 @@ public class MainViewController {
         formatComboBox.setOnAction(e -> {
             settings.setOutputFormat(formatComboBox.getValue());
             updateFormatUI();
+            showEncoderPresetNote();
         });
 
         // Quality Slider (always visible - for quality presets)
@@ -256,6 +571,57 @@ public class MainViewController {
             settings.setChannels(channelsComboBox.getValue());
         });
 
+        // Loudness normalisation
+        loudnessTargetComboBox.setItems(FXCollections.observableArrayList(
+                ConversionSettings.LoudnessTarget.values()));
+        loudnessTargetComboBox.setValue(settings.getLoudnessTarget());
+        loudnessTargetComboBox.setDisable(true);
+        loudnessTargetComboBox.setOnAction(e -> {
+            settings.setLoudnessTarget(loudnessTargetComboBox.getValue());
+        });
+        normalizeLoudnessCheckBox.setDisable(loudnessAnalyzer == null);
+        normalizeLoudnessCheckBox.setOnAction(e -> {
+            boolean normalize = normalizeLoudnessCheckBox.isSelected();
+            settings.setNormalizeLoudness(normalize);
+            loudnessTargetComboBox.setDisable(!normalize);
+        });
+
+        // Cap rate, channels and bitrate at the source's own
+        neverExceedSourceCheckBox.setSelected(settings.isNeverExceedSource());
+        neverExceedSourceCheckBox.setOnAction(e -> {
+            settings.setNeverExceedSource(neverExceedSourceCheckBox.isSelected());
+        });
+
+        // Statistics from an analysis branch of the same FFmpeg run
+        collectStatsCheckBox.setSelected(settings.isCollectStats());
+        collectStatsCheckBox.setOnAction(e -> {
+            settings.setCollectStats(collectStatsCheckBox.isSelected());
+        });
+
+        // Track splitting (silence or chapters)
+        splitModeComboBox.setItems(FXCollections.observableArrayList(
+                ConversionSettings.SplitMode.values()));
+        splitModeComboBox.setValue(settings.getSplitMode());
+        splitModeComboBox.setOnAction(e -> {
+            settings.setSplitMode(splitModeComboBox.getValue());
+        });
+
+        // Encode speed against size, from the options measured on this machine
+        encoderPresetComboBox.setItems(FXCollections.observableArrayList(
+                ConversionSettings.EncoderPreset.values()));
+        encoderPresetComboBox.setValue(settings.getEncoderPreset());
+        encoderPresetComboBox.setOnAction(e -> {
+            settings.setEncoderPreset(encoderPresetComboBox.getValue());
+            showEncoderPresetNote();
+        });
+
+        // Encoder scheduling priority (nice/ionice on Linux)
+        lowPriorityCheckBox.setSelected(ffmpegService.isLowPriority());
+        lowPriorityCheckBox.setDisable(!ffmpegService.isLowPrioritySupported());
+        lowPriorityCheckBox.setOnAction(e -> {
+            ffmpegService.setLowPriority(lowPriorityCheckBox.isSelected());
+        });
+
         // Advanced settings toggle
         advancedSettingsBox.setVisible(false);
         advancedSettingsBox.setManaged(false);
@@ -265,6 +631,13 @@ public class MainViewController {
             advancedSettingsBox.setManaged(show);
         });
 
+        // Batch priority
+        priorityComboBox.setItems(FXCollections.observableArrayList(BatchPriority.values()));
+        priorityComboBox.setValue(BatchPriority.NORMAL);
+        // Weight against other batches of the same priority
+        shareComboBox.setItems(FXCollections.observableArrayList(BatchShare.values()));
+        shareComboBox.setValue(BatchShare.NORMAL);
+
         // Buttons
         convertButton.setOnAction(e -> onConvert());
         clearButton.setOnAction(e -> onClear());
@@ -324,6 +697,123 @@ public class MainViewController {
         });
     }
 
+    /**
+     * Plays the file from {@code startSeconds} (negative: its first clip
+     * range or the beginning), either as is or as a short excerpt encoded
+     * with the current settings.
+     */
+    private void startPreview(AudioFile audioFile, double startSeconds, boolean encoded) {
+        if (audioFile == null || previewPlayer == null) {
+            return;
+        }
+        double start = startSeconds >= 0 ? startSeconds
+                : audioFile.hasClipRanges() ? audioFile.getClipRanges().get(0).getStart() : 0;
+        if (!encoded) {
+            try {
+                previewPlayer.play(audioFile.getFilePath(), start);
+                statusLabel.setText("Previewing " + audioFile.getName() + " from " + ClipRange.formatTime(start));
+            } catch (AudioConversionException e) {
+                showError("Preview Error", e.getMessage());
+            }
+            return;
+        }
+
+        previewPlayer.stop();
+        statusLabel.setText("Encoding preview of " + audioFile.getName() + "...");
+        previewPlayer.playExcerpt(audioFile, snapshotSettings(), start, analysisExecutor)
+                .whenComplete((result, error) -> Platform.runLater(() -> {
+                    if (error != null) {
+                        Throwable cause = error.getCause() != null ? error.getCause() : error;
+                        statusLabel.setText("Ready");
+                        showError("Preview Error", cause.getMessage());
+                    } else {
+                        statusLabel.setText(String.format("Previewing %s with %s from %s",
+                                audioFile.getName(), settings.getOutputFormat(), ClipRange.formatTime(start)));
+                    }
+                }));
+    }
+
+    // Copy of the current settings with the encoder preset resolved for their format
+    private ConversionSettings snapshotSettings() {
+        ConversionSettings snapshot = settings.copy();
+        snapshot.setEncoderTuning(encoderCalibration.tuningFor(snapshot.getOutputFormat(), snapshot.getEncoderPreset()));
+        return snapshot;
+    }
+
+    // What the chosen preset means for the current format
+    private void showEncoderPresetNote() {
+        if (settings.getEncoderPreset() == ConversionSettings.EncoderPreset.DEFAULT) {
+            return;
+        }
+        if (!encoderCalibration.isCalibrated(settings.getOutputFormat())) {
+            statusLabel.setText(settings.getOutputFormat() + " is not calibrated yet; using encoder defaults");
+            return;
+        }
+        EncoderTuning tuning = encoderCalibration.tuningFor(settings.getOutputFormat(), settings.getEncoderPreset());
+        if (settings.getOutputFormat() == ConversionSettings.OutputFormat.FLAC
+                && tuning != null && tuning.getCompressionLevel() >= 0) {
+            // The in-process encoder has one fixed level, so a chosen level goes to FFmpeg
+            statusLabel.setText("FLAC " + settings.getEncoderPreset().getLabel()
+                    + " uses FFmpeg's encoder at level " + tuning.getCompressionLevel()
+                    + " instead of the in-process parallel FLAC encoder");
+        }
+    }
+
+    /**
+     * Times every encoder option on the start of the selected file (pink
+     * noise if none is selected), in the background. Refused while a batch
+     * converts, since the timings would then measure a loaded machine.
+     */
+    @FXML
+    private void onCalibrateEncoders() {
+        if (!scheduler.isIdle()) {
+            showInfo("Encoder Calibration", "Calibration times the encoders on an otherwise idle machine. "
+                    + "Run it again once the current conversions have finished.");
+            return;
+        }
+        AudioFile reference = fileListView.getSelectionModel().getSelectedItem();
+        ConversionSettings base = settings.copy();
+        calibrateButton.setDisable(true);
+        statusLabel.setText("Calibrating encoders on "
+                + (reference != null ? reference.getName() : "a generated reference clip") + "...");
+        CompletableFuture.runAsync(() -> {
+            try {
+                encoderCalibration.calibrate(reference, base, CALIBRATION_SECONDS, CALIBRATION_RUNS);
+            } catch (AudioConversionException | IOException e) {
+                throw new CompletionException(e);
+            }
+        }, calibrationExecutor).whenComplete((result, error) -> Platform.runLater(() -> {
+            calibrateButton.setDisable(false);
+            statusLabel.setText("Ready");
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                showError("Calibration Error", cause.getMessage());
+            } else {
+                showInfo("Encoder Calibration", encoderCalibration.describe());
+            }
+        }));
+    }
+
+    private void editClipRanges(AudioFile audioFile) {
+        if (audioFile == null) {
+            return;
+        }
+        String current = String.join(", ",
+                audioFile.getClipRanges().stream().map(ClipRange::toString).toList());
+        TextInputDialog dialog = new TextInputDialog(current);
+        dialog.setTitle("Clip Ranges");
+        dialog.setHeaderText(audioFile.getName());
+        dialog.setContentText("Ranges (e.g. 47:00-52:00, 1:10:00-):");
+        dialog.showAndWait().ifPresent(text -> {
+            try {
+                audioFile.setClipRanges(ClipRange.parseList(text));
+                fileListView.refresh();
+            } catch (IllegalArgumentException ex) {
+                showError("Invalid Clip Range", ex.getMessage());
+            }
+        });
+    }
+
     private void updateFormatUI() {
         ConversionSettings.OutputFormat format = settings.getOutputFormat();
 
@@ -503,7 +993,11 @@ public class MainViewController {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Select Audio Files");
         fileChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Audio and Video Files", "*.mp3", "*.wav", "*.m4a", "*.flac",
+                        "*.mp4", "*.m4v", "*.mkv", "*.mov", "*.webm", "*.avi"),
                 new FileChooser.ExtensionFilter("Audio Files", "*.mp3", "*.wav", "*.m4a", "*.flac"),
+                new FileChooser.ExtensionFilter("Video Files (audio track only)", "*.mp4", "*.m4v", "*.mkv",
+                        "*.mov", "*.webm", "*.avi"),
                 new FileChooser.ExtensionFilter("All Files", "*.*")
         );
 
@@ -560,128 +1054,356 @@ public class MainViewController {
             return;
         }
 
-        // Disable UI during conversion
-        setUIDisabled(true);
-
-        // Reset all files to pending
-        audioFiles.forEach(file -> file.setStatus(AudioFile.ConversionStatus.PENDING));
+        // The batch keeps its own files and settings, so the UI stays usable
+        // and the next batch can be configured while this one runs
+        List<AudioFile> batchFiles = new ArrayList<>(audioFiles);
+        ConversionSettings batchSettings = snapshotSettings();
+        Transcoder.Capabilities capabilities = transcoder.getCapabilities();
+        if (!capabilities.supports(batchSettings.getOutputFormat())) {
+            showError("Unsupported Format", "The " + transcoder.getName() + " transcoder cannot write "
+                    + batchSettings.getOutputFormat() + ".");
+            return;
+        }
+        if (!capabilities.isAudioStats()) {
+            batchSettings.setCollectStats(false);
+        }
+        // Analysis passes decode the inputs with FFmpeg, so they only go with real encodes
+        boolean simulated = !capabilities.isWritesOutputs();
+        BatchPriority priority = priorityComboBox.getValue() != null
+                ? priorityComboBox.getValue() : BatchPriority.NORMAL;
+        double weight = shareComboBox.getValue() != null
+                ? shareComboBox.getValue().getWeight() : BatchShare.NORMAL.getWeight();
+
+        batchFiles.forEach(file -> file.setStatus(AudioFile.ConversionStatus.PENDING));
         fileListView.refresh();
 
-        // Create conversion tasks
-        List<AudioConversionTask> tasks = new ArrayList<>();
-        for (AudioFile audioFile : audioFiles) {
-            AudioConversionTask task = new AudioConversionTask(
-                    audioFile, settings, outputDir.getAbsolutePath(), ffmpegService);
+        // Files to split into tracks; user clip ranges take precedence
+        Map<AudioFile, CompletableFuture<List<ClipRange>>> splits = new IdentityHashMap<>();
+        if (batchSettings.getSplitMode() != ConversionSettings.SplitMode.NONE && splitAnalyzer != null && !simulated) {
+            List<AudioFile> candidates = batchFiles.stream().filter(f -> !f.hasClipRanges()).toList();
+            splitAnalyzer.analyzeAll(candidates, batchSettings, analysisExecutor).forEach((file, future) ->
+                    splits.put(file, future.exceptionally(e -> {
+                        // The file is then converted whole
+                        System.err.println("Split analysis failed for " + file.getName() + ": " + e.getMessage());
+                        return List.of();
+                    })));
+        }
+
+        // Loudness analysis for every file ahead of the encodes. Queued after the
+        // split passes, which the batch submission waits for; each encode only
+        // waits for its own measurement
+        Map<AudioFile, CompletableFuture<LoudnessMeasurement>> loudnessMeasurements =
+                batchSettings.isNormalizeLoudness() && loudnessAnalyzer != null && !simulated
+                        ? loudnessAnalyzer.analyzeAll(batchFiles, batchSettings.getLoudnessTarget(), analysisExecutor)
+                        : Map.of();
+        // Encodes wait in the queue for their measurement, so each one finishing may free a job
+        loudnessMeasurements.values().forEach(measurement ->
+                measurement.whenComplete((result, error) -> scheduler.wake()));
+
+        // Small files share one FFmpeg process unless each needs its own loudness
+        // measurement or goes to a remote worker. Clipped files always get their
+        // own process (one decode for all clips), split files one job per track
+        boolean distributed = coordinator != null && coordinator.getWorkerCount() > 0 && !simulated;
+        List<List<AudioFile>> groups = new ArrayList<>();
+        List<AudioFile> wholeFiles = new ArrayList<>();
+        for (AudioFile audioFile : batchFiles) {
+            if (audioFile.hasClipRanges() || splits.containsKey(audioFile)) {
+                groups.add(List.of(audioFile));
+            } else {
+                wholeFiles.add(audioFile);
+            }
+        }
+        // Statistics come from per-file runs, so files are not grouped when collecting them
+        groups.addAll(batchSettings.isNormalizeLoudness() || batchSettings.isCollectStats() || distributed
+                || !capabilities.isGroupedBatches()
+                ? wholeFiles.stream().map(List::of).toList()
+                : smallFileBatcher.group(wholeFiles));
+
+        int batchId = ++batchCounter;
+        statusLabel.setText("Analysing files for batch #" + batchId + "...");
+        startProgressTimeline();
+
+        // Probe files that get their own job up front (grouped small files are
+        // estimated from their size) so the ETA and job order can use real durations
+        List<CompletableFuture<?>> analyses = new ArrayList<>(splits.values());
+        for (List<AudioFile> group : groups) {
+            if (group.size() == 1) {
+                AudioFile audioFile = group.get(0);
+                analyses.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        transcoder.probeSourceInfo(audioFile);
+                    } catch (AudioConversionException ignored) {
+                        // Reported when the job itself runs
+                    }
+                }, probeExecutor));
+            }
+        }
+
+        CompletableFuture.allOf(analyses.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            AudioConversionTask.ProgressCallback refreshCallback =
+                    status -> Platform.runLater(() -> fileListView.refresh());
+            String outputPath = outputDir.getAbsolutePath();
+
+            List<ConversionJob> tasks = new ArrayList<>();
+            BatchResults results = new BatchResults(outputVerifier);
+            for (List<AudioFile> group : groups) {
+                if (group.size() > 1) {
+                    AudioBatchConversionTask batchTask = new AudioBatchConversionTask(
+                            group, batchSettings, outputPath, ffmpegService);
+                    batchTask.setProgressCallback(refreshCallback);
+                    batchTask.setResults(results);
+                    tasks.add(batchTask);
+                    continue;
+                }
 
-            task.setProgressCallback(new AudioConversionTask.ProgressCallback() {
-                @Override
-                public void onProgress(double percentage, String message) {
-                    // Optional: update individual file progress
+                AudioFile audioFile = group.get(0);
+                List<ClipRange> tracks = splits.containsKey(audioFile) ? splits.get(audioFile).join() : List.of();
+                if (!tracks.isEmpty()) {
+                    TrackConversionTask.TrackSet trackSet = new TrackConversionTask.TrackSet(audioFile, tracks.size());
+                    for (ClipRange track : tracks) {
+                        TrackConversionTask task = new TrackConversionTask(
+                                trackSet, track, batchSettings, outputPath, transcoder);
+                        task.setLoudnessMeasurement(loudnessMeasurements.get(audioFile));
+                        task.setProgressCallback(refreshCallback);
+                        task.setOutputStaging(outputStaging);
+                        task.setResults(results);
+                        tasks.add(task);
+                    }
+                    continue;
                 }
 
-                @Override
-                public void onStatusChange(AudioFile.ConversionStatus status) {
-                    Platform.runLater(() -> fileListView.refresh());
+                AudioConversionTask task = new AudioConversionTask(
+                        audioFile, batchSettings, outputPath, transcoder);
+                task.setLoudnessMeasurement(loudnessMeasurements.get(audioFile));
+                task.setProgressCallback(refreshCallback);
+                // Workers only convert whole files
+                if (distributed && !audioFile.hasClipRanges() && !batchSettings.isCollectStats()) {
+                    task.setCoordinator(coordinator);
+                } else {
+                    task.setOutputStaging(outputStaging);
                 }
-            });
+                task.setResults(results);
+                tasks.add(task);
+            }
 
-            tasks.add(task);
-        }
+            // One progress slot per file or track; workers write positions, the UI
+            // samples them. Weighted by decoded duration (size-based guess when unprobed)
+            int slotCount = tasks.stream().mapToInt(task -> task.getAudioFiles().size()).sum();
+            BatchProgress batchProgress = new BatchProgress(slotCount);
+            int nextSlot = 0;
+            for (ConversionJob task : tasks) {
+                int[] slots = new int[task.getAudioFiles().size()];
+                for (int i = 0; i < slots.length; i++) {
+                    AudioFile audioFile = task.getAudioFiles().get(i);
+                    slots[i] = nextSlot++;
+                    batchProgress.setTotal(slots[i], audioFile.getProcessedDuration(), audioFile.getFileSize());
+                }
+                task.setBatchProgress(batchProgress, slots);
+            }
 
-        // Execute tasks
-        Task<Void> masterTask = new Task<>() {
-            @Override
-            protected Void call() throws Exception {
-                CompletionService<Void> completionService =
-                        new ExecutorCompletionService<>(executorService);
+            ConversionBatch batch = new ConversionBatch(batchId, priority, weight, batchSettings,
+                    outputPath, batchFiles, tasks, batchProgress, batchListener);
+            batch.setResults(results);
+            for (ConversionJob task : tasks) {
+                batch.predicted.put(task, predictSeconds(task.getAudioFiles(), batchSettings));
+            }
+            recordSourceSavings(batch, tasks);
+            scheduler.submit(batch);
+            Platform.runLater(this::startProgressTimeline);
+        }).exceptionally(error -> {
+            // Nothing was queued, so the files go back to waiting for the next attempt
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+            System.err.println("Could not start batch #" + batchId + ": " + cause);
+            Platform.runLater(() -> {
+                batchFiles.forEach(file -> file.setStatus(AudioFile.ConversionStatus.PENDING));
+                fileListView.refresh();
+                if (scheduler.isIdle()) {
+                    stopProgressTimeline();
+                    progressBar.setProgress(0);
+                }
+                statusLabel.setText("Batch #" + batchId + " was not started");
+                showError("Conversion Error", "Could not start batch #" + batchId + ": "
+                        + (cause.getMessage() != null ? cause.getMessage() : cause.toString()));
+            });
+            return null;
+        });
+    }
 
-                int totalTasks = tasks.size();
-                int completedTasks = 0;
+    // The transcoder's own estimate where it has one, otherwise the learned model
+    private double predictSeconds(List<AudioFile> files, ConversionSettings batchSettings) {
+        double total = 0;
+        for (AudioFile audioFile : files) {
+            double estimate = transcoder.estimateSeconds(audioFile, batchSettings);
+            total += estimate >= 0 ? estimate : throughputModel.predictSeconds(audioFile, batchSettings);
+        }
+        return total;
+    }
 
-                for (Callable<Void> task : tasks) {
-                    completionService.submit(task);
+    // Compares each probed file against the batch settings taken literally
+    private void recordSourceSavings(ConversionBatch batch, List<ConversionJob> tasks) {
+        ConversionSettings literal = batch.getSettings().copy();
+        literal.setNeverExceedSource(false);
+        int capped = 0;
+        long bytes = 0;
+        double seconds = 0;
+        for (ConversionJob task : tasks) {
+            for (AudioFile audioFile : task.getAudioFiles()) {
+                ConversionSettings resolved = SourceAwareSettings.resolve(audioFile, batch.getSettings());
+                if (resolved == batch.getSettings()) {
+                    continue;
                 }
+                double duration = audioFile.getProcessedDuration();
+                capped++;
+                bytes += SourceAwareSettings.estimateOutputBytes(duration, literal)
+                        - SourceAwareSettings.estimateOutputBytes(duration, resolved);
+                seconds += throughputModel.predictSeconds(audioFile, literal)
+                        - throughputModel.predictSeconds(audioFile, resolved);
+            }
+        }
+        batch.setSourceSavings(capped, bytes, seconds);
+    }
 
-                for (int i = 0; i < totalTasks; i++) {
-                    try {
-                        Future<Void> future = completionService.take();
-                        future.get();
-                        completedTasks++;
-
-                        double progress = (double) completedTasks / totalTasks;
-                        updateProgress(progress, 1.0);
-                        updateMessage(String.format("Completed %d of %d files",
-                                completedTasks, totalTasks));
-
-                    } catch (ExecutionException e) {
-                        Throwable cause = e.getCause();
-                        if (cause instanceof AudioConversionException) {
-                            AudioConversionException ace = (AudioConversionException) cause;
-                            final String errorMsg = ace.getUserFriendlyMessage();
-                            Platform.runLater(() ->
-                                    showError("Conversion Error", errorMsg));
-                        } else {
-                            final String errorMsg = "An unexpected error occurred: " +
-                                    (cause != null ? cause.getMessage() : "Unknown error");
-                            Platform.runLater(() ->
-                                    showError("Unexpected Error", errorMsg));
-                        }
+    private final ConversionBatch.BatchListener batchListener = new ConversionBatch.BatchListener() {
+        @Override
+        public void onJobFinished(ConversionBatch batch, ConversionJob job, Throwable cause) {
+            if (cause == null) {
+                return;
+            }
+            if (cause instanceof AudioConversionException && ((AudioConversionException) cause).getErrorType()
+                    == AudioConversionException.ErrorType.CANCELLED) {
+                // Asked for, so not an error
+                return;
+            }
+            if (cause instanceof AudioConversionException) {
+                // Grouped jobs attach the other failed files as suppressed
+                StringBuilder errorMsg = new StringBuilder(
+                        ((AudioConversionException) cause).getUserFriendlyMessage());
+                for (Throwable other : cause.getSuppressed()) {
+                    if (other instanceof AudioConversionException) {
+                        errorMsg.append("\n").append(
+                                ((AudioConversionException) other).getUserFriendlyMessage());
                     }
                 }
-
-                return null;
+                Platform.runLater(() ->
+                        showError("Conversion Error", errorMsg.toString()));
+            } else {
+                final String errorMsg = "An unexpected error occurred: " +
+                        (cause.getMessage() != null ? cause.getMessage() : "Unknown error");
+                Platform.runLater(() ->
+                        showError("Unexpected Error", errorMsg));
             }
-        };
+        }
 
-        progressBar.progressProperty().bind(masterTask.progressProperty());
-        statusLabel.textProperty().bind(masterTask.messageProperty());
+        @Override
+        public void onBatchFinished(ConversionBatch batch) {
+            // Staged outputs may still be moving; the file statuses settle once they are in place
+            CompletableFuture<Void> moved = outputStaging != null
+                    ? outputStaging.drain()
+                    : CompletableFuture.completedFuture(null);
+            moved.thenCompose(ignored -> batch.getResults().write(Paths.get(batch.getOutputPath()), batch.getId()))
+                    .whenComplete((resultsFile, error) -> {
+                        if (error != null) {
+                            System.err.println("Could not write results of " + batch + ": " + error.getMessage());
+                        }
+                        reportBatch(batch, resultsFile);
+                    });
+        }
 
-        masterTask.setOnSucceeded(e -> {
-            long successful = audioFiles.stream()
+        private void reportBatch(ConversionBatch batch, Path resultsFile) {
+            long successful = batch.getAudioFiles().stream()
                     .filter(f -> f.getStatus() == AudioFile.ConversionStatus.COMPLETED)
                     .count();
-            long failed = audioFiles.stream()
+            long failed = batch.getAudioFiles().stream()
                     .filter(f -> f.getStatus() == AudioFile.ConversionStatus.FAILED)
                     .count();
+            long cancelled = batch.getAudioFiles().stream()
+                    .filter(f -> f.getStatus() == AudioFile.ConversionStatus.CANCELLED)
+                    .count();
 
-            statusLabel.textProperty().unbind();
-            statusLabel.setText(String.format("Conversion complete: %d successful, %d failed",
-                    successful, failed));
-
-            showInfo("Conversion Complete",
-                    String.format("Successfully converted %d file(s).\nFailed: %d\n\nOutput location: %s",
-                            successful, failed, outputDir.getAbsolutePath()));
-
-            setUIDisabled(false);
-        });
+            double predictionError = throughputModel.getPredictionError();
+            String accuracy = predictionError < 0 ? "" :
+                    String.format("\nTime estimates are currently within about %.0f%%.", predictionError * 100);
+            String waits = String.format("\nQueue wait: %.1fs average, %.1fs longest.",
+                    batch.getMeanQueueWaitSeconds(), batch.getMaxQueueWaitSeconds());
+            String savings = batch.getFilesCapped() == 0 ? "" : String.format(
+                    "\nCapped to source on %d file(s): about %.1f MB smaller, %.0fs less encoding.",
+                    batch.getFilesCapped(), batch.getBytesSaved() / (1024.0 * 1024.0),
+                    Math.max(0, batch.getSecondsSaved()));
+            BatchResults results = batch.getResults();
+            int verified = results.count(OutputRecord.Verification.PASSED);
+            int corrupt = results.count(OutputRecord.Verification.FAILED);
+            String integrity = resultsFile == null ? "\nChecksums could not be written." : String.format(
+                    "\nChecksums: %s%s", resultsFile.getFileName(), verified + corrupt == 0 ? ""
+                            : String.format(" (decode check: %d passed, %d failed)", verified, corrupt));
+
+            Platform.runLater(() -> {
+                fileListView.refresh();
+                if (scheduler.isIdle()) {
+                    stopProgressTimeline();
+                    statusLabel.setText(String.format("Conversion complete: %d successful, %d failed%s",
+                            successful, failed, cancelled == 0 ? "" : ", " + cancelled + " cancelled"));
+                    progressBar.setProgress(0);
+                }
+                showInfo(batch + " Complete",
+                        String.format("Successfully converted %d file(s).\nFailed: %d%s\n\nOutput location: %s%s%s%s%s",
+                                successful, failed, cancelled == 0 ? "" : "\nCancelled: " + cancelled,
+                                batch.getOutputPath(), integrity, savings, waits, accuracy));
+            });
+        }
+    };
 
-        masterTask.setOnFailed(e -> {
-            statusLabel.textProperty().unbind();
-            statusLabel.setText("Conversion failed");
-            showError("Error", "An error occurred during conversion.");
-            setUIDisabled(false);
-        });
+    // 0.1 or 10% both mean one output in ten
+    private static double parseFraction(String value) {
+        if (value == null || value.isBlank()) {
+            return 0;
+        }
+        try {
+            String trimmed = value.trim();
+            return trimmed.endsWith("%")
+                    ? Double.parseDouble(trimmed.substring(0, trimmed.length() - 1)) / 100
+                    : Double.parseDouble(trimmed);
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid verification sample '" + value + "'");
+            return 0;
+        }
+    }
 
-        Thread thread = new Thread(masterTask);
-        thread.setDaemon(true);
-        thread.start();
+    private static OutputStaging.FsyncPolicy parseFsyncPolicy(String value) {
+        if (value == null || value.isBlank()) {
+            return OutputStaging.FsyncPolicy.FILE;
+        }
+        try {
+            return OutputStaging.FsyncPolicy.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown fsync policy '" + value + "', using " + OutputStaging.FsyncPolicy.FILE.name());
+            return OutputStaging.FsyncPolicy.FILE;
+        }
     }
 
-    private void setUIDisabled(boolean disabled) {
-        convertButton.setDisable(disabled);
-        clearButton.setDisable(disabled);
-        formatComboBox.setDisable(disabled);
-        qualitySlider.setDisable(disabled);
-        bitrateComboBox.setDisable(disabled);
-        constantBitrateRadio.setDisable(disabled);
-        variableBitrateRadio.setDisable(disabled);
-        sampleRateComboBox.setDisable(disabled);
-        channelsComboBox.setDisable(disabled);
-        showAdvancedCheckBox.setDisable(disabled);
+    // Samples every active batch: the bar at a fixed frame rate, the status once a second
+    private void startProgressTimeline() {
+        if (progressTimeline != null) {
+            return;
+        }
+        progressTimeline = new Timeline(new KeyFrame(Duration.millis(1000.0 / PROGRESS_FPS), e -> {
+            progressBar.setProgress(scheduler.getOverallFraction());
+            long now = System.nanoTime();
+            if (now - lastStatusNanos >= 1_000_000_000L) {
+                lastStatusNanos = now;
+                if (!scheduler.isIdle()) {
+                    statusLabel.setText(scheduler.describe());
+                }
+            }
+        }));
+        progressTimeline.setCycleCount(Animation.INDEFINITE);
+        progressTimeline.play();
+    }
 
-        if (!disabled) {
-            progressBar.progressProperty().unbind();
-            progressBar.setProgress(0);
+    private void stopProgressTimeline() {
+        if (progressTimeline != null) {
+            progressTimeline.stop();
+            progressTimeline = null;
         }
     }
 
@@ -699,10 +1421,77 @@ public class MainViewController {
 
     @FXML
     private void onClose() {
+        stopProgressTimeline();
+        if (previewPlayer != null) {
+            previewPlayer.close();
+        }
+        if (loudnessCache != null) {
+            // Measurements from the last couple of seconds are not on disk yet
+            loudnessCache.flush();
+        }
+        if (scheduler != null) {
+            scheduler.stop();
+        }
+        if (prefetcher != null) {
+            prefetcher.shutdown();
+        }
+        if (ffmpegService != null) {
+            // Running encodes would otherwise keep going after the window is gone
+            ffmpegService.getProcessRegistry().destroyAll();
+        }
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+        if (analysisExecutor != null) {
+            analysisExecutor.shutdown();
+        }
+        if (probeExecutor != null) {
+            probeExecutor.shutdownNow();
+        }
+        if (calibrationExecutor != null) {
+            calibrationExecutor.shutdownNow();
+        }
+        if (waveformExecutor != null) {
+            waveformExecutor.shutdownNow();
+        }
+
+        // Moving staged outputs and telling workers to stop can take a while,
+        // so that runs in the background while the window shows how far it got
+        Launcher.primaryStage.getScene().getRoot().setDisable(true);
+        Timeline closingStatus = new Timeline(new KeyFrame(Duration.millis(250), event -> {
+            int pending = outputStaging != null ? outputStaging.getPendingMoves() : 0;
+            statusLabel.setText(pending > 0
+                    ? "Closing: moving " + pending + " staged output(s) to their destination..."
+                    : "Closing...");
+        }));
+        closingStatus.setCycleCount(Animation.INDEFINITE);
+        closingStatus.play();
+        CompletableFuture.runAsync(this::finishClosing)
+                .whenComplete((result, error) -> Platform.runLater(Platform::exit));
+    }
+
+    private void finishClosing() {
         if (executorService != null) {
-            executorService.shutdown();
+            try {
+                // Jobs that were already finishing may still commit their stage
+                executorService.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (outputStaging != null) {
+            // Let queued moves finish so no output is left behind in scratch
+            outputStaging.drain().join();
+            outputStaging.shutdown();
+        }
+        if (coordinator != null) {
+            try {
+                coordinator.close();
+            } catch (IOException e) {
+                System.err.println("Could not close coordinator: " + e.getMessage());
+            }
+            remoteExecutor.shutdownNow();
         }
-        Platform.exit();
     }
 
     private void showError(String title, String message) {
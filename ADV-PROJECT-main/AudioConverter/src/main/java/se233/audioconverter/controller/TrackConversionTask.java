@@ -0,0 +1,242 @@
+package se233.audioconverter.controller;
+
+import se233.audioconverter.exception.AudioConversionException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.AudioStats;
+import se233.audioconverter.model.ClipRange;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.model.EncodeOptions;
+import se233.audioconverter.model.LoudnessMeasurement;
+import se233.audioconverter.service.BatchProgress;
+import se233.audioconverter.service.BatchResults;
+import se233.audioconverter.service.Directories;
+import se233.audioconverter.service.OutputStaging;
+import se233.audioconverter.service.SourceAwareSettings;
+import se233.audioconverter.service.Transcoder;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * Converts one track of a file that was split at silences or chapters. Each
+ * track is its own job, so the tracks of one long recording spread across
+ * the pool instead of being encoded one after another.
+ */
+public class TrackConversionTask implements ConversionJob {
+    private final TrackSet trackSet;
+    private final AudioFile track; // the source file restricted to this track
+    private final ConversionSettings settings;
+    private final String outputPath;
+    private final Transcoder transcoder;
+
+    private AudioConversionTask.ProgressCallback progressCallback;
+    private CompletableFuture<LoudnessMeasurement> loudnessMeasurement;
+    private int threadCount;
+    private double predictedSeconds;
+    private BatchProgress batchProgress;
+    private int progressSlot;
+    private OutputStaging outputStaging;
+    private BatchResults results;
+    private volatile AudioStats stats;
+    private volatile long bytesWritten;
+
+    /**
+     * The tracks of one file; the file's status covers all of them.
+     */
+    public static class TrackSet {
+        private final AudioFile audioFile;
+        private int remaining;
+        private boolean failed;
+        private boolean cancelled;
+
+        public TrackSet(AudioFile audioFile, int trackCount) {
+            this.audioFile = audioFile;
+            this.remaining = trackCount;
+        }
+
+        public AudioFile getAudioFile() {
+            return audioFile;
+        }
+
+        // Publishes the file's status after this track finished; a failed track outweighs
+        // a cancelled one. Published under the lock, so an earlier track's PROCESSING
+        // can never land after the last track's final status
+        synchronized void finished(AudioFile.ConversionStatus outcome,
+                                   Consumer<AudioFile.ConversionStatus> publish) {
+            remaining--;
+            failed |= outcome == AudioFile.ConversionStatus.FAILED;
+            cancelled |= outcome == AudioFile.ConversionStatus.CANCELLED;
+            if (remaining > 0) {
+                publish.accept(AudioFile.ConversionStatus.PROCESSING);
+            } else if (failed) {
+                publish.accept(AudioFile.ConversionStatus.FAILED);
+            } else {
+                publish.accept(cancelled ? AudioFile.ConversionStatus.CANCELLED : AudioFile.ConversionStatus.COMPLETED);
+            }
+        }
+    }
+
+    public TrackConversionTask(TrackSet trackSet, ClipRange range, ConversionSettings settings,
+                               String outputPath, Transcoder transcoder) {
+        this.trackSet = trackSet;
+        this.track = trackSet.getAudioFile().forClip(range);
+        this.settings = settings;
+        this.outputPath = outputPath;
+        this.transcoder = transcoder;
+    }
+
+    public void setProgressCallback(AudioConversionTask.ProgressCallback callback) {
+        this.progressCallback = callback;
+    }
+
+    // Measured over the whole file, so every track gets the same gain
+    public void setLoudnessMeasurement(CompletableFuture<LoudnessMeasurement> loudnessMeasurement) {
+        this.loudnessMeasurement = loudnessMeasurement;
+    }
+
+    @Override
+    public boolean isReady() {
+        return loudnessMeasurement == null || loudnessMeasurement.isDone();
+    }
+
+    public void setOutputStaging(OutputStaging outputStaging) {
+        this.outputStaging = outputStaging;
+    }
+
+    public void setResults(BatchResults results) {
+        this.results = results;
+    }
+
+    @Override
+    public void setThreadCount(int threads) {
+        this.threadCount = threads;
+    }
+
+    @Override
+    public void setPredictedSeconds(double seconds) {
+        this.predictedSeconds = seconds;
+    }
+
+    @Override
+    public void setBatchProgress(BatchProgress batchProgress, int[] slots) {
+        this.batchProgress = batchProgress;
+        this.progressSlot = slots[0];
+    }
+
+    @Override
+    public void cancelPending() {
+        if (batchProgress != null) {
+            batchProgress.complete(progressSlot);
+        }
+        trackSet.finished(AudioFile.ConversionStatus.CANCELLED, this::updateStatus);
+    }
+
+    @Override
+    public Void call() throws Exception {
+        updateStatus(AudioFile.ConversionStatus.PROCESSING);
+
+        long startedMillis = System.currentTimeMillis();
+        boolean success = false;
+        AudioFile.ConversionStatus outcome = AudioFile.ConversionStatus.FAILED;
+        OutputStaging.Stage stage = null;
+        try {
+            if (outputStaging != null) {
+                stage = outputStaging.begin(outputPath, SourceAwareSettings.estimateOutputBytes(
+                        track.getProcessedDuration(), SourceAwareSettings.resolve(track, settings)));
+            }
+            EncodeOptions options = new EncodeOptions();
+            options.setLoudness(awaitLoudnessMeasurement());
+            options.setThreads(threadCount);
+            options.setExpectedSeconds(predictedSeconds);
+
+            String writtenTo = stage != null ? stage.getDirectory() : outputPath;
+            stats = transcoder.convertAudio(track, settings, writtenTo, options, progress -> {
+                if (batchProgress != null) {
+                    batchProgress.setProcessed(progressSlot, progress.out_time_ns / 1000);
+                }
+            });
+            // Measured before a staged output moves away
+            bytesWritten = Directories.totalSize(transcoder.outputFilenames(track, settings, writtenTo));
+            success = true;
+        } catch (AudioConversionException e) {
+            if (stage == null) {
+                transcoder.deletePartialOutputs(track, settings, outputPath, startedMillis);
+            }
+            if (e.getErrorType() == AudioConversionException.ErrorType.CANCELLED) {
+                outcome = AudioFile.ConversionStatus.CANCELLED;
+            }
+            throw e;
+        } finally {
+            if (batchProgress != null) {
+                batchProgress.complete(progressSlot);
+            }
+            if (stage != null && success) {
+                // The track only counts once it is in the output folder
+                stage.commit((checksums, error) -> {
+                    if (error != null) {
+                        System.err.println("Moving a track of " + track.getName() + " to the output folder failed: " + error);
+                    } else if (results != null) {
+                        checksums.forEach((output, checksum) -> results.record(track, output, checksum, stats));
+                    }
+                    trackSet.finished(error == null
+                            ? AudioFile.ConversionStatus.COMPLETED
+                            : AudioFile.ConversionStatus.FAILED, this::updateStatus);
+                });
+            } else {
+                if (stage != null) {
+                    stage.discard();
+                }
+                if (success && results != null) {
+                    for (String output : transcoder.outputFilenames(track, settings, outputPath)) {
+                        results.recordWritten(track, output, stats);
+                    }
+                }
+                trackSet.finished(success ? AudioFile.ConversionStatus.COMPLETED : outcome, this::updateStatus);
+            }
+        }
+
+        return null;
+    }
+
+    private LoudnessMeasurement awaitLoudnessMeasurement() throws AudioConversionException {
+        if (loudnessMeasurement == null) {
+            return null;
+        }
+        try {
+            return loudnessMeasurement.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof AudioConversionException) {
+                throw (AudioConversionException) e.getCause();
+            }
+            throw new AudioConversionException(
+                    track.getName(),
+                    AudioConversionException.ErrorType.FFMPEG_ERROR,
+                    e.getCause() != null ? e.getCause() : e
+            );
+        }
+    }
+
+    private void updateStatus(AudioFile.ConversionStatus status) {
+        trackSet.getAudioFile().setStatus(status);
+        if (progressCallback != null) {
+            progressCallback.onStatusChange(status);
+        }
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public AudioStats getStats() {
+        return stats;
+    }
+
+    // The track, so predictions and progress use its length rather than the file's
+    @Override
+    public List<AudioFile> getAudioFiles() {
+        return List.of(track);
+    }
+}
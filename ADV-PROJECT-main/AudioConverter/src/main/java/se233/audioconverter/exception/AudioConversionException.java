@@ -9,7 +9,11 @@ public class AudioConversionException extends Exception {
         FILE_NOT_FOUND("File not found"),
         FFMPEG_ERROR("FFmpeg conversion error"),
         INVALID_SETTINGS("Invalid conversion settings"),
-        IO_ERROR("Input/Output error");
+        IO_ERROR("Input/Output error"),
+        WORKER_ERROR("Remote worker error"),
+        STALLED("FFmpeg stopped making progress"),
+        CANCELLED("Conversion cancelled"),
+        PLAYBACK_ERROR("Audio playback error");
 
         private final String message;
 
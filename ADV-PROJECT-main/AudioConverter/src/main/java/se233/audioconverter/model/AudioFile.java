@@ -3,6 +3,8 @@ package se233.audioconverter.model;
 import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public class AudioFile {
     private String name;
@@ -10,12 +12,15 @@ public class AudioFile {
     private String format;
     private long fileSize;
     private ConversionStatus status;
+    private AudioSourceInfo sourceInfo; // null until probed
+    private List<ClipRange> clipRanges = new ArrayList<>(); // empty = whole file
 
     public enum ConversionStatus {
         PENDING("Pending"),
         PROCESSING("Processing..."),
         COMPLETED("Completed"),
-        FAILED("Failed");
+        FAILED("Failed"),
+        CANCELLED("Cancelled");
 
         private final String displayName;
 
@@ -87,8 +92,58 @@ public class AudioFile {
         this.status = status;
     }
 
+    public AudioSourceInfo getSourceInfo() {
+        return sourceInfo;
+    }
+
+    public void setSourceInfo(AudioSourceInfo sourceInfo) {
+        this.sourceInfo = sourceInfo;
+    }
+
+    public List<ClipRange> getClipRanges() {
+        return clipRanges;
+    }
+
+    public void setClipRanges(List<ClipRange> clipRanges) {
+        this.clipRanges = clipRanges != null ? new ArrayList<>(clipRanges) : new ArrayList<>();
+    }
+
+    public boolean hasClipRanges() {
+        return !clipRanges.isEmpty();
+    }
+
+    // The same input restricted to one range, e.g. one track of a split file
+    public AudioFile forClip(ClipRange range) {
+        AudioFile clip = new AudioFile(filePath);
+        clip.sourceInfo = sourceInfo;
+        clip.clipRanges.add(range);
+        return clip;
+    }
+
+    /**
+     * Seconds of audio FFmpeg has to decode: the whole file, or the span from
+     * the first clip start to the last clip end. 0 if unknown (not probed).
+     */
+    public double getProcessedDuration() {
+        double duration = sourceInfo != null ? sourceInfo.getDuration() : 0;
+        if (clipRanges.isEmpty()) {
+            return duration;
+        }
+        double start = Double.MAX_VALUE;
+        double end = 0;
+        for (ClipRange range : clipRanges) {
+            start = Math.min(start, range.getStart());
+            end = Math.max(end, range.isOpenEnded() ? duration : range.getEnd());
+        }
+        if (duration > 0) {
+            end = Math.min(end, duration);
+        }
+        return Math.max(0, end - start);
+    }
+
     @Override
     public String toString() {
-        return String.format("%s [%s] - %s", name, format.toUpperCase(), status.getDisplayName());
+        String clips = clipRanges.isEmpty() ? "" : " (" + clipRanges.size() + " clip(s))";
+        return String.format("%s [%s]%s - %s", name, format.toUpperCase(), clips, status.getDisplayName());
     }
 }
\ No newline at end of file
@@ -0,0 +1,40 @@
+package se233.audioconverter.model;
+
+/**
+ * Properties of an input's first audio stream, as reported by ffprobe.
+ */
+public class AudioSourceInfo {
+    private final String codec;
+    private final int sampleRate;
+    private final int channels;
+    private final long bitRate;
+    private final double duration; // seconds
+
+    public AudioSourceInfo(String codec, int sampleRate, int channels, long bitRate, double duration) {
+        this.codec = codec;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bitRate = bitRate;
+        this.duration = duration;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public long getBitRate() {
+        return bitRate;
+    }
+
+    public double getDuration() {
+        return duration;
+    }
+}
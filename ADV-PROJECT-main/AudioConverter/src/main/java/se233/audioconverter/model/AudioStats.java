@@ -0,0 +1,62 @@
+package se233.audioconverter.model;
+
+import java.util.Locale;
+
+/**
+ * Level statistics of one converted output, measured by an analysis branch
+ * of the encode itself (astats, silencedetect and ebur128).
+ */
+public class AudioStats {
+    private double peakDb;
+    private double rmsDb;
+    private long clippedSamples; // samples at full scale
+    private double silenceRatio; // fraction of the duration below the silence threshold
+    private double integratedLufs;
+    private double loudnessRange;
+    private double truePeakDb;
+
+    public AudioStats(double peakDb, double rmsDb, long clippedSamples, double silenceRatio,
+                      double integratedLufs, double loudnessRange, double truePeakDb) {
+        this.peakDb = peakDb;
+        this.rmsDb = rmsDb;
+        this.clippedSamples = clippedSamples;
+        this.silenceRatio = silenceRatio;
+        this.integratedLufs = integratedLufs;
+        this.loudnessRange = loudnessRange;
+        this.truePeakDb = truePeakDb;
+    }
+
+    public double getPeakDb() {
+        return peakDb;
+    }
+
+    public double getRmsDb() {
+        return rmsDb;
+    }
+
+    public long getClippedSamples() {
+        return clippedSamples;
+    }
+
+    public double getSilenceRatio() {
+        return silenceRatio;
+    }
+
+    public double getIntegratedLufs() {
+        return integratedLufs;
+    }
+
+    public double getLoudnessRange() {
+        return loudnessRange;
+    }
+
+    public double getTruePeakDb() {
+        return truePeakDb;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "peak %.1f dB, RMS %.1f dB, %d clipped, %.0f%% silence, %.1f LUFS",
+                peakDb, rmsDb, clippedSamples, silenceRatio * 100, integratedLufs);
+    }
+}
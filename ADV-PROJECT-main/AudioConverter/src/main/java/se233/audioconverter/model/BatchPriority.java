@@ -0,0 +1,27 @@
+package se233.audioconverter.model;
+
+/**
+ * Scheduling class of a conversion batch. Free slots always go to the
+ * highest class with work waiting; batches in the same class share slots
+ * by weight.
+ */
+public enum BatchPriority {
+    URGENT("Urgent"),
+    NORMAL("Normal"),
+    BACKGROUND("Background");
+
+    private final String label;
+
+    BatchPriority(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
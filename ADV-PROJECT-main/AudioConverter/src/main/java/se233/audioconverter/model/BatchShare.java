@@ -0,0 +1,33 @@
+package se233.audioconverter.model;
+
+/**
+ * Weight of a batch against the other batches of its priority class: a
+ * batch with a double share gets about twice their encode time.
+ */
+public enum BatchShare {
+    HALF("Half share", 0.5),
+    NORMAL("Normal share", 1.0),
+    DOUBLE("Double share", 2.0),
+    QUADRUPLE("Quadruple share", 4.0);
+
+    private final String label;
+    private final double weight;
+
+    BatchShare(String label, double weight) {
+        this.label = label;
+        this.weight = weight;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
@@ -0,0 +1,100 @@
+package se233.audioconverter.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A section of an input file to convert on its own, in seconds from the
+ * start of the file. An end of -1 means "until the end of the file".
+ */
+public class ClipRange {
+    private final double start;
+    private final double end;
+    private final String label; // used in the output file name
+
+    public ClipRange(double start, double end, String label) {
+        if (start < 0) {
+            throw new IllegalArgumentException("Clip start must not be negative");
+        }
+        if (end >= 0 && end <= start) {
+            throw new IllegalArgumentException("Clip end must be after its start");
+        }
+        this.start = start;
+        this.end = end;
+        this.label = label;
+    }
+
+    public double getStart() {
+        return start;
+    }
+
+    public double getEnd() {
+        return end;
+    }
+
+    public boolean isOpenEnded() {
+        return end < 0;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Parses a comma separated list such as {@code "47:00-52:00, 1:10:00-"}.
+     * Times are {@code [[h:]m:]s[.fraction]}; an empty end runs to the end of
+     * the file. Clips are labelled clip1, clip2, ... in the given order.
+     */
+    public static List<ClipRange> parseList(String text) {
+        List<ClipRange> ranges = new ArrayList<>();
+        if (text == null || text.isBlank()) {
+            return ranges;
+        }
+        for (String part : text.split(",")) {
+            String range = part.trim();
+            int dash = range.indexOf('-');
+            if (dash <= 0) {
+                throw new IllegalArgumentException("Expected start-end but got \"" + range + "\"");
+            }
+            double start = parseTime(range.substring(0, dash));
+            String endText = range.substring(dash + 1).trim();
+            double end = endText.isEmpty() ? -1 : parseTime(endText);
+            ranges.add(new ClipRange(start, end, "clip" + (ranges.size() + 1)));
+        }
+        return ranges;
+    }
+
+    public static double parseTime(String text) {
+        String[] fields = text.trim().split(":");
+        if (fields.length > 3) {
+            throw new IllegalArgumentException("Invalid time \"" + text.trim() + "\"");
+        }
+        double seconds = 0;
+        try {
+            for (String field : fields) {
+                seconds = seconds * 60 + Double.parseDouble(field.trim());
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid time \"" + text.trim() + "\"");
+        }
+        return seconds;
+    }
+
+    public static String formatTime(double seconds) {
+        long whole = (long) seconds;
+        double fraction = seconds - whole;
+        String text = whole >= 3600
+                ? String.format(Locale.ROOT, "%d:%02d:%02d", whole / 3600, (whole % 3600) / 60, whole % 60)
+                : String.format(Locale.ROOT, "%d:%02d", whole / 60, whole % 60);
+        if (fraction >= 0.0005) {
+            text += String.format(Locale.ROOT, "%.3f", fraction).substring(1);
+        }
+        return text;
+    }
+
+    @Override
+    public String toString() {
+        return formatTime(start) + "-" + (isOpenEnded() ? "" : formatTime(end));
+    }
+}
@@ -5,19 +5,22 @@ import java.util.List;
 
 public class ConversionSettings {
     public enum OutputFormat {
-        MP3("mp3", "libmp3lame", true, true),  // supports bitrate, supports VBR
-        WAV("wav", "pcm_s16le", false, false),
-        M4A("m4a", "aac", true, false),        // supports bitrate, no VBR
-        FLAC("flac", "flac", false, false);
+        MP3("mp3", "libmp3lame", "mp3", true, true),  // supports bitrate, supports VBR
+        WAV("wav", "pcm_s16le", "pcm_s16le", false, false),
+        M4A("m4a", "aac", "aac", true, false),        // supports bitrate, no VBR
+        FLAC("flac", "flac", "flac", false, false);
 
         private final String extension;
         private final String codec;
+        private final String codecName; // as reported by ffprobe for the stream
         private final boolean supportsBitrate;
         private final boolean supportsVBR;
 
-        OutputFormat(String extension, String codec, boolean supportsBitrate, boolean supportsVBR) {
+        OutputFormat(String extension, String codec, String codecName,
+                     boolean supportsBitrate, boolean supportsVBR) {
             this.extension = extension;
             this.codec = codec;
+            this.codecName = codecName;
             this.supportsBitrate = supportsBitrate;
             this.supportsVBR = supportsVBR;
         }
@@ -30,6 +33,10 @@ public class ConversionSettings {
             return codec;
         }
 
+        public String getCodecName() {
+            return codecName;
+        }
+
         public boolean supportsBitrate() {
             return supportsBitrate;
         }
@@ -80,6 +87,16 @@ public class ConversionSettings {
             return 44100;
         }
 
+        // FFmpeg muxer used when writing to a pipe instead of a named file
+        public String getStreamingMuxer() {
+            switch (this) {
+                case M4A:
+                    return "mp4";
+                default:
+                    return extension;
+            }
+        }
+
         @Override
         public String toString() {
             return extension.toUpperCase();
@@ -206,6 +223,91 @@ public class ConversionSettings {
         }
     }
 
+    // EBU R128 loudness targets for the two-pass loudnorm filter
+    public enum LoudnessTarget {
+        PODCAST("Podcast (-16 LUFS)", -16.0, -1.5, 11.0),
+        STREAMING("Streaming (-14 LUFS)", -14.0, -1.0, 11.0),
+        BROADCAST("Broadcast EBU R128 (-23 LUFS)", -23.0, -1.0, 15.0);
+
+        private final String label;
+        private final double integrated;
+        private final double truePeak;
+        private final double loudnessRange;
+
+        LoudnessTarget(String label, double integrated, double truePeak, double loudnessRange) {
+            this.label = label;
+            this.integrated = integrated;
+            this.truePeak = truePeak;
+            this.loudnessRange = loudnessRange;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public double getIntegrated() {
+            return integrated;
+        }
+
+        public double getTruePeak() {
+            return truePeak;
+        }
+
+        public double getLoudnessRange() {
+            return loudnessRange;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    // Automatic splitting of long recordings into tracks
+    public enum SplitMode {
+        NONE("Don't split"),
+        SILENCE("Split at silences"),
+        CHAPTERS("Split at chapters");
+
+        private final String label;
+
+        SplitMode(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    // Encode speed against output size; resolved to measured options by EncoderCalibration
+    public enum EncoderPreset {
+        DEFAULT("Encoder defaults"),
+        FASTEST("Fastest"),
+        BALANCED("Balanced"),
+        SMALLEST("Smallest");
+
+        private final String label;
+
+        EncoderPreset(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
     private OutputFormat outputFormat;
     private Quality quality;
     private Integer customBitrate; // Custom bitrate in kbps
@@ -213,6 +315,15 @@ public class ConversionSettings {
     private Channels channels;
     private BitrateMode bitrateMode;
     private int vbrQuality; // VBR quality (0-5, MP3 only)
+    private boolean normalizeLoudness;
+    private LoudnessTarget loudnessTarget;
+    private SplitMode splitMode;
+    private int silenceThresholdDb; // silencedetect noise level
+    private double minSilenceSeconds; // shorter pauses are not split points
+    private boolean neverExceedSource; // cap rate, channels and bitrate per file
+    private boolean collectStats; // peak, RMS, clipping, silence and loudness from the encode
+    private EncoderPreset encoderPreset;
+    private EncoderTuning encoderTuning; // options for encoderPreset on this machine, null for defaults
 
     public ConversionSettings() {
         // Default settings
@@ -223,6 +334,37 @@ public class ConversionSettings {
         this.channels = Channels.STEREO;
         this.bitrateMode = BitrateMode.CONSTANT;
         this.vbrQuality = 2; // Default VBR quality (Normal)
+        this.normalizeLoudness = false;
+        this.loudnessTarget = LoudnessTarget.PODCAST;
+        this.splitMode = SplitMode.NONE;
+        this.silenceThresholdDb = -40;
+        this.minSilenceSeconds = 2.0;
+        this.neverExceedSource = true;
+        this.collectStats = false;
+        this.encoderPreset = EncoderPreset.DEFAULT;
+        this.encoderTuning = null;
+    }
+
+    // Snapshot for a batch, so later edits in the UI do not change queued work
+    public ConversionSettings copy() {
+        ConversionSettings copy = new ConversionSettings();
+        copy.outputFormat = outputFormat;
+        copy.quality = quality;
+        copy.customBitrate = customBitrate;
+        copy.sampleRate = sampleRate;
+        copy.channels = channels;
+        copy.bitrateMode = bitrateMode;
+        copy.vbrQuality = vbrQuality;
+        copy.normalizeLoudness = normalizeLoudness;
+        copy.loudnessTarget = loudnessTarget;
+        copy.splitMode = splitMode;
+        copy.silenceThresholdDb = silenceThresholdDb;
+        copy.minSilenceSeconds = minSilenceSeconds;
+        copy.neverExceedSource = neverExceedSource;
+        copy.collectStats = collectStats;
+        copy.encoderPreset = encoderPreset;
+        copy.encoderTuning = encoderTuning;
+        return copy;
     }
 
     // Getters and Setters
@@ -291,5 +433,76 @@ public class ConversionSettings {
     public void setVbrQuality(int vbrQuality) {
         this.vbrQuality = vbrQuality;
     }
-}
 
+    public boolean isNormalizeLoudness() {
+        return normalizeLoudness;
+    }
+
+    public void setNormalizeLoudness(boolean normalizeLoudness) {
+        this.normalizeLoudness = normalizeLoudness;
+    }
+
+    public LoudnessTarget getLoudnessTarget() {
+        return loudnessTarget;
+    }
+
+    public void setLoudnessTarget(LoudnessTarget loudnessTarget) {
+        this.loudnessTarget = loudnessTarget;
+    }
+
+    public SplitMode getSplitMode() {
+        return splitMode;
+    }
+
+    public void setSplitMode(SplitMode splitMode) {
+        this.splitMode = splitMode;
+    }
+
+    public int getSilenceThresholdDb() {
+        return silenceThresholdDb;
+    }
+
+    public void setSilenceThresholdDb(int silenceThresholdDb) {
+        this.silenceThresholdDb = silenceThresholdDb;
+    }
+
+    public double getMinSilenceSeconds() {
+        return minSilenceSeconds;
+    }
+
+    public void setMinSilenceSeconds(double minSilenceSeconds) {
+        this.minSilenceSeconds = minSilenceSeconds;
+    }
+
+    public boolean isNeverExceedSource() {
+        return neverExceedSource;
+    }
+
+    public void setNeverExceedSource(boolean neverExceedSource) {
+        this.neverExceedSource = neverExceedSource;
+    }
+
+    public boolean isCollectStats() {
+        return collectStats;
+    }
+
+    public void setCollectStats(boolean collectStats) {
+        this.collectStats = collectStats;
+    }
+
+    public EncoderPreset getEncoderPreset() {
+        return encoderPreset;
+    }
+
+    public void setEncoderPreset(EncoderPreset encoderPreset) {
+        this.encoderPreset = encoderPreset;
+    }
+
+    public EncoderTuning getEncoderTuning() {
+        return encoderTuning;
+    }
+
+    public void setEncoderTuning(EncoderTuning encoderTuning) {
+        this.encoderTuning = encoderTuning;
+    }
+}
@@ -0,0 +1,40 @@
+package se233.audioconverter.model;
+
+/**
+ * Per-job encode parameters that are decided at dispatch time rather than
+ * chosen by the user in {@link ConversionSettings}.
+ */
+public class EncodeOptions {
+    private LoudnessMeasurement loudness;
+    private int threads; // 0 lets FFmpeg decide
+    private double expectedSeconds; // predicted run time for the stall watchdog, 0 if unknown
+
+    public EncodeOptions() {
+        this.loudness = null;
+        this.threads = 0;
+    }
+
+    public LoudnessMeasurement getLoudness() {
+        return loudness;
+    }
+
+    public void setLoudness(LoudnessMeasurement loudness) {
+        this.loudness = loudness;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public double getExpectedSeconds() {
+        return expectedSeconds;
+    }
+
+    public void setExpectedSeconds(double expectedSeconds) {
+        this.expectedSeconds = expectedSeconds;
+    }
+}
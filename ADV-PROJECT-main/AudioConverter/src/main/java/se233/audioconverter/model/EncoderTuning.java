@@ -0,0 +1,53 @@
+package se233.audioconverter.model;
+
+/**
+ * Encoder and resampler options that trade encode speed for output size
+ * without changing the format, rate, channels or bitrate. Unset options
+ * keep FFmpeg's defaults.
+ */
+public class EncoderTuning {
+    private int compressionLevel; // libmp3lame 0-9 / flac 0-12, -1 for the encoder default
+    private String aacCoder; // "fast" or "twoloop", null for the default
+    private String resampler; // "swr" or "soxr", null for the default
+
+    public EncoderTuning() {
+        this(-1, null, null);
+    }
+
+    public EncoderTuning(int compressionLevel, String aacCoder, String resampler) {
+        this.compressionLevel = compressionLevel;
+        this.aacCoder = aacCoder;
+        this.resampler = resampler;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public String getAacCoder() {
+        return aacCoder;
+    }
+
+    public String getResampler() {
+        return resampler;
+    }
+
+    public EncoderTuning withResampler(String resampler) {
+        return new EncoderTuning(compressionLevel, aacCoder, resampler);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        if (compressionLevel >= 0) {
+            text.append("compression level ").append(compressionLevel);
+        }
+        if (aacCoder != null) {
+            text.append(text.length() > 0 ? ", " : "").append(aacCoder).append(" coder");
+        }
+        if (resampler != null) {
+            text.append(text.length() > 0 ? ", " : "").append(resampler).append(" resampler");
+        }
+        return text.length() > 0 ? text.toString() : "encoder defaults";
+    }
+}
@@ -0,0 +1,61 @@
+package se233.audioconverter.model;
+
+import java.util.Locale;
+
+public class LoudnessMeasurement {
+    // Values reported by the first loudnorm pass (print_format=json)
+    private double inputIntegrated;
+    private double inputTruePeak;
+    private double inputLoudnessRange;
+    private double inputThreshold;
+    private double targetOffset;
+
+    public LoudnessMeasurement(double inputIntegrated, double inputTruePeak,
+                               double inputLoudnessRange, double inputThreshold,
+                               double targetOffset) {
+        this.inputIntegrated = inputIntegrated;
+        this.inputTruePeak = inputTruePeak;
+        this.inputLoudnessRange = inputLoudnessRange;
+        this.inputThreshold = inputThreshold;
+        this.targetOffset = targetOffset;
+    }
+
+    /**
+     * Builds the second-pass loudnorm filter that applies the measured values
+     * as a single linear gain instead of dynamic normalisation.
+     */
+    public String toSecondPassFilter(ConversionSettings.LoudnessTarget target) {
+        return String.format(Locale.ROOT,
+                "loudnorm=I=%.1f:TP=%.1f:LRA=%.1f:measured_I=%.2f:measured_TP=%.2f" +
+                        ":measured_LRA=%.2f:measured_thresh=%.2f:offset=%.2f:linear=true",
+                target.getIntegrated(), target.getTruePeak(), target.getLoudnessRange(),
+                inputIntegrated, inputTruePeak, inputLoudnessRange, inputThreshold,
+                targetOffset);
+    }
+
+    public double getInputIntegrated() {
+        return inputIntegrated;
+    }
+
+    public double getInputTruePeak() {
+        return inputTruePeak;
+    }
+
+    public double getInputLoudnessRange() {
+        return inputLoudnessRange;
+    }
+
+    public double getInputThreshold() {
+        return inputThreshold;
+    }
+
+    public double getTargetOffset() {
+        return targetOffset;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%.1f LUFS, %.1f dBTP, LRA %.1f LU",
+                inputIntegrated, inputTruePeak, inputLoudnessRange);
+    }
+}
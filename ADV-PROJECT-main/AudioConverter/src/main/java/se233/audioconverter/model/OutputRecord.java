@@ -0,0 +1,88 @@
+package se233.audioconverter.model;
+
+/**
+ * One output file of a batch with its checksum, as written to the batch
+ * results so downstream systems can validate it without re-hashing.
+ */
+public class OutputRecord {
+    public enum Verification {
+        NOT_SAMPLED("Not sampled"),
+        PENDING("Pending"),
+        PASSED("Passed"),
+        FAILED("Failed");
+
+        private final String displayName;
+
+        Verification(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    private final String source;
+    private final String output;
+    private final long bytes;
+    private final String algorithm;
+    private final String checksum;
+    private Verification verification;
+    private String verificationError;
+    private AudioStats stats; // null unless statistics were requested
+
+    public OutputRecord(String source, String output, long bytes, String algorithm, String checksum) {
+        this.source = source;
+        this.output = output;
+        this.bytes = bytes;
+        this.algorithm = algorithm;
+        this.checksum = checksum;
+        this.verification = Verification.NOT_SAMPLED;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public AudioStats getStats() {
+        return stats;
+    }
+
+    public void setStats(AudioStats stats) {
+        this.stats = stats;
+    }
+
+    public synchronized Verification getVerification() {
+        return verification;
+    }
+
+    public synchronized String getVerificationError() {
+        return verificationError;
+    }
+
+    public synchronized void setVerification(Verification verification, String error) {
+        this.verification = verification;
+        this.verificationError = error;
+    }
+}
@@ -0,0 +1,59 @@
+package se233.audioconverter.model;
+
+/**
+ * Multi-resolution min/max peaks of a mono downmix of a file.
+ *
+ * Level 0 holds one min/max pair per {@code samplesPerPeak} samples; each
+ * further level halves the resolution, so any zoom level can be drawn
+ * without decoding the file again.
+ */
+public class WaveformPeaks {
+    private final int sampleRate;
+    private final int samplesPerPeak;
+    private final short[][] mins;
+    private final short[][] maxs;
+
+    public WaveformPeaks(int sampleRate, int samplesPerPeak, short[][] mins, short[][] maxs) {
+        this.sampleRate = sampleRate;
+        this.samplesPerPeak = samplesPerPeak;
+        this.mins = mins;
+        this.maxs = maxs;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getSamplesPerPeak() {
+        return samplesPerPeak;
+    }
+
+    public int getLevelCount() {
+        return mins.length;
+    }
+
+    public short[] getMins(int level) {
+        return mins[level];
+    }
+
+    public short[] getMaxs(int level) {
+        return maxs[level];
+    }
+
+    /**
+     * Coarsest level that still has at least {@code width} peaks, so drawing
+     * never needs more than about two peaks per pixel.
+     */
+    public int levelForWidth(int width) {
+        for (int level = mins.length - 1; level > 0; level--) {
+            if (mins[level].length >= width) {
+                return level;
+            }
+        }
+        return 0;
+    }
+
+    public double getDuration() {
+        return sampleRate == 0 ? 0 : (double) mins[0].length * samplesPerPeak / sampleRate;
+    }
+}
@@ -0,0 +1,36 @@
+package se233.audioconverter.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Location of the per-user files the converter keeps between runs
+ * (measurement caches, learned models). Defaults to ~/.audioconverter and
+ * can be moved with the {@code audioconverter.home} system property.
+ */
+public final class AppDataDirectory {
+    private AppDataDirectory() {
+    }
+
+    public static Path getRoot() {
+        String override = System.getProperty("audioconverter.home");
+        if (override != null && !override.isBlank()) {
+            return Paths.get(override);
+        }
+        return Paths.get(System.getProperty("user.home"), ".audioconverter");
+    }
+
+    public static Path resolve(String name) throws IOException {
+        Path root = getRoot();
+        Files.createDirectories(root);
+        return root.resolve(name);
+    }
+
+    public static Path resolveDirectory(String name) throws IOException {
+        Path dir = getRoot().resolve(name);
+        Files.createDirectories(dir);
+        return dir;
+    }
+}
@@ -0,0 +1,123 @@
+package se233.audioconverter.service;
+
+import se233.audioconverter.model.AudioStats;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the end-of-stream reports of the analysis branch added to an encode
+ * when statistics are requested. Lines of the report are consumed so they
+ * do not end up in the error output.
+ */
+class AudioStatsParser {
+    // Analysis branch: levels, pauses below -60 dB of at least half a second, and
+    // EBU R128 loudness (per-frame lines only at verbose, so just the summary is logged)
+    static final String ANALYSIS_CHAIN =
+            "astats,silencedetect=n=-60dB:d=0.5,ebur128=peak=true:framelog=verbose,anullsink";
+    // Peak count means clipping only when the peak is at full scale
+    private static final double FULL_SCALE_DB = -0.1;
+
+    private static final Pattern ASTATS_VALUE = Pattern.compile("\\[Parsed_astats_\\d+ @ [^]]+] ([^:]+): (\\S+)");
+    private static final Pattern SILENCE_START = Pattern.compile("silence_start: (-?[0-9.]+)");
+    private static final Pattern SILENCE_DURATION = Pattern.compile("silence_duration: ([0-9.]+)");
+    private static final Pattern SUMMARY_VALUE = Pattern.compile("^\\s+(I|LRA|Peak):\\s+(-?[0-9.]+|-inf)");
+
+    private boolean inOverall;
+    private boolean inSummary;
+    private double peakDb = Double.NEGATIVE_INFINITY;
+    private double rmsDb = Double.NEGATIVE_INFINITY;
+    private long peakCount;
+    private double silenceSeconds;
+    private double openSilenceStart = -1;
+    private double integratedLufs = Double.NEGATIVE_INFINITY;
+    private double loudnessRange;
+    private double truePeakDb = Double.NEGATIVE_INFINITY;
+    private boolean seenAny;
+
+    /**
+     * Returns true if the line belongs to the analysis report.
+     */
+    boolean accept(String line) {
+        if (line.contains("[Parsed_astats_")) {
+            seenAny = true;
+            if (line.endsWith("Overall")) {
+                inOverall = true;
+            } else if (inOverall) {
+                Matcher matcher = ASTATS_VALUE.matcher(line);
+                if (matcher.find()) {
+                    overallValue(matcher.group(1), matcher.group(2));
+                }
+            }
+            return true;
+        }
+        if (line.contains("[silencedetect @")) {
+            Matcher start = SILENCE_START.matcher(line);
+            Matcher duration = SILENCE_DURATION.matcher(line);
+            if (start.find()) {
+                openSilenceStart = Math.max(0, Double.parseDouble(start.group(1)));
+            } else if (duration.find()) {
+                silenceSeconds += Double.parseDouble(duration.group(1));
+                openSilenceStart = -1;
+            }
+            return true;
+        }
+        if (line.contains("[Parsed_ebur128_")) {
+            seenAny = true;
+            inSummary = line.endsWith("Summary:");
+            return true;
+        }
+        // The summary body is indented and has no filter prefix
+        if (inSummary && (line.isBlank() || Character.isWhitespace(line.charAt(0)))) {
+            Matcher matcher = SUMMARY_VALUE.matcher(line);
+            if (matcher.find()) {
+                double value = parseDb(matcher.group(2));
+                switch (matcher.group(1)) {
+                    case "I" -> integratedLufs = value;
+                    case "LRA" -> loudnessRange = value;
+                    default -> truePeakDb = value;
+                }
+            }
+            return true;
+        }
+        inSummary = false;
+        return false;
+    }
+
+    private void overallValue(String name, String value) {
+        try {
+            switch (name) {
+                case "Peak level dB" -> peakDb = parseDb(value);
+                case "RMS level dB" -> rmsDb = parseDb(value);
+                case "Peak count" -> peakCount = (long) Double.parseDouble(value);
+                default -> {
+                    // other astats fields are not reported
+                }
+            }
+        } catch (NumberFormatException e) {
+            // Leave the field at its default
+        }
+    }
+
+    private static double parseDb(String value) {
+        return value.equals("-inf") ? Double.NEGATIVE_INFINITY : Double.parseDouble(value);
+    }
+
+    /**
+     * The statistics, or null if the report was missing (e.g. FFmpeg failed
+     * before the end of the stream).
+     */
+    AudioStats result(double durationSeconds) {
+        if (!seenAny) {
+            return null;
+        }
+        double silence = silenceSeconds;
+        // Silence running into the end of the stream has no end line
+        if (openSilenceStart >= 0 && durationSeconds > openSilenceStart) {
+            silence += durationSeconds - openSilenceStart;
+        }
+        double silenceRatio = durationSeconds > 0 ? Math.min(1, silence / durationSeconds) : 0;
+        long clipped = peakDb >= FULL_SCALE_DB ? peakCount : 0;
+        return new AudioStats(peakDb, rmsDb, clipped, silenceRatio, integratedLufs, loudnessRange, truePeakDb);
+    }
+}
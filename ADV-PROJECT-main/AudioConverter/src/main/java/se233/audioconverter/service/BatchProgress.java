@@ -0,0 +1,74 @@
+package se233.audioconverter.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Duration-weighted progress of a batch: processed audio over total audio.
+ *
+ * Workers publish the output position of their file into one slot each with
+ * a plain atomic store, so reporting progress neither locks nor allocates.
+ * The UI samples {@link #getFraction()} at its own frame rate.
+ */
+public class BatchProgress {
+    // Assumed bitrate for files whose duration was never probed (128 kbps)
+    private static final double FALLBACK_BYTES_PER_SECOND = 16_000.0;
+
+    private final AtomicLongArray processedMicros;
+    private final AtomicLongArray totalMicros;
+
+    public BatchProgress(int fileCount) {
+        this.processedMicros = new AtomicLongArray(fileCount);
+        this.totalMicros = new AtomicLongArray(fileCount);
+    }
+
+    public int size() {
+        return totalMicros.length();
+    }
+
+    public void setTotal(int index, double durationSeconds, long fileSize) {
+        double seconds = durationSeconds > 0 ? durationSeconds : fileSize / FALLBACK_BYTES_PER_SECOND;
+        totalMicros.set(index, Math.max(1, (long) (seconds * 1_000_000)));
+    }
+
+    /**
+     * Records the current output position of a file, clamped to its total.
+     * Safe to call from any worker thread.
+     */
+    public void setProcessed(int index, long micros) {
+        processedMicros.lazySet(index, Math.min(micros, totalMicros.get(index)));
+    }
+
+    public void complete(int index) {
+        processedMicros.lazySet(index, totalMicros.get(index));
+    }
+
+    public void reset(int index) {
+        processedMicros.lazySet(index, 0);
+    }
+
+    public double getFraction() {
+        long processed = 0;
+        long total = 0;
+        for (int i = 0; i < totalMicros.length(); i++) {
+            processed += processedMicros.get(i);
+            total += totalMicros.get(i);
+        }
+        return total == 0 ? 0 : (double) processed / total;
+    }
+
+    public double getProcessedSeconds() {
+        long processed = 0;
+        for (int i = 0; i < processedMicros.length(); i++) {
+            processed += processedMicros.get(i);
+        }
+        return processed / 1_000_000.0;
+    }
+
+    public double getTotalSeconds() {
+        long total = 0;
+        for (int i = 0; i < totalMicros.length(); i++) {
+            total += totalMicros.get(i);
+        }
+        return total / 1_000_000.0;
+    }
+}
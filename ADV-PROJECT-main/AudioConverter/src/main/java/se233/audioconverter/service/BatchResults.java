@@ -0,0 +1,125 @@
+package se233.audioconverter.service;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.AudioStats;
+import se233.audioconverter.model.OutputRecord;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Outputs of one batch with their checksums and verification results.
+ * Written next to the outputs as {@code conversion-results-<batch>-<time>.json}
+ * once the batch and its sampled verifications have finished.
+ */
+public class BatchResults {
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final OutputVerifier verifier;
+    private final Gson gson = new GsonBuilder()
+            .setPrettyPrinting()
+            .disableHtmlEscaping()
+            .serializeSpecialFloatingPointValues() // -Infinity dB for digital silence
+            .create();
+
+    // Guarded by this
+    private final List<OutputRecord> records = new ArrayList<>();
+    private final List<CompletableFuture<Void>> verifications = new ArrayList<>();
+
+    // Serialized form of the results file
+    private static class ResultsFile {
+        int batch;
+        String finished;
+        double verifySample;
+        List<OutputRecord> outputs;
+    }
+
+    public BatchResults(OutputVerifier verifier) {
+        this.verifier = verifier;
+    }
+
+    /**
+     * Adds an output whose checksum was taken while it was written, with its
+     * statistics if they were collected.
+     */
+    public synchronized void record(AudioFile source, Path output, String checksum, AudioStats stats) {
+        OutputRecord record = new OutputRecord(source.getFilePath(), output.toString(),
+                output.toFile().length(), OutputChecksums.ALGORITHM, checksum);
+        record.setStats(stats);
+        if (verifier != null && verifier.isSampled(records.size())) {
+            verifications.add(verifier.verify(record));
+        }
+        records.add(record);
+    }
+
+    /**
+     * Adds an output that FFmpeg wrote directly to its destination, hashing it
+     * now. A file that cannot be read is reported but not recorded.
+     */
+    public void recordWritten(AudioFile source, String output, AudioStats stats) {
+        Path path = Paths.get(output);
+        try {
+            record(source, path, OutputChecksums.digest(path), stats);
+        } catch (IOException e) {
+            System.err.println("Could not checksum " + output + ": " + e.getMessage());
+        }
+    }
+
+    public synchronized List<OutputRecord> getRecords() {
+        return new ArrayList<>(records);
+    }
+
+    public synchronized int count(OutputRecord.Verification verification) {
+        int count = 0;
+        for (OutputRecord record : records) {
+            if (record.getVerification() == verification) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Waits for the pending verifications, then writes the results file into
+     * {@code directory} and returns its path.
+     */
+    public CompletableFuture<Path> write(Path directory, int batchId) {
+        CompletableFuture<?>[] pending;
+        synchronized (this) {
+            pending = verifications.toArray(new CompletableFuture<?>[0]);
+        }
+        return CompletableFuture.allOf(pending).handle((result, error) -> {
+            ResultsFile file = new ResultsFile();
+            LocalDateTime now = LocalDateTime.now();
+            file.batch = batchId;
+            file.finished = now.toString();
+            file.verifySample = verifier != null ? verifier.getSampleFraction() : 0;
+            file.outputs = getRecords();
+
+            Path target = directory.resolve("conversion-results-" + batchId + "-" + FILE_TIME.format(now) + ".json");
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            try {
+                try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                    gson.toJson(file, writer);
+                }
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            return target;
+        });
+    }
+}
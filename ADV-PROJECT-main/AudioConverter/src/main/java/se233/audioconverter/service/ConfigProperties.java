@@ -0,0 +1,23 @@
+package se233.audioconverter.service;
+
+/**
+ * Reads the numeric {@code audioconverter.*} system properties, falling back
+ * to the default (with a warning) when a value does not parse.
+ */
+public final class ConfigProperties {
+    private ConfigProperties() {
+    }
+
+    public static double getDouble(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid " + name + " '" + value + "'");
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package se233.audioconverter.service;
+
+/**
+ * Shares a fixed number of cores between concurrent FFmpeg jobs so that
+ * jobs x threads never exceeds the budget.
+ *
+ * While plenty of work is queued every job gets one thread (most audio
+ * encoders are single-threaded anyway and job-level parallelism scales
+ * best). Towards the end of a batch, when fewer jobs remain than cores, the
+ * spare cores are split between the remaining jobs instead of sitting idle.
+ *
+ * Analysis, waveform, verification and calibration processes take their
+ * cores with {@link #acquire(int)}, which waits; while one is waiting no new
+ * job is granted threads, so the encodes cannot starve them.
+ */
+public class CpuBudget {
+    private final int cores;
+    private int inUse;
+    private int waiting;
+    private volatile Runnable releaseListener;
+
+    public CpuBudget() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public CpuBudget(int cores) {
+        this.cores = Math.max(1, cores);
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    public synchronized int available() {
+        return waiting > 0 ? 0 : cores - inUse;
+    }
+
+    // Told whenever cores are returned, so queued jobs can be dispatched at once
+    public void setReleaseListener(Runnable releaseListener) {
+        this.releaseListener = releaseListener;
+    }
+
+    /**
+     * Grants threads to a job about to start, or returns 0 when the budget is
+     * used up. {@code remainingJobs} counts this job and everything still
+     * waiting to be dispatched.
+     */
+    public synchronized int tryAcquire(int remainingJobs) {
+        int free = available();
+        if (free <= 0) {
+            return 0;
+        }
+        int threads = Math.max(1, free / Math.max(1, remainingJobs));
+        inUse += threads;
+        return threads;
+    }
+
+    /**
+     * Waits until {@code threads} cores (at most the whole budget) are free
+     * and takes them. Returns the number taken, to be handed to
+     * {@link #release(int)}.
+     */
+    public synchronized int acquire(int threads) throws InterruptedException {
+        int wanted = Math.min(Math.max(1, threads), cores);
+        waiting++;
+        try {
+            while (cores - inUse < wanted) {
+                wait();
+            }
+        } finally {
+            waiting--;
+        }
+        inUse += wanted;
+        return wanted;
+    }
+
+    public void release(int threads) {
+        synchronized (this) {
+            inUse = Math.max(0, inUse - threads);
+            notifyAll();
+        }
+        Runnable listener = releaseListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+}
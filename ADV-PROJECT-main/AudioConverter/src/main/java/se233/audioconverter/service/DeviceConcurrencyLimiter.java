@@ -0,0 +1,202 @@
+package se233.audioconverter.service;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Limits how many conversions touch the same storage device at once.
+ *
+ * Jobs are keyed by the {@link FileStore} of their input file and output
+ * directory. Rotational and removable devices start at one job at a time,
+ * everything else starts at the CPU limit. Each device then hill-climbs its
+ * limit using the aggregate throughput (bytes read + written per second)
+ * observed at each concurrency level, so a USB stick settles where seeking
+ * stops hurting while an SSD keeps every core busy.
+ */
+public class DeviceConcurrencyLimiter {
+    // Completed jobs needed at a limit before the limit is re-evaluated
+    private static final int SAMPLES_PER_STEP = 3;
+    // Relative throughput change treated as a real difference
+    private static final double SIGNIFICANT_CHANGE = 0.10;
+    private static final double EWMA_WEIGHT = 0.3;
+
+    private final int maxConcurrency;
+    private final boolean detectSlowDevices;
+    private final Map<String, DeviceState> devices = new HashMap<>();
+    private final Map<Path, String> deviceByDirectory = new HashMap<>();
+
+    public DeviceConcurrencyLimiter(int maxConcurrency) {
+        this(maxConcurrency, true);
+    }
+
+    // Without detection every device starts at the CPU limit (e.g. when no job touches the disk)
+    public DeviceConcurrencyLimiter(int maxConcurrency, boolean detectSlowDevices) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.detectSlowDevices = detectSlowDevices;
+    }
+
+    /**
+     * Reserves a slot on every device the job touches, or returns null when
+     * one of them is already at its limit.
+     */
+    public synchronized DevicePermit tryAcquire(String inputPath, String outputDirectory) {
+        TreeSet<String> keys = new TreeSet<>();
+        keys.add(deviceOf(Paths.get(inputPath).toAbsolutePath().getParent()));
+        keys.add(deviceOf(Paths.get(outputDirectory).toAbsolutePath()));
+
+        List<DeviceState> states = new ArrayList<>();
+        for (String key : keys) {
+            DeviceState state = devices.computeIfAbsent(key, k -> new DeviceState(k, initialLimit(k)));
+            if (state.active >= state.limit) {
+                return null;
+            }
+            states.add(state);
+        }
+
+        for (DeviceState state : states) {
+            state.active++;
+        }
+        return new DevicePermit(states);
+    }
+
+    public synchronized int getLimit(String device) {
+        DeviceState state = devices.get(device);
+        return state != null ? state.limit : maxConcurrency;
+    }
+
+    public synchronized Map<String, Integer> getLimits() {
+        Map<String, Integer> limits = new HashMap<>();
+        devices.forEach((key, state) -> limits.put(key, state.limit));
+        return limits;
+    }
+
+    private synchronized void release(List<DeviceState> states, long bytes, long elapsedNanos) {
+        for (DeviceState state : states) {
+            int concurrency = state.active;
+            state.active--;
+            if (elapsedNanos > 0 && bytes > 0) {
+                double perJob = bytes / (elapsedNanos / 1_000_000_000.0);
+                state.record(concurrency, perJob * concurrency);
+            }
+        }
+    }
+
+    private String deviceOf(Path directory) {
+        if (directory == null) {
+            return "unknown";
+        }
+        return deviceByDirectory.computeIfAbsent(directory, dir -> {
+            try {
+                FileStore store = Files.getFileStore(dir);
+                return store.name() + " (" + store.type() + ")";
+            } catch (IOException e) {
+                return "unknown";
+            }
+        });
+    }
+
+    private int initialLimit(String deviceKey) {
+        return detectSlowDevices && isSlowDevice(deviceKey) ? 1 : maxConcurrency;
+    }
+
+    // Linux only: look up /sys/class/block/<dev> for the rotational and removable flags
+    private boolean isSlowDevice(String deviceKey) {
+        if (!deviceKey.startsWith("/dev/")) {
+            return false;
+        }
+        String name = deviceKey.substring("/dev/".length(), deviceKey.indexOf(' '));
+        Path block = Paths.get("/sys/class/block", name);
+        if (!Files.exists(block)) {
+            return false;
+        }
+        try {
+            Path device = block.toRealPath();
+            // Partitions carry no queue directory; the flags live on the parent disk
+            if (!Files.exists(device.resolve("queue")) && device.getParent() != null) {
+                device = device.getParent();
+            }
+            return "1".equals(readFlag(device.resolve("queue/rotational")))
+                    || "1".equals(readFlag(device.resolve("removable")));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private String readFlag(Path file) {
+        try {
+            return Files.readString(file).trim();
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    public class DevicePermit {
+        private final List<DeviceState> states;
+        private final long startNanos = System.nanoTime();
+        private boolean released;
+
+        private DevicePermit(List<DeviceState> states) {
+            this.states = states;
+        }
+
+        /**
+         * Returns the slots and feeds the job's I/O volume into the learned limits.
+         */
+        public void release(long bytesTransferred) {
+            if (released) {
+                return;
+            }
+            released = true;
+            DeviceConcurrencyLimiter.this.release(states, bytesTransferred, System.nanoTime() - startNanos);
+        }
+    }
+
+    private class DeviceState {
+        private final String key;
+        private int limit;
+        private int active;
+        private int samplesAtLimit;
+        private final Map<Integer, Double> throughputByConcurrency = new HashMap<>();
+
+        DeviceState(String key, int limit) {
+            this.key = key;
+            this.limit = limit;
+        }
+
+        void record(int concurrency, double aggregateThroughput) {
+            throughputByConcurrency.merge(concurrency, aggregateThroughput,
+                    (old, sample) -> old + EWMA_WEIGHT * (sample - old));
+
+            if (concurrency != limit || ++samplesAtLimit < SAMPLES_PER_STEP) {
+                return;
+            }
+            samplesAtLimit = 0;
+
+            double current = throughputByConcurrency.get(limit);
+            Double lower = throughputByConcurrency.get(limit - 1);
+            Double higher = throughputByConcurrency.get(limit + 1);
+
+            if (lower != null && lower > current * (1 + SIGNIFICANT_CHANGE)) {
+                // More parallelism made the device slower (seek thrashing)
+                limit--;
+            } else if (limit < maxConcurrency
+                    && (higher == null || higher > current * (1 + SIGNIFICANT_CHANGE))) {
+                // Probe one more job unless that has already been shown not to help
+                limit++;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return key + " limit=" + limit;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package se233.audioconverter.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * File-tree helpers for the work, job and scratch directories.
+ */
+public final class Directories {
+    private Directories() {
+    }
+
+    /**
+     * Combined size of the files that exist among {@code paths}.
+     */
+    public static long totalSize(List<String> paths) {
+        long bytes = 0;
+        for (String path : paths) {
+            bytes += new File(path).length();
+        }
+        return bytes;
+    }
+
+    /**
+     * Deletes {@code path} and everything below it, as far as possible.
+     * Returns false if something could not be deleted; callers treat that
+     * as best effort and leave the rest for a later cleanup.
+     */
+    public static boolean deleteRecursively(Path path) {
+        if (path == null || !Files.exists(path)) {
+            return true;
+        }
+        boolean deleted = true;
+        try (Stream<Path> paths = Files.walk(path)) {
+            List<Path> children = paths.sorted(Comparator.reverseOrder()).toList();
+            for (Path child : children) {
+                try {
+                    Files.deleteIfExists(child);
+                } catch (IOException e) {
+                    deleted = false;
+                }
+            }
+        } catch (IOException e) {
+            deleted = false;
+        }
+        return deleted;
+    }
+}
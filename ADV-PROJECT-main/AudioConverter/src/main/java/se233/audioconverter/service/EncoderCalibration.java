@@ -0,0 +1,436 @@
+package se233.audioconverter.service;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import se233.audioconverter.exception.AudioConversionException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.model.EncodeOptions;
+import se233.audioconverter.model.EncoderTuning;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measured encode speed and output size of each encoder option on this
+ * machine, and the options that the encoder presets map to.
+ *
+ * Calibration cuts a reference clip (the start of a user file, or pink
+ * noise) to 48 kHz PCM and encodes it to 44.1 kHz with every candidate:
+ * libmp3lame and flac compression levels and the AAC coder, plus FFmpeg's
+ * own and the soxr resampler. Each candidate is timed over several runs and
+ * the median kept. Fastest takes the quickest option; Smallest the smallest
+ * output; Balanced the smallest output that is at most 1.5x slower than the
+ * quickest. Equal sizes (CBR) go to the option that spends more effort, as
+ * that buys quality instead. The resampler does not change the size, so
+ * every preset gets the quicker one.
+ */
+public class EncoderCalibration {
+    private static final String FILE_NAME = "encoder-calibration.json";
+    private static final int CLIP_RATE = 48000;
+    private static final ConversionSettings.SampleRate TARGET_RATE = ConversionSettings.SampleRate.SR_44100;
+    private static final double BALANCED_MAX_SLOWDOWN = 1.5;
+    // Sizes this close count as equal
+    private static final double SIZE_TOLERANCE = 0.01;
+    // The other resampler must be this much quicker to replace the default
+    private static final double RESAMPLER_MIN_GAIN = 0.05;
+    private static final String[] RESAMPLERS = {"swr", "soxr"};
+
+    private final FFmpegService ffmpegService;
+    private final Path calibrationFile;
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private CalibrationData data = new CalibrationData();
+
+    /**
+     * Time and size of one candidate on the reference clip.
+     */
+    public static class Measurement {
+        private EncoderTuning tuning;
+        private double seconds;
+        private long bytes;
+
+        public Measurement(EncoderTuning tuning, double seconds, long bytes) {
+            this.tuning = tuning;
+            this.seconds = seconds;
+            this.bytes = bytes;
+        }
+
+        public EncoderTuning getTuning() {
+            return tuning;
+        }
+
+        public double getSeconds() {
+            return seconds;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    public EncoderCalibration(FFmpegService ffmpegService) throws IOException {
+        this(ffmpegService, AppDataDirectory.resolve(FILE_NAME));
+    }
+
+    public EncoderCalibration(FFmpegService ffmpegService, Path calibrationFile) {
+        this.ffmpegService = ffmpegService;
+        this.calibrationFile = calibrationFile;
+        load();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 3) {
+            System.err.println("Usage: EncoderCalibration [reference-file] [seconds] [runs]");
+            System.exit(2);
+        }
+        AudioFile reference = args.length > 0 ? new AudioFile(args[0]) : null;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 20;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        EncoderCalibration calibration = new EncoderCalibration(new FFmpegService());
+        calibration.calibrate(reference, new ConversionSettings(), seconds, runs);
+        System.out.print(calibration.describe());
+    }
+
+    // Options tried per format; the defaults (level 5 for both, twoloop) are among them
+    static List<EncoderTuning> candidates(ConversionSettings.OutputFormat format) {
+        List<EncoderTuning> candidates = new ArrayList<>();
+        switch (format) {
+            case MP3:
+                // LAME's -q: 0 is the most thorough search, 9 the quickest
+                for (int level : new int[]{0, 2, 5, 7, 9}) {
+                    candidates.add(new EncoderTuning(level, null, null));
+                }
+                break;
+            case FLAC:
+                for (int level : new int[]{0, 2, 5, 8, 12}) {
+                    candidates.add(new EncoderTuning(level, null, null));
+                }
+                break;
+            case M4A:
+                candidates.add(new EncoderTuning(-1, "fast", null));
+                candidates.add(new EncoderTuning(-1, "twoloop", null));
+                break;
+            default:
+                // PCM has nothing to tune
+                candidates.add(new EncoderTuning());
+                break;
+        }
+        return candidates;
+    }
+
+    /**
+     * Measures every candidate of every format on the first {@code seconds}
+     * of {@code reference} (pink noise if null) and saves the results.
+     * {@code base} supplies the bitrate and bitrate mode to calibrate with.
+     */
+    public void calibrate(AudioFile reference, ConversionSettings base, double seconds, int runs)
+            throws AudioConversionException, IOException {
+        // The whole budget is held so no encode runs alongside and skews the
+        // timings; every measurement still runs on one thread, as most jobs do
+        int cores;
+        try {
+            cores = ffmpegService.acquireAllCores();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AudioConversionException("Calibration", AudioConversionException.ErrorType.CANCELLED, "Interrupted");
+        }
+        Path workDirectory;
+        try {
+            workDirectory = Files.createTempDirectory("audioconverter-calibration");
+        } catch (IOException e) {
+            ffmpegService.releaseCores(cores);
+            throw e;
+        }
+        try {
+            AudioFile clip = cutReferenceClip(reference, seconds, workDirectory.resolve("reference.wav"));
+            Path outputDirectory = Files.createDirectories(workDirectory.resolve("out"));
+            CalibrationData measured = new CalibrationData();
+            measured.clipSeconds = clip.getSourceInfo().getDuration();
+
+            for (ConversionSettings.OutputFormat format : ConversionSettings.OutputFormat.values()) {
+                List<Measurement> results = new ArrayList<>();
+                for (EncoderTuning tuning : candidates(format)) {
+                    Measurement measurement = measure(clip, base, format, tuning, outputDirectory, runs);
+                    if (measurement != null) {
+                        results.add(measurement);
+                    }
+                }
+                measured.results.put(format.name(), results);
+            }
+
+            // PCM output, so the time is the resampler's
+            Map<String, Double> resamplerSeconds = new HashMap<>();
+            for (String resampler : RESAMPLERS) {
+                Measurement measurement = measure(clip, base, ConversionSettings.OutputFormat.WAV,
+                        new EncoderTuning(-1, null, resampler), outputDirectory, runs);
+                if (measurement != null) {
+                    resamplerSeconds.put(resampler, measurement.getSeconds());
+                }
+            }
+            Double defaultSeconds = resamplerSeconds.get(RESAMPLERS[0]);
+            Double otherSeconds = resamplerSeconds.get(RESAMPLERS[1]);
+            if (defaultSeconds != null && otherSeconds != null
+                    && otherSeconds < defaultSeconds * (1 - RESAMPLER_MIN_GAIN)) {
+                measured.resampler = RESAMPLERS[1];
+            }
+            measured.resamplerSeconds = resamplerSeconds;
+            measured.calibratedAtMillis = System.currentTimeMillis();
+
+            synchronized (this) {
+                data = measured;
+            }
+            save();
+        } finally {
+            ffmpegService.releaseCores(cores);
+            if (!Directories.deleteRecursively(workDirectory)) {
+                System.err.println("Could not remove " + workDirectory);
+            }
+        }
+    }
+
+    public synchronized boolean isCalibrated(ConversionSettings.OutputFormat format) {
+        List<Measurement> results = data.results.get(format.name());
+        return results != null && !results.isEmpty();
+    }
+
+    /**
+     * The options {@code preset} stands for with {@code format}, or null for
+     * the encoder defaults (DEFAULT, or the format was never calibrated).
+     */
+    public synchronized EncoderTuning tuningFor(ConversionSettings.OutputFormat format,
+                                                ConversionSettings.EncoderPreset preset) {
+        if (preset == null || preset == ConversionSettings.EncoderPreset.DEFAULT || !isCalibrated(format)) {
+            return null;
+        }
+        Measurement chosen = choose(data.results.get(format.name()), preset);
+        return chosen.getTuning().withResampler(data.resampler);
+    }
+
+    static Measurement choose(List<Measurement> results, ConversionSettings.EncoderPreset preset) {
+        Measurement fastest = results.stream().min(Comparator.comparingDouble(Measurement::getSeconds)).get();
+        switch (preset) {
+            case FASTEST:
+                return fastest;
+            case BALANCED:
+                return smallest(results, fastest.getSeconds() * BALANCED_MAX_SLOWDOWN);
+            default:
+                return smallest(results, Double.MAX_VALUE);
+        }
+    }
+
+    // Smallest output within the time limit; of equal sizes the slowest, i.e. most thorough
+    private static Measurement smallest(List<Measurement> results, double maxSeconds) {
+        List<Measurement> inTime = results.stream().filter(m -> m.getSeconds() <= maxSeconds).toList();
+        long minBytes = inTime.stream().mapToLong(Measurement::getBytes).min().getAsLong();
+        return inTime.stream()
+                .filter(m -> m.getBytes() <= minBytes * (1 + SIZE_TOLERANCE))
+                .max(Comparator.comparingDouble(Measurement::getSeconds))
+                .get();
+    }
+
+    /**
+     * A table of the measurements and each preset's choice per format.
+     */
+    public synchronized String describe() {
+        if (data.calibratedAtMillis == 0) {
+            return "Encoders have not been calibrated.\n";
+        }
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT, "Reference clip: %.1f s%n", data.clipSeconds));
+        for (ConversionSettings.OutputFormat format : ConversionSettings.OutputFormat.values()) {
+            List<Measurement> results = data.results.get(format.name());
+            if (results == null || results.isEmpty()) {
+                continue;
+            }
+            text.append(System.lineSeparator()).append(format).append(System.lineSeparator());
+            for (Measurement measurement : results) {
+                text.append(String.format(Locale.ROOT, "  %-28s %7.0f ms %8.0fx realtime %9.1f KiB%n",
+                        measurement.getTuning(), measurement.getSeconds() * 1000,
+                        data.clipSeconds / Math.max(measurement.getSeconds(), 1e-6),
+                        measurement.getBytes() / 1024.0));
+            }
+            for (ConversionSettings.EncoderPreset preset : ConversionSettings.EncoderPreset.values()) {
+                if (preset != ConversionSettings.EncoderPreset.DEFAULT) {
+                    text.append(String.format("  %-9s -> %s%n", preset.getLabel(), tuningFor(format, preset)));
+                }
+            }
+        }
+        text.append(System.lineSeparator()).append("Resampler:");
+        data.resamplerSeconds.forEach((name, seconds) ->
+                text.append(String.format(Locale.ROOT, " %s %.0f ms", name, seconds * 1000)));
+        if (!data.resamplerSeconds.containsKey(RESAMPLERS[1])) {
+            text.append(" (").append(RESAMPLERS[1]).append(" is not available in this FFmpeg build)");
+        }
+        return text.append(System.lineSeparator()).toString();
+    }
+
+    // Median time of the candidate, or null if FFmpeg rejects it (e.g. soxr not compiled in)
+    private Measurement measure(AudioFile clip, ConversionSettings base, ConversionSettings.OutputFormat format,
+                                EncoderTuning tuning, Path outputDirectory, int runs)
+            throws AudioConversionException {
+        ConversionSettings settings = base.copy();
+        settings.setOutputFormat(format);
+        settings.setSampleRate(TARGET_RATE);
+        settings.setChannels(ConversionSettings.Channels.STEREO);
+        settings.setNeverExceedSource(false);
+        settings.setNormalizeLoudness(false);
+        settings.setCollectStats(false);
+        settings.setSplitMode(ConversionSettings.SplitMode.NONE);
+        settings.setEncoderTuning(tuning);
+
+        if (FFmpegService.canStreamCopy(clip, settings)) {
+            // A remux would time neither the encoder nor the resampler
+            return null;
+        }
+
+        String outputPath = outputDirectory.toString();
+        double[] seconds = new double[Math.max(1, runs)];
+        EncodeOptions options = new EncodeOptions();
+        options.setThreads(1);
+        try {
+            // The first run warms the page cache and FFmpeg's libraries
+            for (int i = -1; i < seconds.length; i++) {
+                long start = System.nanoTime();
+                ffmpegService.convertAudio(clip, settings, outputPath, options, null);
+                if (i >= 0) {
+                    seconds[i] = (System.nanoTime() - start) / 1e9;
+                }
+            }
+        } catch (AudioConversionException e) {
+            if (e.getErrorType() == AudioConversionException.ErrorType.CANCELLED) {
+                throw e;
+            }
+            System.err.println("Skipping " + format + " with " + tuning + ": " + e.getMessage());
+            return null;
+        }
+        long bytes;
+        try {
+            bytes = Files.size(Path.of(ffmpegService.buildOutputFilename(clip, settings, outputPath)));
+        } catch (IOException e) {
+            return null;
+        }
+        Arrays.sort(seconds);
+        return new Measurement(tuning, seconds[seconds.length / 2], bytes);
+    }
+
+    // 48 kHz stereo PCM, so every candidate resamples and decoding the source is not timed
+    private AudioFile cutReferenceClip(AudioFile reference, double seconds, Path clipFile)
+            throws AudioConversionException, IOException {
+        String duration = String.format(Locale.ROOT, "%.3f", Math.max(1, seconds));
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegService.getFfmpegExecutable());
+        command.add("-y");
+        command.add("-v");
+        command.add("error");
+        if (reference != null) {
+            command.add("-t");
+            command.add(duration);
+            command.add("-i");
+            command.add(reference.getFilePath());
+            command.add("-vn");
+        } else {
+            command.add("-f");
+            command.add("lavfi");
+            command.add("-i");
+            command.add("anoisesrc=color=pink:amplitude=0.3:sample_rate=" + CLIP_RATE + ":duration=" + duration);
+        }
+        command.add("-ac");
+        command.add("2");
+        command.add("-ar");
+        command.add(String.valueOf(CLIP_RATE));
+        command.add("-c:a");
+        command.add("pcm_s16le");
+        command.add("-progress");
+        command.add("pipe:1");
+        command.add(clipFile.toString());
+
+        String name = reference != null ? reference.getName() : "reference clip";
+        Process process = ffmpegService.startProcess(command, true);
+        StringBuilder errors = new StringBuilder();
+        try (StallWatchdog.Watch watch = ffmpegService.watch(process, seconds);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                long outTimeMicros = FFmpegService.parseOutTimeMicros(line);
+                if (outTimeMicros >= 0) {
+                    watch.progress(outTimeMicros);
+                } else if (line.indexOf('=') < 0) {
+                    errors.append(line).append('\n');
+                }
+            }
+            int exitCode = process.waitFor();
+            if (watch.isStalled()) {
+                throw new AudioConversionException(
+                        name,
+                        AudioConversionException.ErrorType.STALLED,
+                        "Cutting the reference clip: " + watch.getStallReason()
+                );
+            }
+            if (exitCode != 0 || !Files.isRegularFile(clipFile) || Files.size(clipFile) == 0) {
+                throw new AudioConversionException(
+                        name,
+                        AudioConversionException.ErrorType.FFMPEG_ERROR,
+                        "Could not cut the reference clip: " + errors.toString().trim()
+                );
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+            throw new AudioConversionException(name, AudioConversionException.ErrorType.CANCELLED, "Interrupted");
+        }
+
+        AudioFile clip = new AudioFile(clipFile.toString());
+        ffmpegService.probeSourceInfo(clip);
+        return clip;
+    }
+
+    private synchronized void save() {
+        try {
+            Path temp = calibrationFile.resolveSibling(FILE_NAME + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                gson.toJson(data, writer);
+            }
+            Files.move(temp, calibrationFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not write encoder calibration: " + e.getMessage());
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(calibrationFile)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(calibrationFile, StandardCharsets.UTF_8)) {
+            CalibrationData stored = gson.fromJson(reader, CalibrationData.class);
+            if (stored != null && stored.results != null && stored.resamplerSeconds != null) {
+                data = stored;
+            }
+        } catch (IOException | JsonParseException e) {
+            System.err.println("Ignoring unreadable encoder calibration: " + e.getMessage());
+        }
+    }
+
+    // Persisted form of the calibration
+    private static class CalibrationData {
+        private Map<String, List<Measurement>> results = new HashMap<>();
+        private Map<String, Double> resamplerSeconds = new HashMap<>();
+        private String resampler; // quicker than the default by a clear margin, else null
+        private double clipSeconds;
+        private long calibratedAtMillis;
+    }
+}
@@ -0,0 +1,61 @@
+package se233.audioconverter.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a process's standard error on a daemon thread, so a process that
+ * writes a lot of messages never blocks on a full pipe. The last few
+ * kilobytes are kept for error reports.
+ */
+public final class ErrorStreamDrain {
+    private static final int MAX_ERROR_OUTPUT = 8 * 1024;
+
+    private final Process process;
+    private final StringBuilder output = new StringBuilder();
+    private final Thread thread;
+
+    private ErrorStreamDrain(Process process, String name) {
+        this.process = process;
+        this.thread = new Thread(this::drain, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static ErrorStreamDrain start(Process process, String name) {
+        return new ErrorStreamDrain(process, name);
+    }
+
+    /**
+     * Waits for the stream to close (the process has exited or was killed)
+     * and returns what was kept of it.
+     */
+    public String await() throws InterruptedException {
+        thread.join();
+        return getOutput();
+    }
+
+    public String getOutput() {
+        synchronized (output) {
+            return output.toString().trim();
+        }
+    }
+
+    private void drain() {
+        byte[] chunk = new byte[4096];
+        try (InputStream stderr = process.getErrorStream()) {
+            int read;
+            while ((read = stderr.read(chunk)) >= 0) {
+                synchronized (output) {
+                    output.append(new String(chunk, 0, read, StandardCharsets.UTF_8));
+                    if (output.length() > MAX_ERROR_OUTPUT) {
+                        output.delete(0, output.length() - MAX_ERROR_OUTPUT);
+                    }
+                }
+            }
+        } catch (IOException ignored) {
+            // Process ended
+        }
+    }
+}
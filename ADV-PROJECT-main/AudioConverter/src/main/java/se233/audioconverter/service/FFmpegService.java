@@ -2,7 +2,14 @@ package se233.audioconverter.service;
 
 import se233.audioconverter.exception.AudioConversionException;
 import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.AudioSourceInfo;
+import se233.audioconverter.model.AudioStats;
+import se233.audioconverter.model.ClipRange;
 import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.model.EncodeOptions;
+import se233.audioconverter.model.EncoderTuning;
+import se233.audioconverter.model.LoudnessMeasurement;
+import se233.audioconverter.service.flac.FlacEncoder;
 import net.bramp.ffmpeg.FFmpeg;
 import net.bramp.ffmpeg.FFmpegExecutor;
 import net.bramp.ffmpeg.FFprobe;
@@ -17,26 +24,57 @@ import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
-public class FFmpegService {
-    private static final List<String> SUPPORTED_FORMATS = Arrays.asList("mp3", "wav", "m4a", "flac");
+public class FFmpegService implements Transcoder {
+    private static final List<String> SUPPORTED_FORMATS = Arrays.asList(
+            "mp3", "wav", "m4a", "flac", "mp4", "m4v", "mkv", "mov", "webm", "avi");
+    // Only the audio of these is used; the video stream is never decoded
+    private static final Set<String> VIDEO_CONTAINERS = Set.of("mp4", "m4v", "mkv", "mov", "webm", "avi");
+    // Re-encoding a lossy stream at a higher bitrate cannot add quality back
+    private static final double COPY_BITRATE_TOLERANCE = 1.05;
+    // PCM sources the in-process FLAC encoder takes without losing bits
+    private static final Set<String> FLAC_ENCODER_SOURCES = Set.of("pcm_s16le", "pcm_s16be", "pcm_s8", "pcm_u8");
 
     private FFmpeg ffmpeg;
     private FFprobe ffprobe;
     private FFmpegExecutor executor;
+    private final String ffmpegPath;
+    private final String ffprobePath;
+    private final String nicePath;
+    private final String ionicePath;
+    private volatile boolean lowPriority;
+    private final StallWatchdog stallWatchdog;
+    private final ProcessRegistry processRegistry = new ProcessRegistry();
+    private volatile CpuBudget cpuBudget;
 
     public FFmpegService() throws IOException {
-        String ffmpegPath = getFfmpegPath();
-        String ffprobePath = getFfprobePath();
+        this.ffmpegPath = getFfmpegPath();
+        this.ffprobePath = getFfprobePath();
+        this.nicePath = findOnPath("nice");
+        this.ionicePath = findOnPath("ionice");
+        // Opt-in: renicing every encode by default would slow batches on an idle machine
+        this.lowPriority = nicePath != null && Boolean.getBoolean("audioconverter.lowPriority");
 
         this.ffmpeg = new FFmpeg(ffmpegPath);
         this.ffprobe = new FFprobe(ffprobePath);
         this.executor = new FFmpegExecutor(ffmpeg, ffprobe);
+        this.stallWatchdog = StallWatchdog.fromSystemProperties();
     }
 
     private String getFfmpegPath() {
@@ -127,10 +165,201 @@ public class FFmpegService {
         return os.contains("win") ? "ffprobe.exe" : "ffprobe";
     }
 
+    // Used for the Linux nice/ionice helpers; null when not installed
+    private String findOnPath(String name) {
+        String pathEnv = System.getenv("PATH");
+        if (pathEnv == null || System.getProperty("os.name").toLowerCase().contains("win")) {
+            return null;
+        }
+        for (String path : pathEnv.split(File.pathSeparator)) {
+            File file = new File(path, name);
+            if (file.exists() && file.canExecute()) {
+                return file.getAbsolutePath();
+            }
+        }
+        return null;
+    }
+
+    public String getFfmpegExecutable() {
+        return ffmpegPath;
+    }
+
+    public boolean isLowPrioritySupported() {
+        return nicePath != null;
+    }
+
+    public boolean isLowPriority() {
+        return lowPriority;
+    }
+
+    /**
+     * Runs FFmpeg processes under nice (and ionice when present) so the UI and
+     * other services stay responsive while every core is encoding. Off unless
+     * enabled here or with {@code -Daudioconverter.lowPriority=true}.
+     */
+    public void setLowPriority(boolean lowPriority) {
+        this.lowPriority = lowPriority && nicePath != null;
+    }
+
+    /**
+     * Starts an FFmpeg/FFprobe command, applying the scheduling priority.
+     */
+    public Process startProcess(List<String> command, boolean redirectErrorStream) throws IOException {
+        List<String> fullCommand = new ArrayList<>();
+        if (lowPriority) {
+            if (ionicePath != null) {
+                // Best-effort class, lowest priority: still progresses when the disk is busy
+                fullCommand.add(ionicePath);
+                fullCommand.add("-c");
+                fullCommand.add("2");
+                fullCommand.add("-n");
+                fullCommand.add("7");
+            }
+            fullCommand.add(nicePath);
+            fullCommand.add("-n");
+            fullCommand.add("10");
+        }
+        fullCommand.addAll(command);
+
+        ProcessBuilder processBuilder = new ProcessBuilder(fullCommand);
+        processBuilder.redirectErrorStream(redirectErrorStream);
+        Process process = processBuilder.start();
+        processRegistry.register(process);
+        return process;
+    }
+
+    /**
+     * Puts a process from {@link #startProcess} under the stall watchdog.
+     * The caller reports positions to the returned watch and closes it once
+     * the process has exited.
+     */
+    public StallWatchdog.Watch watch(Process process, double expectedSeconds) {
+        return stallWatchdog.watch(process, expectedSeconds);
+    }
+
+    /**
+     * Makes the analysis, waveform, verification and calibration processes
+     * share the encodes' CPU budget (see {@link #acquireCore()}).
+     */
+    public void setCpuBudget(CpuBudget cpuBudget) {
+        this.cpuBudget = cpuBudget;
+    }
+
+    /**
+     * Waits for one core of the CPU budget for a process that is not an
+     * encode job; the caller hands the result to {@link #releaseCores(int)}
+     * once the process has exited. Returns 0 when there is no budget.
+     */
+    public int acquireCore() throws InterruptedException {
+        CpuBudget budget = cpuBudget;
+        return budget != null ? budget.acquire(1) : 0;
+    }
+
+    /**
+     * Waits until no job or other process holds any of the CPU budget and
+     * takes all of it, for timings that must not be skewed by other work.
+     * Returns the cores taken (0 when there is no budget).
+     */
+    public int acquireAllCores() throws InterruptedException {
+        CpuBudget budget = cpuBudget;
+        return budget != null ? budget.acquire(budget.getCores()) : 0;
+    }
+
+    public void releaseCores(int cores) {
+        CpuBudget budget = cpuBudget;
+        if (budget != null && cores > 0) {
+            budget.release(cores);
+        }
+    }
+
+    // Every process started here, for cancellation and leak accounting
+    public ProcessRegistry getProcessRegistry() {
+        return processRegistry;
+    }
+
+    // Thrown where a cancelled job would otherwise report an FFmpeg failure
+    private void checkCancelled(AudioFile audioFile) throws AudioConversionException {
+        if (processRegistry.isCurrentCancelled()) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.CANCELLED,
+                    "Stopped on request"
+            );
+        }
+    }
+
+    /**
+     * Deletes the outputs of a failed or cancelled conversion that were
+     * written after {@code startedMillis}, so no truncated file is left in
+     * the output folder. Older files with the same name are kept.
+     */
+    @Override
+    public void deletePartialOutputs(AudioFile audioFile, ConversionSettings settings, String outputPath,
+                                     long startedMillis) {
+        for (String output : outputFilenames(audioFile, settings, outputPath)) {
+            File file = new File(output);
+            if (file.exists() && file.lastModified() >= startedMillis - 1000 && !file.delete()) {
+                System.err.println("Could not remove partial output " + output);
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "ffmpeg";
+    }
+
+    @Override
+    public Capabilities getCapabilities() {
+        return new Capabilities(EnumSet.allOf(ConversionSettings.OutputFormat.class), true, true, true);
+    }
+
+    // Speed depends on this machine, so estimates come from the measured ThroughputModel
+    @Override
+    public double estimateSeconds(AudioFile audioFile, ConversionSettings settings) {
+        return -1;
+    }
+
+    public String getFfprobeExecutable() {
+        return ffprobePath;
+    }
+
     public boolean isFormatSupported(String format) {
         return SUPPORTED_FORMATS.contains(format.toLowerCase());
     }
 
+    public static boolean isVideoContainer(String format) {
+        return VIDEO_CONTAINERS.contains(format.toLowerCase());
+    }
+
+    /**
+     * True if the probed audio stream already is what the settings ask for,
+     * so it can be remuxed with "-c:a copy" instead of being re-encoded:
+     * same codec, sample rate and channel count, no loudness pass, no clips,
+     * and for lossy formats no more than the target bitrate.
+     */
+    public static boolean canStreamCopy(AudioFile audioFile, ConversionSettings settings) {
+        AudioSourceInfo info = audioFile.getSourceInfo();
+        if (info == null || settings.isNormalizeLoudness() || audioFile.hasClipRanges()) {
+            return false;
+        }
+        ConversionSettings.OutputFormat format = settings.getOutputFormat();
+        if (!format.getCodecName().equals(info.getCodec())
+                || info.getSampleRate() != settings.getSampleRate().getRate()
+                || info.getChannels() != settings.getChannels().getCount()) {
+            return false;
+        }
+        if (!format.supportsBitrate()) {
+            return true;
+        }
+        // A VBR quality level has no bitrate to compare against
+        if (settings.getBitrateMode() == ConversionSettings.BitrateMode.VARIABLE && format.supportsVBR()) {
+            return false;
+        }
+        return info.getBitRate() > 0
+                && info.getBitRate() <= settings.getEffectiveBitrate() * 1000L * COPY_BITRATE_TOLERANCE;
+    }
+
     public void validateAudioFile(AudioFile audioFile) throws AudioConversionException {
         File file = new File(audioFile.getFilePath());
 
@@ -163,11 +392,83 @@ public class FFmpegService {
         }
     }
 
-    public void convertAudio(AudioFile audioFile, ConversionSettings settings,
-                             String outputPath, ProgressListener listener)
+    /**
+     * Probes the file's first audio stream and stores the result on the
+     * AudioFile, so later steps (ETA, scheduling, progress) can reuse it.
+     */
+    @Override
+    public AudioSourceInfo probeSourceInfo(AudioFile audioFile) throws AudioConversionException {
+        if (audioFile.getSourceInfo() != null) {
+            return audioFile.getSourceInfo();
+        }
+
+        FFmpegProbeResult probeResult = probeFile(audioFile.getFilePath());
+        FFmpegStream audioStream = null;
+        for (FFmpegStream stream : probeResult.getStreams()) {
+            if (stream.codec_type == FFmpegStream.CodecType.AUDIO) {
+                audioStream = stream;
+                break;
+            }
+        }
+        if (audioStream == null) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.UNSUPPORTED_FORMAT,
+                    "No audio stream found"
+            );
+        }
+
+        double duration = probeResult.getFormat() != null ? probeResult.getFormat().duration : 0;
+        if (duration <= 0) {
+            duration = audioStream.duration;
+        }
+        AudioSourceInfo info = new AudioSourceInfo(
+                audioStream.codec_name != null ? audioStream.codec_name : "unknown",
+                audioStream.sample_rate,
+                audioStream.channels,
+                audioStream.bit_rate,
+                duration
+        );
+        audioFile.setSourceInfo(info);
+        return info;
+    }
+
+    public AudioStats convertAudio(AudioFile audioFile, ConversionSettings settings,
+                                   String outputPath, ProgressListener listener)
+            throws AudioConversionException {
+        return convertAudio(audioFile, settings, outputPath, new EncodeOptions(), listener);
+    }
+
+    /**
+     * Converts a file with per-job options: the thread count assigned by the
+     * CPU budget and, when normalising, the first-pass loudness measurement
+     * (see {@link LoudnessAnalyzer}).
+     *
+     * With {@link ConversionSettings#isCollectStats()} the decoded audio is
+     * also split into an analysis branch of the same run, and its statistics
+     * are returned. Returns null when no statistics were collected: the
+     * option is off, the audio was only remuxed, or the file has several
+     * clip ranges.
+     */
+    @Override
+    public AudioStats convertAudio(AudioFile audioFile, ConversionSettings settings,
+                                   String outputPath, EncodeOptions options,
+                                   ProgressListener listener)
             throws AudioConversionException {
 
+        checkCancelled(audioFile);
         validateAudioFile(audioFile);
+        // Never upsample, upmix or raise the bitrate beyond the source (if enabled)
+        settings = SourceAwareSettings.resolve(audioFile, settings);
+
+        if (audioFile.hasClipRanges()) {
+            return convertClips(audioFile, settings, outputPath, options, listener);
+        }
+
+        if (usesInProcessFlac(audioFile, settings)) {
+            convertWithFlacEncoder(audioFile, settings, outputPath, options, listener);
+            return null;
+        }
 
         try {
             String outputFilename = buildOutputFilename(audioFile, settings, outputPath);
@@ -176,90 +477,652 @@ public class FFmpegService {
             List<String> command = new ArrayList<>();
 
             // FFmpeg executable path
-            String ffmpegPath = getFfmpegPath();
             command.add(ffmpegPath);
 
+            boolean copy = canStreamCopy(audioFile, settings);
+            AudioStatsParser stats = settings.isCollectStats() && !copy ? new AudioStatsParser() : null;
+
             // Global options
             command.add("-y"); // Overwrite output files
-            command.add("-v");
-            command.add("error");
+            addLogLevel(command, stats != null);
+            // Machine-readable progress (key=value lines) on stdout
+            command.add("-progress");
+            command.add("pipe:1");
+            command.add("-nostats");
+
+            addThreadOptions(command, options.getThreads());
 
             // Input file
             command.add("-i");
             command.add(audioFile.getFilePath());
+            if (isVideoContainer(audioFile.getFormat())) {
+                command.add("-vn");
+            }
 
-            // Output options (AFTER input file)
-            command.add("-c:a");
-            command.add(settings.getOutputFormat().getCodec());
-
-            command.add("-ac");
-            command.add(String.valueOf(settings.getChannels().getCount()));
-
-            command.add("-ar");
-            command.add(String.valueOf(settings.getSampleRate().getRate()));
-
-            // Bitrate settings - check mode and format
-            if (settings.getOutputFormat().supportsBitrate()) {
-                if (settings.getOutputFormat() == ConversionSettings.OutputFormat.MP3 &&
-                        settings.getBitrateMode() == ConversionSettings.BitrateMode.VARIABLE) {
-                    // MP3 VBR mode - use -q:a (quality) instead of bitrate
-                    command.add("-q:a");
-                    command.add(String.valueOf(settings.getVbrQuality()));
-                } else {
-                    // CBR mode or other formats - use bitrate
-                    int bitrate = settings.getEffectiveBitrate();
-                    command.add("-b:a");
-                    command.add(bitrate + "k");
+            if (copy) {
+                // Remux only: the audio already matches the target
+                command.add("-map");
+                command.add("0:a:0");
+                command.add("-c:a");
+                command.add("copy");
+            } else {
+                // Output options (AFTER input file)
+                addEncodingOptions(command, settings);
+                addThreadOptions(command, options.getThreads());
+
+                // Second loudnorm pass (linear gain from the cached measurement)
+                String loudnessFilter = loudnessFilter(settings, options);
+                if (stats != null) {
+                    addStatsBranch(command, loudnessFilter);
+                } else if (loudnessFilter != null) {
+                    command.add("-af");
+                    command.add(loudnessFilter);
                 }
             }
 
             // Output file (MUST be last)
             command.add(outputFilename);
 
-            // Execute command
-            ProcessBuilder processBuilder = new ProcessBuilder(command);
-            processBuilder.redirectErrorStream(true);
+            runWithProgress(audioFile, command, listener, stats, options.getExpectedSeconds());
+            return stats != null ? stats.result(audioFile.getProcessedDuration()) : null;
 
-            Process process = processBuilder.start();
+        } catch (IOException | InterruptedException e) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.FFMPEG_ERROR,
+                    e
+            );
+        }
+    }
+
+    private static String loudnessFilter(ConversionSettings settings, EncodeOptions options) {
+        LoudnessMeasurement loudness = options.getLoudness();
+        return settings.isNormalizeLoudness() && loudness != null
+                ? loudness.toSecondPassFilter(settings.getLoudnessTarget())
+                : null;
+    }
 
-            // Read output
-            BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream()));
-            String line;
-            StringBuilder output = new StringBuilder();
+    // The analysis filters only report at info level
+    private static void addLogLevel(List<String> command, boolean collectStats) {
+        if (collectStats) {
+            command.add("-hide_banner");
+        }
+        command.add("-v");
+        command.add(collectStats ? "info" : "error");
+    }
 
+    /**
+     * Maps the first audio stream through an asplit: one branch is encoded
+     * (the encoding options follow), the other feeds the analysis filters
+     * and ends in a null sink, so statistics cost no second decode.
+     */
+    private static void addStatsBranch(List<String> command, String loudnessFilter) {
+        StringBuilder graph = new StringBuilder("[0:a:0]");
+        if (loudnessFilter != null) {
+            graph.append(loudnessFilter).append(",");
+        }
+        graph.append("asplit=2[enc][stats];[stats]").append(AudioStatsParser.ANALYSIS_CHAIN);
+        command.add("-filter_complex");
+        command.add(graph.toString());
+        command.add("-map");
+        command.add("[enc]");
+    }
+
+    /**
+     * Runs an FFmpeg command with "-progress pipe:1" and forwards its output
+     * position. Report lines of the analysis branch go to the stats parser.
+     * The stall watchdog kills the process if the position stops advancing
+     * or the run takes far longer than {@code expectedSeconds}.
+     */
+    private void runWithProgress(AudioFile audioFile, List<String> command, ProgressListener listener,
+                                 AudioStatsParser stats, double expectedSeconds)
+            throws IOException, InterruptedException, AudioConversionException {
+        Process process = startProcess(command, true);
+        try (StallWatchdog.Watch watch = stallWatchdog.watch(process, expectedSeconds)) {
+            readProgress(audioFile, process, listener, stats, watch);
+        }
+    }
+
+    private void readProgress(AudioFile audioFile, Process process, ProgressListener listener,
+                              AudioStatsParser stats, StallWatchdog.Watch watch)
+            throws IOException, InterruptedException, AudioConversionException {
+        String line;
+        StringBuilder output = new StringBuilder();
+        // Reused for every update so progress reporting does not allocate
+        Progress progress = new Progress();
+
+        // Read output
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream()))) {
             while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-                System.out.println(line); // For debugging
+                long outTimeMicros = parseOutTimeMicros(line);
+                if (outTimeMicros >= 0) {
+                    watch.progress(outTimeMicros);
+                    if (listener != null) {
+                        progress.out_time_ns = outTimeMicros * 1000;
+                        listener.progress(progress);
+                    }
+                } else if (stats != null && stats.accept(line)) {
+                    // consumed by the analysis report
+                } else if (line.indexOf('=') < 0) {
+                    output.append(line).append("\n");
+                }
+            }
+        }
+
+        int exitCode = process.waitFor();
+
+        checkCancelled(audioFile);
+        if (watch.isStalled()) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.STALLED,
+                    watch.getStallReason() + "\n" + output
+            );
+        }
+        if (exitCode != 0) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.FFMPEG_ERROR,
+                    "FFmpeg exit code: " + exitCode + "\n" + output.toString()
+            );
+        }
+    }
+
+    /**
+     * Converts only the file's clip ranges, one output per range.
+     *
+     * The input is opened with {@code -ss} before {@code -i}, so FFmpeg seeks
+     * in the demuxer to the first range instead of decoding everything before
+     * it, and {@code -t} stops reading after the last range. A single range
+     * needs nothing else: input seeking is sample-accurate when transcoding.
+     * Several ranges share that one decode: the audio is split with
+     * {@code asplit} and each branch is cut with {@code atrim}. An extra
+     * untrimmed branch goes to a null output so the reported position is the
+     * decode position across the whole span. Statistics are only collected
+     * for a single range (one output, one report).
+     */
+    private AudioStats convertClips(AudioFile audioFile, ConversionSettings settings,
+                              String outputPath, EncodeOptions options,
+                              ProgressListener listener)
+            throws AudioConversionException {
+        List<ClipRange> ranges = audioFile.getClipRanges();
+        double seekStart = Double.MAX_VALUE;
+        double seekEnd = 0;
+        for (ClipRange range : ranges) {
+            seekStart = Math.min(seekStart, range.getStart());
+            seekEnd = range.isOpenEnded() || seekEnd < 0 ? -1 : Math.max(seekEnd, range.getEnd());
+        }
+
+        String loudnessFilter = loudnessFilter(settings, options);
+        AudioStatsParser stats = settings.isCollectStats() && ranges.size() == 1 ? new AudioStatsParser() : null;
+
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegPath);
+        command.add("-y");
+        addLogLevel(command, stats != null);
+        command.add("-progress");
+        command.add("pipe:1");
+        command.add("-nostats");
+        addThreadOptions(command, options.getThreads());
+
+        // Input options: fast seek to the first range, stop after the last
+        command.add("-ss");
+        command.add(formatSeconds(seekStart));
+        if (seekEnd >= 0) {
+            command.add("-t");
+            command.add(formatSeconds(seekEnd - seekStart));
+        }
+        command.add("-i");
+        command.add(audioFile.getFilePath());
+
+        if (ranges.size() == 1) {
+            if (stats != null) {
+                addStatsBranch(command, loudnessFilter);
+            } else {
+                command.add("-map");
+                command.add("0:a:0");
+            }
+            addEncodingOptions(command, settings);
+            addThreadOptions(command, options.getThreads());
+            if (loudnessFilter != null && stats == null) {
+                command.add("-af");
+                command.add(loudnessFilter);
             }
+            command.add(buildOutputFilename(audioFile, settings, outputPath, ranges.get(0)));
+        } else {
+            // Timestamps restart at 0 after an input seek, so trims are relative to it
+            StringBuilder graph = new StringBuilder("[0:a:0]asplit=").append(ranges.size() + 1).append("[pos]");
+            for (int i = 0; i < ranges.size(); i++) {
+                graph.append("[c").append(i).append("]");
+            }
+            for (int i = 0; i < ranges.size(); i++) {
+                ClipRange range = ranges.get(i);
+                graph.append(";[c").append(i).append("]atrim=start=")
+                        .append(formatSeconds(range.getStart() - seekStart));
+                if (!range.isOpenEnded()) {
+                    graph.append(":end=").append(formatSeconds(range.getEnd() - seekStart));
+                }
+                graph.append(",asetpts=PTS-STARTPTS");
+                if (loudnessFilter != null) {
+                    graph.append(",").append(loudnessFilter);
+                }
+                graph.append("[o").append(i).append("]");
+            }
+            command.add("-filter_complex");
+            command.add(graph.toString());
+
+            for (int i = 0; i < ranges.size(); i++) {
+                command.add("-map");
+                command.add("[o" + i + "]");
+                addEncodingOptions(command, settings);
+                addThreadOptions(command, options.getThreads());
+                command.add(buildOutputFilename(audioFile, settings, outputPath, ranges.get(i)));
+            }
+            command.add("-map");
+            command.add("[pos]");
+            command.add("-f");
+            command.add("null");
+            command.add("-");
+        }
 
-            int exitCode = process.waitFor();
+        try {
+            runWithProgress(audioFile, command, listener, stats, options.getExpectedSeconds());
+            return stats != null ? stats.result(audioFile.getProcessedDuration()) : null;
+        } catch (IOException | InterruptedException e) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.FFMPEG_ERROR,
+                    e
+            );
+        }
+    }
+
+    private static String formatSeconds(double seconds) {
+        return String.format(Locale.ROOT, "%.3f", Math.max(0, seconds));
+    }
+
+    // FLAC output from probed 16-bit (or narrower) PCM
+    private boolean usesInProcessFlac(AudioFile audioFile, ConversionSettings settings) {
+        AudioSourceInfo info = audioFile.getSourceInfo();
+        return settings.getOutputFormat() == ConversionSettings.OutputFormat.FLAC
+                && !audioFile.hasClipRanges()
+                && !settings.isCollectStats() // the analysis branch needs FFmpeg's own encode
+                // FlacEncoder has a single fixed level
+                && (settings.getEncoderTuning() == null || settings.getEncoderTuning().getCompressionLevel() < 0)
+                && info != null
+                && FLAC_ENCODER_SOURCES.contains(info.getCodec());
+    }
+
+    /**
+     * FFmpeg only decodes (and resamples / normalises) to raw PCM on a pipe;
+     * the frames are encoded by {@link FlacEncoder} on a fork/join pool sized
+     * to the job's thread grant, so one long master can use every core.
+     */
+    private void convertWithFlacEncoder(AudioFile audioFile, ConversionSettings settings,
+                                        String outputPath, EncodeOptions options,
+                                        ProgressListener listener)
+            throws AudioConversionException {
+        int sampleRate = settings.getSampleRate().getRate();
+        int channels = settings.getChannels().getCount();
 
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegPath);
+        command.add("-v");
+        command.add("error");
+        command.add("-i");
+        command.add(audioFile.getFilePath());
+        command.add("-vn");
+        LoudnessMeasurement loudness = options.getLoudness();
+        if (settings.isNormalizeLoudness() && loudness != null) {
+            command.add("-af");
+            command.add(loudness.toSecondPassFilter(settings.getLoudnessTarget()));
+        }
+        command.add("-ac");
+        command.add(String.valueOf(channels));
+        command.add("-ar");
+        command.add(String.valueOf(sampleRate));
+        addResamplerOption(command, settings);
+        command.add("-f");
+        command.add("s16le");
+        command.add("pipe:1");
+
+        int threads = options.getThreads() > 0
+                ? options.getThreads()
+                : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Process process = null;
+        try {
+            Path outputFile = Paths.get(buildOutputFilename(audioFile, settings, outputPath));
+            // stderr stays separate so messages cannot end up in the PCM stream,
+            // and is drained so a chatty decode never blocks on it
+            process = startProcess(command, false);
+            ErrorStreamDrain errors = ErrorStreamDrain.start(process, "flac-decode-errors");
+
+            Progress progress = new Progress();
+            int exitCode;
+            try (StallWatchdog.Watch watch = stallWatchdog.watch(process, options.getExpectedSeconds());
+                 InputStream pcm = process.getInputStream()) {
+                new FlacEncoder(pool).encode(pcm, sampleRate, channels, outputFile, samples -> {
+                    watch.progress(samples * 1_000_000L / sampleRate);
+                    if (listener != null) {
+                        progress.out_time_ns = samples * 1_000_000_000L / sampleRate;
+                        listener.progress(progress);
+                    }
+                });
+                exitCode = process.waitFor();
+                checkCancelled(audioFile);
+                if (watch.isStalled()) {
+                    throw new AudioConversionException(
+                            audioFile.getName(),
+                            AudioConversionException.ErrorType.STALLED,
+                            watch.getStallReason()
+                    );
+                }
+            }
             if (exitCode != 0) {
                 throw new AudioConversionException(
                         audioFile.getName(),
                         AudioConversionException.ErrorType.FFMPEG_ERROR,
-                        "FFmpeg exit code: " + exitCode + "\n" + output.toString()
+                        "FFmpeg decode exit code: " + exitCode + "\n" + errors.await()
                 );
             }
+        } catch (IOException | InterruptedException e) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.FFMPEG_ERROR,
+                    e
+            );
+        } finally {
+            // Whatever ended the encode, the decoder must not outlive it
+            if (process != null) {
+                process.destroyForcibly();
+            }
+            pool.shutdownNow();
+        }
+    }
 
-            // Notify listener of completion (simplified - no progress tracking)
-            if (listener != null) {
-                Progress progress = new Progress();
-                progress.out_time_ns = 1000000000L; // Dummy value
-                listener.progress(progress);
+    // out_time_us (and the misnamed out_time_ms) are both in microseconds
+    static long parseOutTimeMicros(String line) {
+        int prefix;
+        if (line.startsWith("out_time_us=")) {
+            prefix = "out_time_us=".length();
+        } else if (line.startsWith("out_time_ms=")) {
+            prefix = "out_time_ms=".length();
+        } else {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(line.substring(prefix).trim()));
+        } catch (NumberFormatException e) {
+            return -1; // "N/A" before the first packet
+        }
+    }
+
+    /**
+     * Converts several small files with a single FFmpeg process (one input and
+     * one mapped output per file), saving the process start-up cost per file.
+     *
+     * Outputs are checked as in the single-file path: if the grouped run fails
+     * or reports any error, e.g. because one input is corrupt, every file is
+     * converted again on its own so each file's status and error stay
+     * accurate; otherwise any output that is missing, empty or not written
+     * by this run is redone on its own. Returns the failures by file; an empty
+     * map means every file was converted. {@code expectedSeconds} is the
+     * predicted time for the whole group (0 if unknown).
+     */
+    public Map<AudioFile, AudioConversionException> convertBatch(List<AudioFile> audioFiles,
+                                                                 ConversionSettings settings,
+                                                                 String outputPath, int threads,
+                                                                 double expectedSeconds) {
+        Map<AudioFile, AudioConversionException> failures = new LinkedHashMap<>();
+        List<AudioFile> valid = new ArrayList<>();
+        // Per input, as in the single-file path: never exceed that file's source
+        List<ConversionSettings> validSettings = new ArrayList<>();
+        for (AudioFile audioFile : audioFiles) {
+            try {
+                validateAudioFile(audioFile);
+            } catch (AudioConversionException e) {
+                failures.put(audioFile, e);
+                continue;
+            }
+            // Grouped files are not probed up front, but capping and stream copies need the source
+            boolean mayCopy = settings.getOutputFormat().getExtension().equalsIgnoreCase(audioFile.getFormat());
+            if ((settings.isNeverExceedSource() || mayCopy) && audioFile.getSourceInfo() == null) {
+                try {
+                    probeSourceInfo(audioFile);
+                } catch (AudioConversionException e) {
+                    // Converted with the batch settings; a broken file fails in the run itself
+                }
             }
+            valid.add(audioFile);
+            validSettings.add(SourceAwareSettings.resolve(audioFile, settings));
+        }
+        if (valid.isEmpty()) {
+            return failures;
+        }
+        if (valid.size() == 1) {
+            convertSingleForBatch(valid.get(0), settings, outputPath, threads, failures);
+            return failures;
+        }
 
-        } catch (IOException | InterruptedException e) {
+        long startedMillis = System.currentTimeMillis();
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegPath);
+        command.add("-y");
+        command.add("-v");
+        command.add("error");
+        // Progress only feeds the stall watchdog
+        command.add("-progress");
+        command.add("pipe:1");
+        command.add("-nostats");
+        for (AudioFile audioFile : valid) {
+            addThreadOptions(command, threads);
+            command.add("-i");
+            command.add(audioFile.getFilePath());
+        }
+        for (int i = 0; i < valid.size(); i++) {
+            command.add("-map");
+            command.add(i + ":a:0");
+            if (canStreamCopy(valid.get(i), validSettings.get(i))) {
+                // Remux only, as in the single-file path
+                command.add("-c:a");
+                command.add("copy");
+            } else {
+                addEncodingOptions(command, validSettings.get(i));
+                addThreadOptions(command, threads);
+            }
+            command.add(buildOutputFilename(valid.get(i), validSettings.get(i), outputPath));
+        }
+
+        boolean groupSucceeded;
+        try {
+            Process process = startProcess(command, true);
+            // A stalled group is killed and its files retried one by one, so the
+            // file that hangs is the only one that fails
+            try (StallWatchdog.Watch watch = stallWatchdog.watch(process, expectedSeconds);
+                 BufferedReader reader = new BufferedReader(
+                         new InputStreamReader(process.getInputStream()))) {
+                String line;
+                boolean errors = false;
+                while ((line = reader.readLine()) != null) {
+                    long outTimeMicros = parseOutTimeMicros(line);
+                    if (outTimeMicros >= 0) {
+                        watch.progress(outTimeMicros);
+                    } else if (line.indexOf('=') < 0) {
+                        // Cannot be pinned on one output; the per-file retry reports it
+                        errors = true;
+                    }
+                }
+                groupSucceeded = process.waitFor() == 0 && !watch.isStalled() && !errors;
+            }
+        } catch (IOException e) {
+            groupSucceeded = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (AudioFile audioFile : valid) {
+                failures.put(audioFile, new AudioConversionException(
+                        audioFile.getName(), AudioConversionException.ErrorType.FFMPEG_ERROR, e));
+            }
+            return failures;
+        }
+
+        for (int i = 0; i < valid.size(); i++) {
+            AudioFile audioFile = valid.get(i);
+            File output = new File(buildOutputFilename(audioFile, validSettings.get(i), outputPath));
+            if (!groupSucceeded || !isWrittenSince(output, startedMillis)) {
+                convertSingleForBatch(audioFile, settings, outputPath, threads, failures);
+            }
+        }
+        return failures;
+    }
+
+    // Non-empty and written by this run, not left over from an earlier one
+    private static boolean isWrittenSince(File output, long startedMillis) {
+        // Some file systems store modification times in whole seconds
+        return output.isFile() && output.length() > 0 && output.lastModified() >= startedMillis / 1000 * 1000;
+    }
+
+    private void convertSingleForBatch(AudioFile audioFile, ConversionSettings settings, String outputPath,
+                                       int threads, Map<AudioFile, AudioConversionException> failures) {
+        EncodeOptions options = new EncodeOptions();
+        options.setThreads(threads);
+        try {
+            convertAudio(audioFile, settings, outputPath, options, null);
+        } catch (AudioConversionException e) {
+            failures.put(audioFile, e);
+        }
+    }
+
+    // -threads before an input sets decoder threads, after it encoder threads
+    private void addThreadOptions(List<String> command, int threads) {
+        if (threads > 0) {
+            command.add("-threads");
+            command.add(String.valueOf(threads));
+        }
+    }
+
+    // Codec, channel, sample-rate and bitrate options shared by every encode path
+    private void addEncodingOptions(List<String> command, ConversionSettings settings) {
+        command.add("-c:a");
+        command.add(settings.getOutputFormat().getCodec());
+
+        command.add("-ac");
+        command.add(String.valueOf(settings.getChannels().getCount()));
+
+        command.add("-ar");
+        command.add(String.valueOf(settings.getSampleRate().getRate()));
+
+        // Bitrate settings - check mode and format
+        if (settings.getOutputFormat().supportsBitrate()) {
+            if (settings.getOutputFormat() == ConversionSettings.OutputFormat.MP3 &&
+                    settings.getBitrateMode() == ConversionSettings.BitrateMode.VARIABLE) {
+                // MP3 VBR mode - use -q:a (quality) instead of bitrate
+                command.add("-q:a");
+                command.add(String.valueOf(settings.getVbrQuality()));
+            } else {
+                // CBR mode or other formats - use bitrate
+                int bitrate = settings.getEffectiveBitrate();
+                command.add("-b:a");
+                command.add(bitrate + "k");
+            }
+        }
+        addTuningOptions(command, settings);
+    }
+
+    // Speed/size options from the encoder preset; each only where the encoder has it
+    private static void addTuningOptions(List<String> command, ConversionSettings settings) {
+        EncoderTuning tuning = settings.getEncoderTuning();
+        if (tuning == null) {
+            return;
+        }
+        ConversionSettings.OutputFormat format = settings.getOutputFormat();
+        if (tuning.getCompressionLevel() >= 0
+                && (format == ConversionSettings.OutputFormat.MP3 || format == ConversionSettings.OutputFormat.FLAC)) {
+            command.add("-compression_level");
+            command.add(String.valueOf(tuning.getCompressionLevel()));
+        }
+        if (tuning.getAacCoder() != null && format == ConversionSettings.OutputFormat.M4A) {
+            command.add("-aac_coder");
+            command.add(tuning.getAacCoder());
+        }
+        addResamplerOption(command, settings);
+    }
+
+    // Used by the resampler FFmpeg inserts for -ar
+    private static void addResamplerOption(List<String> command, ConversionSettings settings) {
+        EncoderTuning tuning = settings.getEncoderTuning();
+        if (tuning != null && tuning.getResampler() != null) {
+            command.add("-resampler");
+            command.add(tuning.getResampler());
+        }
+    }
+
+    /**
+     * Starts a pipe-to-pipe conversion: the caller writes source bytes into
+     * {@link StreamingConversion#getInput()} and encoded bytes are pumped into
+     * {@code output} as soon as FFmpeg produces them. Nothing touches disk.
+     */
+    public StreamingConversion startStream(ConversionSettings settings, String streamName,
+                                           WritableByteChannel output)
+            throws AudioConversionException {
+        ConversionSettings.OutputFormat format = settings.getOutputFormat();
+
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegPath);
+        command.add("-v");
+        command.add("error");
+        command.add("-i");
+        command.add("pipe:0");
+        command.add("-vn");
+
+        addEncodingOptions(command, settings);
+
+        if (format == ConversionSettings.OutputFormat.M4A) {
+            // Fragmented MP4 needs no seek back to write the moov atom, so the
+            // first fragment can leave before the encode finishes
+            command.add("-movflags");
+            command.add("empty_moov+default_base_moof");
+            command.add("-frag_duration");
+            command.add("1000000");
+        }
+        command.add("-flush_packets");
+        command.add("1");
+        command.add("-f");
+        command.add(format.getStreamingMuxer());
+        command.add("pipe:1");
+
+        try {
+            Process process = startProcess(command, false);
+            return new StreamingConversion(process, streamName, output);
+        } catch (IOException e) {
             throw new AudioConversionException(
-                    audioFile.getName(),
+                    streamName,
                     AudioConversionException.ErrorType.FFMPEG_ERROR,
                     e
             );
         }
     }
 
-    private String buildOutputFilename(AudioFile audioFile, ConversionSettings settings,
+    /**
+     * Converts {@code input} into {@code output} through FFmpeg's stdin/stdout
+     * and blocks until the encode has finished.
+     */
+    public void convertStream(ReadableByteChannel input, WritableByteChannel output,
+                              ConversionSettings settings, String streamName)
+            throws AudioConversionException {
+        StreamingConversion conversion = startStream(settings, streamName, output);
+        conversion.feed(input);
+        conversion.await();
+    }
+
+    public void convertStream(InputStream input, OutputStream output,
+                              ConversionSettings settings, String streamName)
+            throws AudioConversionException {
+        convertStream(Channels.newChannel(input), Channels.newChannel(output), settings, streamName);
+    }
+
+    public String buildOutputFilename(AudioFile audioFile, ConversionSettings settings,
                                        String outputPath) {
         String baseName = audioFile.getName();
         int lastDot = baseName.lastIndexOf('.');
@@ -272,6 +1135,31 @@ public class FFmpegService {
         return outputDir.resolve(baseName + "." + newExtension).toString();
     }
 
+    /**
+     * Every file {@link #convertAudio} writes for this input: one per clip
+     * range, or the single whole-file output.
+     */
+    @Override
+    public List<String> outputFilenames(AudioFile audioFile, ConversionSettings settings, String outputPath) {
+        if (!audioFile.hasClipRanges()) {
+            return List.of(buildOutputFilename(audioFile, settings, outputPath));
+        }
+        List<String> filenames = new ArrayList<>();
+        for (ClipRange range : audioFile.getClipRanges()) {
+            filenames.add(buildOutputFilename(audioFile, settings, outputPath, range));
+        }
+        return filenames;
+    }
+
+    // One output per clip: "<name>_<label>.<ext>"
+    public String buildOutputFilename(AudioFile audioFile, ConversionSettings settings,
+                                      String outputPath, ClipRange range) {
+        String filename = buildOutputFilename(audioFile, settings, outputPath);
+        int lastDot = filename.lastIndexOf('.');
+        String label = range.getLabel().replaceAll("[\\\\/:*?\"<>|]", "_");
+        return filename.substring(0, lastDot) + "_" + label + filename.substring(lastDot);
+    }
+
     public String getAudioInfo(String filePath) throws AudioConversionException {
         FFmpegProbeResult probeResult = probeFile(filePath);
 
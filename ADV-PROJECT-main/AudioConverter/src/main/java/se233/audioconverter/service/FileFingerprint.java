@@ -0,0 +1,80 @@
+package se233.audioconverter.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Cheap content fingerprint used as a cache key for per-input analysis results.
+ * Hashes the file size and modification time, the first and last 64 KiB and
+ * evenly spaced blocks between them. Renamed or moved files keep their
+ * fingerprint; an edit changes the modification time even when it keeps the
+ * size and only touches the middle of the file (e.g. a patched WAV body).
+ */
+public final class FileFingerprint {
+    private static final int SAMPLE_BYTES = 64 * 1024;
+    // Strided samples of the body, in case an edit preserved the modification time
+    private static final int STRIDE_SAMPLES = 16;
+    private static final int STRIDE_BYTES = 4 * 1024;
+
+    private FileFingerprint() {
+    }
+
+    public static String of(String filePath) throws IOException {
+        Path path = Paths.get(filePath);
+        long size = Files.size(path);
+        long modifiedMillis = Files.getLastModifiedTime(path).toMillis();
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(2 * Long.BYTES).putLong(size).putLong(modifiedMillis);
+        header.flip();
+        digest.update(header);
+
+        ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_BYTES);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            readAt(channel, buffer, 0);
+            digest.update(buffer);
+            if (size > SAMPLE_BYTES) {
+                readAt(channel, buffer, Math.max(SAMPLE_BYTES, size - SAMPLE_BYTES));
+                digest.update(buffer);
+            }
+            long bodyBytes = size - 2L * SAMPLE_BYTES;
+            if (bodyBytes > STRIDE_BYTES) {
+                ByteBuffer block = ByteBuffer.allocate(STRIDE_BYTES);
+                for (int i = 0; i < STRIDE_SAMPLES; i++) {
+                    readAt(channel, block, SAMPLE_BYTES + (bodyBytes - STRIDE_BYTES) * i / (STRIDE_SAMPLES - 1));
+                    digest.update(block);
+                }
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static void readAt(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,102 @@
+package se233.audioconverter.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Read-ahead for inputs on slow volumes: while the current jobs encode, the
+ * next inputs in dispatch order are read sequentially on one background
+ * thread so they are in the page cache when their FFmpeg opens them.
+ *
+ * At most {@code maxBytesAhead} of inputs are warmed but not yet dispatched,
+ * so read-ahead never evicts the cache it just filled.
+ */
+public class InputPrefetcher {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final long maxBytesAhead;
+    private final ExecutorService executor;
+    // Only touched from the prefetch thread
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    // Guarded by this: input path -> bytes queued or read for it
+    private final Map<String, Long> warmed = new LinkedHashMap<>();
+    private long bytesAhead;
+
+    public InputPrefetcher(long maxBytesAhead) {
+        this.maxBytesAhead = maxBytesAhead;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "input-prefetch");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues reads for the given upcoming inputs, in order, until the
+     * read-ahead budget is used up. Inputs already queued are skipped.
+     */
+    public synchronized void prefetch(List<String> upcomingInputs) {
+        for (String input : upcomingInputs) {
+            if (warmed.containsKey(input)) {
+                continue;
+            }
+            long size = Paths.get(input).toFile().length();
+            if (size == 0) {
+                continue;
+            }
+            // Always allow one file ahead, even if it is larger than the budget
+            if (bytesAhead > 0 && bytesAhead + size > maxBytesAhead) {
+                return;
+            }
+            warmed.put(input, size);
+            bytesAhead += size;
+            executor.execute(() -> read(input));
+        }
+    }
+
+    /**
+     * Called when the job for an input starts or is cancelled before it
+     * started, freeing its share of the budget.
+     */
+    public synchronized void consumed(String input) {
+        Long size = warmed.remove(input);
+        if (size != null) {
+            bytesAhead -= size;
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void read(String input) {
+        synchronized (this) {
+            // Dispatched before its turn came; FFmpeg is reading it already
+            if (!warmed.containsKey(input)) {
+                return;
+            }
+        }
+        Path path = Paths.get(input);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (!Thread.currentThread().isInterrupted()) {
+                buffer.clear();
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // Read-ahead is only a hint; the job reports real read errors
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package se233.audioconverter.service;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import se233.audioconverter.exception.AudioConversionException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.model.LoudnessMeasurement;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * First pass of EBU R128 normalisation: measures each input with loudnorm and
+ * caches the result so the encode can apply a linear gain in one more pass.
+ */
+public class LoudnessAnalyzer {
+    // loudnorm reports "-inf" for digital silence; clamp to the gating floor
+    private static final double SILENCE_FLOOR = -70.0;
+
+    private final FFmpegService ffmpegService;
+    private final LoudnessCache cache;
+
+    public LoudnessAnalyzer(FFmpegService ffmpegService, LoudnessCache cache) {
+        this.ffmpegService = ffmpegService;
+        this.cache = cache;
+    }
+
+    /**
+     * Starts analysis of every file on the given executor, in list order, so
+     * the encodes for the first files can begin while later ones are measured.
+     */
+    public Map<AudioFile, CompletableFuture<LoudnessMeasurement>> analyzeAll(
+            List<AudioFile> files, ConversionSettings.LoudnessTarget target, ExecutorService executor) {
+        Map<AudioFile, CompletableFuture<LoudnessMeasurement>> futures = new LinkedHashMap<>();
+        for (AudioFile file : files) {
+            futures.put(file, CompletableFuture.supplyAsync(() -> {
+                try {
+                    return analyze(file, target);
+                } catch (AudioConversionException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+        return futures;
+    }
+
+    public LoudnessMeasurement analyze(AudioFile audioFile, ConversionSettings.LoudnessTarget target)
+            throws AudioConversionException {
+        String fingerprint;
+        try {
+            fingerprint = FileFingerprint.of(audioFile.getFilePath());
+        } catch (IOException e) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.IO_ERROR,
+                    e
+            );
+        }
+
+        LoudnessMeasurement cached = cache.get(fingerprint, target);
+        if (cached != null) {
+            return cached;
+        }
+
+        LoudnessMeasurement measurement = measure(audioFile, target);
+        cache.put(fingerprint, target, measurement);
+        return measurement;
+    }
+
+    private LoudnessMeasurement measure(AudioFile audioFile, ConversionSettings.LoudnessTarget target)
+            throws AudioConversionException {
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegService.getFfmpegExecutable());
+        command.add("-hide_banner");
+        command.add("-nostats");
+        command.add("-i");
+        command.add(audioFile.getFilePath());
+        command.add("-vn");
+        command.add("-af");
+        command.add(String.format(Locale.ROOT, "loudnorm=I=%.1f:TP=%.1f:LRA=%.1f:print_format=json",
+                target.getIntegrated(), target.getTruePeak(), target.getLoudnessRange()));
+        command.add("-progress");
+        command.add("pipe:1");
+        command.add("-f");
+        command.add("null");
+        command.add("-");
+
+        StringBuilder output = new StringBuilder();
+        int cores = 0;
+        try {
+            // Runs alongside the encodes, so it takes a core of their budget
+            cores = ffmpegService.acquireCore();
+            Process process = ffmpegService.startProcess(command, true);
+
+            int exitCode;
+            try (StallWatchdog.Watch watch = ffmpegService.watch(process, 0);
+                 BufferedReader reader = new BufferedReader(
+                         new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    long outTimeMicros = FFmpegService.parseOutTimeMicros(line);
+                    if (outTimeMicros >= 0) {
+                        watch.progress(outTimeMicros);
+                    } else if (line.indexOf('=') < 0) {
+                        output.append(line).append("\n");
+                    }
+                }
+                exitCode = process.waitFor();
+                if (watch.isStalled()) {
+                    throw new AudioConversionException(
+                            audioFile.getName(),
+                            AudioConversionException.ErrorType.STALLED,
+                            "Loudness analysis: " + watch.getStallReason()
+                    );
+                }
+            }
+            if (exitCode != 0) {
+                throw new AudioConversionException(
+                        audioFile.getName(),
+                        AudioConversionException.ErrorType.FFMPEG_ERROR,
+                        "Loudness analysis exit code: " + exitCode + "\n" + output
+                );
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.FFMPEG_ERROR,
+                    e
+            );
+        } finally {
+            ffmpegService.releaseCores(cores);
+        }
+
+        return parseMeasurement(audioFile, output.toString());
+    }
+
+    private LoudnessMeasurement parseMeasurement(AudioFile audioFile, String output)
+            throws AudioConversionException {
+        // The JSON block is printed last, after the [Parsed_loudnorm_0 @ ...] line
+        int start = output.lastIndexOf('{');
+        int end = output.lastIndexOf('}');
+        if (start < 0 || end < start) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.FFMPEG_ERROR,
+                    "No loudnorm measurement in FFmpeg output"
+            );
+        }
+
+        try {
+            JsonObject json = JsonParser.parseString(output.substring(start, end + 1)).getAsJsonObject();
+            return new LoudnessMeasurement(
+                    readValue(json, "input_i"),
+                    readValue(json, "input_tp"),
+                    readValue(json, "input_lra"),
+                    readValue(json, "input_thresh"),
+                    readValue(json, "target_offset")
+            );
+        } catch (JsonParseException | IllegalStateException | NumberFormatException e) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.FFMPEG_ERROR,
+                    e
+            );
+        }
+    }
+
+    private double readValue(JsonObject json, String field) {
+        JsonElement element = json.get(field);
+        if (element == null) {
+            throw new JsonParseException("Missing field " + field);
+        }
+        String value = element.getAsString().trim();
+        if (value.endsWith("inf")) {
+            return value.startsWith("-") ? SILENCE_FLOOR : 0.0;
+        }
+        return Double.parseDouble(value);
+    }
+}
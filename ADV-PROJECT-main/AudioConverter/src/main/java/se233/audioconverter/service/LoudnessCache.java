@@ -0,0 +1,122 @@
+package se233.audioconverter.service;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.model.LoudnessMeasurement;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent store of first-pass loudnorm measurements keyed by input
+ * fingerprint and loudness target, so re-running a batch skips analysis.
+ *
+ * A batch adds entries one by one, so writes are coalesced: the file is
+ * rewritten at most once per {@value #SAVE_DELAY_MILLIS} ms, and on
+ * {@link #flush()}. Only the most recently used entries are kept.
+ */
+public class LoudnessCache {
+    private static final String FILE_NAME = "loudness-cache.json";
+    private static final long SAVE_DELAY_MILLIS = 2000;
+    private static final int MAX_ENTRIES = 5000;
+    private static final Type MAP_TYPE = new TypeToken<Map<String, LoudnessMeasurement>>() {}.getType();
+
+    private final Path cacheFile;
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    // Access order, least recently used first; saved and loaded in that order
+    private final Map<String, LoudnessMeasurement> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "loudness-cache-save");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean saveScheduled;
+
+    public LoudnessCache() throws IOException {
+        this(AppDataDirectory.resolve(FILE_NAME));
+    }
+
+    public LoudnessCache(Path cacheFile) {
+        this.cacheFile = cacheFile;
+        load();
+    }
+
+    public synchronized LoudnessMeasurement get(String fingerprint, ConversionSettings.LoudnessTarget target) {
+        return entries.get(key(fingerprint, target));
+    }
+
+    public synchronized void put(String fingerprint, ConversionSettings.LoudnessTarget target,
+                                 LoudnessMeasurement measurement) {
+        entries.put(key(fingerprint, target), measurement);
+        trim();
+        if (!saveScheduled) {
+            saveScheduled = true;
+            saver.schedule(this::flush, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes entries added since the last save, e.g. when the application closes.
+     */
+    public synchronized void flush() {
+        if (saveScheduled) {
+            saveScheduled = false;
+            save();
+        }
+    }
+
+    private String key(String fingerprint, ConversionSettings.LoudnessTarget target) {
+        return fingerprint + ":" + target.name();
+    }
+
+    private void load() {
+        if (!Files.exists(cacheFile)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            Map<String, LoudnessMeasurement> stored = gson.fromJson(reader, MAP_TYPE);
+            if (stored != null) {
+                entries.putAll(stored);
+                trim();
+            }
+        } catch (IOException | JsonParseException e) {
+            // A broken cache only costs a re-analysis
+            System.err.println("Ignoring unreadable loudness cache: " + e.getMessage());
+        }
+    }
+
+    private void trim() {
+        Iterator<String> it = entries.keySet().iterator();
+        while (entries.size() > MAX_ENTRIES && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private void save() {
+        try {
+            Path temp = cacheFile.resolveSibling(FILE_NAME + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                gson.toJson(entries, MAP_TYPE, writer);
+            }
+            Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not write loudness cache: " + e.getMessage());
+        }
+    }
+}
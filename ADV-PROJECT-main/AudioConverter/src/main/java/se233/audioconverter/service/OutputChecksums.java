@@ -0,0 +1,70 @@
+package se233.audioconverter.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 of output files. Where the converter moves the bytes itself (the
+ * scratch-to-destination copy) the digest is taken from the same buffer that
+ * is written, so no extra read is needed.
+ */
+public final class OutputChecksums {
+    public static final String ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private OutputChecksums() {
+    }
+
+    /**
+     * Copies {@code source} to {@code target}, replacing it, and returns the
+     * digest of the bytes written.
+     */
+    public static String copy(Path source, Path target) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(source);
+             OutputStream out = Files.newOutputStream(target)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    // For outputs FFmpeg wrote in place; read straight after the encode, while still cached
+    public static String digest(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
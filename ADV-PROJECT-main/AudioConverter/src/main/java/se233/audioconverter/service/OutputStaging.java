@@ -0,0 +1,281 @@
+package se233.audioconverter.service;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Write-behind for outputs on slow volumes. FFmpeg writes into a job
+ * directory on fast local scratch, so the encode never waits on the
+ * destination; a single mover thread then copies each finished output next
+ * to its final name and renames it into place atomically, so a reader never
+ * sees a half-written file.
+ *
+ * Scratch use is bounded: a job only stages if its estimated output fits in
+ * the space not yet reserved by staged jobs, otherwise it writes straight to
+ * the destination. Staging is skipped when the destination is on the same
+ * volume as the scratch area.
+ *
+ * Everything lives in an {@value #DIRECTORY_NAME} directory under the
+ * configured scratch folder, in UUID-named job directories that carry a
+ * marker with the owning process id. Only marked job directories of
+ * processes that are no longer running are cleaned up at start, so pointing
+ * the scratch folder at a shared or user folder never deletes anything else.
+ */
+public class OutputStaging {
+    public enum FsyncPolicy {
+        NONE("No fsync"),
+        FILE("Sync each output"),
+        FILE_AND_DIRECTORY("Sync each output and its directory");
+
+        private final String label;
+
+        FsyncPolicy(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    static final String DIRECTORY_NAME = "audioconverter-staging";
+    private static final String MARKER_NAME = ".audioconverter-stage";
+
+    private final Path root;
+    private final long capacityBytes;
+    private final FsyncPolicy fsyncPolicy;
+    private final ExecutorService mover;
+    private final FileStore scratchStore;
+    private final Map<Path, Boolean> stagedDirectories = new HashMap<>();
+
+    // Guarded by this
+    private long reservedBytes;
+    private CompletableFuture<Void> lastMove = CompletableFuture.completedFuture(null);
+    private int pendingMoves;
+
+    public OutputStaging(Path scratchDirectory, long capacityBytes, FsyncPolicy fsyncPolicy) throws IOException {
+        this.root = scratchDirectory.resolve(DIRECTORY_NAME);
+        this.capacityBytes = capacityBytes;
+        this.fsyncPolicy = fsyncPolicy;
+        Files.createDirectories(root);
+        // Job directories left by a crash are not part of any batch any more
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(root)) {
+            for (Path leftover : leftovers) {
+                if (isAbandonedStage(leftover)) {
+                    Directories.deleteRecursively(leftover);
+                }
+            }
+        }
+        this.scratchStore = Files.getFileStore(root);
+        this.mover = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "output-mover");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    // A job directory this class created, for a process that has exited
+    private static boolean isAbandonedStage(Path directory) {
+        try {
+            UUID.fromString(directory.getFileName().toString());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        Path marker = directory.resolve(MARKER_NAME);
+        if (!Files.isDirectory(directory) || !Files.isRegularFile(marker)) {
+            return false;
+        }
+        try {
+            long pid = Long.parseLong(Files.readString(marker).trim());
+            return ProcessHandle.of(pid).map(process -> !process.isAlive()).orElse(true);
+        } catch (IOException | NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * True if outputs for this directory are worth staging, i.e. it is on a
+     * different volume than the scratch area.
+     */
+    public synchronized boolean appliesTo(String outputDirectory) {
+        Path directory = Paths.get(outputDirectory).toAbsolutePath();
+        return stagedDirectories.computeIfAbsent(directory, d -> {
+            try {
+                return !Files.getFileStore(d).equals(scratchStore);
+            } catch (IOException e) {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Reserves scratch space for one job, or returns null if the job should
+     * write straight to its destination.
+     */
+    public synchronized Stage begin(String outputDirectory, long estimatedBytes) {
+        if (!appliesTo(outputDirectory) || reservedBytes + estimatedBytes > capacityBytes) {
+            return null;
+        }
+        try {
+            Path directory = Files.createDirectory(root.resolve(UUID.randomUUID().toString()));
+            Files.writeString(directory.resolve(MARKER_NAME), String.valueOf(ProcessHandle.current().pid()));
+            reservedBytes += estimatedBytes;
+            return new Stage(directory, Paths.get(outputDirectory), estimatedBytes);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Completes once every move queued so far has finished.
+     */
+    public synchronized CompletableFuture<Void> drain() {
+        return lastMove.handle((result, error) -> null);
+    }
+
+    // Committed stages whose outputs have not reached their destination yet
+    public synchronized int getPendingMoves() {
+        return pendingMoves;
+    }
+
+    public void shutdown() {
+        mover.shutdown();
+    }
+
+    private synchronized void release(long bytes) {
+        reservedBytes -= bytes;
+    }
+
+    private synchronized void moveFinished(long bytes) {
+        reservedBytes -= bytes;
+        pendingMoves--;
+    }
+
+    private synchronized void enqueue(Stage stage, MoveListener listener) {
+        CompletableFuture<Void> move = CompletableFuture.runAsync(() -> {
+            // The listener runs before the move counts as done, so drain() also waits for it
+            try {
+                Map<Path, String> checksums = stage.moveAll();
+                listener.moved(checksums, null);
+            } catch (IOException e) {
+                listener.moved(null, e);
+            } finally {
+                Directories.deleteRecursively(stage.directory);
+                moveFinished(stage.reservedBytes);
+            }
+        }, mover);
+        pendingMoves++;
+        lastMove = CompletableFuture.allOf(lastMove, move);
+    }
+
+    public interface MoveListener {
+        // checksums maps each final path to the digest of the bytes copied there; null on error
+        void moved(Map<Path, String> checksums, IOException error);
+    }
+
+    /**
+     * Scratch directory of one job. FFmpeg writes its outputs here; commit
+     * hands them to the mover and discard drops them.
+     */
+    public class Stage {
+        private final Path directory;
+        private final Path destination;
+        private final long reservedBytes;
+
+        private Stage(Path directory, Path destination, long reservedBytes) {
+            this.directory = directory;
+            this.destination = destination;
+            this.reservedBytes = reservedBytes;
+        }
+
+        public String getDirectory() {
+            return directory.toString();
+        }
+
+        /**
+         * Moves every output in the stage to the destination in the
+         * background and reports the result to the listener.
+         */
+        public void commit(MoveListener listener) {
+            enqueue(this, listener);
+        }
+
+        public void discard() {
+            Directories.deleteRecursively(directory);
+            release(reservedBytes);
+        }
+
+        private Map<Path, String> moveAll() throws IOException {
+            List<Path> outputs = new ArrayList<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    if (!file.getFileName().toString().equals(MARKER_NAME)) {
+                        outputs.add(file);
+                    }
+                }
+            }
+            Map<Path, String> checksums = new HashMap<>();
+            for (Path output : outputs) {
+                Path target = destination.resolve(output.getFileName());
+                // Copied under a temporary name on the destination volume, then renamed,
+                // so the final name only ever refers to a complete file
+                Path partial = destination.resolve("." + output.getFileName() + ".part");
+                String checksum = OutputChecksums.copy(output, partial);
+                if (fsyncPolicy != FsyncPolicy.NONE) {
+                    force(partial);
+                }
+                try {
+                    Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                Files.deleteIfExists(output);
+                checksums.put(target, checksum);
+            }
+            if (fsyncPolicy == FsyncPolicy.FILE_AND_DIRECTORY) {
+                forceDirectory(destination);
+            }
+            return checksums;
+        }
+    }
+
+    private static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    // Makes the rename itself durable; not supported on every platform
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // e.g. Windows cannot open a directory as a channel
+        }
+    }
+}
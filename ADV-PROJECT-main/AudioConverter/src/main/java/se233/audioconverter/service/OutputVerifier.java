@@ -0,0 +1,98 @@
+package se233.audioconverter.service;
+
+import se233.audioconverter.model.OutputRecord;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Decodes a sample of finished outputs to a null muxer, on the analysis
+ * pool so it overlaps the encodes still running. An output passes if FFmpeg
+ * decodes all of it without reporting an error; the exit code alone does
+ * not catch a truncated or damaged stream.
+ */
+public class OutputVerifier {
+    private final FFmpegService ffmpegService;
+    private final ExecutorService executor;
+    private final double sampleFraction;
+
+    public OutputVerifier(FFmpegService ffmpegService, ExecutorService executor, double sampleFraction) {
+        this.ffmpegService = ffmpegService;
+        this.executor = executor;
+        this.sampleFraction = Math.max(0, Math.min(1, sampleFraction));
+    }
+
+    public double getSampleFraction() {
+        return sampleFraction;
+    }
+
+    /**
+     * True for the outputs to verify, spread evenly: with a fraction of 0.25
+     * every fourth output of a batch is decoded.
+     */
+    public boolean isSampled(int outputIndex) {
+        return Math.floor((outputIndex + 1) * sampleFraction) > Math.floor(outputIndex * sampleFraction);
+    }
+
+    public CompletableFuture<Void> verify(OutputRecord record) {
+        record.setVerification(OutputRecord.Verification.PENDING, null);
+        return CompletableFuture.runAsync(() -> {
+            List<String> command = new ArrayList<>();
+            command.add(ffmpegService.getFfmpegExecutable());
+            command.add("-v");
+            command.add("error");
+            command.add("-i");
+            command.add(record.getOutput());
+            command.add("-progress");
+            command.add("pipe:1");
+            command.add("-f");
+            command.add("null");
+            command.add("-");
+
+            StringBuilder errors = new StringBuilder();
+            int cores = 0;
+            try {
+                // Runs alongside the encodes, so it takes a core of their budget
+                cores = ffmpegService.acquireCore();
+                Process process = ffmpegService.startProcess(command, true);
+                int exitCode;
+                String stallReason;
+                try (StallWatchdog.Watch watch = ffmpegService.watch(process, 0);
+                     BufferedReader reader = new BufferedReader(
+                             new InputStreamReader(process.getInputStream()))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        long outTimeMicros = FFmpegService.parseOutTimeMicros(line);
+                        if (outTimeMicros >= 0) {
+                            watch.progress(outTimeMicros);
+                        } else if (line.indexOf('=') < 0) {
+                            errors.append(line).append("\n");
+                        }
+                    }
+                    exitCode = process.waitFor();
+                    stallReason = watch.getStallReason();
+                }
+                if (stallReason != null) {
+                    record.setVerification(OutputRecord.Verification.FAILED, "Decode stalled: " + stallReason);
+                } else if (exitCode != 0 || errors.length() > 0) {
+                    record.setVerification(OutputRecord.Verification.FAILED,
+                            "Decode exit code: " + exitCode + "\n" + errors.toString().trim());
+                } else {
+                    record.setVerification(OutputRecord.Verification.PASSED, null);
+                }
+            } catch (IOException e) {
+                record.setVerification(OutputRecord.Verification.FAILED, e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                record.setVerification(OutputRecord.Verification.FAILED, "Interrupted");
+            } finally {
+                ffmpegService.releaseCores(cores);
+            }
+        }, executor);
+    }
+}
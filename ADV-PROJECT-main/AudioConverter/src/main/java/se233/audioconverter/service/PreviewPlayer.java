@@ -0,0 +1,240 @@
+package se233.audioconverter.service;
+
+import se233.audioconverter.exception.AudioConversionException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.ClipRange;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.model.EncodeOptions;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Plays inputs and encoded excerpts for auditioning settings.
+ *
+ * FFmpeg seeks in the demuxer to the start position and decodes straight
+ * to 16-bit PCM on a pipe; a feeder thread copies it into a sound line
+ * whose buffer holds only ~100 ms, so the first samples are audible almost
+ * as soon as FFmpeg produces them. Only one preview plays at a time.
+ * Each encoded excerpt gets its own scratch directory, deleted once its
+ * playback ends; {@link #close()} removes whatever is left.
+ */
+public class PreviewPlayer {
+    public static final double EXCERPT_SECONDS = 10.0;
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNELS = 2;
+    private static final int FRAME_BYTES = CHANNELS * 2;
+    // Sound line ring buffer and the size of each write into it
+    private static final int LINE_BUFFER_BYTES = SAMPLE_RATE * FRAME_BYTES / 10;
+    private static final int CHUNK_BYTES = SAMPLE_RATE * FRAME_BYTES / 100;
+    private static final AudioFormat PCM_FORMAT = new AudioFormat(SAMPLE_RATE, 16, CHANNELS, true, false);
+
+    private final FFmpegService ffmpegService;
+    private final Path excerptDirectory;
+
+    // Guarded by this
+    private Playback current;
+
+    public PreviewPlayer(FFmpegService ffmpegService) throws IOException {
+        this.ffmpegService = ffmpegService;
+        // Excerpts left behind by a previous run that did not close cleanly
+        Directories.deleteRecursively(AppDataDirectory.resolve("preview"));
+        this.excerptDirectory = AppDataDirectory.resolveDirectory("preview");
+    }
+
+    /**
+     * Stops any preview and plays {@code filePath} from {@code startSeconds}.
+     * Returns as soon as playback has started.
+     */
+    public synchronized void play(String filePath, double startSeconds) throws AudioConversionException {
+        start(filePath, startSeconds, null);
+    }
+
+    // Plays the file; scratch (if not null) is deleted once playback ends
+    private synchronized void start(String filePath, double startSeconds, Path scratch)
+            throws AudioConversionException {
+        stop();
+
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegService.getFfmpegExecutable());
+        command.add("-nostdin");
+        command.add("-v");
+        command.add("error");
+        // Small probe: audio headers are near the start, and probing is most of the startup time
+        command.add("-probesize");
+        command.add("32768");
+        command.add("-ss");
+        command.add(String.format(Locale.ROOT, "%.3f", Math.max(0, startSeconds)));
+        command.add("-i");
+        command.add(filePath);
+        command.add("-map");
+        command.add("0:a:0");
+        command.add("-ac");
+        command.add(String.valueOf(CHANNELS));
+        command.add("-ar");
+        command.add(String.valueOf(SAMPLE_RATE));
+        command.add("-f");
+        command.add("s16le");
+        command.add("pipe:1");
+
+        String name = Path.of(filePath).getFileName().toString();
+        SourceDataLine line;
+        try {
+            line = AudioSystem.getSourceDataLine(PCM_FORMAT);
+            line.open(PCM_FORMAT, LINE_BUFFER_BYTES);
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            throw new AudioConversionException(name, AudioConversionException.ErrorType.PLAYBACK_ERROR, e);
+        }
+
+        Process process;
+        try {
+            process = ffmpegService.startProcess(command, false);
+        } catch (IOException e) {
+            line.close();
+            throw new AudioConversionException(name, AudioConversionException.ErrorType.FFMPEG_ERROR, e);
+        }
+
+        current = new Playback(name, process, line, scratch);
+        Thread feeder = new Thread(current::feed, "preview-playback");
+        feeder.setDaemon(true);
+        feeder.start();
+    }
+
+    /**
+     * Encodes {@value #EXCERPT_SECONDS} seconds from {@code startSeconds}
+     * with the given settings and plays the result, so codec and bitrate
+     * artefacts can be heard without converting the whole file.
+     */
+    public CompletableFuture<Void> playExcerpt(AudioFile audioFile, ConversionSettings settings,
+                                               double startSeconds, Executor executor) {
+        return CompletableFuture.runAsync(() -> {
+            ConversionSettings excerptSettings = settings.copy();
+            excerptSettings.setSplitMode(ConversionSettings.SplitMode.NONE);
+            excerptSettings.setCollectStats(false);
+            AudioFile excerpt = audioFile.forClip(
+                    new ClipRange(startSeconds, startSeconds + EXCERPT_SECONDS, "preview"));
+            Path scratch = null;
+            boolean playing = false;
+            try {
+                // Its own directory, so excerpts of the same file never overwrite each other
+                scratch = Files.createTempDirectory(excerptDirectory, "excerpt");
+                ffmpegService.probeSourceInfo(excerpt);
+                ffmpegService.convertAudio(excerpt, excerptSettings, scratch.toString(),
+                        new EncodeOptions(), null);
+                start(ffmpegService.outputFilenames(excerpt, excerptSettings, scratch.toString()).get(0), 0, scratch);
+                playing = true;
+            } catch (IOException e) {
+                throw new CompletionException(new AudioConversionException(
+                        audioFile.getName(), AudioConversionException.ErrorType.IO_ERROR, e));
+            } catch (AudioConversionException e) {
+                throw new CompletionException(e);
+            } finally {
+                if (!playing) {
+                    Directories.deleteRecursively(scratch);
+                }
+            }
+        }, executor);
+    }
+
+    public synchronized void stop() {
+        if (current != null) {
+            current.stop();
+            current = null;
+        }
+    }
+
+    /**
+     * Stops playback and deletes every excerpt, e.g. when the application closes.
+     */
+    public synchronized void close() {
+        stop();
+        if (!Directories.deleteRecursively(excerptDirectory)) {
+            System.err.println("Could not remove " + excerptDirectory);
+        }
+    }
+
+    public synchronized boolean isPlaying() {
+        return current != null && current.isRunning();
+    }
+
+    private static class Playback {
+        private final String name;
+        private final Process process;
+        private final SourceDataLine line;
+        private final Path scratch;
+        // Read even though only failures are reported, so FFmpeg never blocks on it
+        private final ErrorStreamDrain errors;
+        private volatile boolean stopped;
+        private volatile boolean finished;
+
+        Playback(String name, Process process, SourceDataLine line, Path scratch) {
+            this.name = name;
+            this.process = process;
+            this.line = line;
+            this.scratch = scratch;
+            this.errors = ErrorStreamDrain.start(process, "preview-errors");
+        }
+
+        void feed() {
+            byte[] chunk = new byte[CHUNK_BYTES];
+            try (InputStream pcm = process.getInputStream()) {
+                int read;
+                while (!stopped && (read = pcm.readNBytes(chunk, 0, chunk.length)) > 0) {
+                    line.write(chunk, 0, read - read % FRAME_BYTES);
+                    // Started after the first write so playback does not begin with an underrun
+                    if (!line.isRunning() && !stopped) {
+                        line.start();
+                    }
+                }
+                if (!stopped) {
+                    line.drain();
+                }
+            } catch (IOException e) {
+                // The pipe closes when the preview is stopped
+            } finally {
+                finished = true;
+                line.close();
+                process.destroy();
+                process.onExit().thenRun(this::ended);
+            }
+        }
+
+        private void ended() {
+            if (!stopped && process.exitValue() != 0) {
+                try {
+                    System.err.println("Preview of " + name + " failed: " + errors.await());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (scratch != null && !Directories.deleteRecursively(scratch)) {
+                System.err.println("Could not remove " + scratch);
+            }
+        }
+
+        void stop() {
+            stopped = true;
+            // Unblocks a pending write, then ends the decode
+            line.stop();
+            line.flush();
+            process.destroyForcibly();
+        }
+
+        boolean isRunning() {
+            return !stopped && !finished;
+        }
+    }
+}
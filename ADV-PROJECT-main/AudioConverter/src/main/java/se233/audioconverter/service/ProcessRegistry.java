@@ -0,0 +1,200 @@
+package se233.audioconverter.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Every FFmpeg/FFprobe process the converter starts, grouped by the job
+ * that started it.
+ *
+ * A job runs inside an {@link Owner} scope on its worker thread; processes
+ * started on that thread belong to it, so cancelling the owner kills exactly
+ * that job's processes (with their children), and any process it tries to
+ * start afterwards. Processes drop out of the registry when they exit. A
+ * shutdown hook kills whatever is still running when the JVM exits, so no
+ * encode outlives the application.
+ */
+public class ProcessRegistry {
+    private static final File PROC_FD = new File("/proc/self/fd");
+
+    private final Set<Process> live = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<Owner> current = new ThreadLocal<>();
+    private long started;
+
+    /**
+     * A job, or anything else whose processes are cancelled together.
+     */
+    public static class Owner {
+        private final int batchId;
+        private final String name;
+        private final Set<Process> processes = ConcurrentHashMap.newKeySet();
+        private volatile boolean cancelled;
+        // Time during which at least one of the owner's processes was running
+        private int running;
+        private long busySince;
+        private long busyNanos;
+
+        public Owner(int batchId, String name) {
+            this.batchId = batchId;
+            this.name = name;
+        }
+
+        public int getBatchId() {
+            return batchId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Seconds during which at least one of the owner's processes ran, so
+         * time spent waiting for a slot, a device or an analysis is excluded.
+         */
+        public synchronized double getProcessSeconds() {
+            long nanos = busyNanos;
+            if (running > 0) {
+                nanos += System.nanoTime() - busySince;
+            }
+            return nanos / 1_000_000_000.0;
+        }
+
+        private synchronized void processStarted() {
+            if (running++ == 0) {
+                busySince = System.nanoTime();
+            }
+        }
+
+        private synchronized void processExited() {
+            if (--running == 0) {
+                busyNanos += System.nanoTime() - busySince;
+            }
+        }
+
+        /**
+         * Kills the owner's processes and refuses new ones.
+         */
+        public void cancel() {
+            cancelled = true;
+            for (Process process : processes) {
+                destroyTree(process);
+            }
+        }
+    }
+
+    /**
+     * Scope of an owner on the current thread; close it when the job ends.
+     */
+    public class Scope implements AutoCloseable {
+        private final Owner previous;
+
+        private Scope(Owner owner) {
+            this.previous = current.get();
+            current.set(owner);
+        }
+
+        @Override
+        public void close() {
+            if (previous != null) {
+                current.set(previous);
+            } else {
+                current.remove();
+            }
+        }
+    }
+
+    public ProcessRegistry() {
+        Thread reaper = new Thread(this::destroyAll, "process-reaper");
+        Runtime.getRuntime().addShutdownHook(reaper);
+    }
+
+    public Scope enter(Owner owner) {
+        return new Scope(owner);
+    }
+
+    /**
+     * True if the job running on this thread has been cancelled.
+     */
+    public boolean isCurrentCancelled() {
+        Owner owner = current.get();
+        return owner != null && owner.isCancelled();
+    }
+
+    /**
+     * Tracks a newly started process. If its owner was cancelled in the
+     * meantime the process is killed straight away.
+     */
+    public void register(Process process) {
+        Owner owner = current.get();
+        live.add(process);
+        synchronized (this) {
+            started++;
+        }
+        if (owner != null) {
+            owner.processes.add(process);
+            owner.processStarted();
+        }
+        process.onExit().thenRun(() -> {
+            live.remove(process);
+            if (owner != null) {
+                owner.processes.remove(process);
+                owner.processExited();
+            }
+            // Nobody writes to a finished process; its reading ends are closed by their readers
+            try {
+                process.getOutputStream().close();
+            } catch (IOException ignored) {
+                // already closed
+            }
+        });
+        if (owner != null && owner.isCancelled()) {
+            destroyTree(process);
+        }
+    }
+
+    public int getLiveProcessCount() {
+        return live.size();
+    }
+
+    public synchronized long getStartedProcessCount() {
+        return started;
+    }
+
+    /**
+     * Open file descriptors of this JVM, or -1 where that cannot be read
+     * (only Linux exposes it without extra modules).
+     */
+    public int getOpenFileDescriptorCount() {
+        String[] entries = PROC_FD.list();
+        return entries != null ? entries.length : -1;
+    }
+
+    public String describe() {
+        int fds = getOpenFileDescriptorCount();
+        return "FFmpeg processes: " + getLiveProcessCount() + " running, " + getStartedProcessCount()
+                + " started" + (fds >= 0 ? "; open files: " + fds : "");
+    }
+
+    /**
+     * Kills every live process, e.g. when the application closes.
+     */
+    public void destroyAll() {
+        List<Process> processes = new ArrayList<>(live);
+        for (Process process : processes) {
+            destroyTree(process);
+        }
+    }
+
+    private static void destroyTree(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+}
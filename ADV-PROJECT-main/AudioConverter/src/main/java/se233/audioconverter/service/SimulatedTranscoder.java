@@ -0,0 +1,180 @@
+package se233.audioconverter.service;
+
+import se233.audioconverter.exception.AudioConversionException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.AudioSourceInfo;
+import se233.audioconverter.model.AudioStats;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.model.EncodeOptions;
+import net.bramp.ffmpeg.progress.Progress;
+import net.bramp.ffmpeg.progress.ProgressListener;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A transcoder that converts nothing: each job waits for a start-up latency
+ * plus its audio duration divided by a realtime factor, reports progress
+ * along the way and fails with a given probability. Inputs need not exist;
+ * files without a size are given a default duration.
+ *
+ * Used to load-test the scheduler, progress reporting and UI with very many
+ * jobs. {@code speedup} divides every wait, so a batch modelled to take
+ * hours runs in seconds while predictions stay in modelled time.
+ */
+public class SimulatedTranscoder implements Transcoder {
+    // Bytes per second of a 128 kbit/s input, to guess a duration from the size
+    private static final double BYTES_PER_AUDIO_SECOND = 16000;
+    // Wait in steps so progress moves and cancellation is noticed
+    private static final long STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final double latencySeconds;
+    private final double realtimeFactor;
+    private final double failureRate;
+    private final double defaultDurationSeconds;
+    private final double speedup;
+    private final ProcessRegistry processRegistry;
+
+    public SimulatedTranscoder(double latencySeconds, double realtimeFactor, double failureRate,
+                               double defaultDurationSeconds, double speedup, ProcessRegistry processRegistry) {
+        this.latencySeconds = Math.max(0, latencySeconds);
+        this.realtimeFactor = realtimeFactor > 0 ? realtimeFactor : 1;
+        this.failureRate = Math.min(1, Math.max(0, failureRate));
+        this.defaultDurationSeconds = defaultDurationSeconds > 0 ? defaultDurationSeconds : 1;
+        this.speedup = speedup > 0 ? speedup : 1;
+        this.processRegistry = processRegistry;
+    }
+
+    /**
+     * Model from {@code audioconverter.simulated.latencyMs} (default 30),
+     * {@code .realtimeFactor} (40), {@code .failureRate} (0.01),
+     * {@code .durationSeconds} (180) and {@code .speedup} (1). Cancellation
+     * follows the job owners of {@code processRegistry}.
+     */
+    public static SimulatedTranscoder fromSystemProperties(ProcessRegistry processRegistry) {
+        return new SimulatedTranscoder(
+                ConfigProperties.getDouble("audioconverter.simulated.latencyMs", 30) / 1000,
+                ConfigProperties.getDouble("audioconverter.simulated.realtimeFactor", 40),
+                ConfigProperties.getDouble("audioconverter.simulated.failureRate", 0.01),
+                ConfigProperties.getDouble("audioconverter.simulated.durationSeconds", 180),
+                ConfigProperties.getDouble("audioconverter.simulated.speedup", 1),
+                processRegistry);
+    }
+
+    @Override
+    public String getName() {
+        return "simulated";
+    }
+
+    @Override
+    public Capabilities getCapabilities() {
+        return new Capabilities(EnumSet.allOf(ConversionSettings.OutputFormat.class), false, false, false);
+    }
+
+    @Override
+    public AudioSourceInfo probeSourceInfo(AudioFile audioFile) {
+        if (audioFile.getSourceInfo() != null) {
+            return audioFile.getSourceInfo();
+        }
+        double duration = audioFile.getFileSize() > 0
+                ? audioFile.getFileSize() / BYTES_PER_AUDIO_SECOND
+                : defaultDurationSeconds;
+        AudioSourceInfo info = new AudioSourceInfo(audioFile.getFormat(), 44100, 2, 128000, duration);
+        audioFile.setSourceInfo(info);
+        return info;
+    }
+
+    @Override
+    public AudioStats convertAudio(AudioFile audioFile, ConversionSettings settings, String outputPath,
+                                   EncodeOptions options, ProgressListener listener)
+            throws AudioConversionException {
+        probeSourceInfo(audioFile);
+        double duration = audioFile.getProcessedDuration();
+        // Modelled as scaling perfectly with the threads granted to the job
+        double encodeSeconds = duration / realtimeFactor / Math.max(1, options.getThreads());
+        boolean fails = ThreadLocalRandom.current().nextDouble() < failureRate;
+        // A failing run gives up somewhere along the way
+        double runSeconds = fails ? encodeSeconds * ThreadLocalRandom.current().nextDouble() : encodeSeconds;
+
+        sleep(audioFile, latencySeconds);
+        Progress progress = new Progress();
+        long start = System.nanoTime();
+        long total = (long) (runSeconds / speedup * 1_000_000_000L);
+        long elapsed;
+        do {
+            sleepNanos(audioFile, Math.min(STEP_NANOS, total - (System.nanoTime() - start)));
+            elapsed = Math.min(total, System.nanoTime() - start);
+            if (listener != null && total > 0) {
+                double encoded = duration * (runSeconds / encodeSeconds) * elapsed / total;
+                progress.out_time_ns = (long) (encoded * 1_000_000_000L);
+                listener.progress(progress);
+            }
+        } while (elapsed < total);
+
+        if (fails) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.FFMPEG_ERROR,
+                    "Simulated failure"
+            );
+        }
+        return null;
+    }
+
+    @Override
+    public double estimateSeconds(AudioFile audioFile, ConversionSettings settings) {
+        probeSourceInfo(audioFile);
+        return latencySeconds + audioFile.getProcessedDuration() / realtimeFactor;
+    }
+
+    // Nothing is written
+    @Override
+    public List<String> outputFilenames(AudioFile audioFile, ConversionSettings settings, String outputPath) {
+        return List.of();
+    }
+
+    @Override
+    public void deletePartialOutputs(AudioFile audioFile, ConversionSettings settings, String outputPath,
+                                     long startedMillis) {
+        // Nothing is written
+    }
+
+    private void sleep(AudioFile audioFile, double modelledSeconds) throws AudioConversionException {
+        long remaining = (long) (modelledSeconds / speedup * 1_000_000_000L);
+        long end = System.nanoTime() + remaining;
+        while (remaining > 0) {
+            sleepNanos(audioFile, Math.min(STEP_NANOS, remaining));
+            remaining = end - System.nanoTime();
+        }
+        checkCancelled(audioFile);
+    }
+
+    private void sleepNanos(AudioFile audioFile, long nanos) throws AudioConversionException {
+        checkCancelled(audioFile);
+        if (nanos <= 0) {
+            return;
+        }
+        // Finer than Thread.sleep, which rounds up to whole milliseconds; callers loop on early wake-ups
+        LockSupport.parkNanos(nanos);
+        if (Thread.currentThread().isInterrupted()) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.CANCELLED,
+                    "Interrupted"
+            );
+        }
+    }
+
+    private void checkCancelled(AudioFile audioFile) throws AudioConversionException {
+        if (processRegistry != null && processRegistry.isCurrentCancelled()) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.CANCELLED,
+                    "Stopped on request"
+            );
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package se233.audioconverter.service;
+
+import se233.audioconverter.model.AudioFile;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits a batch into groups of small files that can share one FFmpeg
+ * process. Files are grouped by size (no probe needed) and by parent
+ * directory so a group stays on one device.
+ */
+public class SmallFileBatcher {
+    public static final long DEFAULT_MAX_FILE_SIZE = 2L * 1024 * 1024;
+    public static final int DEFAULT_MAX_GROUP_SIZE = 32;
+
+    private final long maxFileSize;
+    private final int maxGroupSize;
+
+    public SmallFileBatcher() {
+        this(DEFAULT_MAX_FILE_SIZE, DEFAULT_MAX_GROUP_SIZE);
+    }
+
+    public SmallFileBatcher(long maxFileSize, int maxGroupSize) {
+        this.maxFileSize = maxFileSize;
+        this.maxGroupSize = Math.max(1, maxGroupSize);
+    }
+
+    public boolean isSmall(AudioFile audioFile) {
+        return audioFile.getFileSize() > 0 && audioFile.getFileSize() <= maxFileSize;
+    }
+
+    /**
+     * Returns the groups in input order. Large files come back as groups of
+     * one; small files are packed up to the maximum group size.
+     */
+    public List<List<AudioFile>> group(List<AudioFile> audioFiles) {
+        List<List<AudioFile>> groups = new ArrayList<>();
+        Map<String, List<AudioFile>> openGroups = new LinkedHashMap<>();
+
+        for (AudioFile audioFile : audioFiles) {
+            if (!isSmall(audioFile)) {
+                groups.add(List.of(audioFile));
+                continue;
+            }
+            String directory = String.valueOf(new File(audioFile.getFilePath()).getParent());
+            List<AudioFile> group = openGroups.computeIfAbsent(directory, d -> new ArrayList<>());
+            group.add(audioFile);
+            if (group.size() >= maxGroupSize) {
+                groups.add(group);
+                openGroups.remove(directory);
+            }
+        }
+        groups.addAll(openGroups.values());
+        return groups;
+    }
+}
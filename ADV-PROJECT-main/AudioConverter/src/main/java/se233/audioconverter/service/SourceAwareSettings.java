@@ -0,0 +1,107 @@
+package se233.audioconverter.service;
+
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.AudioSourceInfo;
+import se233.audioconverter.model.ConversionSettings;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Per-file resolution of the batch settings against the probed source.
+ *
+ * With the "never exceed source" policy, the sample rate, channel count and
+ * (for lossy sources) the CBR bitrate are capped at what the source actually
+ * has, so a 22 kHz mono memo is not upsampled to 96 kHz stereo. Each cap
+ * picks the nearest supported value at or above the source, so nothing the
+ * source contains is lost.
+ */
+public final class SourceAwareSettings {
+    private static final Set<String> LOSSLESS_CODECS = Set.of("flac", "alac", "wavpack", "ape", "tta", "mlp", "truehd");
+    // FLAC output is typically a bit over half the size of 16-bit PCM
+    private static final double FLAC_RATIO = 0.6;
+    // Typical LAME VBR bitrates for -q:a 0..5
+    private static final int[] MP3_VBR_KBPS = {245, 225, 190, 175, 165, 130};
+
+    private SourceAwareSettings() {
+    }
+
+    /**
+     * Returns the settings to use for this file: the batch settings unchanged
+     * if the policy is off or the file was not probed, otherwise a copy with
+     * the capped values.
+     */
+    public static ConversionSettings resolve(AudioFile audioFile, ConversionSettings settings) {
+        AudioSourceInfo info = audioFile.getSourceInfo();
+        if (!settings.isNeverExceedSource() || info == null) {
+            return settings;
+        }
+
+        ConversionSettings.OutputFormat format = settings.getOutputFormat();
+        ConversionSettings.SampleRate sampleRate = settings.getSampleRate();
+        ConversionSettings.Channels channels = settings.getChannels();
+        Integer bitrate = null;
+
+        if (info.getSampleRate() > 0 && info.getSampleRate() < sampleRate.getRate()) {
+            sampleRate = ConversionSettings.SampleRate.fromRate(
+                    ceilingOption(format.getSampleRateOptions(), info.getSampleRate(), sampleRate.getRate()));
+        }
+        if (info.getChannels() == 1 && channels == ConversionSettings.Channels.STEREO) {
+            channels = ConversionSettings.Channels.MONO;
+        }
+        // A lossy source cannot gain quality from a higher bitrate
+        boolean cbr = !(format.supportsVBR() && settings.getBitrateMode() == ConversionSettings.BitrateMode.VARIABLE);
+        if (format.supportsBitrate() && cbr && !isLossless(info.getCodec()) && info.getBitRate() > 0) {
+            int sourceKbps = (int) Math.ceil(info.getBitRate() / 1000.0);
+            if (sourceKbps < settings.getEffectiveBitrate()) {
+                bitrate = ceilingOption(format.getBitrateOptions(), sourceKbps, settings.getEffectiveBitrate());
+            }
+        }
+
+        if (sampleRate == settings.getSampleRate() && channels == settings.getChannels() && bitrate == null) {
+            return settings;
+        }
+        ConversionSettings resolved = settings.copy();
+        resolved.setSampleRate(sampleRate);
+        resolved.setChannels(channels);
+        if (bitrate != null) {
+            resolved.setCustomBitrate(bitrate);
+        }
+        return resolved;
+    }
+
+    public static boolean isLossless(String codec) {
+        return codec.startsWith("pcm_") || LOSSLESS_CODECS.contains(codec);
+    }
+
+    /**
+     * Rough output size, used to report what the resolution saved.
+     */
+    public static long estimateOutputBytes(double durationSeconds, ConversionSettings settings) {
+        ConversionSettings.OutputFormat format = settings.getOutputFormat();
+        double pcmBytesPerSecond = settings.getSampleRate().getRate() * settings.getChannels().getCount() * 2.0;
+        double bytesPerSecond;
+        if (format == ConversionSettings.OutputFormat.WAV) {
+            bytesPerSecond = pcmBytesPerSecond;
+        } else if (format == ConversionSettings.OutputFormat.FLAC) {
+            bytesPerSecond = pcmBytesPerSecond * FLAC_RATIO;
+        } else if (format.supportsVBR() && settings.getBitrateMode() == ConversionSettings.BitrateMode.VARIABLE) {
+            int quality = Math.max(0, Math.min(MP3_VBR_KBPS.length - 1, settings.getVbrQuality()));
+            bytesPerSecond = MP3_VBR_KBPS[quality] * 1000 / 8.0;
+        } else {
+            bytesPerSecond = settings.getEffectiveBitrate() * 1000 / 8.0;
+        }
+        return (long) (bytesPerSecond * durationSeconds);
+    }
+
+    // Smallest option >= value, never above the limit
+    private static int ceilingOption(List<Integer> options, int value, int limit) {
+        int best = limit;
+        for (int option : options) {
+            if (option >= value && option < best) {
+                best = option;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,220 @@
+package se233.audioconverter.service;
+
+import se233.audioconverter.exception.AudioConversionException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.ClipRange;
+import se233.audioconverter.model.ConversionSettings;
+import net.bramp.ffmpeg.probe.FFmpegChapter;
+import net.bramp.ffmpeg.probe.FFmpegProbeResult;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the tracks of a long recording, either from the pauses between them
+ * (silencedetect) or from the chapters stored in the container. Results are
+ * cached per input, so only the first conversion of a file pays for the
+ * analysis.
+ */
+public class SplitAnalyzer {
+    // Split points closer than this to the previous one (or to the end) are dropped
+    private static final double MIN_TRACK_SECONDS = 5.0;
+    private static final Pattern SILENCE_START = Pattern.compile("silence_start: (-?[0-9.]+)");
+    private static final Pattern SILENCE_END = Pattern.compile("silence_end: (-?[0-9.]+)");
+
+    private final FFmpegService ffmpegService;
+    private final SplitPointCache cache;
+
+    public SplitAnalyzer(FFmpegService ffmpegService, SplitPointCache cache) {
+        this.ffmpegService = ffmpegService;
+        this.cache = cache;
+    }
+
+    /**
+     * Starts analysis of every file on the given executor, in list order.
+     */
+    public Map<AudioFile, CompletableFuture<List<ClipRange>>> analyzeAll(
+            List<AudioFile> files, ConversionSettings settings, ExecutorService executor) {
+        Map<AudioFile, CompletableFuture<List<ClipRange>>> futures = new LinkedHashMap<>();
+        for (AudioFile file : files) {
+            futures.put(file, CompletableFuture.supplyAsync(() -> {
+                try {
+                    return analyze(file, settings);
+                } catch (AudioConversionException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+        return futures;
+    }
+
+    /**
+     * Returns the tracks of the file in order, or an empty list if it has
+     * fewer than two (nothing to split).
+     */
+    public List<ClipRange> analyze(AudioFile audioFile, ConversionSettings settings)
+            throws AudioConversionException {
+        if (settings.getSplitMode() == ConversionSettings.SplitMode.NONE) {
+            return List.of();
+        }
+
+        String fingerprint;
+        try {
+            fingerprint = FileFingerprint.of(audioFile.getFilePath());
+        } catch (IOException e) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.IO_ERROR,
+                    e
+            );
+        }
+
+        String parameters = parameters(settings);
+        List<ClipRange> cached = cache.get(fingerprint, parameters);
+        if (cached != null) {
+            return cached;
+        }
+
+        List<ClipRange> tracks = settings.getSplitMode() == ConversionSettings.SplitMode.CHAPTERS
+                ? readChapters(audioFile)
+                : detectSilences(audioFile, settings);
+        cache.put(fingerprint, parameters, tracks);
+        return tracks;
+    }
+
+    private String parameters(ConversionSettings settings) {
+        if (settings.getSplitMode() == ConversionSettings.SplitMode.CHAPTERS) {
+            return "chapters";
+        }
+        return String.format(Locale.ROOT, "silence:%ddB:%.2fs",
+                settings.getSilenceThresholdDb(), settings.getMinSilenceSeconds());
+    }
+
+    private List<ClipRange> readChapters(AudioFile audioFile) throws AudioConversionException {
+        FFmpegProbeResult probeResult = ffmpegService.probeFile(audioFile.getFilePath());
+        List<FFmpegChapter> chapters = probeResult.getChapters();
+        List<ClipRange> tracks = new ArrayList<>();
+        if (chapters == null || chapters.size() < 2) {
+            return tracks;
+        }
+
+        for (int i = 0; i < chapters.size(); i++) {
+            FFmpegChapter chapter = chapters.get(i);
+            double start = Double.parseDouble(chapter.start_time);
+            // The last chapter runs to the end even if its end time is rounded short
+            double end = i == chapters.size() - 1 ? -1 : Double.parseDouble(chapter.end_time);
+            String label = String.format("%02d", i + 1);
+            if (chapter.tags != null && chapter.tags.title != null && !chapter.tags.title.isBlank()) {
+                label += " " + chapter.tags.title.trim();
+            }
+            tracks.add(new ClipRange(Math.max(0, start), end, label));
+        }
+        return tracks;
+    }
+
+    private List<ClipRange> detectSilences(AudioFile audioFile, ConversionSettings settings)
+            throws AudioConversionException {
+        double duration = ffmpegService.probeSourceInfo(audioFile).getDuration();
+
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegService.getFfmpegExecutable());
+        command.add("-hide_banner");
+        command.add("-nostats");
+        command.add("-i");
+        command.add(audioFile.getFilePath());
+        command.add("-vn");
+        command.add("-af");
+        command.add(String.format(Locale.ROOT, "silencedetect=noise=%ddB:d=%.2f",
+                settings.getSilenceThresholdDb(), settings.getMinSilenceSeconds()));
+        command.add("-progress");
+        command.add("pipe:1");
+        command.add("-f");
+        command.add("null");
+        command.add("-");
+
+        // Each split point is the middle of a pause, so both tracks keep a little silence
+        List<Double> splitPoints = new ArrayList<>();
+        StringBuilder output = new StringBuilder();
+        int cores = 0;
+        try {
+            // Runs alongside the encodes, so it takes a core of their budget
+            cores = ffmpegService.acquireCore();
+            Process process = ffmpegService.startProcess(command, true);
+
+            int exitCode;
+            try (StallWatchdog.Watch watch = ffmpegService.watch(process, 0);
+                 BufferedReader reader = new BufferedReader(
+                         new InputStreamReader(process.getInputStream()))) {
+                String line;
+                double silenceStart = -1;
+                while ((line = reader.readLine()) != null) {
+                    long outTimeMicros = FFmpegService.parseOutTimeMicros(line);
+                    if (outTimeMicros >= 0) {
+                        watch.progress(outTimeMicros);
+                        continue;
+                    }
+                    Matcher start = SILENCE_START.matcher(line);
+                    Matcher end = SILENCE_END.matcher(line);
+                    if (start.find()) {
+                        silenceStart = Math.max(0, Double.parseDouble(start.group(1)));
+                    } else if (end.find() && silenceStart >= 0) {
+                        splitPoints.add((silenceStart + Double.parseDouble(end.group(1))) / 2);
+                        silenceStart = -1;
+                    } else if (line.indexOf('=') < 0) {
+                        output.append(line).append("\n");
+                    }
+                }
+                exitCode = process.waitFor();
+                if (watch.isStalled()) {
+                    throw new AudioConversionException(
+                            audioFile.getName(),
+                            AudioConversionException.ErrorType.STALLED,
+                            "Silence detection: " + watch.getStallReason()
+                    );
+                }
+            }
+            if (exitCode != 0) {
+                throw new AudioConversionException(
+                        audioFile.getName(),
+                        AudioConversionException.ErrorType.FFMPEG_ERROR,
+                        "Silence detection exit code: " + exitCode + "\n" + output
+                );
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.FFMPEG_ERROR,
+                    e
+            );
+        } finally {
+            ffmpegService.releaseCores(cores);
+        }
+
+        List<ClipRange> tracks = new ArrayList<>();
+        double trackStart = 0;
+        for (double split : splitPoints) {
+            boolean tooShort = split - trackStart < MIN_TRACK_SECONDS;
+            boolean atEnd = duration > 0 && duration - split < MIN_TRACK_SECONDS;
+            if (!tooShort && !atEnd) {
+                tracks.add(new ClipRange(trackStart, split, String.format("%02d", tracks.size() + 1)));
+                trackStart = split;
+            }
+        }
+        if (tracks.isEmpty()) {
+            return tracks;
+        }
+        tracks.add(new ClipRange(trackStart, -1, String.format("%02d", tracks.size() + 1)));
+        return tracks;
+    }
+}
@@ -0,0 +1,93 @@
+package se233.audioconverter.service;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import se233.audioconverter.model.ClipRange;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent store of detected tracks keyed by input fingerprint and split
+ * parameters. Output settings are not part of the key, so converting the
+ * same recording to another format reuses the analysis. Only the most
+ * recently used entries are kept, so the file does not grow with every
+ * recording ever split.
+ */
+public class SplitPointCache {
+    private static final String FILE_NAME = "split-cache.json";
+    private static final int MAX_ENTRIES = 1000;
+    private static final Type MAP_TYPE = new TypeToken<Map<String, List<ClipRange>>>() {}.getType();
+
+    private final Path cacheFile;
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    // Access order, least recently used first; saved and loaded in that order
+    private final Map<String, List<ClipRange>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    public SplitPointCache() throws IOException {
+        this(AppDataDirectory.resolve(FILE_NAME));
+    }
+
+    public SplitPointCache(Path cacheFile) {
+        this.cacheFile = cacheFile;
+        load();
+    }
+
+    public synchronized List<ClipRange> get(String fingerprint, String parameters) {
+        return entries.get(fingerprint + ":" + parameters);
+    }
+
+    public synchronized void put(String fingerprint, String parameters, List<ClipRange> tracks) {
+        entries.put(fingerprint + ":" + parameters, tracks);
+        trim();
+        save();
+    }
+
+    private void load() {
+        if (!Files.exists(cacheFile)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            Map<String, List<ClipRange>> stored = gson.fromJson(reader, MAP_TYPE);
+            if (stored != null) {
+                entries.putAll(stored);
+                trim();
+            }
+        } catch (IOException | JsonParseException e) {
+            // A broken cache only costs a re-analysis
+            System.err.println("Ignoring unreadable split cache: " + e.getMessage());
+        }
+    }
+
+    private void trim() {
+        Iterator<String> it = entries.keySet().iterator();
+        while (entries.size() > MAX_ENTRIES && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private void save() {
+        try {
+            Path temp = cacheFile.resolveSibling(FILE_NAME + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                gson.toJson(entries, MAP_TYPE, writer);
+            }
+            Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not write split cache: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package se233.audioconverter.service;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kills FFmpeg processes that have stopped making progress.
+ *
+ * Each watched process reports its output position; a process is stalled
+ * if the position has not advanced for {@code stallSeconds}, or if it has
+ * run {@code overrunFactor} times longer than predicted. A stalled process
+ * is killed with everything it started, which ends the caller's wait and
+ * frees its slot; the caller then reports the stall as the failure.
+ */
+public class StallWatchdog {
+    // A prediction this short is mostly process start-up, so allow at least this long
+    private static final double MIN_OVERRUN_SECONDS = 30;
+
+    private final long stallNanos;
+    private final double overrunFactor;
+    private final Set<Watch> watches = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService timer;
+
+    public StallWatchdog(double stallSeconds, double overrunFactor) {
+        this.stallNanos = (long) (stallSeconds * 1_000_000_000L);
+        this.overrunFactor = overrunFactor;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "stall-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(this::check, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Limits from {@code audioconverter.stall.seconds} (default 60) and
+     * {@code audioconverter.stall.overrunFactor} (default 10).
+     */
+    public static StallWatchdog fromSystemProperties() {
+        return new StallWatchdog(
+                ConfigProperties.getDouble("audioconverter.stall.seconds", 60),
+                ConfigProperties.getDouble("audioconverter.stall.overrunFactor", 10));
+    }
+
+    /**
+     * Starts watching a process. {@code expectedSeconds} is the predicted
+     * run time, or 0 if unknown (then only the stall interval applies).
+     */
+    public Watch watch(Process process, double expectedSeconds) {
+        Watch watch = new Watch(process, expectedSeconds);
+        watches.add(watch);
+        return watch;
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private void check() {
+        long now = System.nanoTime();
+        for (Watch watch : watches) {
+            String reason = watch.stallReason(now);
+            if (reason != null) {
+                watches.remove(watch);
+                watch.kill(reason);
+            }
+        }
+    }
+
+    public class Watch implements AutoCloseable {
+        private final Process process;
+        private final double expectedSeconds;
+        private final long startNanos = System.nanoTime();
+        private volatile long lastAdvanceNanos = startNanos;
+        private volatile long lastPositionMicros = -1;
+        private volatile String stallReason;
+
+        private Watch(Process process, double expectedSeconds) {
+            this.process = process;
+            this.expectedSeconds = expectedSeconds;
+        }
+
+        // Called with each reported output position
+        public void progress(long positionMicros) {
+            if (positionMicros > lastPositionMicros) {
+                lastPositionMicros = positionMicros;
+                lastAdvanceNanos = System.nanoTime();
+            }
+        }
+
+        public boolean isStalled() {
+            return stallReason != null;
+        }
+
+        public String getStallReason() {
+            return stallReason;
+        }
+
+        @Override
+        public void close() {
+            watches.remove(this);
+        }
+
+        private String stallReason(long now) {
+            if (!process.isAlive()) {
+                return null;
+            }
+            if (now - lastAdvanceNanos > stallNanos) {
+                return String.format(Locale.ROOT, "No progress for %.0fs (stuck at %s)",
+                        (now - lastAdvanceNanos) / 1e9,
+                        lastPositionMicros < 0 ? "start" : String.format(Locale.ROOT, "%.1fs", lastPositionMicros / 1e6));
+            }
+            double elapsed = (now - startNanos) / 1e9;
+            if (expectedSeconds > 0 && elapsed > Math.max(MIN_OVERRUN_SECONDS, expectedSeconds * overrunFactor)) {
+                return String.format(Locale.ROOT, "Running %.0fs, expected about %.0fs", elapsed, expectedSeconds);
+            }
+            return null;
+        }
+
+        private void kill(String reason) {
+            stallReason = reason;
+            System.err.println("Killing stalled FFmpeg (pid " + process.pid() + "): " + reason);
+            // Children first, so nothing is left holding the output file
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+            process.destroyForcibly();
+        }
+    }
+}
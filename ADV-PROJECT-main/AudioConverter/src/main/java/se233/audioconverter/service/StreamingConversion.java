@@ -0,0 +1,134 @@
+package se233.audioconverter.service;
+
+import se233.audioconverter.exception.AudioConversionException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A running pipe-to-pipe FFmpeg encode. Output is pumped from FFmpeg's stdout
+ * to the sink on a background thread through one fixed direct buffer; input
+ * is either written by the caller through {@link #getInput()} or pumped from a
+ * channel with {@link #feed(ReadableByteChannel)}. If either pump fails
+ * (the sink cannot be written, or the source cannot be read) FFmpeg is
+ * killed, since it would otherwise block on a full pipe or finish with
+ * truncated input, and {@link #await()} reports the pump's exception.
+ */
+public class StreamingConversion {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Process process;
+    private final String streamName;
+    private final WritableByteChannel input;
+    private final Thread outputPump;
+    private final ErrorStreamDrain errorDrain;
+    private Thread inputPump;
+
+    private final AtomicReference<IOException> pumpError = new AtomicReference<>();
+
+    StreamingConversion(Process process, String streamName, WritableByteChannel output) {
+        this.process = process;
+        this.streamName = streamName;
+        this.input = Channels.newChannel(process.getOutputStream());
+
+        ReadableByteChannel stdout = Channels.newChannel(process.getInputStream());
+        this.outputPump = startDaemon("ffmpeg-stream-out-" + streamName, () -> pump(stdout, output, false));
+        this.errorDrain = ErrorStreamDrain.start(process, "ffmpeg-stream-err-" + streamName);
+    }
+
+    /**
+     * Channel connected to FFmpeg's stdin. Close it to signal end of input.
+     */
+    public WritableByteChannel getInput() {
+        return input;
+    }
+
+    /**
+     * Pumps {@code source} into FFmpeg's stdin on a background thread and
+     * closes stdin when the source is exhausted.
+     */
+    public void feed(ReadableByteChannel source) {
+        inputPump = startDaemon("ffmpeg-stream-in-" + streamName, () -> pump(source, input, true));
+    }
+
+    /**
+     * Waits for the encode to finish and for all output to reach the sink.
+     */
+    public void await() throws AudioConversionException {
+        try {
+            if (inputPump != null) {
+                inputPump.join();
+            }
+            int exitCode = process.waitFor();
+            outputPump.join();
+            String details = errorDrain.await();
+
+            // A failed pump is the cause; FFmpeg's exit code is then just the kill
+            if (pumpError.get() != null) {
+                throw new AudioConversionException(
+                        streamName,
+                        AudioConversionException.ErrorType.IO_ERROR,
+                        pumpError.get()
+                );
+            }
+            if (exitCode != 0) {
+                throw new AudioConversionException(
+                        streamName,
+                        AudioConversionException.ErrorType.FFMPEG_ERROR,
+                        "FFmpeg exit code: " + exitCode + "\n" + details
+                );
+            }
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new AudioConversionException(
+                    streamName,
+                    AudioConversionException.ErrorType.FFMPEG_ERROR,
+                    e
+            );
+        }
+    }
+
+    public void cancel() {
+        process.destroyForcibly();
+    }
+
+    private void pump(ReadableByteChannel from, WritableByteChannel to, boolean closeTarget) {
+        // One buffer per direction, reused for the whole stream
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try {
+            while (from.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    to.write(buffer);
+                }
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            // A broken stdin pipe just means FFmpeg has already exited
+            if (!closeTarget || process.isAlive()) {
+                pumpError.compareAndSet(null, e);
+                cancel();
+            }
+        } finally {
+            if (closeTarget) {
+                try {
+                    to.close();
+                } catch (IOException ignored) {
+                    // FFmpeg may have closed its end first
+                }
+            }
+        }
+    }
+
+    private static Thread startDaemon(String name, Runnable body) {
+        Thread thread = new Thread(body, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,182 @@
+package se233.audioconverter.service;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.AudioSourceInfo;
+import se233.audioconverter.model.ConversionSettings;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Learned encode speed, used for the batch ETA and for job ordering.
+ *
+ * The main figure is the realtime factor (audio seconds encoded per second
+ * of FFmpeg run time on one thread) per input codec, output format, sample
+ * rate and channel count. Files that were never probed (e.g. grouped small
+ * files) fall back to input bytes per such second for the output format. Both are exponentially
+ * weighted so the model follows hardware or FFmpeg upgrades, and every
+ * prediction is scored against the actual time to track the model's error.
+ */
+public class ThroughputModel {
+    private static final String FILE_NAME = "throughput-model.json";
+    private static final double EWMA_WEIGHT = 0.2;
+    // Used until the first job for a key has been measured
+    private static final double DEFAULT_REALTIME_FACTOR = 40.0;
+    private static final double DEFAULT_COPY_REALTIME_FACTOR = 1000.0;
+    // Untrained encodes are assumed to scale with output samples per second
+    private static final double REFERENCE_SAMPLES_PER_SECOND = 44100.0 * 2;
+    private static final double DEFAULT_BYTES_PER_SECOND = 4.0 * 1024 * 1024;
+
+    private final Path modelFile;
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private ModelData data = new ModelData();
+
+    public ThroughputModel() throws IOException {
+        this(AppDataDirectory.resolve(FILE_NAME));
+    }
+
+    public ThroughputModel(Path modelFile) {
+        this.modelFile = modelFile;
+        load();
+    }
+
+    /**
+     * Predicted wall-clock seconds to convert the file with one thread.
+     */
+    public synchronized double predictSeconds(AudioFile audioFile, ConversionSettings settings) {
+        // Keyed by what the encode will actually produce for this file
+        settings = SourceAwareSettings.resolve(audioFile, settings);
+        AudioSourceInfo info = audioFile.getSourceInfo();
+        // Clipped files only decode the clipped span
+        double duration = audioFile.getProcessedDuration();
+        if (info != null && duration > 0) {
+            return duration / realtimeFactor(audioFile, info, settings);
+        }
+        return audioFile.getFileSize() / bytesPerSecond(settings);
+    }
+
+    public synchronized double predictSeconds(List<AudioFile> audioFiles, ConversionSettings settings) {
+        double total = 0;
+        for (AudioFile audioFile : audioFiles) {
+            total += predictSeconds(audioFile, settings);
+        }
+        return total;
+    }
+
+    /**
+     * Feeds the measured time of a finished job back into the model: the
+     * time its FFmpeg processes ran, multiplied by the threads they were given.
+     */
+    public synchronized void record(List<AudioFile> audioFiles, ConversionSettings settings,
+                                    double threadSeconds) {
+        if (threadSeconds <= 0 || audioFiles.isEmpty()) {
+            return;
+        }
+
+        double predicted = predictSeconds(audioFiles, settings);
+        double error = Math.abs(predicted - threadSeconds) / threadSeconds;
+        data.predictions++;
+        data.meanAbsoluteError = data.predictions == 1
+                ? error
+                : data.meanAbsoluteError + EWMA_WEIGHT * (error - data.meanAbsoluteError);
+
+        long bytes = 0;
+        for (AudioFile audioFile : audioFiles) {
+            bytes += audioFile.getFileSize();
+        }
+        data.bytesPerSecond.merge(settings.getOutputFormat().name(), bytes / threadSeconds, this::blend);
+
+        // Realtime factors are only learned from single-file jobs, where the
+        // measured time belongs to exactly one (codec, format, rate, channels) key
+        if (audioFiles.size() == 1) {
+            AudioSourceInfo info = audioFiles.get(0).getSourceInfo();
+            double duration = audioFiles.get(0).getProcessedDuration();
+            if (info != null && duration > 0) {
+                ConversionSettings resolved = SourceAwareSettings.resolve(audioFiles.get(0), settings);
+                data.realtimeFactors.merge(key(audioFiles.get(0), info, resolved), duration / threadSeconds, this::blend);
+            }
+        }
+    }
+
+    /**
+     * Mean absolute relative error of recent predictions (0.1 = 10%), or a
+     * negative value if nothing has been predicted yet.
+     */
+    public synchronized double getPredictionError() {
+        return data.predictions == 0 ? -1 : data.meanAbsoluteError;
+    }
+
+    public synchronized void save() {
+        try {
+            Path temp = modelFile.resolveSibling(FILE_NAME + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                gson.toJson(data, writer);
+            }
+            Files.move(temp, modelFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not write throughput model: " + e.getMessage());
+        }
+    }
+
+    private double realtimeFactor(AudioFile audioFile, AudioSourceInfo info, ConversionSettings settings) {
+        String key = key(audioFile, info, settings);
+        Double factor = data.realtimeFactors.get(key);
+        if (factor != null && factor > 0) {
+            return factor;
+        }
+        if (key.endsWith("|copy")) {
+            return DEFAULT_COPY_REALTIME_FACTOR;
+        }
+        double samplesPerSecond = settings.getSampleRate().getRate() * settings.getChannels().getCount();
+        return DEFAULT_REALTIME_FACTOR * REFERENCE_SAMPLES_PER_SECOND / samplesPerSecond;
+    }
+
+    private double bytesPerSecond(ConversionSettings settings) {
+        Double rate = data.bytesPerSecond.get(settings.getOutputFormat().name());
+        return rate != null && rate > 0 ? rate : DEFAULT_BYTES_PER_SECOND;
+    }
+
+    private String key(AudioFile audioFile, AudioSourceInfo info, ConversionSettings settings) {
+        String key = info.getCodec() + "|" + settings.getOutputFormat().name() + "|"
+                + settings.getSampleRate().getRate() + "|" + settings.getChannels().getCount();
+        // A remux runs at I/O speed and must not skew the encode figures
+        return FFmpegService.canStreamCopy(audioFile, settings) ? key + "|copy" : key;
+    }
+
+    private double blend(double old, double sample) {
+        return old + EWMA_WEIGHT * (sample - old);
+    }
+
+    private void load() {
+        if (!Files.exists(modelFile)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(modelFile, StandardCharsets.UTF_8)) {
+            ModelData stored = gson.fromJson(reader, ModelData.class);
+            if (stored != null && stored.realtimeFactors != null && stored.bytesPerSecond != null) {
+                data = stored;
+            }
+        } catch (IOException | JsonParseException e) {
+            System.err.println("Ignoring unreadable throughput model: " + e.getMessage());
+        }
+    }
+
+    // Persisted form of the model
+    private static class ModelData {
+        private Map<String, Double> realtimeFactors = new HashMap<>();
+        private Map<String, Double> bytesPerSecond = new HashMap<>();
+        private long predictions;
+        private double meanAbsoluteError;
+    }
+}
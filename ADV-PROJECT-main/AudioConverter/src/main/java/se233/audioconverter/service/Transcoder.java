@@ -0,0 +1,101 @@
+package se233.audioconverter.service;
+
+import se233.audioconverter.exception.AudioConversionException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.AudioSourceInfo;
+import se233.audioconverter.model.AudioStats;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.model.EncodeOptions;
+import net.bramp.ffmpeg.progress.ProgressListener;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The engine that probes and converts single files for the conversion jobs.
+ *
+ * {@link FFmpegService} is the real implementation; {@link SimulatedTranscoder}
+ * only models timing and failures, so scheduling, progress and the UI can be
+ * exercised with very many jobs. Jobs run on pool threads and may call a
+ * transcoder concurrently.
+ */
+public interface Transcoder {
+
+    /**
+     * What a transcoder can do, so callers can avoid features it lacks.
+     */
+    class Capabilities {
+        private final Set<ConversionSettings.OutputFormat> outputFormats;
+        private final boolean audioStats;
+        private final boolean groupedBatches;
+        private final boolean writesOutputs;
+
+        public Capabilities(Set<ConversionSettings.OutputFormat> outputFormats, boolean audioStats,
+                            boolean groupedBatches, boolean writesOutputs) {
+            this.outputFormats = outputFormats.isEmpty()
+                    ? EnumSet.noneOf(ConversionSettings.OutputFormat.class)
+                    : EnumSet.copyOf(outputFormats);
+            this.audioStats = audioStats;
+            this.groupedBatches = groupedBatches;
+            this.writesOutputs = writesOutputs;
+        }
+
+        public boolean supports(ConversionSettings.OutputFormat format) {
+            return outputFormats.contains(format);
+        }
+
+        public Set<ConversionSettings.OutputFormat> getOutputFormats() {
+            return EnumSet.copyOf(outputFormats);
+        }
+
+        // Statistics from ConversionSettings.isCollectStats()
+        public boolean isAudioStats() {
+            return audioStats;
+        }
+
+        // Several small files in one run (FFmpegService.convertBatch)
+        public boolean isGroupedBatches() {
+            return groupedBatches;
+        }
+
+        // False when no output file exists afterwards, so there is nothing to stage or checksum
+        public boolean isWritesOutputs() {
+            return writesOutputs;
+        }
+    }
+
+    String getName();
+
+    Capabilities getCapabilities();
+
+    /**
+     * Probes the file's first audio stream and stores the result on the
+     * AudioFile (a second call returns the stored result).
+     */
+    AudioSourceInfo probeSourceInfo(AudioFile audioFile) throws AudioConversionException;
+
+    /**
+     * Converts one file, or its clip ranges, into {@code outputPath}. Returns
+     * the statistics if they were requested and supported, otherwise null.
+     */
+    AudioStats convertAudio(AudioFile audioFile, ConversionSettings settings, String outputPath,
+                            EncodeOptions options, ProgressListener listener) throws AudioConversionException;
+
+    /**
+     * The transcoder's own estimate of the wall time for one file with one
+     * thread, or a negative value if it has none (the learned
+     * {@link ThroughputModel} is used then).
+     */
+    double estimateSeconds(AudioFile audioFile, ConversionSettings settings);
+
+    // The files convertAudio writes, one per clip range
+    List<String> outputFilenames(AudioFile audioFile, ConversionSettings settings, String outputPath);
+
+    /**
+     * Removes what a failed or cancelled conversion started after
+     * {@code startedMillis} left in the output folder.
+     */
+    void deletePartialOutputs(AudioFile audioFile, ConversionSettings settings, String outputPath,
+                              long startedMillis);
+}
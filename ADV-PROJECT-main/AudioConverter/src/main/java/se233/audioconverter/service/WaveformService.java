@@ -0,0 +1,350 @@
+package se233.audioconverter.service;
+
+import se233.audioconverter.exception.AudioConversionException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.WaveformPeaks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Builds waveform peak pyramids in the background and keeps them in a
+ * binary cache (~/.audioconverter/peaks/&lt;fingerprint&gt;.peaks), so each
+ * input is decoded at most once. Recently shown pyramids also stay in memory,
+ * keyed by path, size and modification time, so redrawing a list cell does
+ * not fingerprint the file or read the cache file again.
+ */
+public class WaveformService {
+    private static final int MAGIC = 0x5045414B; // "PEAK"
+    private static final int VERSION = 1;
+    private static final int SAMPLES_PER_PEAK = 256;
+    // Stop halving once a level is this short
+    private static final int MIN_LEVEL_LENGTH = 16;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // Peaks kept in memory, least recently drawn dropped first
+    private static final long MAX_MEMORY_BYTES = 32L * 1024 * 1024;
+
+    private final FFmpegService ffmpegService;
+    private final ExecutorService executor;
+    private final Path cacheDirectory;
+    private final Map<String, CompletableFuture<WaveformPeaks>> inFlight = new ConcurrentHashMap<>();
+    // Guarded by itself; access order
+    private final Map<String, WaveformPeaks> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+
+    public WaveformService(FFmpegService ffmpegService, ExecutorService executor) throws IOException {
+        this.ffmpegService = ffmpegService;
+        this.executor = executor;
+        this.cacheDirectory = AppDataDirectory.resolveDirectory("peaks");
+    }
+
+    /**
+     * Returns the file's peaks, loading them from the cache or decoding the
+     * file on the background executor. Concurrent requests for the same
+     * version of a file share one decode; once it finishes, later requests
+     * read the cache file instead.
+     */
+    public CompletableFuture<WaveformPeaks> getPeaks(AudioFile audioFile) {
+        // A file rewritten while its old version decodes gets a decode of its own
+        File file = new File(audioFile.getFilePath());
+        String key = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+        synchronized (memory) {
+            WaveformPeaks remembered = memory.get(key);
+            if (remembered != null) {
+                return CompletableFuture.completedFuture(remembered);
+            }
+        }
+        CompletableFuture<WaveformPeaks> existing = inFlight.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        CompletableFuture<WaveformPeaks> created = new CompletableFuture<>();
+        existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+
+        executor.execute(() -> {
+            try {
+                WaveformPeaks peaks = loadOrCompute(audioFile);
+                remember(key, peaks);
+                inFlight.remove(key, created);
+                created.complete(peaks);
+            } catch (AudioConversionException | RuntimeException e) {
+                // Allow a retry later instead of remembering the failure
+                inFlight.remove(key, created);
+                created.completeExceptionally(e);
+            }
+        });
+        return created;
+    }
+
+    private void remember(String key, WaveformPeaks peaks) {
+        synchronized (memory) {
+            WaveformPeaks previous = memory.put(key, peaks);
+            if (previous != null) {
+                memoryBytes -= sizeOf(previous);
+            }
+            memoryBytes += sizeOf(peaks);
+            Iterator<WaveformPeaks> it = memory.values().iterator();
+            while (memoryBytes > MAX_MEMORY_BYTES && memory.size() > 1 && it.hasNext()) {
+                memoryBytes -= sizeOf(it.next());
+                it.remove();
+            }
+        }
+    }
+
+    private static long sizeOf(WaveformPeaks peaks) {
+        long bytes = 0;
+        for (int level = 0; level < peaks.getLevelCount(); level++) {
+            bytes += peaks.getMins(level).length * 2L * Short.BYTES;
+        }
+        return bytes;
+    }
+
+    private WaveformPeaks loadOrCompute(AudioFile audioFile) throws AudioConversionException {
+        Path cacheFile;
+        try {
+            cacheFile = cacheDirectory.resolve(FileFingerprint.of(audioFile.getFilePath()) + ".peaks");
+            if (Files.exists(cacheFile)) {
+                WaveformPeaks cached = read(cacheFile);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+        } catch (IOException e) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.IO_ERROR,
+                    e
+            );
+        }
+
+        WaveformPeaks peaks = decode(audioFile);
+        try {
+            write(cacheFile, peaks);
+        } catch (IOException e) {
+            System.err.println("Could not cache waveform for " + audioFile.getName() + ": " + e.getMessage());
+        }
+        return peaks;
+    }
+
+    private WaveformPeaks decode(AudioFile audioFile) throws AudioConversionException {
+        int sampleRate = audioFile.getSourceInfo() != null && audioFile.getSourceInfo().getSampleRate() > 0
+                ? audioFile.getSourceInfo().getSampleRate()
+                : 44100;
+
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegService.getFfmpegExecutable());
+        command.add("-v");
+        command.add("error");
+        command.add("-i");
+        command.add(audioFile.getFilePath());
+        command.add("-vn");
+        command.add("-ac");
+        command.add("1");
+        command.add("-ar");
+        command.add(String.valueOf(sampleRate));
+        command.add("-f");
+        command.add("s16le");
+        command.add("pipe:1");
+
+        short[] mins = new short[1024];
+        short[] maxs = new short[1024];
+        int peakCount = 0;
+
+        int cores = 0;
+        try {
+            // Runs alongside the encodes, so it takes a core of their budget
+            cores = ffmpegService.acquireCore();
+            Process process = ffmpegService.startProcess(command, false);
+            // PCM arrives on stdout; stderr must still be read or a chatty decode blocks
+            ErrorStreamDrain errors = ErrorStreamDrain.start(process, "waveform-errors");
+            int exitCode;
+            // The decoded position comes from the samples read so far
+            try (StallWatchdog.Watch watch = ffmpegService.watch(process, 0)) {
+                long samplesRead = 0;
+
+                byte[] buffer = new byte[READ_BUFFER_SIZE];
+                int offset = 0; // an odd trailing byte is carried to the next read
+                int inBlock = 0;
+                short blockMin = Short.MAX_VALUE;
+                short blockMax = Short.MIN_VALUE;
+
+                try (InputStream pcm = process.getInputStream()) {
+                    int read;
+                    while ((read = pcm.read(buffer, offset, buffer.length - offset)) > 0) {
+                        int available = offset + read;
+                        int even = available & ~1;
+                        samplesRead += even / 2;
+                        watch.progress(samplesRead * 1_000_000L / sampleRate);
+                        for (int i = 0; i < even; i += 2) {
+                            short sample = (short) ((buffer[i + 1] << 8) | (buffer[i] & 0xFF));
+                            if (sample < blockMin) {
+                                blockMin = sample;
+                            }
+                            if (sample > blockMax) {
+                                blockMax = sample;
+                            }
+                            if (++inBlock == SAMPLES_PER_PEAK) {
+                                if (peakCount == mins.length) {
+                                    mins = Arrays.copyOf(mins, peakCount * 2);
+                                    maxs = Arrays.copyOf(maxs, peakCount * 2);
+                                }
+                                mins[peakCount] = blockMin;
+                                maxs[peakCount] = blockMax;
+                                peakCount++;
+                                inBlock = 0;
+                                blockMin = Short.MAX_VALUE;
+                                blockMax = Short.MIN_VALUE;
+                            }
+                        }
+                        if (even < available) {
+                            buffer[0] = buffer[even];
+                            offset = 1;
+                        } else {
+                            offset = 0;
+                        }
+                    }
+                }
+                if (inBlock > 0) {
+                    if (peakCount == mins.length) {
+                        mins = Arrays.copyOf(mins, peakCount + 1);
+                        maxs = Arrays.copyOf(maxs, peakCount + 1);
+                    }
+                    mins[peakCount] = blockMin;
+                    maxs[peakCount] = blockMax;
+                    peakCount++;
+                }
+
+                exitCode = process.waitFor();
+                if (watch.isStalled()) {
+                    throw new AudioConversionException(
+                            audioFile.getName(),
+                            AudioConversionException.ErrorType.STALLED,
+                            "Waveform decode: " + watch.getStallReason()
+                    );
+                }
+            }
+            if (exitCode != 0) {
+                throw new AudioConversionException(
+                        audioFile.getName(),
+                        AudioConversionException.ErrorType.FFMPEG_ERROR,
+                        "Waveform decode exit code: " + exitCode + "\n" + errors.await()
+                );
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.FFMPEG_ERROR,
+                    e
+            );
+        } finally {
+            ffmpegService.releaseCores(cores);
+        }
+
+        return buildPyramid(sampleRate, Arrays.copyOf(mins, peakCount), Arrays.copyOf(maxs, peakCount));
+    }
+
+    private WaveformPeaks buildPyramid(int sampleRate, short[] baseMins, short[] baseMaxs) {
+        List<short[]> mins = new ArrayList<>();
+        List<short[]> maxs = new ArrayList<>();
+        mins.add(baseMins);
+        maxs.add(baseMaxs);
+
+        short[] lastMins = baseMins;
+        short[] lastMaxs = baseMaxs;
+        while (lastMins.length > MIN_LEVEL_LENGTH) {
+            int length = (lastMins.length + 1) / 2;
+            short[] levelMins = new short[length];
+            short[] levelMaxs = new short[length];
+            for (int i = 0; i < length; i++) {
+                int a = i * 2;
+                int b = Math.min(a + 1, lastMins.length - 1);
+                levelMins[i] = (short) Math.min(lastMins[a], lastMins[b]);
+                levelMaxs[i] = (short) Math.max(lastMaxs[a], lastMaxs[b]);
+            }
+            mins.add(levelMins);
+            maxs.add(levelMaxs);
+            lastMins = levelMins;
+            lastMaxs = levelMaxs;
+        }
+
+        return new WaveformPeaks(sampleRate, SAMPLES_PER_PEAK,
+                mins.toArray(new short[0][]), maxs.toArray(new short[0][]));
+    }
+
+    private void write(Path cacheFile, WaveformPeaks peaks) throws IOException {
+        int size = 5 * Integer.BYTES;
+        for (int level = 0; level < peaks.getLevelCount(); level++) {
+            size += Integer.BYTES + peaks.getMins(level).length * 2 * Short.BYTES;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION)
+                .putInt(peaks.getSampleRate()).putInt(peaks.getSamplesPerPeak())
+                .putInt(peaks.getLevelCount());
+        for (int level = 0; level < peaks.getLevelCount(); level++) {
+            short[] mins = peaks.getMins(level);
+            short[] maxs = peaks.getMaxs(level);
+            buffer.putInt(mins.length);
+            for (int i = 0; i < mins.length; i++) {
+                buffer.putShort(mins[i]).putShort(maxs[i]);
+            }
+        }
+        buffer.flip();
+
+        Path temp = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Returns null for a cache file from another version or a truncated write
+    private WaveformPeaks read(Path cacheFile) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(cacheFile)).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            int sampleRate = buffer.getInt();
+            int samplesPerPeak = buffer.getInt();
+            int levelCount = buffer.getInt();
+            short[][] mins = new short[levelCount][];
+            short[][] maxs = new short[levelCount][];
+            for (int level = 0; level < levelCount; level++) {
+                int length = buffer.getInt();
+                mins[level] = new short[length];
+                maxs[level] = new short[length];
+                for (int i = 0; i < length; i++) {
+                    mins[level][i] = buffer.getShort();
+                    maxs[level][i] = buffer.getShort();
+                }
+            }
+            return new WaveformPeaks(sampleRate, samplesPerPeak, mins, maxs);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,743 @@
+package se233.audioconverter.service.distributed;
+
+import com.google.gson.Gson;
+import se233.audioconverter.exception.AudioConversionException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.AudioSourceInfo;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.model.EncodeOptions;
+import se233.audioconverter.service.FFmpegService;
+import net.bramp.ffmpeg.progress.Progress;
+import net.bramp.ffmpeg.progress.ProgressListener;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Hands single-file conversions to {@link ConversionWorker} JVMs that
+ * connect over TCP.
+ *
+ * Workers pull work: each keeps its slots busy plus one prefetched job. The
+ * input file is streamed to the worker with the job and the encoded file is
+ * streamed back. The coordinator also handles the cluster's failure cases:
+ * <ul>
+ *   <li>a worker that misses heartbeats is dropped and its jobs are queued
+ *       again, up to {@link #MAX_ATTEMPTS} times per job;</li>
+ *   <li>an idle worker steals a prefetched job another worker has not
+ *       started yet;</li>
+ *   <li>near the end of a batch an idle worker re-runs the straggler with
+ *       the most estimated time left, and the first result wins.</li>
+ * </ul>
+ *
+ * The coordinator listens on the loopback interface unless given another
+ * bind address ({@code audioconverter.coordinator.bind} in the UI), and only
+ * accepts workers that prove they know the shared secret, since workers
+ * receive the users' audio and send back files that land in their output
+ * folders.
+ */
+public class ConversionCoordinator implements Closeable {
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int PREFETCH = 1;
+    // Stragglers are only duplicated once they have run for this long
+    private static final double SPECULATION_MIN_SECONDS = 10.0;
+    // How long close() waits for SHUTDOWN (and an upload in progress) to go out
+    private static final long SHUTDOWN_FLUSH_MILLIS = 5_000;
+
+    private final FFmpegService ffmpegService;
+    private final ServerSocket serverSocket;
+    private final byte[] secret;
+    private final Gson gson = new Gson();
+    private final ScheduledExecutorService scheduler;
+    private final Thread acceptThread;
+    private final AtomicLong nextJobId = new AtomicLong(1);
+    private final AtomicLong nextWorkerId = new AtomicLong(1);
+
+    // Guarded by this
+    private final Deque<RemoteJob> queue = new ArrayDeque<>();
+    private final List<WorkerConnection> workers = new ArrayList<>();
+    private volatile boolean closed;
+    private volatile Consumer<String> eventListener = System.err::println;
+
+    // Loopback only: workers on this machine
+    public ConversionCoordinator(FFmpegService ffmpegService, int port) throws IOException {
+        this(ffmpegService, InetAddress.getLoopbackAddress(), port);
+    }
+
+    public ConversionCoordinator(FFmpegService ffmpegService, InetAddress bindAddress, int port) throws IOException {
+        this.ffmpegService = ffmpegService;
+        this.secret = DistributedProtocol.loadSecret();
+        this.serverSocket = new ServerSocket(port, 50, bindAddress);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "coordinator-scheduler"));
+        this.scheduler.scheduleWithFixedDelay(this::checkWorkers, 1, 1, TimeUnit.SECONDS);
+        this.acceptThread = daemon(this::acceptLoop, "coordinator-accept");
+        this.acceptThread.start();
+    }
+
+    /**
+     * Receives cluster events (workers joining, steals, requeues) as one-line
+     * messages; by default they go to standard error.
+     */
+    public void setEventListener(Consumer<String> eventListener) {
+        this.eventListener = eventListener;
+    }
+
+    private void event(String message) {
+        eventListener.accept(message);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public synchronized int getWorkerCount() {
+        return workers.size();
+    }
+
+    public synchronized int getTotalSlots() {
+        int slots = 0;
+        for (WorkerConnection worker : workers) {
+            slots += worker.slots;
+        }
+        return slots;
+    }
+
+    /**
+     * Converts one file on whichever worker gets to it first and blocks until
+     * the output is in place under {@code outputPath}.
+     */
+    public void convert(AudioFile audioFile, ConversionSettings settings, String outputPath,
+                        EncodeOptions options, ProgressListener listener)
+            throws AudioConversionException {
+        RemoteJob job = new RemoteJob(nextJobId.getAndIncrement(), audioFile, settings,
+                ffmpegService.buildOutputFilename(audioFile, settings, outputPath), options, listener);
+        synchronized (this) {
+            if (workers.isEmpty()) {
+                throw new AudioConversionException(audioFile.getName(),
+                        AudioConversionException.ErrorType.WORKER_ERROR, "No workers connected");
+            }
+            queue.addLast(job);
+        }
+        requestSchedule();
+
+        try {
+            // Every assigned job ends in a result, a failure or a requeue: workers that
+            // die are dropped, and jobs a live worker no longer reports are requeued
+            while (true) {
+                try {
+                    job.result.get(1, TimeUnit.SECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    if (closed) {
+                        cancel(job);
+                        throw new AudioConversionException(audioFile.getName(),
+                                AudioConversionException.ErrorType.WORKER_ERROR, "Coordinator closed");
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            cancel(job);
+            Thread.currentThread().interrupt();
+            throw new AudioConversionException(audioFile.getName(),
+                    AudioConversionException.ErrorType.WORKER_ERROR, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof AudioConversionException) {
+                throw (AudioConversionException) e.getCause();
+            }
+            throw new AudioConversionException(audioFile.getName(),
+                    AudioConversionException.ErrorType.WORKER_ERROR, e.getCause());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        List<WorkerConnection> toClose;
+        synchronized (this) {
+            toClose = new ArrayList<>(workers);
+        }
+        // Jobs still queued on a sender are skipped, so SHUTDOWN goes out next
+        for (WorkerConnection worker : toClose) {
+            worker.sendShutdown();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_FLUSH_MILLIS);
+        for (WorkerConnection worker : toClose) {
+            worker.awaitSent(deadline);
+            worker.close();
+        }
+        scheduler.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                WorkerConnection worker = new WorkerConnection(socket, nextWorkerId.getAndIncrement());
+                daemon(worker::readLoop, "coordinator-worker-" + worker.id).start();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Coordinator accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void requestSchedule() {
+        if (!closed) {
+            scheduler.execute(this::schedule);
+        }
+    }
+
+    // Runs on the scheduler thread only
+    private synchronized void schedule() {
+        for (WorkerConnection worker : workers) {
+            while (worker.assigned.size() < worker.slots + PREFETCH && !queue.isEmpty()) {
+                assign(queue.pollFirst(), worker);
+            }
+        }
+        if (!queue.isEmpty()) {
+            return;
+        }
+
+        // Nothing left to hand out: let idle workers help with what remains
+        for (WorkerConnection worker : workers) {
+            if (!worker.assigned.isEmpty()) {
+                continue;
+            }
+            RemoteJob stolen = findStealable(worker);
+            if (stolen != null) {
+                WorkerConnection victim = stolen.holders.iterator().next();
+                event("Worker " + worker.name + " steals " + stolen.audioFile.getName()
+                        + " from " + victim.name);
+                revoke(stolen, victim);
+                assign(stolen, worker);
+                continue;
+            }
+            RemoteJob straggler = findStraggler(worker);
+            if (straggler != null) {
+                event("Worker " + worker.name + " re-runs straggler " + straggler.audioFile.getName());
+                straggler.speculated = true;
+                assign(straggler, worker);
+            }
+        }
+    }
+
+    // A job the owner has reported, in a heartbeat sent after receiving it, as still waiting
+    private RemoteJob findStealable(WorkerConnection thief) {
+        for (WorkerConnection worker : workers) {
+            if (worker == thief) {
+                continue;
+            }
+            for (RemoteJob job : worker.assigned) {
+                if (!job.isDone() && job.holders.size() == 1 && !worker.started.contains(job.id)
+                        && worker.waiting.contains(job.id)) {
+                    return job;
+                }
+            }
+        }
+        return null;
+    }
+
+    // The running job with the most estimated time left, if worth duplicating
+    private RemoteJob findStraggler(WorkerConnection idle) {
+        RemoteJob best = null;
+        double bestRemaining = 0;
+        for (WorkerConnection worker : workers) {
+            for (RemoteJob job : worker.assigned) {
+                if (job.isDone() || job.speculated || job.holders.contains(idle)
+                        || !worker.started.contains(job.id)) {
+                    continue;
+                }
+                double elapsed = job.elapsedSeconds();
+                if (elapsed < SPECULATION_MIN_SECONDS) {
+                    continue;
+                }
+                double remaining = job.estimatedRemainingSeconds();
+                if (remaining > bestRemaining) {
+                    bestRemaining = remaining;
+                    best = job;
+                }
+            }
+        }
+        return best;
+    }
+
+    private void assign(RemoteJob job, WorkerConnection worker) {
+        job.holders.add(worker);
+        if (job.startNanos == 0) {
+            job.startNanos = System.nanoTime();
+        }
+        worker.assigned.add(job);
+        // Sends go out in this order, so the n-th JOB sent is the n-th the worker counts
+        worker.deliveries.put(job.id, ++worker.jobsSent);
+        String settingsJson = gson.toJson(job.settings);
+        String optionsJson = job.options != null ? gson.toJson(job.options) : "";
+        worker.send(out -> {
+            out.writeByte(DistributedProtocol.JOB);
+            out.writeLong(job.id);
+            out.writeUTF(job.audioFile.getName());
+            out.writeUTF(settingsJson);
+            out.writeUTF(optionsJson);
+            DistributedProtocol.writeFile(out, Paths.get(job.audioFile.getFilePath()));
+        });
+    }
+
+    private void revoke(RemoteJob job, WorkerConnection worker) {
+        job.holders.remove(worker);
+        worker.assigned.remove(job);
+        worker.deliveries.remove(job.id);
+        worker.started.remove(job.id);
+        worker.waiting.remove(job.id);
+        worker.send(out -> {
+            out.writeByte(DistributedProtocol.REVOKE);
+            out.writeLong(job.id);
+        });
+    }
+
+    private void cancel(RemoteJob job) {
+        synchronized (this) {
+            queue.remove(job);
+            for (WorkerConnection worker : new ArrayList<>(job.holders)) {
+                revoke(job, worker);
+            }
+        }
+        job.result.cancel(false);
+    }
+
+    // Drops workers that stopped sending heartbeats and requeues their jobs
+    private void checkWorkers() {
+        List<WorkerConnection> dead = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            for (WorkerConnection worker : workers) {
+                if (now - worker.lastSeenNanos > TimeUnit.MILLISECONDS.toNanos(DistributedProtocol.WORKER_TIMEOUT_MILLIS)) {
+                    dead.add(worker);
+                }
+            }
+        }
+        for (WorkerConnection worker : dead) {
+            System.err.println("Worker " + worker.name + " timed out");
+            worker.close();
+        }
+        requestSchedule();
+    }
+
+    private void workerLost(WorkerConnection worker) {
+        synchronized (this) {
+            if (!workers.remove(worker)) {
+                return;
+            }
+            for (RemoteJob job : worker.assigned) {
+                job.holders.remove(worker);
+                requeue(job, "losing worker " + worker.name);
+            }
+            worker.assigned.clear();
+
+            // Nobody is left to run queued work; fail it rather than wait forever
+            if (workers.isEmpty()) {
+                for (RemoteJob job : queue) {
+                    job.result.completeExceptionally(new AudioConversionException(
+                            job.audioFile.getName(),
+                            AudioConversionException.ErrorType.WORKER_ERROR,
+                            "All workers disconnected"));
+                }
+                queue.clear();
+            }
+        }
+        requestSchedule();
+    }
+
+    // Runs a job that no worker holds any more again, or fails it after too many attempts
+    private void requeue(RemoteJob job, String reason) {
+        if (job.isDone() || !job.holders.isEmpty()) {
+            return;
+        }
+        event("Requeueing " + job.audioFile.getName() + " after " + reason);
+        if (++job.attempts >= MAX_ATTEMPTS) {
+            job.result.completeExceptionally(new AudioConversionException(
+                    job.audioFile.getName(),
+                    AudioConversionException.ErrorType.WORKER_ERROR,
+                    "No result after " + job.attempts + " attempts on workers"));
+        } else {
+            // Retry ahead of untouched work so the batch tail stays short
+            queue.addFirst(job);
+        }
+    }
+
+    /**
+     * Requeues jobs the worker has received (by {@code jobsReceived}) but no
+     * longer reports: it dropped them without a result or failure.
+     */
+    private void reconcile(WorkerConnection worker, long jobsReceived, Set<Long> reported) {
+        boolean requeued = false;
+        synchronized (this) {
+            for (RemoteJob job : new ArrayList<>(worker.assigned)) {
+                Long sequence = worker.deliveries.get(job.id);
+                if (sequence == null || sequence > jobsReceived || reported.contains(job.id)) {
+                    continue;
+                }
+                worker.assigned.remove(job);
+                worker.deliveries.remove(job.id);
+                worker.started.remove(job.id);
+                worker.waiting.remove(job.id);
+                job.holders.remove(worker);
+                requeue(job, "worker " + worker.name + " dropped it");
+                requeued = true;
+            }
+        }
+        if (requeued) {
+            requestSchedule();
+        }
+    }
+
+    private void onResult(WorkerConnection worker, long jobId, Path received) throws IOException {
+        synchronized (this) {
+            RemoteJob job = worker.find(jobId);
+            if (job == null || job.isDone()) {
+                // Revoked, or another copy finished first
+                Files.deleteIfExists(received);
+            } else {
+                try {
+                    Files.move(received, Paths.get(job.outputFile),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    job.result.complete(null);
+                } catch (IOException e) {
+                    job.result.completeExceptionally(new AudioConversionException(
+                            job.audioFile.getName(), AudioConversionException.ErrorType.IO_ERROR, e));
+                }
+            }
+            if (job != null) {
+                worker.assigned.remove(job);
+                worker.deliveries.remove(jobId);
+                worker.started.remove(jobId);
+                worker.waiting.remove(jobId);
+                job.holders.remove(worker);
+                for (WorkerConnection other : new ArrayList<>(job.holders)) {
+                    revoke(job, other);
+                }
+            }
+        }
+        requestSchedule();
+    }
+
+    private void onFailure(WorkerConnection worker, long jobId, String errorType, String message) {
+        synchronized (this) {
+            RemoteJob job = worker.find(jobId);
+            if (job != null) {
+                worker.assigned.remove(job);
+                worker.deliveries.remove(jobId);
+                worker.started.remove(jobId);
+                worker.waiting.remove(jobId);
+                job.holders.remove(worker);
+                // A speculative copy may still succeed; otherwise the failure stands
+                if (!job.isDone() && job.holders.isEmpty()) {
+                    job.result.completeExceptionally(new AudioConversionException(
+                            job.audioFile.getName(), parseErrorType(errorType), message));
+                }
+            }
+        }
+        requestSchedule();
+    }
+
+    private void onHeartbeat(WorkerConnection worker, long jobId, boolean started, long progressMicros) {
+        RemoteJob job;
+        synchronized (this) {
+            job = worker.find(jobId);
+            if (job == null) {
+                return;
+            }
+            if (started) {
+                worker.started.add(jobId);
+                worker.waiting.remove(jobId);
+            } else {
+                worker.waiting.add(jobId);
+            }
+            if (progressMicros <= job.progressMicros) {
+                return;
+            }
+            job.progressMicros = progressMicros;
+        }
+        if (job.listener != null) {
+            Progress progress = new Progress();
+            progress.out_time_ns = progressMicros * 1000;
+            job.listener.progress(progress);
+        }
+    }
+
+    private static AudioConversionException.ErrorType parseErrorType(String name) {
+        try {
+            return AudioConversionException.ErrorType.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return AudioConversionException.ErrorType.WORKER_ERROR;
+        }
+    }
+
+    private static Thread daemon(Runnable body, String name) {
+        Thread thread = new Thread(body, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private interface Message {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // One file conversion and every worker currently running a copy of it
+    private static class RemoteJob {
+        private final long id;
+        private final AudioFile audioFile;
+        private final ConversionSettings settings;
+        private final String outputFile;
+        private final EncodeOptions options;
+        private final ProgressListener listener;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        private final Set<WorkerConnection> holders = new LinkedHashSet<>();
+        private int attempts;
+        private boolean speculated;
+        private long startNanos;
+        private volatile long progressMicros;
+
+        RemoteJob(long id, AudioFile audioFile, ConversionSettings settings, String outputFile,
+                  EncodeOptions options, ProgressListener listener) {
+            this.id = id;
+            this.audioFile = audioFile;
+            this.settings = settings;
+            this.outputFile = outputFile;
+            this.options = options;
+            this.listener = listener;
+        }
+
+        boolean isDone() {
+            return result.isDone();
+        }
+
+        double elapsedSeconds() {
+            return startNanos == 0 ? 0 : (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        }
+
+        // Extrapolated from progress so far; unprobed files count as halfway
+        double estimatedRemainingSeconds() {
+            AudioSourceInfo info = audioFile.getSourceInfo();
+            double fraction = info != null && info.getDuration() > 0
+                    ? Math.min(1.0, progressMicros / (info.getDuration() * 1_000_000))
+                    : 0.5;
+            if (fraction <= 0) {
+                return elapsedSeconds();
+            }
+            return elapsedSeconds() * (1 - fraction) / fraction;
+        }
+    }
+
+    private class WorkerConnection {
+        private final long id;
+        private final Socket socket;
+        private final DataOutputStream out;
+        // Sends run in order on one thread so a long upload never blocks the scheduler
+        private final ExecutorService sender;
+        private final Set<RemoteJob> assigned = new LinkedHashSet<>();
+        private final Set<Long> started = new LinkedHashSet<>();
+        // Jobs the worker holds but has not started (prefetched)
+        private final Set<Long> waiting = new LinkedHashSet<>();
+        // Job id -> position among the JOB messages sent to this worker
+        private final Map<Long, Long> deliveries = new HashMap<>();
+        private long jobsSent;
+        private String name;
+        private int slots;
+        private volatile long lastSeenNanos = System.nanoTime();
+
+        WorkerConnection(Socket socket, long id) throws IOException {
+            this.id = id;
+            this.socket = socket;
+            this.name = socket.getRemoteSocketAddress().toString();
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.sender = Executors.newSingleThreadExecutor(r -> daemon(r, "coordinator-send-" + id));
+        }
+
+        RemoteJob find(long jobId) {
+            for (RemoteJob job : assigned) {
+                if (job.id == jobId) {
+                    return job;
+                }
+            }
+            return null;
+        }
+
+        void send(Message message) {
+            send(message, false);
+        }
+
+        void sendShutdown() {
+            send(o -> o.writeByte(DistributedProtocol.SHUTDOWN), true);
+            sender.shutdown();
+        }
+
+        // Waits until everything queued has been written, or the deadline passes
+        void awaitSent(long deadlineNanos) {
+            try {
+                sender.awaitTermination(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void send(Message message, boolean evenIfClosed) {
+            try {
+                sender.execute(() -> {
+                    if (closed && !evenIfClosed) {
+                        return;
+                    }
+                    try {
+                        message.write(out);
+                        out.flush();
+                    } catch (IOException e) {
+                        close();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Connection already closed; its jobs are being requeued
+            }
+        }
+
+        void readLoop() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                if (!handshake(in)) {
+                    return;
+                }
+                synchronized (ConversionCoordinator.this) {
+                    workers.add(this);
+                }
+                event("Worker " + name + " joined with " + slots + " slot(s)");
+                requestSchedule();
+
+                while (!closed) {
+                    byte type = in.readByte();
+                    lastSeenNanos = System.nanoTime();
+                    switch (type) {
+                        case DistributedProtocol.HEARTBEAT:
+                            long jobsReceived = in.readLong();
+                            int count = in.readInt();
+                            Set<Long> reported = new HashSet<>();
+                            for (int i = 0; i < count; i++) {
+                                long reportedId = in.readLong();
+                                reported.add(reportedId);
+                                onHeartbeat(this, reportedId, in.readBoolean(), in.readLong());
+                            }
+                            reconcile(this, jobsReceived, reported);
+                            break;
+                        case DistributedProtocol.RESULT:
+                            long jobId = in.readLong();
+                            Path received = Files.createTempFile(outputDirectoryOf(jobId), ".remote-", ".part");
+                            try {
+                                DistributedProtocol.readFile(in, received, () -> lastSeenNanos = System.nanoTime());
+                                onResult(this, jobId, received);
+                            } finally {
+                                Files.deleteIfExists(received);
+                            }
+                            break;
+                        case DistributedProtocol.FAILURE:
+                            onFailure(this, in.readLong(), in.readUTF(), in.readUTF());
+                            break;
+                        default:
+                            throw new IOException("Unknown message type " + type);
+                    }
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Worker " + name + " disconnected: " + e.getMessage());
+                }
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Challenges the new connection and checks the answer; an unknown
+         * peer is dropped before it can see or send anything else.
+         */
+        private boolean handshake(DataInputStream in) throws IOException {
+            // A peer that never answers must not hold this thread
+            socket.setSoTimeout((int) DistributedProtocol.WORKER_TIMEOUT_MILLIS);
+            byte[] challenge = DistributedProtocol.newNonce();
+            out.writeByte(DistributedProtocol.CHALLENGE);
+            DistributedProtocol.writeBytes(out, challenge);
+            out.flush();
+
+            if (in.readByte() != DistributedProtocol.HELLO) {
+                System.err.println("Rejected " + name + ": no handshake");
+                return false;
+            }
+            String workerName = in.readUTF();
+            int workerSlots = in.readInt();
+            byte[] answer = DistributedProtocol.readBytes(in);
+            byte[] workerNonce = DistributedProtocol.readBytes(in);
+            if (!DistributedProtocol.verify(secret, "worker", challenge, answer)) {
+                System.err.println("Rejected " + name + ": wrong secret");
+                return false;
+            }
+            out.writeByte(DistributedProtocol.WELCOME);
+            DistributedProtocol.writeBytes(out, DistributedProtocol.proof(secret, "coordinator", workerNonce));
+            out.flush();
+            socket.setSoTimeout(0);
+
+            name = workerName;
+            slots = Math.max(1, workerSlots);
+            lastSeenNanos = System.nanoTime();
+            return true;
+        }
+
+        // Receive next to the final file so the closing move stays on one file system
+        private Path outputDirectoryOf(long jobId) {
+            synchronized (ConversionCoordinator.this) {
+                RemoteJob job = find(jobId);
+                if (job != null) {
+                    Path parent = Paths.get(job.outputFile).toAbsolutePath().getParent();
+                    if (parent != null) {
+                        return parent;
+                    }
+                }
+            }
+            return Paths.get(System.getProperty("java.io.tmpdir"));
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Already closed
+            }
+            sender.shutdownNow();
+            workerLost(this);
+        }
+    }
+}
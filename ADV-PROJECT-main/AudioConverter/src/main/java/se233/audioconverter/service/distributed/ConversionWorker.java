@@ -0,0 +1,294 @@
+package se233.audioconverter.service.distributed;
+
+import com.google.gson.Gson;
+import se233.audioconverter.exception.AudioConversionException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.model.EncodeOptions;
+import se233.audioconverter.service.Directories;
+import se233.audioconverter.service.FFmpegService;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Worker JVM for distributed batches. Connects to a
+ * {@link ConversionCoordinator}, receives jobs with their input file,
+ * converts them with the local FFmpeg and streams the result back.
+ *
+ * Usage: {@code ConversionWorker <coordinator-host> <port> [slots]}. Several
+ * workers can run on one machine, e.g. against localhost for testing. The
+ * worker and coordinator must share a secret (see
+ * {@link ConversionCoordinator}); a worker on the coordinator's machine
+ * finds it in the app data directory.
+ */
+public class ConversionWorker {
+    private final FFmpegService ffmpegService;
+    private final int slots;
+    private final byte[] secret;
+    private final Gson gson = new Gson();
+    private final Path workDirectory;
+    private final ExecutorService executor;
+    private final Map<Long, LocalJob> jobs = new ConcurrentHashMap<>();
+    // JOB messages received so far; heartbeats report it so the coordinator
+    // can tell a job this worker lost from one still on its way
+    private final AtomicLong jobsReceived = new AtomicLong();
+
+    private DataOutputStream out;
+    private volatile boolean running = true;
+
+    public ConversionWorker(FFmpegService ffmpegService, int slots) throws IOException {
+        this.ffmpegService = ffmpegService;
+        this.slots = Math.max(1, slots);
+        this.secret = DistributedProtocol.loadSecret();
+        this.workDirectory = Files.createTempDirectory("audioconverter-worker");
+        this.executor = Executors.newFixedThreadPool(this.slots);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: ConversionWorker <coordinator-host> <port> [slots]");
+            System.exit(2);
+        }
+        int slots = args.length > 2
+                ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+        new ConversionWorker(new FFmpegService(), slots).run(args[0], Integer.parseInt(args[1]));
+    }
+
+    /**
+     * Serves jobs until the coordinator shuts the worker down or the
+     * connection drops.
+     */
+    public void run(String host, int port) throws IOException {
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            handshake(socket, in);
+
+            Thread heartbeat = new Thread(this::heartbeatLoop, "worker-heartbeat");
+            heartbeat.setDaemon(true);
+            heartbeat.start();
+
+            while (running) {
+                byte type = in.readByte();
+                switch (type) {
+                    case DistributedProtocol.JOB:
+                        receiveJob(in);
+                        break;
+                    case DistributedProtocol.REVOKE:
+                        revoke(in.readLong());
+                        break;
+                    case DistributedProtocol.SHUTDOWN:
+                        running = false;
+                        break;
+                    default:
+                        throw new IOException("Unknown message type " + type);
+                }
+            }
+        } finally {
+            running = false;
+            executor.shutdownNow();
+            Directories.deleteRecursively(workDirectory);
+        }
+    }
+
+    // Answers the coordinator's challenge and checks its answer to ours
+    private void handshake(Socket socket, DataInputStream in) throws IOException {
+        socket.setSoTimeout((int) DistributedProtocol.WORKER_TIMEOUT_MILLIS);
+        if (in.readByte() != DistributedProtocol.CHALLENGE) {
+            throw new IOException("Coordinator did not start the handshake");
+        }
+        byte[] challenge = DistributedProtocol.readBytes(in);
+        byte[] nonce = DistributedProtocol.newNonce();
+        send(o -> {
+            o.writeByte(DistributedProtocol.HELLO);
+            o.writeUTF(workerName());
+            o.writeInt(slots);
+            DistributedProtocol.writeBytes(o, DistributedProtocol.proof(secret, "worker", challenge));
+            DistributedProtocol.writeBytes(o, nonce);
+        });
+        try {
+            if (in.readByte() != DistributedProtocol.WELCOME
+                    || !DistributedProtocol.verify(secret, "coordinator", nonce, DistributedProtocol.readBytes(in))) {
+                throw new IOException("Coordinator failed authentication; check the shared secret");
+            }
+        } catch (EOFException e) {
+            throw new IOException("Coordinator rejected this worker; check the shared secret");
+        }
+        socket.setSoTimeout(0);
+    }
+
+    private void receiveJob(DataInputStream in) throws IOException {
+        long id = in.readLong();
+        String fileName = in.readUTF();
+        ConversionSettings settings = gson.fromJson(in.readUTF(), ConversionSettings.class);
+        String optionsJson = in.readUTF();
+        EncodeOptions options = optionsJson.isEmpty() ? new EncodeOptions() : gson.fromJson(optionsJson, EncodeOptions.class);
+        // Thread counts were budgeted for the coordinator's machine, not this one
+        options.setThreads(0);
+
+        // Keep the original name so the output is named exactly as a local run would,
+        // but only its last element, so the input cannot land outside the job directory
+        Path jobDirectory = Files.createDirectories(workDirectory.resolve("job-" + id));
+        Path input = jobDirectory.resolve(safeFileName(fileName));
+        DistributedProtocol.readFile(in, input, null);
+
+        LocalJob job = new LocalJob(id, jobDirectory);
+        jobs.put(id, job);
+        jobsReceived.incrementAndGet();
+        job.future = executor.submit(() -> convert(job, new AudioFile(input.toString()), settings, options));
+    }
+
+    static String safeFileName(String fileName) {
+        String safe;
+        try {
+            Path name = Path.of(fileName.replace('\\', '/')).getFileName();
+            safe = name != null ? name.toString() : "";
+        } catch (InvalidPathException e) {
+            safe = "";
+        }
+        return safe.isBlank() || safe.equals(".") || safe.equals("..") ? "input" : safe;
+    }
+
+    private void convert(LocalJob job, AudioFile audioFile, ConversionSettings settings, EncodeOptions options) {
+        job.started = true;
+        try {
+            Path outputDirectory = Files.createDirectories(job.directory.resolve("out"));
+            ffmpegService.probeSourceInfo(audioFile);
+            ffmpegService.convertAudio(audioFile, settings, outputDirectory.toString(), options,
+                    progress -> job.progressMicros = progress.out_time_ns / 1000);
+
+            Path output = Path.of(ffmpegService.buildOutputFilename(audioFile, settings, outputDirectory.toString()));
+            if (!job.revoked) {
+                send(o -> {
+                    o.writeByte(DistributedProtocol.RESULT);
+                    o.writeLong(job.id);
+                    DistributedProtocol.writeFile(o, output);
+                });
+            }
+        } catch (AudioConversionException e) {
+            if (!job.revoked) {
+                sendFailure(job.id, e.getErrorType().name(), e.getMessage());
+            }
+        } catch (IOException e) {
+            if (!job.revoked) {
+                sendFailure(job.id, AudioConversionException.ErrorType.IO_ERROR.name(), e.getMessage());
+            }
+        } catch (RuntimeException e) {
+            // Anything else would vanish in the executor and leave the coordinator waiting
+            if (!job.revoked) {
+                sendFailure(job.id, AudioConversionException.ErrorType.WORKER_ERROR.name(), e.toString());
+            }
+        } finally {
+            jobs.remove(job.id);
+            Directories.deleteRecursively(job.directory);
+        }
+    }
+
+    private void revoke(long id) {
+        LocalJob job = jobs.get(id);
+        if (job == null) {
+            return;
+        }
+        job.revoked = true;
+        // A queued job is dropped at once; a running FFmpeg finishes and its output is discarded
+        if (job.future != null && job.future.cancel(false)) {
+            jobs.remove(id);
+            Directories.deleteRecursively(job.directory);
+        }
+    }
+
+    private void heartbeatLoop() {
+        while (running) {
+            try {
+                Thread.sleep(DistributedProtocol.HEARTBEAT_INTERVAL_MILLIS);
+                // Count first: every job it covers is then in the snapshot unless it
+                // already finished, and its RESULT or FAILURE went out before this
+                long received = jobsReceived.get();
+                List<LocalJob> snapshot = new ArrayList<>(jobs.values());
+                send(o -> {
+                    o.writeByte(DistributedProtocol.HEARTBEAT);
+                    o.writeLong(received);
+                    o.writeInt(snapshot.size());
+                    for (LocalJob job : snapshot) {
+                        o.writeLong(job.id);
+                        o.writeBoolean(job.started);
+                        o.writeLong(job.progressMicros);
+                    }
+                });
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                running = false;
+            }
+        }
+    }
+
+    private void sendFailure(long id, String errorType, String message) {
+        try {
+            send(o -> {
+                o.writeByte(DistributedProtocol.FAILURE);
+                o.writeLong(id);
+                o.writeUTF(errorType);
+                o.writeUTF(DistributedProtocol.truncate(message));
+            });
+        } catch (IOException e) {
+            running = false;
+        }
+    }
+
+    // Whole messages are written under one lock so results and heartbeats never interleave
+    private void send(Message message) throws IOException {
+        synchronized (out) {
+            message.write(out);
+            out.flush();
+        }
+    }
+
+    private static String workerName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "worker";
+        }
+        return host + "#" + ProcessHandle.current().pid();
+    }
+
+    private interface Message {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static class LocalJob {
+        private final long id;
+        private final Path directory;
+        private volatile Future<?> future;
+        private volatile boolean started;
+        private volatile boolean revoked;
+        private volatile long progressMicros;
+
+        LocalJob(long id, Path directory) {
+            this.id = id;
+            this.directory = directory;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package se233.audioconverter.service.distributed;
+
+import se233.audioconverter.service.AppDataDirectory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+
+/**
+ * Wire format shared by {@link ConversionCoordinator} and
+ * {@link ConversionWorker}: one type byte per message followed by
+ * DataOutputStream fields. Files travel as a sequence of length-prefixed
+ * chunks ended by a zero length, so neither side needs the size up front
+ * and the receiver can count every chunk as a sign of life.
+ *
+ * A connection starts with a mutual challenge: the coordinator sends
+ * CHALLENGE with a random nonce, the worker answers in HELLO with an HMAC of
+ * that nonce under the shared secret plus a nonce of its own, and the
+ * coordinator proves itself the same way in WELCOME. Nothing else is
+ * exchanged before both sides are authenticated.
+ */
+final class DistributedProtocol {
+    // Worker -> coordinator
+    static final byte HELLO = 1;
+    static final byte HEARTBEAT = 2;
+    static final byte RESULT = 3;
+    static final byte FAILURE = 4;
+    // Coordinator -> worker
+    static final byte JOB = 10;
+    static final byte REVOKE = 11;
+    static final byte SHUTDOWN = 12;
+    static final byte CHALLENGE = 13;
+    static final byte WELCOME = 14;
+
+    static final int CHUNK_SIZE = 64 * 1024;
+    static final long HEARTBEAT_INTERVAL_MILLIS = 2_000;
+    // A worker silent for this long is treated as dead
+    static final long WORKER_TIMEOUT_MILLIS = 10_000;
+    // writeUTF is limited to 64 KB; error output is cut well below that
+    static final int MAX_MESSAGE_LENGTH = 8 * 1024;
+
+    static final int NONCE_LENGTH = 32;
+    private static final int MIN_SECRET_LENGTH = 16;
+    private static final String SECRET_FILE = "coordinator.secret";
+    private static final String HMAC = "HmacSHA256";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private DistributedProtocol() {
+    }
+
+    /**
+     * The shared secret: {@code audioconverter.coordinator.secret} if set,
+     * otherwise the {@value #SECRET_FILE} file in the app data directory
+     * (created with a random value, readable only by the user). Workers on
+     * other machines need the same value.
+     */
+    static byte[] loadSecret() throws IOException {
+        String configured = System.getProperty("audioconverter.coordinator.secret");
+        if (configured == null || configured.isBlank()) {
+            Path file = AppDataDirectory.resolve(SECRET_FILE);
+            if (!Files.exists(file)) {
+                createSecretFile(file);
+            }
+            configured = Files.readString(file, StandardCharsets.UTF_8);
+        }
+        String secret = configured.trim();
+        if (secret.length() < MIN_SECRET_LENGTH) {
+            throw new IOException("The coordinator secret must be at least " + MIN_SECRET_LENGTH + " characters");
+        }
+        return secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void createSecretFile(Path file) throws IOException {
+        byte[] random = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(random);
+        Path temp = file.resolveSibling(SECRET_FILE + ".tmp");
+        Files.deleteIfExists(temp);
+        try {
+            Files.createFile(temp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system; the user profile's permissions apply
+            Files.createFile(temp);
+        }
+        Files.writeString(temp, HexFormat.of().formatHex(random), StandardCharsets.UTF_8);
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Another process created it first; use theirs
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    static byte[] newNonce() {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        return nonce;
+    }
+
+    /**
+     * HMAC of the peer's nonce; {@code role} keeps a worker's answer from
+     * being replayed as the coordinator's and vice versa.
+     */
+    static byte[] proof(byte[] secret, String role, byte[] nonce) {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(new SecretKeySpec(secret, HMAC));
+            mac.update(role.getBytes(StandardCharsets.UTF_8));
+            return mac.doFinal(nonce);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(HMAC + " is not available", e);
+        }
+    }
+
+    static boolean verify(byte[] secret, String role, byte[] nonce, byte[] received) {
+        return MessageDigest.isEqual(proof(secret, role, nonce), received);
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readUnsignedShort();
+        if (length > 1024) {
+            throw new IOException("Handshake field of " + length + " bytes");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static void writeFile(DataOutputStream out, Path file) throws IOException {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                out.writeInt(read);
+                out.write(chunk, 0, read);
+            }
+        }
+        out.writeInt(0);
+    }
+
+    /**
+     * Reads a chunked file into {@code target}; {@code onChunk} runs after
+     * every chunk so long transfers keep the sender's liveness fresh.
+     */
+    static long readFile(DataInputStream in, Path target, Runnable onChunk) throws IOException {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        long total = 0;
+        try (OutputStream out = Files.newOutputStream(target)) {
+            int length;
+            while ((length = in.readInt()) > 0) {
+                if (length > CHUNK_SIZE) {
+                    throw new IOException("Chunk of " + length + " bytes exceeds " + CHUNK_SIZE);
+                }
+                in.readFully(chunk, 0, length);
+                out.write(chunk, 0, length);
+                total += length;
+                if (onChunk != null) {
+                    onChunk.run();
+                }
+            }
+        }
+        return total;
+    }
+
+    static String truncate(String message) {
+        if (message == null) {
+            return "";
+        }
+        return message.length() <= MAX_MESSAGE_LENGTH
+                ? message
+                : message.substring(message.length() - MAX_MESSAGE_LENGTH);
+    }
+}
@@ -0,0 +1,119 @@
+package se233.audioconverter.service.flac;
+
+import java.util.Arrays;
+
+/**
+ * MSB-first bit writer backed by a growable byte array. One instance is
+ * used per frame, so writing a sample never allocates.
+ */
+class FlacBitWriter {
+    private byte[] buffer;
+    private int bytePosition;
+    private long accumulator;
+    private int bitsInAccumulator;
+
+    FlacBitWriter(int initialCapacity) {
+        this.buffer = new byte[Math.max(16, initialCapacity)];
+    }
+
+    void reset() {
+        bytePosition = 0;
+        accumulator = 0;
+        bitsInAccumulator = 0;
+    }
+
+    void writeBits(long value, int bits) {
+        // Flush whole bytes first so the accumulator never overflows
+        while (bits > 32) {
+            bits -= 32;
+            writeBits(value >>> bits, 32);
+        }
+        if (bits == 0) {
+            return;
+        }
+        accumulator = (accumulator << bits) | (value & ((1L << bits) - 1));
+        bitsInAccumulator += bits;
+        while (bitsInAccumulator >= 8) {
+            bitsInAccumulator -= 8;
+            putByte((int) (accumulator >>> bitsInAccumulator));
+        }
+        accumulator &= (1L << bitsInAccumulator) - 1;
+    }
+
+    void writeSigned(int value, int bits) {
+        writeBits(value, bits);
+    }
+
+    void writeUnary(int zeros) {
+        while (zeros >= 32) {
+            writeBits(0, 32);
+            zeros -= 32;
+        }
+        writeBits(1, zeros + 1);
+    }
+
+    // Rice code of a zig-zag mapped residual
+    void writeRice(int residual, int parameter) {
+        int folded = (residual << 1) ^ (residual >> 31);
+        writeUnary(folded >>> parameter);
+        if (parameter > 0) {
+            writeBits(folded, parameter);
+        }
+    }
+
+    void writeUtf8(long value) {
+        if (value < 0x80) {
+            writeBits(value, 8);
+            return;
+        }
+        int continuationBytes;
+        if (value < 0x800) {
+            continuationBytes = 1;
+        } else if (value < 0x10000) {
+            continuationBytes = 2;
+        } else if (value < 0x200000) {
+            continuationBytes = 3;
+        } else if (value < 0x4000000) {
+            continuationBytes = 4;
+        } else if (value < 0x80000000L) {
+            continuationBytes = 5;
+        } else {
+            continuationBytes = 6;
+        }
+        int leadingOnes = continuationBytes + 1;
+        int lead = (0xFF00 >> leadingOnes) & 0xFF;
+        writeBits(lead | (value >>> (6 * continuationBytes)), 8);
+        for (int i = continuationBytes - 1; i >= 0; i--) {
+            writeBits(0x80 | ((value >>> (6 * i)) & 0x3F), 8);
+        }
+    }
+
+    void alignToByte() {
+        if (bitsInAccumulator > 0) {
+            writeBits(0, 8 - bitsInAccumulator);
+        }
+    }
+
+    boolean isByteAligned() {
+        return bitsInAccumulator == 0;
+    }
+
+    int byteLength() {
+        return bytePosition;
+    }
+
+    byte[] array() {
+        return buffer;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, bytePosition);
+    }
+
+    private void putByte(int value) {
+        if (bytePosition == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[bytePosition++] = (byte) value;
+    }
+}
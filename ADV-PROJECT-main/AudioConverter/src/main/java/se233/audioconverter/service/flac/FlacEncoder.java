@@ -0,0 +1,233 @@
+package se233.audioconverter.service.flac;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.LongConsumer;
+
+/**
+ * Pure-Java FLAC encoder for 16-bit PCM that encodes frames in parallel.
+ *
+ * FLAC frames are independent, so the input is read in windows of several
+ * frames and each window is split across a {@link ForkJoinPool}. While one
+ * window is being encoded the next one is read and deinterleaved into a
+ * second buffer, and finished frames are written in order. STREAMINFO is
+ * written as a placeholder first and filled in (frame sizes, total samples,
+ * MD5 of the PCM) once the stream is complete.
+ */
+public class FlacEncoder {
+    public static final int BLOCK_SIZE = 4096;
+    private static final int STREAMINFO_OFFSET = 8; // after "fLaC" and the block header
+    private static final int STREAMINFO_LENGTH = 34;
+
+    private final ForkJoinPool pool;
+    private final int framesPerWindow;
+
+    public FlacEncoder(ForkJoinPool pool) {
+        this.pool = pool;
+        // Enough frames per window to keep every worker busy between reads
+        this.framesPerWindow = Math.max(4, pool.getParallelism() * 4);
+    }
+
+    /**
+     * Encodes interleaved signed 16-bit little-endian PCM into a FLAC file.
+     * Returns the number of samples per channel; {@code progress} receives
+     * the running count after every window.
+     */
+    public long encode(InputStream pcm, int sampleRate, int channels, Path output,
+                       LongConsumer progress) throws IOException {
+        if (channels < 1 || channels > 8) {
+            throw new IOException("FLAC supports 1 to 8 channels, got " + channels);
+        }
+        MessageDigest md5 = newMd5();
+        ThreadLocal<FlacFrameEncoder> encoders =
+                ThreadLocal.withInitial(() -> new FlacFrameEncoder(channels, sampleRate, BLOCK_SIZE));
+
+        int windowSamples = framesPerWindow * BLOCK_SIZE;
+        byte[] raw = new byte[windowSamples * channels * 2];
+        Window current = new Window(channels, windowSamples, framesPerWindow);
+        Window next = new Window(channels, windowSamples, framesPerWindow);
+
+        long totalSamples = 0;
+        long frameNumber = 0;
+        int minFrameSize = Integer.MAX_VALUE;
+        int maxFrameSize = 0;
+
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, ByteBuffer.wrap(header()));
+
+            read(pcm, raw, current, channels, md5);
+            ForkJoinTask<Void> running = current.samples > 0
+                    ? pool.submit(current.task(encoders, frameNumber))
+                    : null;
+
+            while (running != null) {
+                // Read ahead while the pool encodes the current window
+                read(pcm, raw, next, channels, md5);
+                join(running);
+
+                for (int i = 0; i < current.frameCount; i++) {
+                    byte[] frame = current.frames[i];
+                    minFrameSize = Math.min(minFrameSize, frame.length);
+                    maxFrameSize = Math.max(maxFrameSize, frame.length);
+                    writeFully(channel, ByteBuffer.wrap(frame));
+                    current.frames[i] = null;
+                }
+                totalSamples += current.samples;
+                frameNumber += current.frameCount;
+                if (progress != null) {
+                    progress.accept(totalSamples);
+                }
+
+                Window swap = current;
+                current = next;
+                next = swap;
+                running = current.samples > 0
+                        ? pool.submit(current.task(encoders, frameNumber))
+                        : null;
+            }
+
+            byte[] streamInfo = streamInfo(sampleRate, channels, totalSamples,
+                    maxFrameSize == 0 ? 0 : minFrameSize, maxFrameSize, md5.digest());
+            ByteBuffer buffer = ByteBuffer.wrap(streamInfo);
+            long position = STREAMINFO_OFFSET;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+        return totalSamples;
+    }
+
+    // Fills the window's planar buffers with the next block of input
+    private void read(InputStream pcm, byte[] raw, Window window, int channels, MessageDigest md5)
+            throws IOException {
+        int bytesPerFrame = channels * 2;
+        int read = pcm.readNBytes(raw, 0, raw.length);
+        int samples = read / bytesPerFrame; // a truncated trailing sample is dropped
+        md5.update(raw, 0, samples * bytesPerFrame);
+
+        int[][] planar = window.planar;
+        int index = 0;
+        for (int i = 0; i < samples; i++) {
+            for (int c = 0; c < channels; c++) {
+                planar[c][i] = (short) ((raw[index + 1] << 8) | (raw[index] & 0xFF));
+                index += 2;
+            }
+        }
+        window.samples = samples;
+        window.frameCount = (samples + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    private static void join(ForkJoinTask<Void> task) throws IOException {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("FLAC encode interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("FLAC frame encode failed", e.getCause());
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static byte[] header() {
+        byte[] header = new byte[STREAMINFO_OFFSET + STREAMINFO_LENGTH];
+        header[0] = 'f';
+        header[1] = 'L';
+        header[2] = 'a';
+        header[3] = 'C';
+        header[4] = (byte) 0x80; // last metadata block, type 0 (STREAMINFO)
+        header[7] = STREAMINFO_LENGTH;
+        return header;
+    }
+
+    private static byte[] streamInfo(int sampleRate, int channels, long totalSamples,
+                                     int minFrameSize, int maxFrameSize, byte[] md5) {
+        FlacBitWriter out = new FlacBitWriter(STREAMINFO_LENGTH);
+        out.writeBits(BLOCK_SIZE, 16);
+        out.writeBits(BLOCK_SIZE, 16);
+        out.writeBits(minFrameSize, 24);
+        out.writeBits(maxFrameSize, 24);
+        out.writeBits(sampleRate, 20);
+        out.writeBits(channels - 1, 3);
+        out.writeBits(FlacFrameEncoder.BITS_PER_SAMPLE - 1, 5);
+        out.writeBits(totalSamples, 36);
+        for (byte b : md5) {
+            out.writeBits(b & 0xFF, 8);
+        }
+        return out.toByteArray();
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is required by every JRE", e);
+        }
+    }
+
+    // One read-ahead buffer: planar samples in, encoded frames out
+    private static class Window {
+        final int[][] planar;
+        final byte[][] frames;
+        int samples;
+        int frameCount;
+
+        Window(int channels, int windowSamples, int framesPerWindow) {
+            this.planar = new int[channels][windowSamples];
+            this.frames = new byte[framesPerWindow][];
+        }
+
+        RecursiveAction task(ThreadLocal<FlacFrameEncoder> encoders, long firstFrame) {
+            return new FrameRange(this, encoders, firstFrame, 0, frameCount);
+        }
+    }
+
+    // Splits a window's frames in halves until each task encodes one frame
+    private static class FrameRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Window window;
+        private final ThreadLocal<FlacFrameEncoder> encoders;
+        private final long firstFrame;
+        private final int from;
+        private final int to;
+
+        FrameRange(Window window, ThreadLocal<FlacFrameEncoder> encoders, long firstFrame, int from, int to) {
+            this.window = window;
+            this.encoders = encoders;
+            this.firstFrame = firstFrame;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new FrameRange(window, encoders, firstFrame, from, middle),
+                        new FrameRange(window, encoders, firstFrame, middle, to));
+                return;
+            }
+            int offset = from * BLOCK_SIZE;
+            int blockSize = Math.min(BLOCK_SIZE, window.samples - offset);
+            window.frames[from] = encoders.get().encodeFrame(window.planar, offset, blockSize, firstFrame + from);
+        }
+    }
+}
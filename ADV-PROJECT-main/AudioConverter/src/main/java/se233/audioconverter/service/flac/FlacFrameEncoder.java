@@ -0,0 +1,560 @@
+package se233.audioconverter.service.flac;
+
+/**
+ * Encodes one FLAC frame at a time. Every array used during analysis is
+ * allocated once per encoder and sized for the largest block, so an encoder
+ * can be kept per worker thread and reused for every frame it is given.
+ *
+ * Each channel is coded with the cheapest of CONSTANT, VERBATIM, FIXED
+ * (orders 0-4) and LPC (orders up to {@link #MAX_LPC_ORDER}) subframes.
+ * Stereo frames also pick the cheapest of independent, left/side,
+ * side/right and mid/side coding.
+ */
+class FlacFrameEncoder {
+    static final int BITS_PER_SAMPLE = 16;
+    static final int MAX_LPC_ORDER = 8;
+    private static final int MAX_FIXED_ORDER = 4;
+    private static final int LPC_PRECISION = 12;
+    private static final int MAX_RICE_PARAMETER = 14;
+    private static final int MAX_PARTITION_ORDER = 8;
+    // Residuals beyond this could overflow a Rice code; such predictors are skipped
+    private static final long MAX_RESIDUAL = 1L << 30;
+
+    private static final int CHANNELS_LEFT_SIDE = 8;
+    private static final int CHANNELS_SIDE_RIGHT = 9;
+    private static final int CHANNELS_MID_SIDE = 10;
+
+    private static final int SUBFRAME_CONSTANT = 0;
+    private static final int SUBFRAME_VERBATIM = 1;
+    private static final int SUBFRAME_FIXED = 8;
+    private static final int SUBFRAME_LPC = 32;
+
+    private final int channels;
+    private final int sampleRateCode;
+    private final FlacBitWriter writer;
+
+    // Scratch space reused for every frame
+    private final int[] mid;
+    private final int[] side;
+    private final double[] windowed;
+    private final double[] window;
+    private final double[] autocorrelation = new double[MAX_LPC_ORDER + 1];
+    private final double[][] lpcCoefficients = new double[MAX_LPC_ORDER][MAX_LPC_ORDER];
+    private final double[] lpcErrors = new double[MAX_LPC_ORDER];
+    private final double[] levinsonTemp = new double[MAX_LPC_ORDER];
+    private final int[] quantized = new int[MAX_LPC_ORDER];
+    private final int[] bestQuantized = new int[MAX_LPC_ORDER];
+    private int[] residual;
+    private int[] bestResidual;
+    private final long[] partitionSums = new long[(1 << (MAX_PARTITION_ORDER + 1)) - 1];
+    private final int[] riceParameters = new int[1 << MAX_PARTITION_ORDER];
+    private final int[] bestRiceParameters = new int[1 << MAX_PARTITION_ORDER];
+
+    // Result of the last analyse() call
+    private int chosenType;
+    private int chosenOrder;
+    private int chosenShift;
+    private int chosenPartitionOrder;
+    private long chosenBits;
+    // Partition order found by the last residualBits() call
+    private int candidatePartitionOrder;
+    private int windowSize = -1;
+
+    FlacFrameEncoder(int channels, int sampleRate, int maxBlockSize) {
+        this.channels = channels;
+        this.sampleRateCode = sampleRateCode(sampleRate);
+        this.writer = new FlacBitWriter(maxBlockSize * channels * 2 + 64);
+        this.mid = new int[maxBlockSize];
+        this.side = new int[maxBlockSize];
+        this.windowed = new double[maxBlockSize];
+        this.window = new double[maxBlockSize];
+        this.residual = new int[maxBlockSize];
+        this.bestResidual = new int[maxBlockSize];
+    }
+
+    /**
+     * Encodes {@code blockSize} samples per channel starting at {@code offset}
+     * and returns the complete frame, header and CRC-16 included.
+     */
+    byte[] encodeFrame(int[][] samples, int offset, int blockSize, long frameNumber) {
+        int[] left = samples[0];
+        int channelAssignment = channels - 1;
+        if (channels == 2) {
+            channelAssignment = chooseStereoMode(samples[0], samples[1], offset, blockSize);
+        }
+        prepareWindow(blockSize);
+
+        FlacBitWriter out = writer;
+        out.reset();
+        writeHeader(out, blockSize, channelAssignment, frameNumber);
+
+        switch (channelAssignment) {
+            case CHANNELS_LEFT_SIDE:
+                writeSubframe(out, left, offset, blockSize, BITS_PER_SAMPLE);
+                writeSubframe(out, side, 0, blockSize, BITS_PER_SAMPLE + 1);
+                break;
+            case CHANNELS_SIDE_RIGHT:
+                writeSubframe(out, side, 0, blockSize, BITS_PER_SAMPLE + 1);
+                writeSubframe(out, samples[1], offset, blockSize, BITS_PER_SAMPLE);
+                break;
+            case CHANNELS_MID_SIDE:
+                writeSubframe(out, mid, 0, blockSize, BITS_PER_SAMPLE);
+                writeSubframe(out, side, 0, blockSize, BITS_PER_SAMPLE + 1);
+                break;
+            default:
+                for (int channel = 0; channel < channels; channel++) {
+                    writeSubframe(out, samples[channel], offset, blockSize, BITS_PER_SAMPLE);
+                }
+                break;
+        }
+
+        out.alignToByte();
+        int crc = FlacCrc.crc16(out.array(), 0, out.byteLength());
+        out.writeBits(crc, 16);
+        return out.toByteArray();
+    }
+
+    private void writeHeader(FlacBitWriter out, int blockSize, int channelAssignment, long frameNumber) {
+        out.writeBits(0xFFF8, 16); // sync code, fixed block size
+        int blockSizeCode = blockSizeCode(blockSize);
+        out.writeBits(blockSizeCode, 4);
+        out.writeBits(sampleRateCode, 4);
+        out.writeBits(channelAssignment, 4);
+        out.writeBits(4, 3); // 16 bits per sample
+        out.writeBits(0, 1);
+        out.writeUtf8(frameNumber);
+        if (blockSizeCode == 7) {
+            out.writeBits(blockSize - 1, 16);
+        }
+        out.writeBits(FlacCrc.crc8(out.array(), 0, out.byteLength()), 8);
+    }
+
+    // Picks the stereo decorrelation with the smallest estimated size
+    private int chooseStereoMode(int[] left, int[] right, int offset, int blockSize) {
+        for (int i = 0; i < blockSize; i++) {
+            int l = left[offset + i];
+            int r = right[offset + i];
+            mid[i] = (l + r) >> 1;
+            side[i] = l - r;
+        }
+        long leftBits = estimateBits(left, offset, blockSize, BITS_PER_SAMPLE);
+        long rightBits = estimateBits(right, offset, blockSize, BITS_PER_SAMPLE);
+        long midBits = estimateBits(mid, 0, blockSize, BITS_PER_SAMPLE);
+        long sideBits = estimateBits(side, 0, blockSize, BITS_PER_SAMPLE + 1);
+
+        int mode = 1; // independent
+        long best = leftBits + rightBits;
+        if (leftBits + sideBits < best) {
+            best = leftBits + sideBits;
+            mode = CHANNELS_LEFT_SIDE;
+        }
+        if (sideBits + rightBits < best) {
+            best = sideBits + rightBits;
+            mode = CHANNELS_SIDE_RIGHT;
+        }
+        if (midBits + sideBits < best) {
+            mode = CHANNELS_MID_SIDE;
+        }
+        return mode;
+    }
+
+    // Cheap size estimate from the second-order fixed predictor residual,
+    // capped at the cost of a verbatim subframe
+    private long estimateBits(int[] x, int offset, int blockSize, int bps) {
+        long verbatim = (long) blockSize * bps;
+        if (blockSize < 3) {
+            return verbatim;
+        }
+        long sum = 0;
+        for (int i = offset + 2; i < offset + blockSize; i++) {
+            sum += Math.abs((long) x[i] - 2L * x[i - 1] + x[i - 2]);
+        }
+        int n = blockSize - 2;
+        double mean = Math.max(1.0, (double) sum / n);
+        long estimate = (long) (n * (Math.log(mean * Math.log(2)) / Math.log(2) + 2));
+        return Math.min(verbatim, estimate);
+    }
+
+    private void writeSubframe(FlacBitWriter out, int[] x, int offset, int blockSize, int bps) {
+        analyse(x, offset, blockSize, bps);
+
+        switch (chosenType) {
+            case SUBFRAME_CONSTANT:
+                out.writeBits(SUBFRAME_CONSTANT << 1, 8);
+                out.writeSigned(x[offset], bps);
+                break;
+            case SUBFRAME_VERBATIM:
+                out.writeBits(SUBFRAME_VERBATIM << 1, 8);
+                for (int i = 0; i < blockSize; i++) {
+                    out.writeSigned(x[offset + i], bps);
+                }
+                break;
+            case SUBFRAME_FIXED:
+                out.writeBits((SUBFRAME_FIXED | chosenOrder) << 1, 8);
+                for (int i = 0; i < chosenOrder; i++) {
+                    out.writeSigned(x[offset + i], bps);
+                }
+                writeResidual(out, blockSize);
+                break;
+            default:
+                out.writeBits((SUBFRAME_LPC | (chosenOrder - 1)) << 1, 8);
+                for (int i = 0; i < chosenOrder; i++) {
+                    out.writeSigned(x[offset + i], bps);
+                }
+                out.writeBits(LPC_PRECISION - 1, 4);
+                out.writeSigned(chosenShift, 5);
+                for (int i = 0; i < chosenOrder; i++) {
+                    out.writeSigned(bestQuantized[i], LPC_PRECISION);
+                }
+                writeResidual(out, blockSize);
+                break;
+        }
+    }
+
+    private void writeResidual(FlacBitWriter out, int blockSize) {
+        out.writeBits(0, 2); // Rice coding with 4-bit parameters
+        out.writeBits(chosenPartitionOrder, 4);
+        int partitions = 1 << chosenPartitionOrder;
+        int partitionSize = blockSize >> chosenPartitionOrder;
+        int sample = chosenOrder;
+        for (int p = 0; p < partitions; p++) {
+            int parameter = bestRiceParameters[p];
+            out.writeBits(parameter, 4);
+            int end = (p + 1) * partitionSize;
+            for (; sample < end; sample++) {
+                out.writeRice(bestResidual[sample], parameter);
+            }
+        }
+    }
+
+    /**
+     * Chooses the subframe type for one channel. The winning residual and
+     * Rice parameters are left in {@code bestResidual} and
+     * {@code bestRiceParameters}.
+     */
+    private void analyse(int[] x, int offset, int blockSize, int bps) {
+        boolean constant = true;
+        int first = x[offset];
+        for (int i = 1; i < blockSize; i++) {
+            if (x[offset + i] != first) {
+                constant = false;
+                break;
+            }
+        }
+        if (constant) {
+            chosenType = SUBFRAME_CONSTANT;
+            chosenBits = 8 + bps;
+            return;
+        }
+
+        chosenType = SUBFRAME_VERBATIM;
+        chosenBits = 8 + (long) blockSize * bps;
+
+        for (int order = 0; order <= MAX_FIXED_ORDER && order < blockSize; order++) {
+            computeFixedResidual(x, offset, blockSize, order);
+            long bits = 8 + (long) order * bps + residualBits(blockSize, order);
+            if (bits < chosenBits) {
+                keepCandidate(SUBFRAME_FIXED, order, 0, bits);
+            }
+        }
+
+        int maxOrder = Math.min(MAX_LPC_ORDER, blockSize - 1);
+        int computed = computeLpc(x, offset, blockSize, maxOrder);
+        if (computed > 0) {
+            // Try the order the prediction error favours, and the highest one
+            int estimated = estimateLpcOrder(blockSize, computed, bps);
+            tryLpc(x, offset, blockSize, bps, estimated);
+            if (computed != estimated) {
+                tryLpc(x, offset, blockSize, bps, computed);
+            }
+        }
+    }
+
+    private void keepCandidate(int type, int order, int shift, long bits) {
+        chosenType = type;
+        chosenOrder = order;
+        chosenShift = shift;
+        chosenBits = bits;
+        chosenPartitionOrder = candidatePartitionOrder;
+        int[] swap = bestResidual;
+        bestResidual = residual;
+        residual = swap;
+        System.arraycopy(riceParameters, 0, bestRiceParameters, 0, 1 << chosenPartitionOrder);
+        if (type == SUBFRAME_LPC) {
+            System.arraycopy(quantized, 0, bestQuantized, 0, order);
+        }
+    }
+
+    private void computeFixedResidual(int[] x, int offset, int blockSize, int order) {
+        int[] r = residual;
+        for (int i = order; i < blockSize; i++) {
+            int j = offset + i;
+            switch (order) {
+                case 0:
+                    r[i] = x[j];
+                    break;
+                case 1:
+                    r[i] = x[j] - x[j - 1];
+                    break;
+                case 2:
+                    r[i] = x[j] - 2 * x[j - 1] + x[j - 2];
+                    break;
+                case 3:
+                    r[i] = x[j] - 3 * x[j - 1] + 3 * x[j - 2] - x[j - 3];
+                    break;
+                default:
+                    r[i] = x[j] - 4 * x[j - 1] + 6 * x[j - 2] - 4 * x[j - 3] + x[j - 4];
+                    break;
+            }
+        }
+    }
+
+    private void tryLpc(int[] x, int offset, int blockSize, int bps, int order) {
+        int shift = quantizeCoefficients(lpcCoefficients[order - 1], order);
+        if (shift < 0) {
+            return;
+        }
+        int[] r = residual;
+        int[] q = quantized;
+        for (int i = order; i < blockSize; i++) {
+            long prediction = 0;
+            int j = offset + i;
+            for (int k = 0; k < order; k++) {
+                prediction += (long) q[k] * x[j - 1 - k];
+            }
+            long value = x[j] - (prediction >> shift);
+            if (value >= MAX_RESIDUAL || value <= -MAX_RESIDUAL) {
+                return;
+            }
+            r[i] = (int) value;
+        }
+        long bits = 8 + (long) order * bps + 4 + 5 + (long) order * LPC_PRECISION
+                + residualBits(blockSize, order);
+        if (bits < chosenBits) {
+            keepCandidate(SUBFRAME_LPC, order, shift, bits);
+        }
+    }
+
+    /**
+     * Windows the block (Tukey, 50% taper), computes its autocorrelation and
+     * runs Levinson-Durbin. Returns the highest order that was solved.
+     */
+    private int computeLpc(int[] x, int offset, int blockSize, int maxOrder) {
+        for (int i = 0; i < blockSize; i++) {
+            windowed[i] = x[offset + i] * window[i];
+        }
+        for (int lag = 0; lag <= maxOrder; lag++) {
+            double sum = 0;
+            for (int i = lag; i < blockSize; i++) {
+                sum += windowed[i] * windowed[i - lag];
+            }
+            autocorrelation[lag] = sum;
+        }
+        if (autocorrelation[0] <= 0) {
+            return 0;
+        }
+
+        double error = autocorrelation[0];
+        double[] previous = levinsonTemp;
+        for (int i = 0; i < maxOrder; i++) {
+            double acc = autocorrelation[i + 1];
+            for (int j = 0; j < i; j++) {
+                acc -= previous[j] * autocorrelation[i - j];
+            }
+            double reflection = acc / error;
+            double[] current = lpcCoefficients[i];
+            for (int j = 0; j < i; j++) {
+                current[j] = previous[j] - reflection * previous[i - 1 - j];
+            }
+            current[i] = reflection;
+            System.arraycopy(current, 0, previous, 0, i + 1);
+            error *= 1 - reflection * reflection;
+            lpcErrors[i] = error;
+            if (error <= 0) {
+                return i + 1;
+            }
+        }
+        return maxOrder;
+    }
+
+    // Order with the smallest estimated residual plus coefficient cost
+    private int estimateLpcOrder(int blockSize, int maxOrder, int bps) {
+        int bestOrder = 1;
+        double bestBits = Double.MAX_VALUE;
+        double scale = 0.5 / Math.log(2);
+        for (int order = 1; order <= maxOrder; order++) {
+            double error = lpcErrors[order - 1];
+            int n = blockSize - order;
+            double bitsPerSample = error > 0 ? Math.max(0, scale * Math.log(error / blockSize)) : 0;
+            double bits = n * bitsPerSample + order * (double) (bps + LPC_PRECISION);
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestOrder = order;
+            }
+        }
+        return bestOrder;
+    }
+
+    /**
+     * Quantizes coefficients to {@link #LPC_PRECISION} bits with error
+     * feedback. Returns the shift, or -1 if the coefficients cannot be
+     * represented.
+     */
+    private int quantizeCoefficients(double[] coefficients, int order) {
+        double max = 0;
+        for (int i = 0; i < order; i++) {
+            max = Math.max(max, Math.abs(coefficients[i]));
+        }
+        if (max <= 0 || Double.isNaN(max) || Double.isInfinite(max)) {
+            return -1;
+        }
+        int qMax = (1 << (LPC_PRECISION - 1)) - 1;
+        int qMin = -(1 << (LPC_PRECISION - 1));
+        int shift = LPC_PRECISION - 2 - Math.getExponent(max);
+        shift = Math.min(15, Math.max(0, shift));
+
+        double error = 0;
+        for (int i = 0; i < order; i++) {
+            error += coefficients[i] * (1 << shift);
+            long q = Math.round(error);
+            q = Math.max(qMin, Math.min(qMax, q));
+            quantized[i] = (int) q;
+            error -= q;
+        }
+        return shift;
+    }
+
+    /**
+     * Size in bits of the residual section for the samples after the
+     * predictor's warm-up, using the best partition order. Fills
+     * {@code riceParameters} and {@code chosenPartitionOrder} as a side effect.
+     */
+    private long residualBits(int blockSize, int predictorOrder) {
+        int maxOrder = 0;
+        while (maxOrder < MAX_PARTITION_ORDER
+                && (blockSize & ((1 << (maxOrder + 1)) - 1)) == 0
+                && (blockSize >> (maxOrder + 1)) > predictorOrder) {
+            maxOrder++;
+        }
+
+        // Sums of the folded residuals, finest partitioning first; coarser
+        // levels are built by adding neighbouring pairs
+        int[] r = residual;
+        int finest = 1 << maxOrder;
+        int partitionSize = blockSize >> maxOrder;
+        int levelStart = 0;
+        int sample = predictorOrder;
+        for (int p = 0; p < finest; p++) {
+            long sum = 0;
+            int end = (p + 1) * partitionSize;
+            for (; sample < end; sample++) {
+                int v = r[sample];
+                sum += (v << 1) ^ (v >> 31);
+            }
+            partitionSums[levelStart + finest - 1 + p] = sum;
+        }
+        for (int order = maxOrder - 1; order >= 0; order--) {
+            int base = levelStart + (1 << order) - 1;
+            int childBase = levelStart + (1 << (order + 1)) - 1;
+            for (int p = 0; p < (1 << order); p++) {
+                partitionSums[base + p] = partitionSums[childBase + 2 * p] + partitionSums[childBase + 2 * p + 1];
+            }
+        }
+
+        long bestBits = Long.MAX_VALUE;
+        int bestOrder = 0;
+        for (int order = 0; order <= maxOrder; order++) {
+            int partitions = 1 << order;
+            int size = blockSize >> order;
+            int base = levelStart + partitions - 1;
+            long bits = 6;
+            for (int p = 0; p < partitions; p++) {
+                int n = p == 0 ? size - predictorOrder : size;
+                bits += 4 + riceBits(partitionSums[base + p], n);
+            }
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestOrder = order;
+            }
+        }
+
+        int partitions = 1 << bestOrder;
+        int size = blockSize >> bestOrder;
+        int base = levelStart + partitions - 1;
+        for (int p = 0; p < partitions; p++) {
+            int n = p == 0 ? size - predictorOrder : size;
+            riceParameters[p] = riceParameter(partitionSums[base + p], n);
+        }
+        candidatePartitionOrder = bestOrder;
+        return bestBits;
+    }
+
+    private static int riceParameter(long sum, int n) {
+        if (n <= 0 || sum <= n) {
+            return 0;
+        }
+        int parameter = 63 - Long.numberOfLeadingZeros(sum / n);
+        return Math.min(MAX_RICE_PARAMETER, parameter);
+    }
+
+    private static long riceBits(long sum, int n) {
+        int parameter = riceParameter(sum, n);
+        return (long) n * (parameter + 1) + (sum >> parameter);
+    }
+
+    private void prepareWindow(int blockSize) {
+        if (blockSize == windowSize) {
+            return;
+        }
+        windowSize = blockSize;
+        // Tukey(0.5): flat middle half, raised-cosine tapers at both ends
+        int taper = blockSize / 4;
+        for (int i = 0; i < blockSize; i++) {
+            window[i] = 1.0;
+        }
+        if (taper > 1) {
+            for (int i = 0; i < taper; i++) {
+                double w = 0.5 - 0.5 * Math.cos(Math.PI * i / taper);
+                window[i] = w;
+                window[blockSize - 1 - i] = w;
+            }
+        }
+    }
+
+    private static int blockSizeCode(int blockSize) {
+        switch (blockSize) {
+            case 192: return 1;
+            case 576: return 2;
+            case 1152: return 3;
+            case 2304: return 4;
+            case 4608: return 5;
+            case 256: return 8;
+            case 512: return 9;
+            case 1024: return 10;
+            case 2048: return 11;
+            case 4096: return 12;
+            case 8192: return 13;
+            case 16384: return 14;
+            case 32768: return 15;
+            default: return 7; // 16-bit size after the frame number
+        }
+    }
+
+    // Sample rates the header can name directly; anything else is read from STREAMINFO
+    static int sampleRateCode(int sampleRate) {
+        switch (sampleRate) {
+            case 88200: return 1;
+            case 176400: return 2;
+            case 192000: return 3;
+            case 8000: return 4;
+            case 16000: return 5;
+            case 22050: return 6;
+            case 24000: return 7;
+            case 32000: return 8;
+            case 44100: return 9;
+            case 48000: return 10;
+            case 96000: return 11;
+            default: return 0;
+        }
+    }
+}
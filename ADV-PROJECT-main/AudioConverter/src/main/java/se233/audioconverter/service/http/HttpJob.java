@@ -0,0 +1,143 @@
+package se233.audioconverter.service.http;
+
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.ConversionSettings;
+
+import java.nio.file.Path;
+
+/**
+ * One conversion submitted over HTTP. State changes bump {@link #version}
+ * and wake up status streams waiting in {@link #awaitChange(long, long)}.
+ */
+class HttpJob {
+    private final String id;
+    private final AudioFile audioFile;
+    private final ConversionSettings settings;
+    private final Path outputDirectory;
+    // Upload scratch directory, deleted with the job; null for path jobs
+    private final Path workDirectory;
+    private final long submittedMillis = System.currentTimeMillis();
+
+    private AudioFile.ConversionStatus status = AudioFile.ConversionStatus.PENDING;
+    private long startedMillis;
+    private long finishedMillis;
+    private double progressSeconds;
+    private Path outputFile;
+    private String error;
+    private long version;
+
+    HttpJob(String id, AudioFile audioFile, ConversionSettings settings, Path outputDirectory, Path workDirectory) {
+        this.id = id;
+        this.audioFile = audioFile;
+        this.settings = settings;
+        this.outputDirectory = outputDirectory;
+        this.workDirectory = workDirectory;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    AudioFile getAudioFile() {
+        return audioFile;
+    }
+
+    ConversionSettings getSettings() {
+        return settings;
+    }
+
+    Path getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    Path getWorkDirectory() {
+        return workDirectory;
+    }
+
+    synchronized AudioFile.ConversionStatus getStatus() {
+        return status;
+    }
+
+    synchronized Path getOutputFile() {
+        return outputFile;
+    }
+
+    synchronized long getFinishedMillis() {
+        return finishedMillis;
+    }
+
+    synchronized void started() {
+        status = AudioFile.ConversionStatus.PROCESSING;
+        startedMillis = System.currentTimeMillis();
+        changed();
+    }
+
+    synchronized void progress(double seconds) {
+        progressSeconds = seconds;
+        changed();
+    }
+
+    synchronized void completed(Path outputFile) {
+        this.outputFile = outputFile;
+        status = AudioFile.ConversionStatus.COMPLETED;
+        finishedMillis = System.currentTimeMillis();
+        changed();
+    }
+
+    synchronized void failed(String error) {
+        this.error = error;
+        status = AudioFile.ConversionStatus.FAILED;
+        finishedMillis = System.currentTimeMillis();
+        changed();
+    }
+
+    synchronized boolean isFinished() {
+        return status == AudioFile.ConversionStatus.COMPLETED || status == AudioFile.ConversionStatus.FAILED;
+    }
+
+    /**
+     * Blocks until the job changes past {@code seenVersion} or the timeout
+     * passes, and returns the current version.
+     */
+    synchronized long awaitChange(long seenVersion, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (version == seenVersion && !isFinished()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            wait(remaining);
+        }
+        return version;
+    }
+
+    synchronized Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        snapshot.id = id;
+        snapshot.file = audioFile.getName();
+        snapshot.status = status.name();
+        snapshot.progressSeconds = progressSeconds;
+        snapshot.durationSeconds = audioFile.getSourceInfo() != null ? audioFile.getSourceInfo().getDuration() : 0;
+        snapshot.queueWaitMillis = (startedMillis > 0 ? startedMillis : System.currentTimeMillis()) - submittedMillis;
+        snapshot.output = outputFile != null ? outputFile.getFileName().toString() : null;
+        snapshot.error = error;
+        return snapshot;
+    }
+
+    private void changed() {
+        version++;
+        notifyAll();
+    }
+
+    // JSON view of the job returned by the status endpoints
+    static class Snapshot {
+        String id;
+        String file;
+        String status;
+        double progressSeconds;
+        double durationSeconds;
+        long queueWaitMillis;
+        String output;
+        String error;
+    }
+}
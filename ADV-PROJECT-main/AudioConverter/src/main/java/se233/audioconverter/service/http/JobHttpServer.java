@@ -0,0 +1,421 @@
+package se233.audioconverter.service.http;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import se233.audioconverter.exception.AudioConversionException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.model.EncodeOptions;
+import se233.audioconverter.service.AppDataDirectory;
+import se233.audioconverter.service.ConfigProperties;
+import se233.audioconverter.service.Directories;
+import se233.audioconverter.service.FFmpegService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless HTTP front end for submitting conversions from other tools.
+ *
+ * <pre>
+ * POST /jobs?path=/abs/in.wav[&amp;output=/abs/dir]   body: ConversionSettings JSON
+ * POST /jobs?name=in.wav[&amp;settings=&lt;url-encoded JSON&gt;] body: the audio file
+ * GET  /jobs/{id}          status JSON
+ * GET  /jobs/{id}/events   one status JSON line per change until the job ends
+ * GET  /jobs/{id}/result   the converted file
+ * </pre>
+ *
+ * Admission goes through a fixed-size queue in front of the conversion
+ * workers. When it is full the server answers 429 with Retry-After before
+ * reading any upload, so load turns into backpressure on the clients
+ * instead of memory or disk growth here. Uploads are streamed straight to
+ * disk, up to {@code audioconverter.http.maxUploadMB} (default 2048).
+ * Event streams run on their own threads, at most one per job the queue
+ * can hold, so they never take the request handlers. Finished jobs are
+ * kept for {@link #RETENTION_MILLIS} so the result can be fetched.
+ */
+public class JobHttpServer {
+    private static final long RETENTION_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long EVENT_KEEPALIVE_MILLIS = 15_000;
+    private static final int HANDLER_THREADS = 16;
+
+    private final FFmpegService ffmpegService;
+    private final HttpServer server;
+    private final ThreadPoolExecutor conversions;
+    private final ExecutorService handlers;
+    private final ThreadPoolExecutor eventStreams;
+    private final long maxUploadBytes;
+    private final Path jobsDirectory;
+    private final Map<String, HttpJob> jobs = new ConcurrentHashMap<>();
+    private final Gson gson = new Gson();
+
+    public JobHttpServer(FFmpegService ffmpegService, InetSocketAddress address,
+                         int workers, int queueCapacity) throws IOException {
+        this.ffmpegService = ffmpegService;
+        this.jobsDirectory = AppDataDirectory.resolveDirectory("http-jobs");
+        // AbortPolicy: a full queue rejects instead of blocking or growing
+        this.conversions = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new ThreadPoolExecutor.AbortPolicy());
+        this.handlers = Executors.newFixedThreadPool(HANDLER_THREADS);
+        // No queue: a stream either gets a thread now or is refused
+        int maxStreams = workers + queueCapacity;
+        this.eventStreams = new ThreadPoolExecutor(0, maxStreams, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), new ThreadPoolExecutor.AbortPolicy());
+        this.maxUploadBytes = (long) (ConfigProperties.getDouble("audioconverter.http.maxUploadMB", 2048) * 1024 * 1024);
+        this.server = HttpServer.create(address, 0);
+        this.server.createContext("/jobs", this::handle);
+        this.server.setExecutor(handlers);
+    }
+
+    /**
+     * Usage: {@code JobHttpServer [port] [workers] [queue-capacity]}. Binds to
+     * the loopback interface only.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8085;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int capacity = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        JobHttpServer server = new JobHttpServer(new FFmpegService(),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), workers, capacity);
+        server.start();
+        System.out.println("Job service listening on http://localhost:" + server.getPort() + "/jobs");
+    }
+
+    public void start() {
+        server.start();
+        Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "http-job-cleanup");
+            thread.setDaemon(true);
+            return thread;
+        }).scheduleWithFixedDelay(this::expireJobs, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public void stop() {
+        server.stop(0);
+        conversions.shutdownNow();
+        handlers.shutdownNow();
+        eventStreams.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        boolean streaming = false;
+        try {
+            String[] parts = exchange.getRequestURI().getPath().replaceAll("/+$", "").split("/");
+            String method = exchange.getRequestMethod();
+            // parts: "", "jobs", id, action
+            if (parts.length == 2 && "POST".equals(method)) {
+                submit(exchange);
+            } else if (parts.length == 3 && "GET".equals(method)) {
+                status(exchange, parts[2]);
+            } else if (parts.length == 4 && "GET".equals(method) && "events".equals(parts[3])) {
+                streaming = events(exchange, parts[2]);
+            } else if (parts.length == 4 && "GET".equals(method) && "result".equals(parts[3])) {
+                result(exchange, parts[2]);
+            } else {
+                sendError(exchange, 404, "Unknown endpoint");
+            }
+        } catch (RuntimeException e) {
+            sendError(exchange, 500, e.getMessage());
+        } finally {
+            // An event stream closes its exchange when it ends
+            if (!streaming) {
+                exchange.close();
+            }
+        }
+    }
+
+    private void submit(HttpExchange exchange) throws IOException {
+        // Refuse before touching the body so a full server never buffers uploads
+        if (conversions.getQueue().remainingCapacity() == 0) {
+            rejectBusy(exchange);
+            return;
+        }
+
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        String id = UUID.randomUUID().toString();
+        ConversionSettings settings;
+        AudioFile audioFile;
+        Path outputDirectory;
+        Path workDirectory = null;
+
+        try {
+            if (query.containsKey("path")) {
+                try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+                    settings = parseSettings(reader);
+                }
+                audioFile = new AudioFile(query.get("path"));
+                outputDirectory = query.containsKey("output")
+                        ? Paths.get(query.get("output"))
+                        : Files.createDirectories(jobsDirectory.resolve(id));
+            } else if (query.containsKey("name")) {
+                settings = query.containsKey("settings")
+                        ? gson.fromJson(query.get("settings"), ConversionSettings.class)
+                        : new ConversionSettings();
+                if (settings == null) {
+                    settings = new ConversionSettings();
+                }
+                // Refuse before touching the body when the client says how big it is
+                String length = exchange.getRequestHeaders().getFirst("Content-Length");
+                if (length != null && parseLength(length) > maxUploadBytes) {
+                    sendError(exchange, 413, "Upload larger than " + maxUploadBytes + " bytes");
+                    return;
+                }
+                workDirectory = Files.createDirectories(jobsDirectory.resolve(id));
+                // Only the last path element is used, so uploads cannot escape the job directory
+                Path input = workDirectory.resolve(Paths.get(query.get("name")).getFileName().toString());
+                if (!receiveUpload(exchange.getRequestBody(), input)) {
+                    Directories.deleteRecursively(workDirectory);
+                    sendError(exchange, 413, "Upload larger than " + maxUploadBytes + " bytes");
+                    return;
+                }
+                audioFile = new AudioFile(input.toString());
+                outputDirectory = Files.createDirectories(workDirectory.resolve("out"));
+            } else {
+                sendError(exchange, 400, "Either path or name is required");
+                return;
+            }
+            ffmpegService.validateAudioFile(audioFile);
+        } catch (JsonParseException e) {
+            Directories.deleteRecursively(jobsDirectory.resolve(id));
+            sendError(exchange, 400, "Invalid settings: " + e.getMessage());
+            return;
+        } catch (AudioConversionException e) {
+            Directories.deleteRecursively(jobsDirectory.resolve(id));
+            sendError(exchange, 400, e.getMessage());
+            return;
+        } catch (IOException e) {
+            // Usually the client went away mid-upload; nothing is left behind
+            Directories.deleteRecursively(jobsDirectory.resolve(id));
+            throw e;
+        }
+
+        HttpJob job = new HttpJob(id, audioFile, settings, outputDirectory, workDirectory);
+        jobs.put(id, job);
+        try {
+            conversions.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            // The queue filled up while the upload was streaming in
+            jobs.remove(id);
+            Directories.deleteRecursively(jobsDirectory.resolve(id));
+            rejectBusy(exchange);
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Location", "/jobs/" + id);
+        sendJson(exchange, 202, job.snapshot());
+    }
+
+    private void run(HttpJob job) {
+        job.started();
+        try {
+            ffmpegService.probeSourceInfo(job.getAudioFile());
+            ffmpegService.convertAudio(job.getAudioFile(), job.getSettings(),
+                    job.getOutputDirectory().toString(), new EncodeOptions(),
+                    progress -> job.progress(progress.out_time_ns / 1_000_000_000.0));
+            job.completed(Paths.get(ffmpegService.buildOutputFilename(
+                    job.getAudioFile(), job.getSettings(), job.getOutputDirectory().toString())));
+        } catch (AudioConversionException e) {
+            job.failed(e.getMessage());
+        } catch (Throwable e) {
+            // Anything else would leave the job running forever for its clients
+            job.failed(e.toString());
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+        }
+    }
+
+    private void status(HttpExchange exchange, String id) throws IOException {
+        HttpJob job = jobs.get(id);
+        if (job == null) {
+            sendError(exchange, 404, "No such job");
+            return;
+        }
+        sendJson(exchange, 200, job.snapshot());
+    }
+
+    /**
+     * Newline-delimited JSON, one line per state change, closed when the job
+     * ends. Returns true if the stream was handed to an event-stream thread,
+     * which then owns the exchange.
+     */
+    private boolean events(HttpExchange exchange, String id) throws IOException {
+        HttpJob job = jobs.get(id);
+        if (job == null) {
+            sendError(exchange, 404, "No such job");
+            return false;
+        }
+        try {
+            eventStreams.execute(() -> streamEvents(exchange, job));
+            return true;
+        } catch (RejectedExecutionException e) {
+            exchange.getResponseHeaders().set("Retry-After", "5");
+            sendError(exchange, 503, "Too many event streams; poll /jobs/" + id + " instead");
+            return false;
+        }
+    }
+
+    private void streamEvents(HttpExchange exchange, HttpJob job) {
+        try (OutputStream body = exchange.getResponseBody()) {
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            exchange.sendResponseHeaders(200, 0);
+            long seen = -1;
+            while (true) {
+                long version = job.awaitChange(seen, EVENT_KEEPALIVE_MILLIS);
+                boolean finished = job.isFinished();
+                if (version != seen || finished) {
+                    body.write((gson.toJson(job.snapshot()) + "\n").getBytes(StandardCharsets.UTF_8));
+                    body.flush();
+                    seen = version;
+                }
+                if (finished) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // The client disconnected
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void result(HttpExchange exchange, String id) throws IOException {
+        HttpJob job = jobs.get(id);
+        if (job == null) {
+            sendError(exchange, 404, "No such job");
+            return;
+        }
+        Path output = job.getOutputFile();
+        if (job.getStatus() != AudioFile.ConversionStatus.COMPLETED || output == null || !Files.exists(output)) {
+            sendError(exchange, 409, "Job " + job.getStatus().name().toLowerCase() + ", no result");
+            return;
+        }
+
+        try (FileChannel file = FileChannel.open(output, StandardOpenOption.READ)) {
+            long size = file.size();
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.getResponseHeaders().set("Content-Disposition",
+                    "attachment; filename=\"" + output.getFileName() + "\"");
+            exchange.sendResponseHeaders(200, size);
+            // transferTo hands the copy to the JDK instead of a read/write loop here
+            try (WritableByteChannel body = Channels.newChannel(exchange.getResponseBody())) {
+                long position = 0;
+                while (position < size) {
+                    position += file.transferTo(position, size - position, body);
+                }
+            }
+        }
+    }
+
+    // False if the body is larger than the upload limit; the file is then incomplete
+    private boolean receiveUpload(InputStream body, Path target) throws IOException {
+        try (ReadableByteChannel source = Channels.newChannel(body);
+             FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            long transferred;
+            // One byte past the limit is enough to tell the body is too large
+            while (position <= maxUploadBytes
+                    && (transferred = file.transferFrom(source, position, maxUploadBytes + 1 - position)) > 0) {
+                position += transferred;
+            }
+            return position <= maxUploadBytes;
+        }
+    }
+
+    private static long parseLength(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private ConversionSettings parseSettings(Reader reader) {
+        ConversionSettings settings = gson.fromJson(reader, ConversionSettings.class);
+        return settings != null ? settings : new ConversionSettings();
+    }
+
+    private void rejectBusy(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Retry-After", "5");
+        sendError(exchange, 429, "Queue full (" + conversions.getQueue().size() + " jobs waiting)");
+    }
+
+    private void sendError(HttpExchange exchange, int code, String message) throws IOException {
+        Map<String, String> error = new HashMap<>();
+        error.put("error", message);
+        sendJson(exchange, code, error);
+    }
+
+    private void sendJson(HttpExchange exchange, int code, Object value) throws IOException {
+        byte[] body = gson.toJson(value).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // Drops finished jobs, and their upload and output files, after the retention period
+    private void expireJobs() {
+        long cutoff = System.currentTimeMillis() - RETENTION_MILLIS;
+        jobs.values().removeIf(job -> {
+            if (!job.isFinished() || job.getFinishedMillis() > cutoff) {
+                return false;
+            }
+            Directories.deleteRecursively(job.getWorkDirectory());
+            if (job.getOutputDirectory().startsWith(jobsDirectory)) {
+                Directories.deleteRecursively(job.getOutputDirectory());
+            }
+            return true;
+        });
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            query.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+}
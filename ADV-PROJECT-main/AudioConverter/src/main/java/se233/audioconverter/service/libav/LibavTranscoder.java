@@ -0,0 +1,611 @@
+package se233.audioconverter.service.libav;
+
+import se233.audioconverter.exception.AudioConversionException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.AudioSourceInfo;
+import se233.audioconverter.model.AudioStats;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.model.EncodeOptions;
+import se233.audioconverter.model.EncoderTuning;
+import se233.audioconverter.service.FFmpegService;
+import se233.audioconverter.service.ProcessRegistry;
+import se233.audioconverter.service.SourceAwareSettings;
+import se233.audioconverter.service.Transcoder;
+import net.bramp.ffmpeg.progress.Progress;
+import net.bramp.ffmpeg.progress.ProgressListener;
+import org.bytedeco.ffmpeg.avcodec.AVCodec;
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVCodecParameters;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avfilter.AVFilterContext;
+import org.bytedeco.ffmpeg.avfilter.AVFilterGraph;
+import org.bytedeco.ffmpeg.avfilter.AVFilterInOut;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avformat.AVIOContext;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.avutil.AVChannelLayout;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.ffmpeg.global.avfilter;
+import org.bytedeco.ffmpeg.global.avformat;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.PointerPointer;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.bytedeco.ffmpeg.global.avcodec.*;
+import static org.bytedeco.ffmpeg.global.avfilter.*;
+import static org.bytedeco.ffmpeg.global.avformat.*;
+import static org.bytedeco.ffmpeg.global.avutil.*;
+
+/**
+ * Converts files inside the JVM through the libav libraries instead of
+ * starting an FFmpeg process per file. Demuxing, decoding, the filter chain
+ * (loudness gain, resampling, sample format) and encoding run on the job's
+ * thread, and the audio stays in native buffers from input to output, so
+ * short files no longer pay for a process start, pipes and progress parsing.
+ *
+ * Only whole-file encodes run here. Statistics, clip ranges and stream
+ * copies go to the fallback transcoder, which also names and cleans up the
+ * outputs. Selected with {@code audioconverter.transcoder=libav}; the native
+ * libraries come with the {@code libav} build profile, and without them
+ * {@link #createOrFallback} keeps the FFmpeg process transcoder.
+ */
+public class LibavTranscoder implements Transcoder {
+    // Same period as FFmpeg's -progress output
+    private static final long PROGRESS_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private static boolean loadAttempted;
+    private static String loadError;
+
+    private final Transcoder fallback;
+    private final ProcessRegistry processRegistry;
+
+    public LibavTranscoder(Transcoder fallback, ProcessRegistry processRegistry) {
+        this.fallback = fallback;
+        this.processRegistry = processRegistry;
+    }
+
+    /**
+     * Loads the native libraries on the first call. Returns null when they
+     * are usable, otherwise the reason they are not.
+     */
+    public static synchronized String loadNativeLibraries() {
+        if (!loadAttempted) {
+            loadAttempted = true;
+            try {
+                Loader.load(avformat.class);
+                Loader.load(avfilter.class);
+                // Errors only, like the -v error of the FFmpeg processes
+                av_log_set_level(AV_LOG_ERROR);
+            } catch (LinkageError | RuntimeException e) {
+                loadError = e.toString();
+            }
+        }
+        return loadError;
+    }
+
+    public static boolean isAvailable() {
+        return loadNativeLibraries() == null;
+    }
+
+    // The in-process transcoder, or ffmpegService itself when the natives are missing
+    public static Transcoder createOrFallback(FFmpegService ffmpegService) {
+        String error = loadNativeLibraries();
+        if (error != null) {
+            System.err.println("libav libraries not available, converting with FFmpeg processes: " + error);
+            return ffmpegService;
+        }
+        return new LibavTranscoder(ffmpegService, ffmpegService.getProcessRegistry());
+    }
+
+    @Override
+    public String getName() {
+        return "libav";
+    }
+
+    // Statistics come from the fallback; grouping only saves process starts, which there are none of
+    @Override
+    public Capabilities getCapabilities() {
+        return new Capabilities(EnumSet.allOf(ConversionSettings.OutputFormat.class), true, false, true);
+    }
+
+    @Override
+    public AudioSourceInfo probeSourceInfo(AudioFile audioFile) throws AudioConversionException {
+        if (audioFile.getSourceInfo() != null) {
+            return audioFile.getSourceInfo();
+        }
+        checkExists(audioFile);
+        try (Pipeline pipeline = new Pipeline(audioFile)) {
+            pipeline.openInput();
+            AudioSourceInfo info = pipeline.probe();
+            audioFile.setSourceInfo(info);
+            return info;
+        }
+    }
+
+    @Override
+    public AudioStats convertAudio(AudioFile audioFile, ConversionSettings settings, String outputPath,
+                                   EncodeOptions options, ProgressListener listener)
+            throws AudioConversionException {
+        ConversionSettings resolved = SourceAwareSettings.resolve(audioFile, settings);
+        if (audioFile.hasClipRanges() || settings.isCollectStats()
+                || FFmpegService.canStreamCopy(audioFile, resolved)) {
+            return fallback.convertAudio(audioFile, settings, outputPath, options, listener);
+        }
+
+        checkCancelled(audioFile);
+        checkExists(audioFile);
+        String outputFilename = fallback.outputFilenames(audioFile, resolved, outputPath).get(0);
+        try (Pipeline pipeline = new Pipeline(audioFile)) {
+            pipeline.openInput();
+            pipeline.openDecoder(options.getThreads());
+            pipeline.openEncoder(outputFilename, resolved, options.getThreads());
+            pipeline.openFilters(filterChain(resolved, options));
+            pipeline.run(listener);
+        }
+        return null;
+    }
+
+    // Loudness gain, then resample to the encoder's rate; aformat is appended by the pipeline
+    private static String filterChain(ConversionSettings settings, EncodeOptions options) {
+        StringBuilder chain = new StringBuilder();
+        if (settings.isNormalizeLoudness() && options.getLoudness() != null) {
+            chain.append(options.getLoudness().toSecondPassFilter(settings.getLoudnessTarget())).append(',');
+        }
+        chain.append("aresample=").append(settings.getSampleRate().getRate());
+        EncoderTuning tuning = settings.getEncoderTuning();
+        if (tuning != null && tuning.getResampler() != null) {
+            chain.append(":resampler=").append(tuning.getResampler());
+        }
+        return chain.toString();
+    }
+
+    // Learned by the ThroughputModel like the FFmpeg process
+    @Override
+    public double estimateSeconds(AudioFile audioFile, ConversionSettings settings) {
+        return -1;
+    }
+
+    @Override
+    public List<String> outputFilenames(AudioFile audioFile, ConversionSettings settings, String outputPath) {
+        return fallback.outputFilenames(audioFile, settings, outputPath);
+    }
+
+    @Override
+    public void deletePartialOutputs(AudioFile audioFile, ConversionSettings settings, String outputPath,
+                                     long startedMillis) {
+        fallback.deletePartialOutputs(audioFile, settings, outputPath, startedMillis);
+    }
+
+    private void checkCancelled(AudioFile audioFile) throws AudioConversionException {
+        if (processRegistry.isCurrentCancelled()) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.CANCELLED,
+                    "Stopped on request"
+            );
+        }
+    }
+
+    private static void checkExists(AudioFile audioFile) throws AudioConversionException {
+        if (!new File(audioFile.getFilePath()).exists()) {
+            throw new AudioConversionException(
+                    audioFile.getName(),
+                    AudioConversionException.ErrorType.FILE_NOT_FOUND,
+                    "File does not exist"
+            );
+        }
+    }
+
+    /**
+     * The native state of one conversion: input, decoder, filter graph,
+     * encoder and output. Everything opened is freed by {@link #close()},
+     * also after a failure halfway through.
+     */
+    private final class Pipeline implements AutoCloseable {
+        private final AudioFile audioFile;
+        private AVFormatContext input;
+        private AVStream stream;
+        private AVCodecContext decoder;
+        private AVCodec encoderCodec;
+        private AVCodecContext encoder;
+        private AVFormatContext output;
+        private AVIOContext outputIo;
+        private AVStream outputStream;
+        // Read once: each by-value struct from JavaCPP is a native allocation
+        private AVRational encoderTimeBase;
+        private AVRational outputTimeBase;
+        private AVFilterGraph graph;
+        private AVFilterContext source;
+        private AVFilterContext sink;
+        private AVPacket packet;
+        private AVPacket encoded;
+        private AVFrame frame;
+        private AVFrame filtered;
+        private long nextPts; // in samples at the output rate
+
+        Pipeline(AudioFile audioFile) {
+            this.audioFile = audioFile;
+        }
+
+        void openInput() throws AudioConversionException {
+            input = new AVFormatContext(null);
+            check(avformat_open_input(input, audioFile.getFilePath(), null, null), "Could not open input");
+            check(avformat_find_stream_info(input, (PointerPointer<?>) null), "Could not read stream info");
+            int index = av_find_best_stream(input, AVMEDIA_TYPE_AUDIO, -1, -1, (AVCodec) null, 0);
+            if (index < 0) {
+                throw new AudioConversionException(
+                        audioFile.getName(),
+                        AudioConversionException.ErrorType.UNSUPPORTED_FORMAT,
+                        "No audio stream found"
+                );
+            }
+            stream = input.streams(index);
+        }
+
+        AudioSourceInfo probe() {
+            AVCodecParameters parameters = stream.codecpar();
+            double duration = input.duration() > 0 ? input.duration() / (double) AV_TIME_BASE : 0;
+            if (duration <= 0 && stream.duration() > 0) {
+                duration = stream.duration() * av_q2d(stream.time_base());
+            }
+            return new AudioSourceInfo(
+                    avcodec_get_name(parameters.codec_id()).getString(),
+                    parameters.sample_rate(),
+                    parameters.ch_layout().nb_channels(),
+                    parameters.bit_rate(),
+                    duration
+            );
+        }
+
+        void openDecoder(int threads) throws AudioConversionException {
+            AVCodec codec = avcodec_find_decoder(stream.codecpar().codec_id());
+            if (codec == null) {
+                throw new AudioConversionException(
+                        audioFile.getName(),
+                        AudioConversionException.ErrorType.UNSUPPORTED_FORMAT,
+                        "No decoder for " + avcodec_get_name(stream.codecpar().codec_id()).getString()
+                );
+            }
+            decoder = avcodec_alloc_context3(codec);
+            check(avcodec_parameters_to_context(decoder, stream.codecpar()), "Could not configure decoder");
+            decoder.pkt_timebase(stream.time_base());
+            if (threads > 0) {
+                decoder.thread_count(threads);
+            }
+            check(avcodec_open2(decoder, codec, (AVDictionary) null), "Could not open decoder");
+            // Video and other streams are dropped in the demuxer (-vn)
+            for (int i = 0; i < input.nb_streams(); i++) {
+                if (i != stream.index()) {
+                    input.streams(i).discard(AVDISCARD_ALL);
+                }
+            }
+        }
+
+        // The same codec, rate, channel and bitrate options FFmpegService passes on the command line
+        void openEncoder(String filename, ConversionSettings settings, int threads)
+                throws AudioConversionException {
+            ConversionSettings.OutputFormat format = settings.getOutputFormat();
+            encoderCodec = avcodec_find_encoder_by_name(format.getCodec());
+            if (encoderCodec == null) {
+                throw new AudioConversionException(
+                        audioFile.getName(),
+                        AudioConversionException.ErrorType.FFMPEG_ERROR,
+                        "Encoder " + format.getCodec() + " is not in this libav build"
+                );
+            }
+            output = new AVFormatContext(null);
+            check(avformat_alloc_output_context2(output, null, null, filename), "Could not choose a muxer");
+
+            encoder = avcodec_alloc_context3(encoderCodec);
+            int rate = settings.getSampleRate().getRate();
+            encoder.sample_rate(rate);
+            av_channel_layout_default(encoder.ch_layout(), settings.getChannels().getCount());
+            encoder.sample_fmt(chooseSampleFormat());
+            encoder.time_base(av_make_q(1, rate));
+            if (format.supportsBitrate()) {
+                if (format == ConversionSettings.OutputFormat.MP3
+                        && settings.getBitrateMode() == ConversionSettings.BitrateMode.VARIABLE) {
+                    // What -q:a sets
+                    encoder.flags(encoder.flags() | AV_CODEC_FLAG_QSCALE);
+                    encoder.global_quality(FF_QP2LAMBDA * settings.getVbrQuality());
+                } else {
+                    encoder.bit_rate(settings.getEffectiveBitrate() * 1000L);
+                }
+            }
+            if (threads > 0) {
+                encoder.thread_count(threads);
+            }
+            if ((output.oformat().flags() & AVFMT_GLOBALHEADER) != 0) {
+                encoder.flags(encoder.flags() | AV_CODEC_FLAG_GLOBAL_HEADER);
+            }
+
+            AVDictionary codecOptions = new AVDictionary(null);
+            try {
+                EncoderTuning tuning = settings.getEncoderTuning();
+                if (tuning != null && tuning.getCompressionLevel() >= 0
+                        && (format == ConversionSettings.OutputFormat.MP3
+                        || format == ConversionSettings.OutputFormat.FLAC)) {
+                    av_dict_set(codecOptions, "compression_level", String.valueOf(tuning.getCompressionLevel()), 0);
+                }
+                if (tuning != null && tuning.getAacCoder() != null && format == ConversionSettings.OutputFormat.M4A) {
+                    av_dict_set(codecOptions, "aac_coder", tuning.getAacCoder(), 0);
+                }
+                check(avcodec_open2(encoder, encoderCodec, codecOptions), "Could not open encoder");
+            } finally {
+                av_dict_free(codecOptions);
+            }
+
+            outputStream = avformat_new_stream(output, null);
+            check(avcodec_parameters_from_context(outputStream.codecpar(), encoder), "Could not configure muxer");
+            outputStream.time_base(encoder.time_base());
+            outputIo = new AVIOContext(null);
+            check(avio_open(outputIo, filename, AVIO_FLAG_WRITE), "Could not create " + filename);
+            output.pb(outputIo);
+            check(avformat_write_header(output, (AVDictionary) null), "Could not write header");
+            // The muxer may have chosen another time base
+            encoderTimeBase = encoder.time_base();
+            outputTimeBase = outputStream.time_base();
+        }
+
+        /**
+         * The narrowest format the encoder takes that is at least as wide as
+         * the source's samples (decoded float counts as 16-bit), as FFmpeg's
+         * format negotiation picks; otherwise the encoder's first.
+         */
+        private int chooseSampleFormat() {
+            int sourceBits = decoder.bits_per_raw_sample();
+            int sourceBytes = sourceBits > 0
+                    ? (sourceBits + 7) / 8
+                    : Math.min(2, av_get_bytes_per_sample(decoder.sample_fmt()));
+            IntPointer formats = encoderCodec.sample_fmts();
+            int chosen = formats.get(0);
+            int chosenBytes = Integer.MAX_VALUE;
+            for (int i = 0; formats.get(i) != AV_SAMPLE_FMT_NONE; i++) {
+                int bytes = av_get_bytes_per_sample(formats.get(i));
+                if (bytes >= sourceBytes && bytes < chosenBytes) {
+                    chosen = formats.get(i);
+                    chosenBytes = bytes;
+                }
+            }
+            // FLAC stores 32-bit samples as 24-bit, like FFmpeg does for 24-bit sources
+            if (chosen == AV_SAMPLE_FMT_S32 && encoderCodec.id() == AV_CODEC_ID_FLAC) {
+                encoder.bits_per_raw_sample(24);
+            }
+            return chosen;
+        }
+
+        // abuffer -> chain -> aformat (the encoder's input) -> abuffersink
+        void openFilters(String chain) throws AudioConversionException {
+            graph = avfilter_graph_alloc();
+            AVRational timeBase = stream.time_base();
+            String sourceArgs = String.format(Locale.ROOT,
+                    "time_base=%d/%d:sample_rate=%d:sample_fmt=%s:channel_layout=%s",
+                    timeBase.num(), timeBase.den(), decoder.sample_rate(),
+                    av_get_sample_fmt_name(decoder.sample_fmt()).getString(), sourceLayout());
+            source = new AVFilterContext(null);
+            check(avfilter_graph_create_filter(source, avfilter_get_by_name("abuffer"), "in", sourceArgs,
+                    null, graph), "Could not create filter input");
+            sink = new AVFilterContext(null);
+            check(avfilter_graph_create_filter(sink, avfilter_get_by_name("abuffersink"), "out", null,
+                    null, graph), "Could not create filter output");
+
+            String description = chain + String.format(Locale.ROOT,
+                    ",aformat=sample_fmts=%s:sample_rates=%d:channel_layouts=%s",
+                    av_get_sample_fmt_name(encoder.sample_fmt()).getString(), encoder.sample_rate(),
+                    describe(encoder.ch_layout()));
+            AVFilterInOut outputs = avfilter_inout_alloc();
+            AVFilterInOut inputs = avfilter_inout_alloc();
+            try {
+                outputs.name(av_strdup(new BytePointer("in"))).filter_ctx(source).pad_idx(0).next(null);
+                inputs.name(av_strdup(new BytePointer("out"))).filter_ctx(sink).pad_idx(0).next(null);
+                check(avfilter_graph_parse_ptr(graph, description, inputs, outputs, null),
+                        "Could not build filters " + description);
+                check(avfilter_graph_config(graph, null), "Could not configure filters");
+            } finally {
+                avfilter_inout_free(inputs);
+                avfilter_inout_free(outputs);
+            }
+            // Encoders with a fixed frame size (MP3, AAC) take exactly that many samples per frame
+            if ((encoderCodec.capabilities() & AV_CODEC_CAP_VARIABLE_FRAME_SIZE) == 0 && encoder.frame_size() > 0) {
+                av_buffersink_set_frame_size(sink, encoder.frame_size());
+            }
+        }
+
+        // Sources without a channel order (some WAVs) get FFmpeg's default layout for the count
+        private String sourceLayout() {
+            AVChannelLayout layout = decoder.ch_layout();
+            if (layout.order() != AV_CHANNEL_ORDER_UNSPEC) {
+                return describe(layout);
+            }
+            AVChannelLayout defaultLayout = new AVChannelLayout();
+            try {
+                av_channel_layout_default(defaultLayout, layout.nb_channels());
+                return describe(defaultLayout);
+            } finally {
+                defaultLayout.close();
+            }
+        }
+
+        void run(ProgressListener listener) throws AudioConversionException {
+            packet = av_packet_alloc();
+            encoded = av_packet_alloc();
+            frame = av_frame_alloc();
+            filtered = av_frame_alloc();
+            // Reused for every update, as in FFmpegService
+            Progress progress = new Progress();
+            long nextReport = System.nanoTime() + PROGRESS_NANOS;
+            double timeBase = av_q2d(stream.time_base());
+            long startPts = stream.start_time() != AV_NOPTS_VALUE ? stream.start_time() : 0;
+
+            int result;
+            while ((result = av_read_frame(input, packet)) >= 0) {
+                try {
+                    if (packet.stream_index() == stream.index()) {
+                        decode(packet);
+                        if (listener != null && packet.pts() != AV_NOPTS_VALUE && System.nanoTime() >= nextReport) {
+                            progress.out_time_ns = (long) (Math.max(0, packet.pts() - startPts) * timeBase * 1e9);
+                            listener.progress(progress);
+                            nextReport = System.nanoTime() + PROGRESS_NANOS;
+                        }
+                    }
+                } finally {
+                    av_packet_unref(packet);
+                }
+                checkCancelled(audioFile);
+            }
+            if (result != AVERROR_EOF) {
+                check(result, "Could not read input");
+            }
+
+            // Flush decoder, filters and encoder in turn
+            decode(null);
+            check(av_buffersrc_add_frame_flags(source, null, 0), "Could not flush filters");
+            drainFilters();
+            encode(null);
+            check(av_write_trailer(output), "Could not finish output");
+
+            if (listener != null) {
+                progress.out_time_ns = (long) (nextPts * 1e9 / encoder.sample_rate());
+                listener.progress(progress);
+            }
+        }
+
+        private void decode(AVPacket input) throws AudioConversionException {
+            int result = avcodec_send_packet(decoder, input);
+            if (result == AVERROR_INVALIDDATA) {
+                // A damaged packet is skipped, as the ffmpeg tool does
+                return;
+            }
+            check(result, "Could not decode");
+            while ((result = avcodec_receive_frame(decoder, frame)) >= 0) {
+                frame.pts(frame.best_effort_timestamp());
+                try {
+                    check(av_buffersrc_add_frame_flags(source, frame, 0), "Could not filter");
+                } finally {
+                    av_frame_unref(frame);
+                }
+                drainFilters();
+            }
+            checkDrained(result, "Could not decode");
+        }
+
+        // Output timestamps count samples, so gaps in the input timestamps do not reach the file
+        private void drainFilters() throws AudioConversionException {
+            int result;
+            while ((result = av_buffersink_get_frame(sink, filtered)) >= 0) {
+                filtered.pts(nextPts);
+                nextPts += filtered.nb_samples();
+                try {
+                    encode(filtered);
+                } finally {
+                    av_frame_unref(filtered);
+                }
+            }
+            checkDrained(result, "Could not filter");
+        }
+
+        private void encode(AVFrame input) throws AudioConversionException {
+            check(avcodec_send_frame(encoder, input), "Could not encode");
+            int result;
+            while ((result = avcodec_receive_packet(encoder, encoded)) >= 0) {
+                encoded.stream_index(outputStream.index());
+                av_packet_rescale_ts(encoded, encoderTimeBase, outputTimeBase);
+                check(av_interleaved_write_frame(output, encoded), "Could not write output");
+            }
+            checkDrained(result, "Could not encode");
+        }
+
+        // EAGAIN and EOF end a receive loop normally
+        private void checkDrained(int result, String what) throws AudioConversionException {
+            if (result != AVERROR_EAGAIN() && result != AVERROR_EOF) {
+                check(result, what);
+            }
+        }
+
+        private int check(int result, String what) throws AudioConversionException {
+            if (result < 0) {
+                throw new AudioConversionException(
+                        audioFile.getName(),
+                        AudioConversionException.ErrorType.FFMPEG_ERROR,
+                        what + ": " + errorText(result)
+                );
+            }
+            return result;
+        }
+
+        // Frees in reverse order of opening; safe to call twice
+        @Override
+        public void close() {
+            if (packet != null) {
+                av_packet_free(packet);
+                packet = null;
+            }
+            if (encoded != null) {
+                av_packet_free(encoded);
+                encoded = null;
+            }
+            if (frame != null) {
+                av_frame_free(frame);
+                frame = null;
+            }
+            if (filtered != null) {
+                av_frame_free(filtered);
+                filtered = null;
+            }
+            if (graph != null) {
+                avfilter_graph_free(graph);
+                graph = null;
+            }
+            if (encoder != null) {
+                avcodec_free_context(encoder);
+                encoder = null;
+            }
+            if (decoder != null) {
+                avcodec_free_context(decoder);
+                decoder = null;
+            }
+            if (outputIo != null && !outputIo.isNull()) {
+                avio_closep(outputIo);
+            }
+            outputIo = null;
+            if (output != null && !output.isNull()) {
+                avformat_free_context(output);
+            }
+            output = null;
+            if (input != null && !input.isNull()) {
+                avformat_close_input(input);
+            }
+            input = null;
+        }
+    }
+
+    private static String describe(AVChannelLayout layout) {
+        byte[] text = new byte[64];
+        av_channel_layout_describe(layout, text, text.length);
+        return nulTerminated(text);
+    }
+
+    private static String errorText(int error) {
+        byte[] text = new byte[256];
+        av_strerror(error, text, text.length);
+        return nulTerminated(text);
+    }
+
+    private static String nulTerminated(byte[] text) {
+        int length = 0;
+        while (length < text.length && text[length] != 0) {
+            length++;
+        }
+        return new String(text, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,282 @@
+package se233.audioconverter.controller;
+
+import net.bramp.ffmpeg.progress.ProgressListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se233.audioconverter.exception.AudioConversionException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.AudioSourceInfo;
+import se233.audioconverter.model.AudioStats;
+import se233.audioconverter.model.BatchPriority;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.model.EncodeOptions;
+import se233.audioconverter.service.BatchProgress;
+import se233.audioconverter.service.CpuBudget;
+import se233.audioconverter.service.DeviceConcurrencyLimiter;
+import se233.audioconverter.service.ProcessRegistry;
+import se233.audioconverter.service.SimulatedTranscoder;
+import se233.audioconverter.service.ThroughputModel;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pushes many simulated jobs through the real scheduler, CPU budget and
+ * device limiter, without FFmpeg or a UI. The job count defaults to a few
+ * thousand; {@code -Daudioconverter.loadTest.jobs=100000} reproduces the
+ * full load test.
+ */
+class BatchSchedulerLoadTest {
+    private static final int CORES = 4;
+    // Modelled per job: 2 s of audio at 40x realtime = 50 ms on one thread
+    private static final double DURATION_SECONDS = 2;
+    private static final double REALTIME_FACTOR = 40;
+    private static final double JOB_SECONDS = DURATION_SECONDS / REALTIME_FACTOR;
+    // Every wait runs this much faster than modelled
+    private static final double SPEEDUP = 10;
+
+    @TempDir
+    Path directory;
+
+    private ExecutorService executor;
+    private ProcessRegistry processRegistry;
+    private BatchScheduler scheduler;
+    private CountingTranscoder transcoder;
+    private final List<Integer> finishOrder = new ArrayList<>();
+    private final Map<ConversionJob, Integer> finishCounts = new ConcurrentHashMap<>();
+    private final Map<ConversionJob, Throwable> errors = new ConcurrentHashMap<>();
+    private CountDownLatch batchesDone;
+
+    @BeforeEach
+    void startScheduler() throws Exception {
+        executor = Executors.newFixedThreadPool(CORES);
+        processRegistry = new ProcessRegistry();
+        CpuBudget cpuBudget = new CpuBudget(CORES);
+        scheduler = new BatchScheduler(executor, null, cpuBudget,
+                new DeviceConcurrencyLimiter(CORES, false),
+                new ThroughputModel(directory.resolve("throughput-model.json")), processRegistry);
+    }
+
+    @AfterEach
+    void stopScheduler() {
+        scheduler.stop();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void everyJobFinishesOnceWithinModelledTime() throws Exception {
+        int jobs = Integer.getInteger("audioconverter.loadTest.jobs", 2000);
+        transcoder = new CountingTranscoder(0.01);
+        batchesDone = new CountDownLatch(1);
+
+        long start = System.nanoTime();
+        ConversionBatch batch = batch(1, BatchPriority.NORMAL, 1, jobs);
+        scheduler.submit(batch);
+        awaitBatches(jobs);
+        double elapsed = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        assertEquals(jobs, finishCounts.size());
+        finishCounts.values().forEach(count -> assertEquals(1, count));
+        int failed = 0;
+        for (AudioFile audioFile : batch.getAudioFiles()) {
+            AudioFile.ConversionStatus status = audioFile.getStatus();
+            assertTrue(status == AudioFile.ConversionStatus.COMPLETED
+                    || status == AudioFile.ConversionStatus.FAILED, audioFile.getName() + " is " + status);
+            if (status == AudioFile.ConversionStatus.FAILED) {
+                failed++;
+            }
+        }
+        // Only the simulated failures surface as errors, each on a failed file
+        assertEquals(failed, errors.size());
+        errors.values().forEach(error -> assertEquals(AudioConversionException.ErrorType.FFMPEG_ERROR,
+                ((AudioConversionException) error).getErrorType()));
+        assertEquals(1.0, batch.getProgress().getFraction(), 1e-9);
+        assertEquals(jobs, batch.getFinishedFiles());
+        assertTrue(scheduler.isIdle());
+
+        // Never more threads than cores, and the cores were kept busy
+        assertTrue(transcoder.maxThreadsInUse.get() <= CORES, "threads in use: " + transcoder.maxThreadsInUse);
+        double ideal = jobs * JOB_SECONDS / SPEEDUP / CORES;
+        assertTrue(elapsed >= ideal * 0.5, String.format("%.2fs is faster than the model allows (%.2fs)", elapsed, ideal));
+        assertTrue(elapsed <= ideal * 1.5 + 2, String.format("%.2fs for %d jobs, ideal %.2fs", elapsed, jobs, ideal));
+    }
+
+    @Test
+    void batchesOfOneClassShareSlotsByWeight() throws Exception {
+        int jobs = 400;
+        transcoder = new CountingTranscoder(0);
+        batchesDone = new CountDownLatch(2);
+
+        // Submitted together so neither has a head start
+        ConversionBatch heavy = batch(1, BatchPriority.NORMAL, 3, jobs);
+        ConversionBatch light = batch(2, BatchPriority.NORMAL, 1, jobs);
+        synchronized (scheduler) {
+            scheduler.submit(heavy);
+            scheduler.submit(light);
+        }
+        awaitBatches(2 * jobs);
+
+        // While both have work, the heavy batch takes three of every four slots
+        List<Integer> firstHalf;
+        synchronized (finishOrder) {
+            firstHalf = new ArrayList<>(finishOrder.subList(0, jobs));
+        }
+        long heavyShare = firstHalf.stream().filter(id -> id == 1).count();
+        assertEquals(0.75, heavyShare / (double) jobs, 0.05, "heavy batch finished " + heavyShare + " of the first " + jobs);
+    }
+
+    @Test
+    void equalBatchesFinishTogether() throws Exception {
+        int jobs = 400;
+        transcoder = new CountingTranscoder(0);
+        batchesDone = new CountDownLatch(2);
+
+        ConversionBatch first = batch(1, BatchPriority.NORMAL, 1, jobs);
+        ConversionBatch second = batch(2, BatchPriority.NORMAL, 1, jobs);
+        synchronized (scheduler) {
+            scheduler.submit(first);
+            scheduler.submit(second);
+        }
+        awaitBatches(2 * jobs);
+
+        // Neither batch is ever more than a round of slots ahead of the other
+        int[] finished = new int[3];
+        synchronized (finishOrder) {
+            for (int id : finishOrder) {
+                finished[id]++;
+                if (finished[1] < jobs && finished[2] < jobs) {
+                    assertTrue(Math.abs(finished[1] - finished[2]) <= 2 * CORES,
+                            "batch 1 at " + finished[1] + ", batch 2 at " + finished[2]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void urgentBatchOvertakesQueuedWork() throws Exception {
+        int backgroundJobs = 600;
+        int urgentJobs = 40;
+        transcoder = new CountingTranscoder(0);
+        batchesDone = new CountDownLatch(2);
+
+        ConversionBatch background = batch(1, BatchPriority.BACKGROUND, 1, backgroundJobs);
+        scheduler.submit(background);
+        // Let the background batch fill every slot first
+        while (background.getFinishedFiles() < 50) {
+            Thread.sleep(5);
+        }
+        ConversionBatch urgent = batch(2, BatchPriority.URGENT, 1, urgentJobs);
+        int backgroundAtSubmit;
+        synchronized (scheduler) {
+            synchronized (finishOrder) {
+                backgroundAtSubmit = finishOrder.size();
+            }
+            scheduler.submit(urgent);
+        }
+        awaitBatches(backgroundJobs + urgentJobs);
+
+        // The urgent jobs only waited for the slots that were busy when it arrived
+        int backgroundBefore = 0;
+        synchronized (finishOrder) {
+            int lastUrgent = finishOrder.lastIndexOf(2);
+            for (int i = 0; i <= lastUrgent; i++) {
+                if (finishOrder.get(i) == 1) {
+                    backgroundBefore++;
+                }
+            }
+        }
+        assertTrue(backgroundBefore <= backgroundAtSubmit + 2 * CORES,
+                backgroundBefore + " background jobs finished before the urgent batch");
+        double jobWall = JOB_SECONDS / SPEEDUP;
+        assertTrue(urgent.getMaxQueueWaitSeconds() < urgentJobs * jobWall / CORES + 1,
+                "urgent queue wait " + urgent.getMaxQueueWaitSeconds() + "s");
+    }
+
+    private ConversionBatch batch(int id, BatchPriority priority, double weight, int jobs) {
+        ConversionSettings settings = new ConversionSettings();
+        String outputPath = directory.resolve("out" + id).toString();
+        List<AudioFile> files = new ArrayList<>();
+        List<ConversionJob> tasks = new ArrayList<>();
+        BatchProgress progress = new BatchProgress(jobs);
+        for (int i = 0; i < jobs; i++) {
+            // Inputs need not exist; the simulated transcoder reads nothing
+            AudioFile audioFile = new AudioFile(directory.resolve("in" + id).resolve("track" + i + ".wav").toString());
+            audioFile.setSourceInfo(new AudioSourceInfo("pcm_s16le", 44100, 2, 1411200, DURATION_SECONDS));
+            AudioConversionTask task = new AudioConversionTask(audioFile, settings, outputPath, transcoder);
+            progress.setTotal(i, DURATION_SECONDS, 0);
+            task.setBatchProgress(progress, new int[]{i});
+            files.add(audioFile);
+            tasks.add(task);
+        }
+        ConversionBatch batch = new ConversionBatch(id, priority, weight, settings, outputPath, files, tasks,
+                progress, listener);
+        for (ConversionJob task : tasks) {
+            batch.predicted.put(task, JOB_SECONDS);
+        }
+        return batch;
+    }
+
+    private void awaitBatches(int jobs) throws InterruptedException {
+        // Generous: ten times the modelled wall time on the test's cores
+        long timeoutMillis = (long) (jobs * JOB_SECONDS / SPEEDUP / CORES * 10_000) + 30_000;
+        assertTrue(batchesDone.await(timeoutMillis, TimeUnit.MILLISECONDS),
+                "batches still running: " + scheduler.describe());
+    }
+
+    private final ConversionBatch.BatchListener listener = new ConversionBatch.BatchListener() {
+        @Override
+        public void onJobFinished(ConversionBatch batch, ConversionJob job, Throwable error) {
+            finishCounts.merge(job, 1, Integer::sum);
+            if (error != null) {
+                errors.put(job, error);
+            }
+            synchronized (finishOrder) {
+                finishOrder.add(batch.getId());
+            }
+        }
+
+        @Override
+        public void onBatchFinished(ConversionBatch batch) {
+            batchesDone.countDown();
+        }
+    };
+
+    // Tracks how many threads the running jobs hold between them
+    private class CountingTranscoder extends SimulatedTranscoder {
+        final AtomicInteger threadsInUse = new AtomicInteger();
+        final AtomicInteger maxThreadsInUse = new AtomicInteger();
+
+        CountingTranscoder(double failureRate) {
+            super(0, REALTIME_FACTOR, failureRate, DURATION_SECONDS, SPEEDUP, processRegistry);
+        }
+
+        @Override
+        public AudioStats convertAudio(AudioFile audioFile, ConversionSettings settings, String outputPath,
+                                       EncodeOptions options, ProgressListener listener)
+                throws AudioConversionException {
+            assertNull(options.getLoudness());
+            int threads = Math.max(1, options.getThreads());
+            maxThreadsInUse.accumulateAndGet(threadsInUse.addAndGet(threads), Math::max);
+            try {
+                return super.convertAudio(audioFile, settings, outputPath, options, listener);
+            } finally {
+                threadsInUse.addAndGet(-threads);
+            }
+        }
+    }
+
+}
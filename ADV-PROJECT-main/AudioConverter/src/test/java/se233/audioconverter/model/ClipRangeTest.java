@@ -0,0 +1,88 @@
+package se233.audioconverter.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClipRangeTest {
+    @Test
+    void parsesSecondsMinutesAndHours() {
+        assertEquals(42.5, ClipRange.parseTime("42.5"));
+        assertEquals(2 * 60 + 5, ClipRange.parseTime("2:05"));
+        assertEquals(3600 + 10 * 60 + 0.25, ClipRange.parseTime(" 1:10:00.25 "));
+        assertEquals(90, ClipRange.parseTime("0:90"));
+    }
+
+    @Test
+    void rejectsMalformedTimes() {
+        assertThrows(IllegalArgumentException.class, () -> ClipRange.parseTime("1:2:3:4"));
+        assertThrows(IllegalArgumentException.class, () -> ClipRange.parseTime("1:xx"));
+        assertThrows(IllegalArgumentException.class, () -> ClipRange.parseTime(""));
+    }
+
+    @Test
+    void parsesListInOrderWithLabels() {
+        List<ClipRange> ranges = ClipRange.parseList("47:00-52:00, 1:10:00-");
+        assertEquals(2, ranges.size());
+
+        ClipRange first = ranges.get(0);
+        assertEquals(47 * 60, first.getStart());
+        assertEquals(52 * 60, first.getEnd());
+        assertFalse(first.isOpenEnded());
+        assertEquals("clip1", first.getLabel());
+
+        ClipRange second = ranges.get(1);
+        assertEquals(70 * 60, second.getStart());
+        assertTrue(second.isOpenEnded());
+        assertEquals("clip2", second.getLabel());
+    }
+
+    @Test
+    void blankListIsEmpty() {
+        assertTrue(ClipRange.parseList(null).isEmpty());
+        assertTrue(ClipRange.parseList("  ").isEmpty());
+    }
+
+    @Test
+    void rejectsRangesWithoutStartOrBackwards() {
+        assertThrows(IllegalArgumentException.class, () -> ClipRange.parseList("-1:00"));
+        assertThrows(IllegalArgumentException.class, () -> ClipRange.parseList("1:00"));
+        assertThrows(IllegalArgumentException.class, () -> ClipRange.parseList("2:00-1:00"));
+        assertThrows(IllegalArgumentException.class, () -> ClipRange.parseList("1:00-1:00"));
+        assertThrows(IllegalArgumentException.class, () -> new ClipRange(-1, 5, "x"));
+    }
+
+    @Test
+    void formatsAndRoundTrips() {
+        assertEquals("0:05", ClipRange.formatTime(5));
+        assertEquals("2:05.500", ClipRange.formatTime(125.5));
+        assertEquals("1:10:00", ClipRange.formatTime(4200));
+        assertEquals("47:00-52:00", new ClipRange(2820, 3120, "a").toString());
+        assertEquals("1:10:00-", new ClipRange(4200, -1, "b").toString());
+
+        ClipRange parsed = ClipRange.parseList(new ClipRange(61.25, 3725.5, "c").toString()).get(0);
+        assertEquals(61.25, parsed.getStart(), 1e-9);
+        assertEquals(3725.5, parsed.getEnd(), 1e-9);
+    }
+
+    @Test
+    void processedDurationSpansTheClips() {
+        AudioFile audioFile = new AudioFile("/nonexistent/talk.mp3");
+        audioFile.setSourceInfo(new AudioSourceInfo("mp3", 44100, 2, 128000, 600));
+        assertEquals(600, audioFile.getProcessedDuration());
+
+        audioFile.setClipRanges(ClipRange.parseList("1:00-2:00, 5:00-6:00"));
+        assertEquals(300, audioFile.getProcessedDuration(), 1e-9);
+
+        // An open end runs to the end of the file, and ends past it are cut off
+        audioFile.setClipRanges(ClipRange.parseList("9:00-"));
+        assertEquals(60, audioFile.getProcessedDuration(), 1e-9);
+        audioFile.setClipRanges(ClipRange.parseList("9:00-20:00"));
+        assertEquals(60, audioFile.getProcessedDuration(), 1e-9);
+    }
+}
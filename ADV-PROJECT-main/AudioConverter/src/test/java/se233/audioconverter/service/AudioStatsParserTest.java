@@ -0,0 +1,114 @@
+package se233.audioconverter.service;
+
+import org.junit.jupiter.api.Test;
+import se233.audioconverter.model.AudioStats;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AudioStatsParserTest {
+    // Trimmed from the stderr of an encode with the analysis branch
+    private static final String[] REPORT = {
+            "size=     938kB time=00:01:00.00 bitrate= 128.0kbits/s speed=41.2x",
+            "[silencedetect @ 0x5581] silence_start: 10.5",
+            "[silencedetect @ 0x5581] silence_end: 12.5 | silence_duration: 2",
+            "[silencedetect @ 0x5581] silence_start: 55",
+            "[Parsed_astats_0 @ 0x5580] Channel: 1",
+            "[Parsed_astats_0 @ 0x5580] Peak level dB: -3.000000",
+            "[Parsed_astats_0 @ 0x5580] Peak count: 99",
+            "[Parsed_astats_0 @ 0x5580] Overall",
+            "[Parsed_astats_0 @ 0x5580] DC offset: 0.000010",
+            "[Parsed_astats_0 @ 0x5580] Peak level dB: -0.050000",
+            "[Parsed_astats_0 @ 0x5580] RMS level dB: -18.500000",
+            "[Parsed_astats_0 @ 0x5580] Peak count: 12.000000",
+            "[Parsed_ebur128_2 @ 0x5582] Summary:",
+            "",
+            "  Integrated loudness:",
+            "    I:         -16.2 LUFS",
+            "    Threshold: -26.3 LUFS",
+            "",
+            "  Loudness range:",
+            "    LRA:         5.1 LU",
+            "    Threshold: -36.3 LUFS",
+            "",
+            "  True peak:",
+            "    Peak:       -0.8 dBFS",
+            "video:0kB audio:938kB subtitle:0kB other streams:0kB global headers:0kB muxing overhead: 0.03%",
+    };
+
+    @Test
+    void readsOverallLevelsSilenceAndLoudness() {
+        AudioStatsParser parser = new AudioStatsParser();
+        List<String> passedOn = new ArrayList<>();
+        for (String line : REPORT) {
+            if (!parser.accept(line)) {
+                passedOn.add(line);
+            }
+        }
+        // Only FFmpeg's own lines reach the error output
+        assertEquals(List.of(REPORT[0], REPORT[REPORT.length - 1]), passedOn);
+
+        AudioStats stats = parser.result(60);
+        // Per-channel values before "Overall" are ignored
+        assertEquals(-0.05, stats.getPeakDb(), 1e-9);
+        assertEquals(-18.5, stats.getRmsDb(), 1e-9);
+        // Peak at full scale, so the peak count is clipping
+        assertEquals(12, stats.getClippedSamples());
+        // 2 s closed, plus the 5 s running into the end of the stream
+        assertEquals(7 / 60.0, stats.getSilenceRatio(), 1e-9);
+        assertEquals(-16.2, stats.getIntegratedLufs(), 1e-9);
+        assertEquals(5.1, stats.getLoudnessRange(), 1e-9);
+        assertEquals(-0.8, stats.getTruePeakDb(), 1e-9);
+    }
+
+    @Test
+    void peaksBelowFullScaleAreNotClipping() {
+        AudioStatsParser parser = new AudioStatsParser();
+        parser.accept("[Parsed_astats_0 @ 0x1] Overall");
+        parser.accept("[Parsed_astats_0 @ 0x1] Peak level dB: -1.000000");
+        parser.accept("[Parsed_astats_0 @ 0x1] Peak count: 4");
+        assertEquals(0, parser.result(10).getClippedSamples());
+    }
+
+    @Test
+    void silentInputReportsMinusInfinity() {
+        AudioStatsParser parser = new AudioStatsParser();
+        parser.accept("[Parsed_astats_0 @ 0x1] Overall");
+        parser.accept("[Parsed_astats_0 @ 0x1] Peak level dB: -inf");
+        parser.accept("[Parsed_astats_0 @ 0x1] RMS level dB: -inf");
+        parser.accept("[silencedetect @ 0x2] silence_start: 0");
+        parser.accept("[Parsed_ebur128_2 @ 0x3] Summary:");
+        parser.accept("    I:         -70.0 LUFS");
+        parser.accept("    Peak:       -inf dBFS");
+
+        AudioStats stats = parser.result(30);
+        assertEquals(Double.NEGATIVE_INFINITY, stats.getPeakDb());
+        assertEquals(Double.NEGATIVE_INFINITY, stats.getRmsDb());
+        assertEquals(1.0, stats.getSilenceRatio(), 1e-9);
+        assertEquals(-70, stats.getIntegratedLufs(), 1e-9);
+        assertEquals(Double.NEGATIVE_INFINITY, stats.getTruePeakDb());
+    }
+
+    @Test
+    void summaryEndsAtTheFirstUnindentedLine() {
+        AudioStatsParser parser = new AudioStatsParser();
+        parser.accept("[Parsed_ebur128_2 @ 0x3] Summary:");
+        assertTrue(parser.accept("    I:         -20.0 LUFS"));
+        assertFalse(parser.accept("Conversion failed!"));
+        // Indented lines after the summary are FFmpeg's again
+        assertFalse(parser.accept("    I:         -5.0 LUFS"));
+        assertEquals(-20, parser.result(10).getIntegratedLufs(), 1e-9);
+    }
+
+    @Test
+    void missingReportGivesNoStats() {
+        AudioStatsParser parser = new AudioStatsParser();
+        assertFalse(parser.accept("Error while decoding stream #0:0"));
+        assertNull(parser.result(10));
+    }
+}
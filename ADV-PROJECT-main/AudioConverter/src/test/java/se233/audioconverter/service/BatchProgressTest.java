@@ -0,0 +1,60 @@
+package se233.audioconverter.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BatchProgressTest {
+    @Test
+    void weightsFilesByDuration() {
+        BatchProgress progress = new BatchProgress(2);
+        progress.setTotal(0, 10, 0);
+        progress.setTotal(1, 30, 0);
+        assertEquals(2, progress.size());
+        assertEquals(40, progress.getTotalSeconds(), 1e-9);
+        assertEquals(0, progress.getFraction());
+
+        progress.complete(0);
+        assertEquals(0.25, progress.getFraction(), 1e-9);
+        progress.setProcessed(1, 15_000_000);
+        assertEquals(25, progress.getProcessedSeconds(), 1e-9);
+        assertEquals(0.625, progress.getFraction(), 1e-9);
+    }
+
+    @Test
+    void clampsPositionsToTheFileTotal() {
+        BatchProgress progress = new BatchProgress(1);
+        progress.setTotal(0, 5, 0);
+        progress.setProcessed(0, 9_000_000);
+        assertEquals(1.0, progress.getFraction(), 1e-9);
+    }
+
+    @Test
+    void unprobedFilesFallBackToTheirSize() {
+        BatchProgress progress = new BatchProgress(2);
+        // 16 000 bytes per second at the assumed 128 kbit/s
+        progress.setTotal(0, 0, 160_000);
+        progress.setTotal(1, 10, 0);
+        assertEquals(20, progress.getTotalSeconds(), 1e-9);
+
+        // Neither duration nor size still counts for something
+        BatchProgress empty = new BatchProgress(1);
+        empty.setTotal(0, 0, 0);
+        empty.complete(0);
+        assertEquals(1.0, empty.getFraction(), 1e-9);
+    }
+
+    @Test
+    void resetStartsAFileOver() {
+        BatchProgress progress = new BatchProgress(1);
+        progress.setTotal(0, 8, 0);
+        progress.setProcessed(0, 6_000_000);
+        progress.reset(0);
+        assertEquals(0, progress.getFraction());
+    }
+
+    @Test
+    void emptyBatchReportsNoProgress() {
+        assertEquals(0, new BatchProgress(0).getFraction());
+    }
+}
@@ -0,0 +1,84 @@
+package se233.audioconverter.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CpuBudgetTest {
+    @Test
+    void oneThreadPerJobWhileWorkIsQueued() {
+        CpuBudget budget = new CpuBudget(4);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(1, budget.tryAcquire(100));
+        }
+        assertEquals(0, budget.available());
+        assertEquals(0, budget.tryAcquire(100));
+    }
+
+    @Test
+    void spareCoresGoToTheLastJobs() {
+        CpuBudget budget = new CpuBudget(8);
+        assertEquals(4, budget.tryAcquire(2));
+        assertEquals(4, budget.tryAcquire(1));
+        assertEquals(0, budget.available());
+
+        budget.release(4);
+        assertEquals(4, budget.available());
+        // Never more than is free
+        assertEquals(4, budget.tryAcquire(1));
+    }
+
+    @Test
+    void releaseNeverGoesBelowZeroAndTellsTheListener() {
+        CpuBudget budget = new CpuBudget(2);
+        AtomicInteger releases = new AtomicInteger();
+        budget.setReleaseListener(releases::incrementAndGet);
+        budget.release(5);
+        assertEquals(2, budget.available());
+        assertEquals(1, releases.get());
+    }
+
+    @Test
+    void waitingAcquireHoldsBackNewJobs() throws Exception {
+        CpuBudget budget = new CpuBudget(4);
+        assertEquals(1, budget.tryAcquire(10));
+        assertEquals(1, budget.tryAcquire(10));
+
+        // Wants every core, so it waits for the two running jobs
+        CompletableFuture<Integer> all = CompletableFuture.supplyAsync(() -> {
+            try {
+                return budget.acquire(99);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (budget.available() != 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        // Two cores are free, but nothing is granted while the acquire waits
+        assertEquals(0, budget.available());
+        assertEquals(0, budget.tryAcquire(10));
+        assertThrows(TimeoutException.class, () -> all.get(100, TimeUnit.MILLISECONDS));
+
+        budget.release(1);
+        assertThrows(TimeoutException.class, () -> all.get(100, TimeUnit.MILLISECONDS));
+        budget.release(1);
+        assertEquals(4, all.get(5, TimeUnit.SECONDS));
+        assertEquals(0, budget.available());
+
+        budget.release(4);
+        assertEquals(4, budget.available());
+    }
+
+    @Test
+    void atLeastOneCore() {
+        assertEquals(1, new CpuBudget(0).getCores());
+    }
+}
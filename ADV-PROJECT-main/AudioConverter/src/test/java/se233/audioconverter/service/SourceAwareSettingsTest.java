@@ -0,0 +1,110 @@
+package se233.audioconverter.service;
+
+import org.junit.jupiter.api.Test;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.AudioSourceInfo;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.model.ConversionSettings.BitrateMode;
+import se233.audioconverter.model.ConversionSettings.Channels;
+import se233.audioconverter.model.ConversionSettings.OutputFormat;
+import se233.audioconverter.model.ConversionSettings.SampleRate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SourceAwareSettingsTest {
+    @Test
+    void capsRateAndChannelsAtTheSource() {
+        ConversionSettings settings = settings(OutputFormat.WAV);
+        settings.setSampleRate(SampleRate.SR_96000);
+
+        ConversionSettings resolved = SourceAwareSettings.resolve(source("pcm_s16le", 22050, 1, 352800), settings);
+        assertEquals(SampleRate.SR_22050, resolved.getSampleRate());
+        assertEquals(Channels.MONO, resolved.getChannels());
+        // The batch settings are left alone
+        assertEquals(SampleRate.SR_96000, settings.getSampleRate());
+        assertEquals(Channels.STEREO, settings.getChannels());
+    }
+
+    @Test
+    void picksTheNearestSupportedRateAboveTheSource() {
+        // MP3 has no 22.05 kHz option, so 32 kHz keeps everything the source has
+        ConversionSettings resolved = SourceAwareSettings.resolve(
+                source("pcm_s16le", 22050, 2, 705600), settings(OutputFormat.MP3));
+        assertEquals(SampleRate.SR_32000, resolved.getSampleRate());
+
+        // Never above what was asked for
+        ConversionSettings settings = settings(OutputFormat.FLAC);
+        settings.setSampleRate(SampleRate.SR_16000);
+        assertSame(settings, SourceAwareSettings.resolve(source("pcm_s16le", 44100, 2, 1411200), settings));
+    }
+
+    @Test
+    void capsLossyBitrateButNotLossless() {
+        ConversionSettings settings = settings(OutputFormat.MP3);
+        assertEquals(96, SourceAwareSettings.resolve(source("mp3", 44100, 2, 96000), settings)
+                .getEffectiveBitrate());
+        // Rounded up to the next option
+        assertEquals(112, SourceAwareSettings.resolve(source("aac", 44100, 2, 100000), settings)
+                .getEffectiveBitrate());
+        assertSame(settings, SourceAwareSettings.resolve(source("flac", 44100, 2, 900000), settings));
+        assertSame(settings, SourceAwareSettings.resolve(source("aac", 44100, 2, 0), settings));
+    }
+
+    @Test
+    void variableBitrateIsNotCapped() {
+        ConversionSettings settings = settings(OutputFormat.MP3);
+        settings.setBitrateMode(BitrateMode.VARIABLE);
+        ConversionSettings resolved = SourceAwareSettings.resolve(source("mp3", 44100, 2, 64000), settings);
+        assertSame(settings, resolved);
+        assertNull(resolved.getCustomBitrate());
+    }
+
+    @Test
+    void leavesSettingsAloneWithoutPolicyOrProbe() {
+        ConversionSettings settings = settings(OutputFormat.WAV);
+        settings.setSampleRate(SampleRate.SR_48000);
+        assertSame(settings, SourceAwareSettings.resolve(new AudioFile("/nonexistent/a.wav"), settings));
+
+        settings.setNeverExceedSource(false);
+        assertSame(settings, SourceAwareSettings.resolve(source("pcm_s16le", 8000, 1, 128000), settings));
+    }
+
+    @Test
+    void recognisesLosslessCodecs() {
+        assertTrue(SourceAwareSettings.isLossless("pcm_s24le"));
+        assertTrue(SourceAwareSettings.isLossless("flac"));
+        assertTrue(SourceAwareSettings.isLossless("alac"));
+        assertFalse(SourceAwareSettings.isLossless("mp3"));
+        assertFalse(SourceAwareSettings.isLossless("aac"));
+    }
+
+    @Test
+    void estimatesOutputSizePerFormat() {
+        assertEquals(44100 * 2 * 2 * 10, SourceAwareSettings.estimateOutputBytes(10, settings(OutputFormat.WAV)));
+        assertEquals((long) (44100 * 2 * 2 * 0.6 * 10),
+                SourceAwareSettings.estimateOutputBytes(10, settings(OutputFormat.FLAC)));
+        // 192 kbit/s default quality
+        assertEquals(24_000 * 10, SourceAwareSettings.estimateOutputBytes(10, settings(OutputFormat.MP3)));
+
+        ConversionSettings vbr = settings(OutputFormat.MP3);
+        vbr.setBitrateMode(BitrateMode.VARIABLE);
+        vbr.setVbrQuality(2);
+        assertEquals((long) (190 * 1000 / 8.0 * 10), SourceAwareSettings.estimateOutputBytes(10, vbr));
+    }
+
+    private static ConversionSettings settings(OutputFormat format) {
+        ConversionSettings settings = new ConversionSettings();
+        settings.setOutputFormat(format);
+        return settings;
+    }
+
+    private static AudioFile source(String codec, int sampleRate, int channels, long bitRate) {
+        AudioFile audioFile = new AudioFile("/nonexistent/input");
+        audioFile.setSourceInfo(new AudioSourceInfo(codec, sampleRate, channels, bitRate, 60));
+        return audioFile;
+    }
+}
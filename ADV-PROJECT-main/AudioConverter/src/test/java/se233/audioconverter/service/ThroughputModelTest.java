@@ -0,0 +1,124 @@
+package se233.audioconverter.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.AudioSourceInfo;
+import se233.audioconverter.model.ClipRange;
+import se233.audioconverter.model.ConversionSettings;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ThroughputModelTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void untrainedEncodesScaleWithOutputSamples() {
+        ThroughputModel model = new ThroughputModel(directory.resolve("model.json"));
+        ConversionSettings settings = new ConversionSettings();
+        assertEquals(100 / 40.0, model.predictSeconds(probed("pcm_s16le", 2, 100), settings), 1e-9);
+        // A mono source is encoded as mono, so half the samples
+        assertEquals(100 / 80.0, model.predictSeconds(probed("pcm_s16le", 1, 100), settings), 1e-9);
+        assertEquals(-1, model.getPredictionError());
+    }
+
+    @Test
+    void streamCopiesAreKeptApartFromEncodes() {
+        ThroughputModel model = new ThroughputModel(directory.resolve("model.json"));
+        ConversionSettings settings = new ConversionSettings();
+        AudioFile copy = probed("mp3", 2, 100);
+        assertEquals(100 / 1000.0, model.predictSeconds(copy, settings), 1e-9);
+
+        // Learning the copy speed leaves the encode estimate alone
+        model.record(List.of(copy), settings, 0.05);
+        assertEquals(100 / 40.0, model.predictSeconds(probed("pcm_s16le", 2, 100), settings), 1e-9);
+    }
+
+    @Test
+    void learnsRealtimeFactorsWithExponentialWeighting() {
+        ThroughputModel model = new ThroughputModel(directory.resolve("model.json"));
+        ConversionSettings settings = new ConversionSettings();
+        AudioFile audioFile = probed("pcm_s16le", 2, 100);
+
+        model.record(List.of(audioFile), settings, 1);
+        assertEquals(1, model.predictSeconds(audioFile, settings), 1e-9);
+        // Predicted 2.5 s, took 1 s
+        assertEquals(1.5, model.getPredictionError(), 1e-9);
+
+        model.record(List.of(audioFile), settings, 2);
+        // 100x blended towards 50x by 0.2; predicted 1 s of a 2 s run
+        assertEquals(100 / 90.0, model.predictSeconds(audioFile, settings), 1e-9);
+        assertEquals(1.5 + 0.2 * (0.5 - 1.5), model.getPredictionError(), 1e-9);
+
+        // Clipped files predict only the decoded span
+        AudioFile clipped = probed("pcm_s16le", 2, 100);
+        clipped.setClipRanges(ClipRange.parseList("0:10-0:55"));
+        assertEquals(45 / 90.0, model.predictSeconds(clipped, settings), 1e-9);
+    }
+
+    @Test
+    void unprobedFilesUseLearnedBytesPerSecond() throws Exception {
+        ThroughputModel model = new ThroughputModel(directory.resolve("model.json"));
+        ConversionSettings settings = new ConversionSettings();
+        AudioFile first = sized("a.mp3", 1024 * 1024);
+        AudioFile second = sized("b.mp3", 1024 * 1024);
+        // Default 4 MiB per second
+        assertEquals(0.5, model.predictSeconds(List.of(first, second), settings), 1e-9);
+
+        // A grouped job teaches bytes per second (2 MiB in 4 s) but no realtime factor
+        model.record(List.of(first, second), settings, 4);
+        assertEquals(4, model.predictSeconds(List.of(first, second), settings), 1e-9);
+        assertEquals(100 / 40.0, model.predictSeconds(probed("pcm_s16le", 2, 100), settings), 1e-9);
+    }
+
+    @Test
+    void ignoresEmptyMeasurements() {
+        ThroughputModel model = new ThroughputModel(directory.resolve("model.json"));
+        ConversionSettings settings = new ConversionSettings();
+        AudioFile audioFile = probed("pcm_s16le", 2, 100);
+        model.record(List.of(audioFile), settings, 0);
+        model.record(List.of(), settings, 3);
+        assertEquals(-1, model.getPredictionError());
+        assertEquals(100 / 40.0, model.predictSeconds(audioFile, settings), 1e-9);
+    }
+
+    @Test
+    void savesAndReloads() {
+        Path file = directory.resolve("model.json");
+        ConversionSettings settings = new ConversionSettings();
+        AudioFile audioFile = probed("pcm_s16le", 2, 100);
+        ThroughputModel model = new ThroughputModel(file);
+        model.record(List.of(audioFile), settings, 1);
+        model.save();
+
+        ThroughputModel reloaded = new ThroughputModel(file);
+        assertEquals(1, reloaded.predictSeconds(audioFile, settings), 1e-9);
+        assertEquals(1.5, reloaded.getPredictionError(), 1e-9);
+    }
+
+    @Test
+    void startsOverFromAnUnreadableFile() throws Exception {
+        Path file = directory.resolve("model.json");
+        Files.writeString(file, "{ not json");
+        ThroughputModel model = new ThroughputModel(file);
+        assertEquals(100 / 40.0, model.predictSeconds(probed("pcm_s16le", 2, 100), new ConversionSettings()), 1e-9);
+    }
+
+    private static AudioFile probed(String codec, int channels, double duration) {
+        AudioFile audioFile = new AudioFile("/nonexistent/input." + (codec.equals("mp3") ? "mp3" : "wav"));
+        audioFile.setSourceInfo(new AudioSourceInfo(codec, 44100, channels, codec.equals("mp3") ? 128000 : 1411200,
+                duration));
+        return audioFile;
+    }
+
+    private AudioFile sized(String name, int bytes) throws Exception {
+        Path file = directory.resolve(name);
+        Files.write(file, new byte[bytes]);
+        return new AudioFile(file.toString());
+    }
+}
@@ -0,0 +1,173 @@
+package se233.audioconverter.service;
+
+import se233.audioconverter.exception.AudioConversionException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.model.EncodeOptions;
+import se233.audioconverter.service.libav.LibavTranscoder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Times the conversion backends on a short and a long file, to see how much
+ * of a conversion is per-file overhead (process start, probing, pipes) and
+ * how much is the encode itself.
+ *
+ * Modes: one FFmpeg process per file, all short-file copies in one grouped
+ * FFmpeg process (how small files are batched today), and the in-process
+ * {@link LibavTranscoder} when its native libraries are on the path (run
+ * with {@code -Plibav}). Each mode gets one warm-up run, then the median of
+ * the timed runs is reported.
+ *
+ * Usage: {@code TranscoderBenchmark <short-file> <long-file> [runs] [format]}
+ *
+ * Lives with the tests so it does not ship in the application; run it with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=se233.audioconverter.service.TranscoderBenchmark -Dexec.args="..."}
+ */
+public class TranscoderBenchmark {
+    private final FFmpegService ffmpegService;
+    private final ConversionSettings settings;
+    private final int runs;
+    private final Path workDirectory;
+
+    public TranscoderBenchmark(FFmpegService ffmpegService, ConversionSettings settings, int runs)
+            throws IOException {
+        this.ffmpegService = ffmpegService;
+        this.settings = settings;
+        this.runs = Math.max(1, runs);
+        this.workDirectory = Files.createTempDirectory("audioconverter-bench");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: TranscoderBenchmark <short-file> <long-file> [runs] [format]");
+            System.exit(2);
+        }
+        ConversionSettings settings = new ConversionSettings();
+        if (args.length > 3) {
+            settings.setOutputFormat(ConversionSettings.OutputFormat.valueOf(args[3].toUpperCase(Locale.ROOT)));
+        }
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        TranscoderBenchmark benchmark = new TranscoderBenchmark(new FFmpegService(), settings, runs);
+        try {
+            benchmark.run(new AudioFile(args[0]), new AudioFile(args[1]));
+        } finally {
+            benchmark.cleanUp();
+        }
+    }
+
+    public void run(AudioFile shortFile, AudioFile longFile) throws AudioConversionException, IOException {
+        double shortSeconds = ffmpegService.probeSourceInfo(shortFile).getDuration();
+        double longSeconds = ffmpegService.probeSourceInfo(longFile).getDuration();
+        System.out.printf(Locale.ROOT, "Short: %s (%.1fs)%nLong:  %s (%.1fs)%nOutput: %s, %d run(s)%s%n%n",
+                shortFile.getName(), shortSeconds, longFile.getName(), longSeconds,
+                settings.getOutputFormat(), runs,
+                FFmpegService.canStreamCopy(shortFile, settings) ? " (short file is stream-copied)" : "");
+
+        double perProcess = report("FFmpeg process per file", ffmpegService, shortFile, longFile);
+
+        double grouped = timeGrouped(shortFile);
+        System.out.printf(Locale.ROOT, "%-26s short %8.1f ms/file%n%n", "FFmpeg grouped process", grouped);
+
+        System.out.printf(Locale.ROOT, "Short files: %.1f files/s one process per file, %.1f files/s grouped (%.1fx)%n",
+                1000 / perProcess, 1000 / grouped, perProcess / grouped);
+
+        if (!LibavTranscoder.isAvailable()) {
+            System.out.println("libav in-process: skipped, " + LibavTranscoder.loadNativeLibraries());
+            return;
+        }
+        System.out.println();
+        double inProcess = report("libav in-process",
+                new LibavTranscoder(ffmpegService, ffmpegService.getProcessRegistry()), shortFile, longFile);
+        System.out.printf(Locale.ROOT, "Short files: %.1f files/s in-process (%.1fx one process per file)%n",
+                1000 / inProcess, perProcess / inProcess);
+    }
+
+    // Prints the timings of one mode and returns its median time for the short file
+    private double report(String mode, Transcoder transcoder, AudioFile shortFile, AudioFile longFile)
+            throws AudioConversionException, IOException {
+        double shortMillis = timeEach(transcoder, shortFile);
+        double longMillis = timeEach(transcoder, longFile);
+        double shortSeconds = shortFile.getSourceInfo().getDuration();
+        double longSeconds = longFile.getSourceInfo().getDuration();
+        System.out.printf(Locale.ROOT, "%-26s short %8.1f ms   long %9.1f ms%n", mode, shortMillis, longMillis);
+        // Straight line through both points: the intercept is what every file costs regardless of length
+        if (longSeconds > shortSeconds) {
+            double perSecond = (longMillis - shortMillis) / (longSeconds - shortSeconds);
+            double overhead = shortMillis - perSecond * shortSeconds;
+            System.out.printf(Locale.ROOT, "%-26s overhead %.1f ms/file, %.2f ms per audio second%s%n",
+                    "", overhead, perSecond,
+                    perSecond > 0 ? String.format(Locale.ROOT, " (%.0fx realtime)", 1000 / perSecond) : "");
+        }
+        System.out.println();
+        return shortMillis;
+    }
+
+    // Median wall time of one conversion, after a warm-up run
+    private double timeEach(Transcoder transcoder, AudioFile audioFile)
+            throws AudioConversionException, IOException {
+        Path output = createDirectory("out");
+        double[] millis = new double[runs];
+        for (int i = -1; i < runs; i++) {
+            long start = System.nanoTime();
+            transcoder.convertAudio(audioFile, settings, output.toString(), new EncodeOptions(), null);
+            if (i >= 0) {
+                millis[i] = (System.nanoTime() - start) / 1e6;
+            }
+        }
+        return median(millis);
+    }
+
+    // Copies of the short file converted by one grouped process; per-file time
+    private double timeGrouped(AudioFile shortFile) throws IOException {
+        Path inputs = createDirectory("grouped-in");
+        Path output = createDirectory("grouped-out");
+        List<AudioFile> copies = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            Path copy = inputs.resolve(i + "_" + shortFile.getName());
+            Files.copy(Paths.get(shortFile.getFilePath()), copy, StandardCopyOption.REPLACE_EXISTING);
+            copies.add(new AudioFile(copy.toString()));
+        }
+
+        double[] millis = new double[2];
+        for (int i = 0; i < millis.length; i++) {
+            long start = System.nanoTime();
+            Map<AudioFile, AudioConversionException> failures =
+                    ffmpegService.convertBatch(copies, settings, output.toString(), 0, 0);
+            millis[i] = (System.nanoTime() - start) / 1e6 / copies.size();
+            if (!failures.isEmpty()) {
+                System.err.println("Grouped run failed for " + failures.size() + " file(s): "
+                        + failures.values().iterator().next().getMessage());
+            }
+        }
+        // The first run is the warm-up
+        return millis[1];
+    }
+
+    private Path createDirectory(String name) throws IOException {
+        return Files.createDirectories(workDirectory.resolve(name));
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+
+    public void cleanUp() {
+        if (!Directories.deleteRecursively(workDirectory)) {
+            System.err.println("Could not remove " + workDirectory);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package se233.audioconverter.service.distributed;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DistributedProtocolTest {
+    private static final byte[] SECRET = "0123456789abcdef0123".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, DistributedProtocol.CHUNK_SIZE - 1, DistributedProtocol.CHUNK_SIZE,
+            DistributedProtocol.CHUNK_SIZE + 1, 3 * DistributedProtocol.CHUNK_SIZE + 7})
+    void filesRoundTripInChunks(int size) throws IOException {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        Path source = directory.resolve("source.bin");
+        Files.write(source, content);
+
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(wire);
+        DistributedProtocol.writeFile(out, source);
+        // The next message follows straight after the end marker
+        out.writeByte(DistributedProtocol.HEARTBEAT);
+        out.flush();
+
+        int chunks = (size + DistributedProtocol.CHUNK_SIZE - 1) / DistributedProtocol.CHUNK_SIZE;
+        // One length per chunk plus the zero terminator
+        assertEquals(size + 4L * (chunks + 1) + 1, wire.size());
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(wire.toByteArray()));
+        Path target = directory.resolve("target.bin");
+        AtomicInteger seen = new AtomicInteger();
+        assertEquals(size, DistributedProtocol.readFile(in, target, seen::incrementAndGet));
+        assertEquals(chunks, seen.get());
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(DistributedProtocol.HEARTBEAT, in.readByte());
+    }
+
+    @Test
+    void rejectsOversizedChunks() throws IOException {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(wire);
+        out.writeInt(DistributedProtocol.CHUNK_SIZE + 1);
+        out.write(new byte[DistributedProtocol.CHUNK_SIZE + 1]);
+        out.writeInt(0);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(wire.toByteArray()));
+        assertThrows(IOException.class, () -> DistributedProtocol.readFile(in, directory.resolve("x"), null));
+    }
+
+    @Test
+    void truncatedTransferFails() throws IOException {
+        Path source = directory.resolve("source.bin");
+        Files.write(source, new byte[1000]);
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        DistributedProtocol.writeFile(new DataOutputStream(wire), source);
+        byte[] cut = Arrays.copyOf(wire.toByteArray(), 500);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(cut));
+        assertThrows(EOFException.class, () -> DistributedProtocol.readFile(in, directory.resolve("x"), null));
+    }
+
+    @Test
+    void handshakeFieldsAreLengthPrefixedAndBounded() throws IOException {
+        byte[] nonce = DistributedProtocol.newNonce();
+        assertEquals(DistributedProtocol.NONCE_LENGTH, nonce.length);
+
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(wire);
+        DistributedProtocol.writeBytes(out, nonce);
+        DistributedProtocol.writeBytes(out, new byte[2000]);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(wire.toByteArray()));
+        assertArrayEquals(nonce, DistributedProtocol.readBytes(in));
+        assertThrows(IOException.class, () -> DistributedProtocol.readBytes(in));
+    }
+
+    @Test
+    void proofsDependOnSecretRoleAndNonce() {
+        byte[] nonce = DistributedProtocol.newNonce();
+        byte[] proof = DistributedProtocol.proof(SECRET, "worker", nonce);
+
+        assertTrue(DistributedProtocol.verify(SECRET, "worker", nonce, proof));
+        // A worker's answer cannot be replayed as the coordinator's
+        assertFalse(DistributedProtocol.verify(SECRET, "coordinator", nonce, proof));
+        assertFalse(DistributedProtocol.verify(SECRET, "worker", DistributedProtocol.newNonce(), proof));
+        assertFalse(DistributedProtocol.verify("another-secret-of-length".getBytes(StandardCharsets.UTF_8),
+                "worker", nonce, proof));
+    }
+
+    @Test
+    void configuredSecretMustBeLongEnough() throws IOException {
+        String previous = System.getProperty("audioconverter.coordinator.secret");
+        try {
+            System.setProperty("audioconverter.coordinator.secret", "  short  ");
+            assertThrows(IOException.class, DistributedProtocol::loadSecret);
+            System.setProperty("audioconverter.coordinator.secret", " 0123456789abcdef0123 ");
+            assertArrayEquals(SECRET, DistributedProtocol.loadSecret());
+        } finally {
+            if (previous == null) {
+                System.clearProperty("audioconverter.coordinator.secret");
+            } else {
+                System.setProperty("audioconverter.coordinator.secret", previous);
+            }
+        }
+    }
+
+    @Test
+    void truncateKeepsTheEndOfLongMessages() {
+        assertEquals("", DistributedProtocol.truncate(null));
+        assertEquals("short", DistributedProtocol.truncate("short"));
+        String longMessage = "x".repeat(DistributedProtocol.MAX_MESSAGE_LENGTH) + "the actual error";
+        String truncated = DistributedProtocol.truncate(longMessage);
+        assertEquals(DistributedProtocol.MAX_MESSAGE_LENGTH, truncated.length());
+        assertTrue(truncated.endsWith("the actual error"));
+    }
+}
@@ -0,0 +1,163 @@
+package se233.audioconverter.service.flac;
+
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.AudioSourceInfo;
+import se233.audioconverter.service.Directories;
+import se233.audioconverter.service.FFmpegService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares {@link FlacEncoder} with FFmpeg's own FLAC encoder on one file,
+ * and checks that the in-process output decodes to exactly the input.
+ *
+ * The file is decoded to 16-bit PCM once; both encoders then start from that
+ * PCM, so only the encode is timed. Each encoder gets one warm-up run, then
+ * the median of the timed runs is reported as speed (times realtime) and
+ * size relative to the PCM. Finally the in-process FLAC is decoded by FFmpeg
+ * and compared byte for byte with the PCM it was made from; the exit code is
+ * 1 if they differ.
+ *
+ * Usage: {@code FlacBenchmark <file> [runs] [threads]}
+ *
+ * Lives with the tests so it does not ship in the application; run it with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=se233.audioconverter.service.flac.FlacBenchmark -Dexec.args="..."}
+ */
+public class FlacBenchmark {
+    private final FFmpegService ffmpegService;
+    private final int runs;
+    private final int threads;
+    private final Path workDirectory;
+
+    public FlacBenchmark(FFmpegService ffmpegService, int runs, int threads) throws IOException {
+        this.ffmpegService = ffmpegService;
+        this.runs = Math.max(1, runs);
+        this.threads = Math.max(1, threads);
+        this.workDirectory = Files.createTempDirectory("audioconverter-flac-bench");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: FlacBenchmark <file> [runs] [threads]");
+            System.exit(2);
+        }
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        FFmpegService ffmpegService = new FFmpegService();
+        // Timings should not depend on what else the machine is doing
+        ffmpegService.setLowPriority(false);
+        FlacBenchmark benchmark = new FlacBenchmark(ffmpegService, runs, threads);
+        boolean identical;
+        try {
+            identical = benchmark.run(new AudioFile(args[0]));
+        } finally {
+            benchmark.cleanUp();
+        }
+        System.exit(identical ? 0 : 1);
+    }
+
+    // Returns true if the in-process output decodes to the original PCM
+    public boolean run(AudioFile audioFile) throws Exception {
+        AudioSourceInfo info = ffmpegService.probeSourceInfo(audioFile);
+        int sampleRate = info.getSampleRate() > 0 ? info.getSampleRate() : 44100;
+        int channels = Math.min(2, Math.max(1, info.getChannels()));
+
+        Path pcm = workDirectory.resolve("source.pcm");
+        ffmpeg(List.of("-i", audioFile.getFilePath(), "-vn", "-ac", String.valueOf(channels),
+                "-ar", String.valueOf(sampleRate), "-f", "s16le", pcm.toString()));
+        long pcmBytes = Files.size(pcm);
+        double audioSeconds = pcmBytes / (2.0 * channels * sampleRate);
+        System.out.printf(Locale.ROOT, "%s: %.1fs, %d Hz, %d channel(s); %d run(s), %d thread(s)%n%n",
+                audioFile.getName(), audioSeconds, sampleRate, channels, runs, threads);
+
+        Path javaFlac = workDirectory.resolve("in-process.flac");
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        double javaMillis;
+        try {
+            FlacEncoder encoder = new FlacEncoder(pool);
+            javaMillis = time(() -> {
+                try (InputStream in = Files.newInputStream(pcm)) {
+                    encoder.encode(in, sampleRate, channels, javaFlac, samples -> { });
+                }
+            });
+        } finally {
+            pool.shutdownNow();
+        }
+        report("In-process FlacEncoder", javaMillis, Files.size(javaFlac), audioSeconds, pcmBytes);
+
+        Path ffmpegFlac = workDirectory.resolve("ffmpeg.flac");
+        double ffmpegMillis = time(() -> ffmpeg(List.of("-f", "s16le", "-ar", String.valueOf(sampleRate),
+                "-ac", String.valueOf(channels), "-i", pcm.toString(),
+                "-threads", String.valueOf(threads), "-c:a", "flac", ffmpegFlac.toString())));
+        report("FFmpeg flac encoder", ffmpegMillis, Files.size(ffmpegFlac), audioSeconds, pcmBytes);
+
+        Path decoded = workDirectory.resolve("decoded.pcm");
+        ffmpeg(List.of("-i", javaFlac.toString(), "-f", "s16le", decoded.toString()));
+        long mismatch = Files.mismatch(pcm, decoded);
+        if (mismatch < 0) {
+            System.out.printf(Locale.ROOT, "%nDecode check: identical (%d bytes of PCM)%n", pcmBytes);
+            return true;
+        }
+        System.out.printf(Locale.ROOT, "%nDecode check: FAILED, first difference at byte %d of %d (decoded %d)%n",
+                mismatch, pcmBytes, Files.size(decoded));
+        return false;
+    }
+
+    private static void report(String mode, double millis, long flacBytes, double audioSeconds, long pcmBytes) {
+        System.out.printf(Locale.ROOT, "%-24s %9.1f ms  %6.0fx realtime  %5.1f%% of PCM%n",
+                mode, millis, audioSeconds * 1000 / millis, flacBytes * 100.0 / pcmBytes);
+    }
+
+    // Median wall time after one warm-up run
+    private double time(Run run) throws Exception {
+        double[] millis = new double[runs];
+        for (int i = -1; i < runs; i++) {
+            long start = System.nanoTime();
+            run.run();
+            if (i >= 0) {
+                millis[i] = (System.nanoTime() - start) / 1e6;
+            }
+        }
+        Arrays.sort(millis);
+        int middle = millis.length / 2;
+        return millis.length % 2 == 1 ? millis[middle] : (millis[middle - 1] + millis[middle]) / 2;
+    }
+
+    private void ffmpeg(List<String> arguments) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(ffmpegService.getFfmpegExecutable());
+        command.add("-y");
+        command.add("-v");
+        command.add("error");
+        command.addAll(arguments);
+        Process process = ffmpegService.startProcess(command, true);
+        String output;
+        try (InputStream in = process.getInputStream()) {
+            output = new String(in.readAllBytes(), StandardCharsets.UTF_8).trim();
+        }
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            throw new IOException("FFmpeg exit code " + exitCode + ": " + output);
+        }
+    }
+
+    public void cleanUp() {
+        if (!Directories.deleteRecursively(workDirectory)) {
+            System.err.println("Could not remove " + workDirectory);
+        }
+    }
+
+    private interface Run {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,35 @@
+package se233.audioconverter.service.flac;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FlacCrcTest {
+    private static final byte[] CHECK = "123456789".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    void matchesCatalogueCheckValues() {
+        assertEquals(0xF4, FlacCrc.crc8(CHECK, 0, CHECK.length));
+        assertEquals(0xFEE8, FlacCrc.crc16(CHECK, 0, CHECK.length));
+    }
+
+    @Test
+    void emptyRangeIsZero() {
+        assertEquals(0, FlacCrc.crc8(CHECK, 3, 3));
+        assertEquals(0, FlacCrc.crc16(CHECK, 3, 3));
+    }
+
+    @Test
+    void tablesMatchBitwiseReference() {
+        byte[] data = new byte[4096];
+        new Random(1).nextBytes(data);
+        for (int to = 1; to <= data.length; to += 97) {
+            assertEquals(FlacTestDecoder.crc8(data, 5, to + 5 > data.length ? data.length : to + 5),
+                    FlacCrc.crc8(data, 5, to + 5 > data.length ? data.length : to + 5));
+            assertEquals(FlacTestDecoder.crc16(data, 0, to), FlacCrc.crc16(data, 0, to));
+        }
+    }
+}
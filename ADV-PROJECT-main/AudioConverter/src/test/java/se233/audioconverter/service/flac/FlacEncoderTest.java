@@ -0,0 +1,193 @@
+package se233.audioconverter.service.flac;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlacEncoderTest {
+    private static ForkJoinPool pool;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void startPool() {
+        pool = new ForkJoinPool(3);
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void silenceRoundTrips() throws Exception {
+        roundTrip(new short[2 * 10_000], 44100, 2);
+    }
+
+    @Test
+    void squareWaveRoundTrips() throws Exception {
+        short[] pcm = new short[2 * 20_000];
+        for (int i = 0; i < 20_000; i++) {
+            short value = (i / 50) % 2 == 0 ? (short) 12_000 : (short) -12_000;
+            pcm[2 * i] = value;
+            pcm[2 * i + 1] = (short) -value;
+        }
+        roundTrip(pcm, 48000, 2);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 17, 4095, 4096, 4097})
+    void oddLengthsRoundTrip(int samples) throws Exception {
+        roundTrip(noise(samples, 2, 1), 44100, 2);
+        roundTrip(noise(samples, 1, 2), 22050, 1);
+    }
+
+    @Test
+    void sixChannelsRoundTrip() throws Exception {
+        short[] pcm = new short[6 * 9000];
+        for (int i = 0; i < 9000; i++) {
+            for (int c = 0; c < 6; c++) {
+                pcm[6 * i + c] = (short) (Math.sin(i * 0.01 * (c + 1)) * 8000 * (c + 1) / 2);
+            }
+        }
+        roundTrip(pcm, 48000, 6);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {7350, 11025, 44101, 96000, 192000, 655350})
+    void uncommonSampleRatesRoundTrip(int sampleRate) throws Exception {
+        FlacTestDecoder.Stream stream = roundTrip(noise(5000, 2, sampleRate), sampleRate, 2);
+        assertEquals(sampleRate, stream.sampleRate);
+    }
+
+    @Test
+    void fullScaleExtremesRoundTrip() throws Exception {
+        short[] pcm = new short[2 * 6000];
+        for (int i = 0; i < 6000; i++) {
+            pcm[2 * i] = i % 2 == 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+            pcm[2 * i + 1] = i % 3 == 0 ? Short.MIN_VALUE : Short.MAX_VALUE;
+        }
+        roundTrip(pcm, 44100, 2);
+    }
+
+    @Test
+    void smoothSignalSpanningSeveralWindowsRoundTrips() throws Exception {
+        // Three workers give 12-frame windows; this spans several of them
+        int samples = FlacEncoder.BLOCK_SIZE * 40 + 123;
+        short[] pcm = new short[2 * samples];
+        Random random = new Random(7);
+        for (int i = 0; i < samples; i++) {
+            double tone = Math.sin(i * 2 * Math.PI * 440 / 44100) * 9000;
+            pcm[2 * i] = (short) (tone + random.nextGaussian() * 30);
+            pcm[2 * i + 1] = (short) (tone * 0.5 + random.nextGaussian() * 30);
+        }
+        FlacTestDecoder.Stream stream = roundTrip(pcm, 44100, 2);
+        assertEquals(41, stream.frameCount);
+    }
+
+    @Test
+    void compressesPredictableAudio() throws Exception {
+        int samples = 50_000;
+        short[] pcm = new short[2 * samples];
+        for (int i = 0; i < samples; i++) {
+            pcm[2 * i] = (short) (Math.sin(i * 0.02) * 10_000);
+            pcm[2 * i + 1] = pcm[2 * i];
+        }
+        Path output = directory.resolve("sine.flac");
+        new FlacEncoder(pool).encode(new ByteArrayInputStream(bytes(pcm)), 44100, 2, output, done -> { });
+        assertTrue(Files.size(output) < pcm.length * 2L / 3, "sine did not compress: " + Files.size(output));
+    }
+
+    @Test
+    void rejectsUnsupportedChannelCounts() {
+        assertThrows(IOException.class, () -> new FlacEncoder(pool)
+                .encode(new ByteArrayInputStream(new byte[0]), 44100, 9, directory.resolve("x.flac"), done -> { }));
+    }
+
+    @Test
+    void decoderRejectsCorruptedFrames() throws Exception {
+        Path output = directory.resolve("corrupt.flac");
+        new FlacEncoder(pool).encode(new ByteArrayInputStream(bytes(noise(3000, 2, 3))), 44100, 2,
+                output, done -> { });
+        byte[] data = Files.readAllBytes(output);
+        // Past "fLaC", the STREAMINFO block and the frame header
+        data[data.length / 2] ^= 0x10;
+        assertThrows(IOException.class, () -> FlacTestDecoder.decode(data));
+    }
+
+    @Test
+    void emptyInputWritesValidEmptyStream() throws Exception {
+        FlacTestDecoder.Stream stream = roundTrip(new short[0], 44100, 2);
+        assertEquals(0, stream.frameCount);
+    }
+
+    private FlacTestDecoder.Stream roundTrip(short[] pcm, int sampleRate, int channels) throws Exception {
+        byte[] input = bytes(pcm);
+        Path output = directory.resolve("out-" + sampleRate + "-" + channels + "-" + pcm.length + ".flac");
+        List<Long> progress = new ArrayList<>();
+        long total = new FlacEncoder(pool).encode(new ByteArrayInputStream(input), sampleRate, channels,
+                output, progress::add);
+
+        long expected = pcm.length / channels;
+        assertEquals(expected, total);
+        if (expected > 0) {
+            assertFalse(progress.isEmpty());
+            assertEquals(expected, progress.get(progress.size() - 1));
+        }
+
+        FlacTestDecoder.Stream stream = FlacTestDecoder.decode(Files.readAllBytes(output));
+        assertEquals(sampleRate, stream.sampleRate);
+        assertEquals(channels, stream.channels);
+        assertEquals(16, stream.bitsPerSample);
+        assertEquals(expected, stream.totalSamples);
+        assertArrayEquals(md5(input), stream.md5, "STREAMINFO MD5");
+        assertArrayEquals(pcm, stream.samples);
+        if (stream.frameCount > 0) {
+            assertEquals(stream.actualMinFrameSize, stream.minFrameSize, "STREAMINFO min frame size");
+            assertEquals(stream.actualMaxFrameSize, stream.maxFrameSize, "STREAMINFO max frame size");
+        }
+        return stream;
+    }
+
+    private static short[] noise(int samples, int channels, long seed) {
+        Random random = new Random(seed);
+        short[] pcm = new short[samples * channels];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (short) random.nextInt(1 << 16);
+        }
+        return pcm;
+    }
+
+    private static byte[] bytes(short[] pcm) {
+        ByteBuffer buffer = ByteBuffer.allocate(pcm.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asShortBuffer().put(pcm);
+        return buffer.array();
+    }
+
+    private static byte[] md5(byte[] data) throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("MD5").digest(data);
+    }
+}
@@ -0,0 +1,418 @@
+package se233.audioconverter.service.flac;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Minimal reference FLAC decoder for the tests. It shares no code with the
+ * encoder: CRCs are computed bit by bit, and every header field is checked
+ * against STREAMINFO and the frame sequence.
+ */
+final class FlacTestDecoder {
+    private static final int[][] FIXED_COEFFICIENTS = {
+            {}, {1}, {2, -1}, {3, -3, 1}, {4, -6, 4, -1}
+    };
+
+    private FlacTestDecoder() {
+    }
+
+    static final class Stream {
+        int minBlockSize;
+        int maxBlockSize;
+        int minFrameSize;
+        int maxFrameSize;
+        int sampleRate;
+        int channels;
+        int bitsPerSample;
+        long totalSamples;
+        byte[] md5;
+        int frameCount;
+        int actualMinFrameSize = Integer.MAX_VALUE;
+        int actualMaxFrameSize;
+        // Interleaved, as in the PCM input
+        short[] samples;
+    }
+
+    static Stream decode(byte[] data) throws IOException {
+        if (data.length < 4 || data[0] != 'f' || data[1] != 'L' || data[2] != 'a' || data[3] != 'C') {
+            throw new IOException("missing fLaC marker");
+        }
+        Stream stream = new Stream();
+        int position = 4;
+        boolean last = false;
+        boolean sawStreamInfo = false;
+        while (!last) {
+            int header = data[position] & 0xFF;
+            last = (header & 0x80) != 0;
+            int type = header & 0x7F;
+            int length = ((data[position + 1] & 0xFF) << 16) | ((data[position + 2] & 0xFF) << 8)
+                    | (data[position + 3] & 0xFF);
+            position += 4;
+            if (type == 0) {
+                if (length != 34) {
+                    throw new IOException("STREAMINFO length " + length);
+                }
+                BitReader in = new BitReader(data, position * 8);
+                stream.minBlockSize = in.bits(16);
+                stream.maxBlockSize = in.bits(16);
+                stream.minFrameSize = in.bits(24);
+                stream.maxFrameSize = in.bits(24);
+                stream.sampleRate = in.bits(20);
+                stream.channels = in.bits(3) + 1;
+                stream.bitsPerSample = in.bits(5) + 1;
+                stream.totalSamples = ((long) in.bits(4) << 32) | (in.bits(32) & 0xFFFFFFFFL);
+                stream.md5 = Arrays.copyOfRange(data, position + 18, position + 34);
+                sawStreamInfo = true;
+            }
+            position += length;
+        }
+        if (!sawStreamInfo) {
+            throw new IOException("no STREAMINFO");
+        }
+
+        short[] out = new short[Math.toIntExact(stream.totalSamples * stream.channels)];
+        long decoded = 0;
+        while (position < data.length) {
+            int frameStart = position;
+            BitReader in = new BitReader(data, position * 8);
+            int blockSize = decodeFrame(in, stream, data, frameStart, out, decoded);
+            position = in.position / 8;
+            int frameSize = position - frameStart;
+            stream.actualMinFrameSize = Math.min(stream.actualMinFrameSize, frameSize);
+            stream.actualMaxFrameSize = Math.max(stream.actualMaxFrameSize, frameSize);
+            decoded += blockSize;
+            stream.frameCount++;
+        }
+        if (decoded != stream.totalSamples) {
+            throw new IOException("decoded " + decoded + " samples, STREAMINFO says " + stream.totalSamples);
+        }
+        stream.samples = out;
+        return stream;
+    }
+
+    private static int decodeFrame(BitReader in, Stream stream, byte[] data, int frameStart,
+                                   short[] out, long firstSample) throws IOException {
+        if (in.bits(14) != 0x3FFE) {
+            throw new IOException("lost frame sync at byte " + frameStart);
+        }
+        if (in.bits(1) != 0) {
+            throw new IOException("reserved header bit set");
+        }
+        if (in.bits(1) != 0) {
+            throw new IOException("variable block size stream");
+        }
+        int blockSizeCode = in.bits(4);
+        int sampleRateCode = in.bits(4);
+        int channelAssignment = in.bits(4);
+        int sampleSizeCode = in.bits(3);
+        if (in.bits(1) != 0) {
+            throw new IOException("reserved header bit set");
+        }
+        long frameNumber = in.utf8();
+        if (frameNumber != stream.frameCount) {
+            throw new IOException("frame number " + frameNumber + ", expected " + stream.frameCount);
+        }
+
+        int blockSize;
+        if (blockSizeCode == 1) {
+            blockSize = 192;
+        } else if (blockSizeCode >= 2 && blockSizeCode <= 5) {
+            blockSize = 576 << (blockSizeCode - 2);
+        } else if (blockSizeCode == 6) {
+            blockSize = in.bits(8) + 1;
+        } else if (blockSizeCode == 7) {
+            blockSize = in.bits(16) + 1;
+        } else if (blockSizeCode >= 8) {
+            blockSize = 256 << (blockSizeCode - 8);
+        } else {
+            throw new IOException("reserved block size code");
+        }
+        if (blockSize > stream.maxBlockSize) {
+            throw new IOException("block size " + blockSize + " over STREAMINFO maximum");
+        }
+        if (firstSample + blockSize < stream.totalSamples && blockSize != stream.minBlockSize) {
+            throw new IOException("short block " + blockSize + " before the last frame");
+        }
+
+        int sampleRate = switch (sampleRateCode) {
+            case 0 -> stream.sampleRate;
+            case 1 -> 88200;
+            case 2 -> 176400;
+            case 3 -> 192000;
+            case 4 -> 8000;
+            case 5 -> 16000;
+            case 6 -> 22050;
+            case 7 -> 24000;
+            case 8 -> 32000;
+            case 9 -> 44100;
+            case 10 -> 48000;
+            case 11 -> 96000;
+            case 12 -> in.bits(8) * 1000;
+            case 13 -> in.bits(16);
+            case 14 -> in.bits(16) * 10;
+            default -> throw new IOException("invalid sample rate code");
+        };
+        if (sampleRate != stream.sampleRate) {
+            throw new IOException("frame sample rate " + sampleRate + ", STREAMINFO " + stream.sampleRate);
+        }
+        if (sampleSizeCode != 4 || stream.bitsPerSample != 16) {
+            throw new IOException("expected 16-bit samples");
+        }
+
+        int headerEnd = in.position / 8;
+        int crc8 = in.bits(8);
+        if (crc8 != crc8(data, frameStart, headerEnd)) {
+            throw new IOException("header CRC-8 mismatch in frame " + frameNumber);
+        }
+
+        int channels = channelAssignment < 8 ? channelAssignment + 1 : 2;
+        if (channelAssignment > 10) {
+            throw new IOException("reserved channel assignment");
+        }
+        if (channels != stream.channels) {
+            throw new IOException("frame has " + channels + " channels, STREAMINFO " + stream.channels);
+        }
+        long[][] decoded = new long[channels][];
+        for (int c = 0; c < channels; c++) {
+            boolean side = (channelAssignment == 8 && c == 1) || (channelAssignment == 9 && c == 0)
+                    || (channelAssignment == 10 && c == 1);
+            decoded[c] = subframe(in, blockSize, 16 + (side ? 1 : 0));
+        }
+        switch (channelAssignment) {
+            case 8:
+                for (int i = 0; i < blockSize; i++) {
+                    decoded[1][i] = decoded[0][i] - decoded[1][i];
+                }
+                break;
+            case 9:
+                for (int i = 0; i < blockSize; i++) {
+                    decoded[0][i] = decoded[0][i] + decoded[1][i];
+                }
+                break;
+            case 10:
+                for (int i = 0; i < blockSize; i++) {
+                    long side = decoded[1][i];
+                    long mid = (decoded[0][i] << 1) | (side & 1);
+                    decoded[0][i] = (mid + side) >> 1;
+                    decoded[1][i] = (mid - side) >> 1;
+                }
+                break;
+            default:
+                break;
+        }
+
+        in.alignToByte();
+        int frameEnd = in.position / 8;
+        int crc16 = in.bits(16);
+        if (crc16 != crc16(data, frameStart, frameEnd)) {
+            throw new IOException("frame CRC-16 mismatch in frame " + frameNumber);
+        }
+
+        for (int i = 0; i < blockSize; i++) {
+            for (int c = 0; c < channels; c++) {
+                long sample = decoded[c][i];
+                if (sample < Short.MIN_VALUE || sample > Short.MAX_VALUE) {
+                    throw new IOException("sample " + sample + " out of 16-bit range");
+                }
+                out[Math.toIntExact((firstSample + i) * channels + c)] = (short) sample;
+            }
+        }
+        return blockSize;
+    }
+
+    private static long[] subframe(BitReader in, int blockSize, int bitsPerSample) throws IOException {
+        if (in.bits(1) != 0) {
+            throw new IOException("subframe padding bit set");
+        }
+        int type = in.bits(6);
+        int wasted = 0;
+        if (in.bits(1) != 0) {
+            wasted = 1;
+            while (in.bits(1) == 0) {
+                wasted++;
+            }
+        }
+        int bps = bitsPerSample - wasted;
+        long[] samples = new long[blockSize];
+        if (type == 0) {
+            Arrays.fill(samples, in.signedBits(bps));
+        } else if (type == 1) {
+            for (int i = 0; i < blockSize; i++) {
+                samples[i] = in.signedBits(bps);
+            }
+        } else if (type >= 8 && type <= 12) {
+            int order = type - 8;
+            if (order > blockSize) {
+                throw new IOException("fixed order " + order + " over block size " + blockSize);
+            }
+            for (int i = 0; i < order; i++) {
+                samples[i] = in.signedBits(bps);
+            }
+            residual(in, blockSize, order, samples);
+            int[] coefficients = FIXED_COEFFICIENTS[order];
+            for (int i = order; i < blockSize; i++) {
+                long prediction = 0;
+                for (int j = 0; j < order; j++) {
+                    prediction += coefficients[j] * samples[i - 1 - j];
+                }
+                samples[i] += prediction;
+            }
+        } else if (type >= 32) {
+            int order = type - 31;
+            if (order > blockSize) {
+                throw new IOException("LPC order " + order + " over block size " + blockSize);
+            }
+            for (int i = 0; i < order; i++) {
+                samples[i] = in.signedBits(bps);
+            }
+            int precision = in.bits(4) + 1;
+            if (precision == 16) {
+                throw new IOException("invalid LPC precision");
+            }
+            int shift = (int) in.signedBits(5);
+            if (shift < 0) {
+                throw new IOException("negative LPC shift");
+            }
+            long[] coefficients = new long[order];
+            for (int j = 0; j < order; j++) {
+                coefficients[j] = in.signedBits(precision);
+            }
+            residual(in, blockSize, order, samples);
+            for (int i = order; i < blockSize; i++) {
+                long prediction = 0;
+                for (int j = 0; j < order; j++) {
+                    prediction += coefficients[j] * samples[i - 1 - j];
+                }
+                samples[i] += prediction >> shift;
+            }
+        } else {
+            throw new IOException("reserved subframe type " + type);
+        }
+        if (wasted > 0) {
+            for (int i = 0; i < blockSize; i++) {
+                samples[i] <<= wasted;
+            }
+        }
+        return samples;
+    }
+
+    // Reads the residual into samples[order..] (added to the prediction afterwards)
+    private static void residual(BitReader in, int blockSize, int order, long[] samples) throws IOException {
+        int method = in.bits(2);
+        if (method > 1) {
+            throw new IOException("reserved residual coding method");
+        }
+        int parameterBits = method == 0 ? 4 : 5;
+        int escape = (1 << parameterBits) - 1;
+        int partitionOrder = in.bits(4);
+        int partitions = 1 << partitionOrder;
+        if ((blockSize >> partitionOrder) << partitionOrder != blockSize
+                || (blockSize >> partitionOrder) < order) {
+            throw new IOException("partition order " + partitionOrder + " invalid for block size " + blockSize);
+        }
+        int index = order;
+        for (int p = 0; p < partitions; p++) {
+            int count = (blockSize >> partitionOrder) - (p == 0 ? order : 0);
+            int parameter = in.bits(parameterBits);
+            if (parameter == escape) {
+                int bits = in.bits(5);
+                for (int i = 0; i < count; i++) {
+                    samples[index++] = in.signedBits(bits);
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    long quotient = in.unary();
+                    long value = (quotient << parameter) | (parameter > 0 ? in.bits(parameter) : 0);
+                    samples[index++] = (value >>> 1) ^ -(value & 1);
+                }
+            }
+        }
+    }
+
+    static int crc8(byte[] data, int from, int to) {
+        int crc = 0;
+        for (int i = from; i < to; i++) {
+            crc ^= data[i] & 0xFF;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80) != 0 ? ((crc << 1) ^ 0x07) & 0xFF : (crc << 1) & 0xFF;
+            }
+        }
+        return crc;
+    }
+
+    static int crc16(byte[] data, int from, int to) {
+        int crc = 0;
+        for (int i = from; i < to; i++) {
+            crc ^= (data[i] & 0xFF) << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? ((crc << 1) ^ 0x8005) & 0xFFFF : (crc << 1) & 0xFFFF;
+            }
+        }
+        return crc;
+    }
+
+    private static final class BitReader {
+        private final byte[] data;
+        private int position;
+
+        BitReader(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+        }
+
+        int bits(int count) throws IOException {
+            long value = 0;
+            for (int i = 0; i < count; i++) {
+                if (position >= data.length * 8) {
+                    throw new IOException("unexpected end of stream");
+                }
+                value = (value << 1) | ((data[position >> 3] >> (7 - (position & 7))) & 1);
+                position++;
+            }
+            return (int) value;
+        }
+
+        long signedBits(int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+            long value = bits(count) & ((1L << count) - 1);
+            return (value & (1L << (count - 1))) != 0 ? value - (1L << count) : value;
+        }
+
+        long unary() throws IOException {
+            long zeros = 0;
+            while (bits(1) == 0) {
+                zeros++;
+            }
+            return zeros;
+        }
+
+        long utf8() throws IOException {
+            int first = bits(8);
+            if ((first & 0x80) == 0) {
+                return first;
+            }
+            int length = 0;
+            while ((first & (0x80 >> length)) != 0) {
+                length++;
+            }
+            if (length < 2 || length > 7) {
+                throw new IOException("invalid UTF-8 frame number");
+            }
+            long value = first & ((1 << (7 - length)) - 1);
+            for (int i = 1; i < length; i++) {
+                int next = bits(8);
+                if ((next & 0xC0) != 0x80) {
+                    throw new IOException("invalid UTF-8 continuation");
+                }
+                value = (value << 6) | (next & 0x3F);
+            }
+            return value;
+        }
+
+        void alignToByte() {
+            position = (position + 7) & ~7;
+        }
+    }
+}
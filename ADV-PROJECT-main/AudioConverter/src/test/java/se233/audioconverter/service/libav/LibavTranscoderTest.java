@@ -0,0 +1,254 @@
+package se233.audioconverter.service.libav;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se233.audioconverter.exception.AudioConversionException;
+import se233.audioconverter.model.AudioFile;
+import se233.audioconverter.model.AudioSourceInfo;
+import se233.audioconverter.model.AudioStats;
+import se233.audioconverter.model.ClipRange;
+import se233.audioconverter.model.ConversionSettings;
+import se233.audioconverter.model.ConversionSettings.Channels;
+import se233.audioconverter.model.ConversionSettings.OutputFormat;
+import se233.audioconverter.model.ConversionSettings.SampleRate;
+import se233.audioconverter.model.EncodeOptions;
+import se233.audioconverter.service.ProcessRegistry;
+import se233.audioconverter.service.Transcoder;
+import net.bramp.ffmpeg.progress.ProgressListener;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// The conversions need the native libraries: mvn -Plibav test
+class LibavTranscoderTest {
+    @TempDir
+    Path directory;
+
+    private final ProcessRegistry processRegistry = new ProcessRegistry();
+    private final NamingFallback fallback = new NamingFallback();
+    private final LibavTranscoder transcoder = new LibavTranscoder(fallback, processRegistry);
+
+    @Test
+    void probesInProcess() throws Exception {
+        assumeTrue(LibavTranscoder.isAvailable(), LibavTranscoder::loadNativeLibraries);
+        AudioFile source = wav("tone.wav", 48000, 2, 3 * 48000);
+
+        AudioSourceInfo info = transcoder.probeSourceInfo(source);
+        assertEquals("pcm_s16le", info.getCodec());
+        assertEquals(48000, info.getSampleRate());
+        assertEquals(2, info.getChannels());
+        assertEquals(3.0, info.getDuration(), 0.01);
+    }
+
+    @Test
+    void flacRoundTripIsLossless() throws Exception {
+        assumeTrue(LibavTranscoder.isAvailable(), LibavTranscoder::loadNativeLibraries);
+        AudioFile source = wav("tone.wav", 44100, 2, 44100 * 2 + 123);
+        short[] original = pcm(Path.of(source.getFilePath()));
+
+        Path flacDirectory = Files.createDirectories(directory.resolve("flac"));
+        convert(source, settings(OutputFormat.FLAC), flacDirectory);
+        AudioFile flac = new AudioFile(flacDirectory.resolve("tone.flac").toString());
+        assertEquals("flac", transcoder.probeSourceInfo(flac).getCodec());
+
+        Path wavDirectory = Files.createDirectories(directory.resolve("back"));
+        convert(flac, settings(OutputFormat.WAV), wavDirectory);
+        assertArrayEquals(original, pcm(wavDirectory.resolve("tone.wav")));
+    }
+
+    @Test
+    void lossyFormatsKeepDurationRateAndChannels() throws Exception {
+        assumeTrue(LibavTranscoder.isAvailable(), LibavTranscoder::loadNativeLibraries);
+        AudioFile source = wav("tone.wav", 44100, 2, 5 * 44100);
+
+        for (OutputFormat format : new OutputFormat[]{OutputFormat.MP3, OutputFormat.M4A}) {
+            List<Long> positions = new ArrayList<>();
+            transcoder.convertAudio(source, settings(format), directory.toString(), new EncodeOptions(),
+                    progress -> positions.add(progress.out_time_ns));
+
+            AudioSourceInfo output = transcoder.probeSourceInfo(
+                    new AudioFile(directory.resolve("tone." + format.getExtension()).toString()));
+            assertEquals(format == OutputFormat.MP3 ? "mp3" : "aac", output.getCodec());
+            assertEquals(44100, output.getSampleRate());
+            assertEquals(2, output.getChannels());
+            // Encoder delay and padding add a frame or two
+            assertEquals(5.0, output.getDuration(), 0.1);
+            // The last report is the end of the output
+            assertEquals(5.0, positions.get(positions.size() - 1) / 1e9, 0.05);
+        }
+    }
+
+    @Test
+    void resamplesAndDownmixes() throws Exception {
+        assumeTrue(LibavTranscoder.isAvailable(), LibavTranscoder::loadNativeLibraries);
+        AudioFile source = wav("tone.wav", 48000, 2, 2 * 48000);
+        ConversionSettings settings = settings(OutputFormat.WAV);
+        settings.setSampleRate(SampleRate.SR_22050);
+        settings.setChannels(Channels.MONO);
+
+        // Same name as the input, so written elsewhere
+        Path outputDirectory = Files.createDirectories(directory.resolve("out"));
+        convert(source, settings, outputDirectory);
+        AudioSourceInfo output = transcoder.probeSourceInfo(
+                new AudioFile(outputDirectory.resolve("tone.wav").toString()));
+        assertEquals(22050, output.getSampleRate());
+        assertEquals(1, output.getChannels());
+        assertEquals(2.0, output.getDuration(), 0.01);
+    }
+
+    @Test
+    void cancelledJobsStopBeforeWriting() throws Exception {
+        assumeTrue(LibavTranscoder.isAvailable(), LibavTranscoder::loadNativeLibraries);
+        AudioFile source = wav("tone.wav", 44100, 2, 44100);
+        ProcessRegistry.Owner owner = new ProcessRegistry.Owner(1, "tone.wav");
+        owner.cancel();
+
+        try (ProcessRegistry.Scope ignored = processRegistry.enter(owner)) {
+            AudioConversionException error = assertThrows(AudioConversionException.class,
+                    () -> convert(source, settings(OutputFormat.MP3), directory));
+            assertEquals(AudioConversionException.ErrorType.CANCELLED, error.getErrorType());
+        }
+        assertFalse(Files.exists(directory.resolve("tone.mp3")));
+    }
+
+    @Test
+    void unreadableInputFails() throws Exception {
+        assumeTrue(LibavTranscoder.isAvailable(), LibavTranscoder::loadNativeLibraries);
+        Path broken = directory.resolve("broken.wav");
+        Files.write(broken, new byte[]{1, 2, 3, 4});
+        AudioConversionException error = assertThrows(AudioConversionException.class,
+                () -> convert(new AudioFile(broken.toString()), settings(OutputFormat.MP3), directory));
+        assertEquals(AudioConversionException.ErrorType.FFMPEG_ERROR, error.getErrorType());
+
+        AudioConversionException missing = assertThrows(AudioConversionException.class,
+                () -> transcoder.probeSourceInfo(new AudioFile(directory.resolve("none.wav").toString())));
+        assertEquals(AudioConversionException.ErrorType.FILE_NOT_FOUND, missing.getErrorType());
+    }
+
+    // Needs no natives: these never reach libav
+    @Test
+    void statisticsAndClipsGoToTheFallback() throws Exception {
+        AudioFile audioFile = new AudioFile(directory.resolve("a.wav").toString());
+        ConversionSettings stats = settings(OutputFormat.MP3);
+        stats.setCollectStats(true);
+        transcoder.convertAudio(audioFile, stats, directory.toString(), new EncodeOptions(), null);
+        assertEquals(1, fallback.conversions);
+
+        AudioFile clipped = new AudioFile(directory.resolve("b.wav").toString());
+        clipped.setClipRanges(ClipRange.parseList("0:01-0:02"));
+        transcoder.convertAudio(clipped, settings(OutputFormat.MP3), directory.toString(), new EncodeOptions(), null);
+        assertEquals(2, fallback.conversions);
+
+        Transcoder.Capabilities capabilities = transcoder.getCapabilities();
+        assertTrue(capabilities.isAudioStats());
+        assertFalse(capabilities.isGroupedBatches());
+        assertEquals(EnumSet.allOf(OutputFormat.class), capabilities.getOutputFormats());
+    }
+
+    private void convert(AudioFile source, ConversionSettings settings, Path outputDirectory)
+            throws AudioConversionException {
+        assertNull(transcoder.convertAudio(source, settings, outputDirectory.toString(), new EncodeOptions(), null));
+    }
+
+    private static ConversionSettings settings(OutputFormat format) {
+        ConversionSettings settings = new ConversionSettings();
+        settings.setOutputFormat(format);
+        settings.setSampleRate(SampleRate.SR_44100);
+        return settings;
+    }
+
+    // A 16-bit sweep, different per channel so swapped channels would show
+    private AudioFile wav(String name, int sampleRate, int channels, int frames) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(44 + frames * channels * 2).order(ByteOrder.LITTLE_ENDIAN);
+        data.put("RIFF".getBytes()).putInt(36 + frames * channels * 2).put("WAVE".getBytes());
+        data.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) channels)
+                .putInt(sampleRate).putInt(sampleRate * channels * 2)
+                .putShort((short) (channels * 2)).putShort((short) 16);
+        data.put("data".getBytes()).putInt(frames * channels * 2);
+        for (int i = 0; i < frames; i++) {
+            for (int c = 0; c < channels; c++) {
+                double phase = 2 * Math.PI * (220 * (c + 1) + i / (double) sampleRate * 100) * i / sampleRate;
+                data.putShort((short) Math.round(12000 * Math.sin(phase)));
+            }
+        }
+        Path file = directory.resolve(name);
+        Files.write(file, data.array());
+        return new AudioFile(file.toString());
+    }
+
+    // The samples of the "data" chunk, after whatever chunks the muxer wrote before it
+    private static short[] pcm(Path wav) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(wav)).order(ByteOrder.LITTLE_ENDIAN);
+        int position = 12;
+        while (position + 8 <= data.limit()) {
+            String id = new String(data.array(), position, 4);
+            int size = data.getInt(position + 4);
+            if (id.equals("data")) {
+                short[] samples = new short[Math.min(size, data.limit() - position - 8) / 2];
+                data.position(position + 8);
+                data.asShortBuffer().get(samples);
+                return samples;
+            }
+            position += 8 + size + (size & 1);
+        }
+        throw new IOException("No data chunk in " + wav);
+    }
+
+    // Names outputs like FFmpegService and counts the conversions handed to it
+    private static final class NamingFallback implements Transcoder {
+        int conversions;
+
+        @Override
+        public String getName() {
+            return "fallback";
+        }
+
+        @Override
+        public Capabilities getCapabilities() {
+            return new Capabilities(EnumSet.allOf(OutputFormat.class), true, true, true);
+        }
+
+        @Override
+        public AudioSourceInfo probeSourceInfo(AudioFile audioFile) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public AudioStats convertAudio(AudioFile audioFile, ConversionSettings settings, String outputPath,
+                                       EncodeOptions options, ProgressListener listener) {
+            conversions++;
+            return null;
+        }
+
+        @Override
+        public double estimateSeconds(AudioFile audioFile, ConversionSettings settings) {
+            return -1;
+        }
+
+        @Override
+        public List<String> outputFilenames(AudioFile audioFile, ConversionSettings settings, String outputPath) {
+            String name = audioFile.getName();
+            String base = name.substring(0, name.lastIndexOf('.'));
+            return List.of(Path.of(outputPath, base + "." + settings.getOutputFormat().getExtension()).toString());
+        }
+
+        @Override
+        public void deletePartialOutputs(AudioFile audioFile, ConversionSettings settings, String outputPath,
+                                         long startedMillis) {
+        }
+    }
+}